@@ -47,10 +47,12 @@ import org.picketbox.core.authorization.Resource;
 import org.picketbox.core.authorization.ent.EntitlementsManager;
 import org.picketbox.core.authorization.ent.impl.DefaultEntitlementsManager;
 import org.picketbox.core.config.PicketBoxConfiguration;
+import org.picketbox.core.event.AsyncEventDispatcher;
 import org.picketbox.core.event.InitializedEvent;
 import org.picketbox.core.event.PicketBoxEventManager;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.core.exceptions.ConfigurationException;
+import org.picketbox.core.identity.IdentityChangeTracker;
 import org.picketbox.core.identity.PicketBoxIdentityManager;
 import org.picketbox.core.identity.UserContextPopulator;
 import org.picketbox.core.identity.impl.DefaultUserContextPopulator;
@@ -76,6 +78,7 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
     private SessionManager sessionManager;
     private UserContextPopulator userContextPopulator;
     private IdentityManager identityManager;
+    private IdentityChangeTracker identityChangeTracker;
     private PicketBoxConfiguration configuration;
     private PicketBoxEventManager eventManager;
     private AuditProvider auditProvider;
@@ -110,6 +113,20 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
                     throw new AuthenticationException("Principal not retrieved");
                 }
 
+                // the session holds a populated user and nothing it was populated from changed since, reuse it.
+                if (this.identityChangeTracker.isCurrent(restoredPrincipal.getName(), restoredUserContext.getIdentityStamp())) {
+                    LOGGER.tracef("reusing the user context restored for principal %s", restoredPrincipal.getName());
+
+                    userContext = new UserContext();
+
+                    userContext.restoreFrom(restoredUserContext);
+                    userContext.setSession(userSession);
+
+                    getEventManager().raiseEvent(new UserAuthenticatedEvent(userContext));
+
+                    return userContext;
+                }
+
                 LOGGER.tracef("performing silent authentication and re-authenticating principal %s",
                         restoredPrincipal.getName());
 
@@ -186,9 +203,20 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
             this.authorizationManager.stop();
         }
 
+        if (this.userContextPopulator instanceof PicketBoxLifecycle
+                && ((PicketBoxLifecycle) this.userContextPopulator).started()) {
+            ((PicketBoxLifecycle) this.userContextPopulator).stop();
+        }
+
         if (this.sessionManager != null) {
             this.sessionManager.stop();
         }
+
+        AsyncEventDispatcher asyncDispatcher = this.configuration.getEventManager().getAsyncDispatcher();
+
+        if (asyncDispatcher != null && asyncDispatcher.started()) {
+            asyncDispatcher.stop();
+        }
     }
 
     @Override
@@ -234,6 +262,12 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
 
         this.eventManager = this.configuration.getEventManager().getEventManager();
 
+        AsyncEventDispatcher asyncDispatcher = this.configuration.getEventManager().getAsyncDispatcher();
+
+        if (asyncDispatcher != null && !asyncDispatcher.started()) {
+            asyncDispatcher.start();
+        }
+
         this.authenticationProvider = new PicketBoxAuthenticationProvider(this);
 
         if (!this.configuration.getAuthorization().getManagers().isEmpty()) {
@@ -244,12 +278,32 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
 
         this.identityManager = new PicketBoxIdentityManager(this);
 
+        this.identityChangeTracker = new IdentityChangeTracker();
+
+        this.eventManager.addHandler(this.identityChangeTracker);
+
+        if (this.configuration.getAuthentication().getCredentialCache() != null) {
+            this.eventManager.addHandler(this.configuration.getAuthentication().getCredentialCache());
+        }
+
         this.userContextPopulator = this.configuration.getIdentityManager().getUserPopulator();
 
         if (this.userContextPopulator == null) {
             this.userContextPopulator = new DefaultUserContextPopulator(this.identityManager);
         }
 
+        if (this.userContextPopulator instanceof DefaultUserContextPopulator) {
+            DefaultUserContextPopulator defaultPopulator = (DefaultUserContextPopulator) this.userContextPopulator;
+
+            if (defaultPopulator.getIdentityManager() == null) {
+                defaultPopulator.setIdentityManager(this.identityManager);
+            }
+        }
+
+        if (this.userContextPopulator instanceof PicketBoxLifecycle) {
+            this.eventManager.addHandler(this.userContextPopulator);
+        }
+
         this.sessionManager = this.configuration.getSessionManager().getManager();
 
         if (this.sessionManager == null && this.configuration.getSessionManager().getStore() != null) {
@@ -280,6 +334,11 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
             this.authorizationManager.start();
         }
 
+        if (this.userContextPopulator instanceof PicketBoxLifecycle
+                && !((PicketBoxLifecycle) this.userContextPopulator).started()) {
+            ((PicketBoxLifecycle) this.userContextPopulator).start();
+        }
+
         this.eventManager.raiseEvent(new InitializedEvent(this));
     }
 
@@ -322,18 +381,28 @@ public abstract class AbstractPicketBoxManager extends AbstractPicketBoxLifeCycl
     protected UserContext performSuccessfulAuthentication(UserContext userContext, PicketBoxSession userSession) {
         LOGGER.trace("user is authenticated. configuring security context.");
 
-        if (userSession == null) {
-            userSession = createSession(userContext);
-        }
-
-        userContext.setSession(userSession);
         userContext.setCredential(null);
 
         LOGGER.tracef("populating user context with populator [%s]", this.userContextPopulator);
 
+        // taken before reading the identity store, so that changes made while populating are not missed
+        IdentityChangeTracker.Stamp identityStamp = this.identityChangeTracker.stamp();
+
         UserContext populatedUserContext = this.userContextPopulator.getIdentity(userContext);
 
-        getEventManager().raiseEvent(new UserAuthenticatedEvent(userContext));
+        populatedUserContext.setIdentityStamp(identityStamp);
+
+        // the session is created after populating, so that the stored user context is already populated
+        if (userSession == null) {
+            userSession = createSession(populatedUserContext);
+        } else if (this.sessionManager != null) {
+            userSession.setUserContext(populatedUserContext);
+            this.sessionManager.update(userSession);
+        }
+
+        populatedUserContext.setSession(userSession);
+
+        getEventManager().raiseEvent(new UserAuthenticatedEvent(populatedUserContext));
 
         return populatedUserContext;
     }
@@ -84,4 +84,28 @@ public interface PicketBoxLogger extends BasicLogger {
     @Message(id = 510, value = "Using %s : %s")
     void debugInstanceUsage(String string, Object eventManager);
 
-}
\ No newline at end of file
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 511, value = "Failed to write session %s to the session store. The write will be retried.")
+    void failedToWriteSession(Object sessionId, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 512, value = "Failed to passivate session %s. The session is kept in memory.")
+    void failedToPassivateSession(Object sessionId, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 513, value = "Failed to activate session %s. The session is discarded.")
+    void failedToActivateSession(Object sessionId, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 514, value = "Asynchronous write of session %s to the session store failed.")
+    void failedToWriteSessionAsync(Object sessionId, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 515, value = "Failed to expire session %s. The session is discarded.")
+    void failedToExpireSession(Object sessionId, @Cause Throwable throwable);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 516, value = "Failed to apply the remote changes of session %s. The local copy may be out of date.")
+    void failedToRefreshSession(Object sessionId, @Cause Throwable throwable);
+
+}
@@ -186,4 +186,31 @@ public interface PicketBoxMessages {
 
     @Message(id = 55, value = "Could not locate current EntityManager using EntityManagerLookupStrategy implementation [%s].")
     IllegalStateException failedToLookupEntityManager(EntityManagerLookupStrategy strategy);
-}
\ No newline at end of file
+
+    @Message(id = 56, value = "Unsupported session encoding version [%s].")
+    IOException unsupportedSessionEncoding(int version);
+
+    @Message(id = 57, value = "No codec registered for type [%s].")
+    IOException noCodecForType(String type);
+
+    @Message(id = 58, value = "Invalid node prefix [%s]. It must not be empty or contain a dot.")
+    IllegalArgumentException invalidNodePrefix(String nodePrefix);
+
+    @Message(id = 59, value = "User [%s] reached the maximum number of concurrent sessions.")
+    IllegalStateException maximumSessionsReached(String principalName);
+
+    @Message(id = 60, value = "Sessions are not indexed by principal.")
+    IllegalStateException sessionsNotIndexedByPrincipal();
+
+    @Message(id = 61, value = "File [%s] is not a valid session store file or was written by an incompatible version.")
+    IOException invalidSessionStoreFile(String fileName);
+
+    @Message(id = 62, value = "Asynchronous session store operation failed.")
+    IllegalStateException asyncSessionStoreOperationFailed(@Cause Throwable throwable);
+
+    @Message(id = 63, value = "Could not initialize the credential cache.")
+    IllegalStateException couldNotInitializeCredentialCache(@Cause Throwable throwable);
+
+    @Message(id = 64, value = "Could not populate the user context.")
+    IllegalStateException failedToPopulateUserContext(@Cause Throwable throwable);
+}
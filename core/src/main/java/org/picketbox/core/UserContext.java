@@ -23,19 +23,23 @@ package org.picketbox.core;
 
 import java.io.Serializable;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.security.auth.Subject;
 
 import org.picketbox.core.authentication.AuthenticationResult;
 import org.picketbox.core.authentication.AuthenticationStatus;
 import org.picketbox.core.authentication.credential.UserCredential;
+import org.picketbox.core.authorization.RoleDictionary;
+import org.picketbox.core.authorization.RoleMask;
 import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.identity.IdentityChangeTracker;
 import org.picketbox.core.session.PicketBoxSession;
 import org.picketbox.core.session.SessionId;
 import org.picketlink.idm.model.Group;
@@ -45,6 +49,10 @@ import org.picketlink.idm.model.User;
 /**
  * An Application View of the authenticated/authorized User
  *
+ * Role and group checks use a {@link RoleMask} of the names of the user roles and groups, computed when the roles or groups are
+ * first checked after being set. The given roles and groups are copied when set, so changing the collections afterwards does
+ * not change the roles or groups of this user.
+ *
  * @author anil saldhana
  * @since Jul 12, 2012
  */
@@ -52,11 +60,11 @@ public class UserContext implements Serializable {
 
     private static final long serialVersionUID = -7767959770091515534L;
 
-    private Subject subject;
-    private User user;
+    Subject subject;
+    User user;
 
-    private Collection<Role> roles = Collections.emptyList();
-    private Collection<Group> groups = Collections.emptyList();
+    Collection<Role> roles = Collections.emptyList();
+    Collection<Group> groups = Collections.emptyList();
 
     private transient Map<String, Object> contextData = new HashMap<String, Object>();
 
@@ -64,7 +72,20 @@ public class UserContext implements Serializable {
 
     private transient UserCredential credential;
 
-    private AuthenticationResult authenticationResult;
+    AuthenticationResult authenticationResult;
+
+    /*
+     * Identity generation at the time this user was populated, see IdentityChangeTracker.
+     */
+    private IdentityChangeTracker.Stamp identityStamp;
+
+    /*
+     * Indexes of the role and group names. The identifiers are local to this JVM, so they are not serialized.
+     */
+    private transient volatile NameIndex roleIndex;
+    private transient volatile NameIndex groupIndex;
+
+    private transient volatile CachedSnapshot cachedSnapshot;
 
     public UserContext() {
 
@@ -182,11 +203,51 @@ public class UserContext implements Serializable {
         if (this.session != null) {
             session.touch();
         }
-        boolean isAuthenticated = this.authenticationResult != null
-                && this.authenticationResult.getStatus().equals(AuthenticationStatus.SUCCESS);
+
+        return checkAuthenticated(this.authenticationResult, this.session);
+    }
+
+    /**
+     * <p>
+     * Returns an immutable view of this user, safe to share between threads. The session is touched once, reading the view
+     * does not touch it again.
+     * </p>
+     * <p>
+     * The same view is returned until the roles, groups, authentication result or authentication status change.
+     * </p>
+     *
+     * @return
+     */
+    public UserContextSnapshot snapshot() {
+        PicketBoxSession currentSession = this.session;
+
+        if (currentSession != null) {
+            currentSession.touch();
+        }
+
+        AuthenticationResult result = this.authenticationResult;
+        boolean authenticated = checkAuthenticated(result, currentSession);
+        NameIndex currentRoles = getRoleIndex();
+        NameIndex currentGroups = getGroupIndex();
+        CachedSnapshot cached = this.cachedSnapshot;
+
+        if (cached == null || cached.roles != currentRoles || cached.groups != currentGroups || cached.result != result
+                || cached.snapshot.isAuthenticated() != authenticated) {
+            Principal principal = authenticated ? result.getPrincipal() : null;
+
+            cached = new CachedSnapshot(currentRoles, currentGroups, result, new UserContextSnapshot(authenticated, principal,
+                    currentRoles.names, currentRoles.mask, currentGroups.names, currentGroups.mask));
+            this.cachedSnapshot = cached;
+        }
+
+        return cached.snapshot;
+    }
+
+    private static boolean checkAuthenticated(AuthenticationResult result, PicketBoxSession session) {
+        boolean isAuthenticated = result != null && result.getStatus().equals(AuthenticationStatus.SUCCESS);
 
         if (isAuthenticated) {
-            if (this.session != null && !this.session.isValid()) {
+            if (session != null && !session.isValid()) {
                 isAuthenticated = false;
             }
         }
@@ -251,20 +312,27 @@ public class UserContext implements Serializable {
      * @return
      */
     public boolean hasRole(String role) {
-        if (this.session != null) {
-            session.touch();
-        }
         if (!isAuthenticated()) {
             throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
         }
 
-        for (Role userRole : getRoles()) {
-            if (role.equals(userRole.getName())) {
-                return true;
-            }
+        return getRoleIndex().mask.contains(RoleDictionary.ROLES.findId(role));
+    }
+
+    /**
+     * <p>
+     * Checks if the user has at least one of the roles of the given mask, compiled by {@link RoleDictionary#ROLES}.
+     * </p>
+     *
+     * @param roles
+     * @return
+     */
+    public boolean hasAnyRole(RoleMask roles) {
+        if (!isAuthenticated()) {
+            throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
         }
 
-        return false;
+        return getRoleIndex().mask.intersects(roles);
     }
 
     /**
@@ -276,20 +344,27 @@ public class UserContext implements Serializable {
      * @return
      */
     public boolean hasGroup(String group) {
-        if (this.session != null) {
-            session.touch();
-        }
         if (!isAuthenticated()) {
             throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
         }
 
-        for (Group userGroup : getGroups()) {
-            if (group.equals(userGroup.getName())) {
-                return true;
-            }
+        return getGroupIndex().mask.contains(RoleDictionary.GROUPS.findId(group));
+    }
+
+    /**
+     * <p>
+     * Checks if the user is member of at least one of the groups of the given mask, compiled by {@link RoleDictionary#GROUPS}.
+     * </p>
+     *
+     * @param groups
+     * @return
+     */
+    public boolean hasAnyGroup(RoleMask groups) {
+        if (!isAuthenticated()) {
+            throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
         }
 
-        return false;
+        return getGroupIndex().mask.intersects(groups);
     }
 
     /**
@@ -301,19 +376,15 @@ public class UserContext implements Serializable {
         if (this.session != null) {
             session.touch();
         }
-        Set<String> roleNames = new HashSet<String>();
-        for (Role userRole : getRoles()) {
-            roleNames.add(userRole.getName());
-        }
 
-        return Collections.unmodifiableCollection(roleNames);
+        return getRoleIndex().names;
     }
 
     public UserContext setRoles(Collection<Role> roles) {
         if (this.session != null) {
             session.touch();
         }
-        this.roles = roles;
+        this.roles = copyOf(roles);
         return this;
     }
 
@@ -338,16 +409,12 @@ public class UserContext implements Serializable {
         if (this.session != null) {
             session.touch();
         }
-        Set<String> groupNames = new HashSet<String>();
-        for (Group userRole : getGroups()) {
-            groupNames.add(userRole.getName());
-        }
 
-        return Collections.unmodifiableCollection(groupNames);
+        return getGroupIndex().names;
     }
 
     public UserContext setGroups(Collection<Group> groups) {
-        this.groups = groups;
+        this.groups = copyOf(groups);
         return this;
     }
 
@@ -363,6 +430,96 @@ public class UserContext implements Serializable {
         return Collections.unmodifiableCollection(this.groups);
     }
 
+    /**
+     * <p>
+     * Returns an immutable copy of the given roles or groups, so the indexes computed from it never get stale.
+     * </p>
+     */
+    private static <T> Collection<T> copyOf(Collection<T> source) {
+        if (source == null || source.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(new ArrayList<T>(source));
+    }
+
+    /**
+     * <p>
+     * Returns the index of the role names, computed again if the roles were replaced.
+     * </p>
+     */
+    private NameIndex getRoleIndex() {
+        Collection<Role> currentRoles = this.roles;
+        NameIndex index = this.roleIndex;
+
+        if (index == null || index.source != currentRoles) {
+            List<String> names = new ArrayList<String>();
+
+            if (currentRoles != null) {
+                for (Role role : currentRoles) {
+                    names.add(role.getName());
+                }
+            }
+
+            index = new NameIndex(currentRoles, RoleDictionary.ROLES.compile(names), names);
+            this.roleIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * <p>
+     * Returns the index of the group names, computed again if the groups were replaced.
+     * </p>
+     */
+    private NameIndex getGroupIndex() {
+        Collection<Group> currentGroups = this.groups;
+        NameIndex index = this.groupIndex;
+
+        if (index == null || index.source != currentGroups) {
+            List<String> names = new ArrayList<String>();
+
+            if (currentGroups != null) {
+                for (Group group : currentGroups) {
+                    names.add(group.getName());
+                }
+            }
+
+            index = new NameIndex(currentGroups, RoleDictionary.GROUPS.compile(names), names);
+            this.groupIndex = index;
+        }
+
+        return index;
+    }
+
+    IdentityChangeTracker.Stamp getIdentityStamp() {
+        return this.identityStamp;
+    }
+
+    void setIdentityStamp(IdentityChangeTracker.Stamp identityStamp) {
+        this.identityStamp = identityStamp;
+    }
+
+    /**
+     * <p>
+     * Copies the authentication result and the populated user, roles and groups from a user context restored from a session.
+     * The session is not touched.
+     * </p>
+     *
+     * @param restored
+     */
+    void restoreFrom(UserContext restored) {
+        this.subject = restored.subject;
+        this.user = restored.user;
+        this.roles = restored.roles;
+        this.groups = restored.groups;
+        this.roleIndex = restored.roleIndex;
+        this.groupIndex = restored.groupIndex;
+        this.authenticationResult = restored.authenticationResult;
+        this.identityStamp = restored.identityStamp;
+    }
+
     protected void setAuthenticationResult(AuthenticationResult result) {
         if (this.session != null) {
             session.touch();
@@ -402,4 +559,42 @@ public class UserContext implements Serializable {
                 + "] / Authentication Result: [" + this.authenticationResult + "] / Session: [" + this.session + "]";
     }
 
+    /**
+     * <p>
+     * Role or group names of the user and their {@link RoleMask}.
+     * </p>
+     */
+    private static class NameIndex {
+
+        private final Collection<?> source;
+        private final RoleMask mask;
+        private final Collection<String> names;
+
+        NameIndex(Collection<?> source, RoleMask mask, Collection<String> names) {
+            this.source = source;
+            this.mask = mask;
+            this.names = Collections.unmodifiableSet(new HashSet<String>(names));
+        }
+    }
+
+    /**
+     * <p>
+     * Last {@link UserContextSnapshot} and the state it was taken from.
+     * </p>
+     */
+    private static class CachedSnapshot {
+
+        private final NameIndex roles;
+        private final NameIndex groups;
+        private final AuthenticationResult result;
+        private final UserContextSnapshot snapshot;
+
+        CachedSnapshot(NameIndex roles, NameIndex groups, AuthenticationResult result, UserContextSnapshot snapshot) {
+            this.roles = roles;
+            this.groups = groups;
+            this.result = result;
+            this.snapshot = snapshot;
+        }
+    }
+
 }
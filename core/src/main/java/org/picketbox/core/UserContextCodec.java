@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.security.auth.Subject;
+
+import org.picketbox.core.authentication.AuthenticationResult;
+import org.picketbox.core.authentication.AuthenticationStatus;
+import org.picketbox.core.identity.IdentityChangeTracker;
+import org.picketbox.core.session.AttributeCodec;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.SessionDataInput;
+import org.picketbox.core.session.SessionDataOutput;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * {@link AttributeCodec} used by the {@link BinarySessionCodec} to write the state of a {@link UserContext}. The fields are
+ * read directly, so encoding a session does not touch it. The identity stamp is written as well, so a restored user context
+ * can still be reused without populating it again.
+ * </p>
+ */
+public class UserContextCodec implements AttributeCodec<UserContext> {
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AttributeCodec#getType()
+     */
+    @Override
+    public Class<UserContext> getType() {
+        return UserContext.class;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AttributeCodec#write(java.lang.Object, org.picketbox.core.session.SessionDataOutput)
+     */
+    @Override
+    public void write(UserContext value, SessionDataOutput output) throws IOException {
+        output.writeObject(value.subject);
+        output.writeObject(value.user);
+
+        writeCollection(value.roles, output);
+        writeCollection(value.groups, output);
+
+        AuthenticationResult result = value.authenticationResult;
+
+        output.writeBoolean(result != null);
+
+        if (result != null) {
+            AuthenticationStatus status = result.getStatus();
+
+            output.writeString(status != null ? status.name() : null);
+            output.writeObject(result.getPrincipal());
+            output.writeVarInt(result.getMessages().size());
+
+            for (String message : result.getMessages()) {
+                output.writeString(message);
+            }
+        }
+
+        IdentityChangeTracker.Stamp stamp = value.getIdentityStamp();
+
+        output.writeBoolean(stamp != null);
+
+        if (stamp != null) {
+            output.writeVarLong(stamp.getInstanceId());
+            output.writeVarLong(stamp.getGeneration());
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AttributeCodec#read(org.picketbox.core.session.SessionDataInput)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public UserContext read(SessionDataInput input) throws IOException {
+        UserContext userContext = new UserContext();
+
+        userContext.subject = (Subject) input.readObject();
+        userContext.user = (User) input.readObject();
+        userContext.roles = (Collection<Role>) readCollection(input);
+        userContext.groups = (Collection<Group>) readCollection(input);
+
+        if (input.readBoolean()) {
+            String status = input.readString();
+            AuthenticationResult result = new AuthenticationResult(status != null ? AuthenticationStatus.valueOf(status)
+                    : null);
+
+            result.setPrincipal((Principal) input.readObject());
+
+            int messages = input.readVarInt();
+
+            for (int i = 0; i < messages; i++) {
+                result.addMessage(input.readString());
+            }
+
+            userContext.authenticationResult = result;
+        }
+
+        // the stamp was added by version 2 of the format
+        if (input.getVersion() >= 2 && input.readBoolean()) {
+            long instanceId = input.readVarLong();
+
+            userContext.setIdentityStamp(IdentityChangeTracker.Stamp.restore(instanceId, input.readVarLong()));
+        }
+
+        return userContext;
+    }
+
+    private void writeCollection(Collection<?> values, SessionDataOutput output) throws IOException {
+        if (values == null) {
+            output.writeVarInt(0);
+            return;
+        }
+
+        Object[] elements = values.toArray();
+
+        output.writeVarInt(elements.length + 1);
+
+        for (Object element : elements) {
+            output.writeObject(element);
+        }
+    }
+
+    private Collection<?> readCollection(SessionDataInput input) throws IOException {
+        int size = input.readVarInt() - 1;
+
+        if (size < 0) {
+            return null;
+        }
+
+        List<Object> values = new ArrayList<Object>(Math.min(size, 16));
+
+        for (int i = 0; i < size; i++) {
+            values.add(input.readObject());
+        }
+
+        return values;
+    }
+}
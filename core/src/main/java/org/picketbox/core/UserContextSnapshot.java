@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core;
+
+import java.security.Principal;
+import java.util.Collection;
+
+import org.picketbox.core.authorization.RoleDictionary;
+import org.picketbox.core.authorization.RoleMask;
+
+/**
+ * <p>
+ * Immutable view of a {@link UserContext}, taken by {@link UserContext#snapshot()}. Reading it does not touch the session or
+ * raise events, and it can be shared between threads.
+ * </p>
+ * <p>
+ * The snapshot reflects the user when it was taken, later changes to the {@link UserContext} are not visible. Unlike the
+ * {@link UserContext}, role and group checks return false for users not authenticated instead of failing.
+ * </p>
+ */
+public final class UserContextSnapshot {
+
+    private final boolean authenticated;
+    private final Principal principal;
+    private final Collection<String> roleNames;
+    private final RoleMask roleMask;
+    private final Collection<String> groupNames;
+    private final RoleMask groupMask;
+
+    UserContextSnapshot(boolean authenticated, Principal principal, Collection<String> roleNames, RoleMask roleMask,
+            Collection<String> groupNames, RoleMask groupMask) {
+        this.authenticated = authenticated;
+        this.principal = principal;
+        this.roleNames = roleNames;
+        this.roleMask = roleMask;
+        this.groupNames = groupNames;
+        this.groupMask = groupMask;
+    }
+
+    public boolean isAuthenticated() {
+        return this.authenticated;
+    }
+
+    /**
+     * @return the principal, or null if the user is not authenticated.
+     */
+    public Principal getPrincipal() {
+        return this.principal;
+    }
+
+    /**
+     * @return a read only collection with the names of the user roles.
+     */
+    public Collection<String> getRoleNames() {
+        return this.roleNames;
+    }
+
+    /**
+     * @return a read only collection with the names of the user groups.
+     */
+    public Collection<String> getGroupNames() {
+        return this.groupNames;
+    }
+
+    public boolean hasRole(String role) {
+        return this.authenticated && this.roleMask.contains(RoleDictionary.ROLES.findId(role));
+    }
+
+    public boolean hasGroup(String group) {
+        return this.authenticated && this.groupMask.contains(RoleDictionary.GROUPS.findId(group));
+    }
+
+    /**
+     * <p>
+     * Checks if the user has at least one of the roles of the given mask, compiled by {@link RoleDictionary#ROLES}.
+     * </p>
+     *
+     * @param roles
+     * @return
+     */
+    public boolean hasAnyRole(RoleMask roles) {
+        return this.authenticated && this.roleMask.intersects(roles);
+    }
+
+    /**
+     * <p>
+     * Checks if the user is member of at least one of the groups of the given mask, compiled by {@link RoleDictionary#GROUPS}.
+     * </p>
+     *
+     * @param groups
+     * @return
+     */
+    public boolean hasAnyGroup(RoleMask groups) {
+        return this.authenticated && this.groupMask.intersects(groups);
+    }
+
+    @Override
+    public String toString() {
+        return " Principal: " + this.principal + " / IsAuthenticated: " + this.authenticated + " / Roles: " + this.roleNames
+                + " / Groups: " + this.groupNames;
+    }
+}
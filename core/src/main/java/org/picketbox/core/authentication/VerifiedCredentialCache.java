@@ -0,0 +1,323 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.authentication;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.event.EventObserver;
+import org.picketbox.core.identity.event.UserRemovedEvent;
+import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Remembers the username/password pairs that were recently validated against the identity store, so a client that sends
+ * the same credentials with every request (eg.: HTTP BASIC) does not hit the store each time.
+ * </p>
+ * <p>
+ * Passwords are never kept. Entries are keyed by a HMAC-SHA256 of the username and password, computed with a random key that
+ * is created for each cache instance and never leaves it. Entries expire after a fixed time to live and the least recently
+ * used entries are evicted when the cache is full.
+ * </p>
+ * <p>
+ * The cache observes the {@link UserUpdatedEvent} and {@link UserRemovedEvent} events and drops all entries for the user. A
+ * validation that was running while a user was changed is not cached, see {@link #getGeneration()}.
+ * </p>
+ */
+public class VerifiedCredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SecretKeySpec secretKey;
+    private final int maxSize;
+    private final long timeToLive;
+
+    private final Map<Key, CachedCredential> entries;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /*
+     * Shared by all caches, each cache initializes it with its own key before use. A thread keeps at most one instance,
+     * however many caches are built.
+     */
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw PicketBoxMessages.MESSAGES.couldNotInitializeCredentialCache(e);
+            }
+        }
+    };
+
+    /**
+     * <p>
+     * Creates a new cache.
+     * </p>
+     *
+     * @param maxSize the maximum number of entries.
+     * @param timeToLiveInMillis how long a validated credential is trusted.
+     */
+    public VerifiedCredentialCache(final int maxSize, long timeToLiveInMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero.");
+        }
+
+        if (timeToLiveInMillis <= 0) {
+            throw new IllegalArgumentException("The time to live must be greater than zero.");
+        }
+
+        byte[] keyBytes = new byte[KEY_LENGTH];
+
+        new SecureRandom().nextBytes(keyBytes);
+
+        this.secretKey = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLiveInMillis;
+        this.entries = new LinkedHashMap<Key, CachedCredential>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedCredential> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Checks if the given credentials were validated and did not expire yet.
+     * </p>
+     *
+     * @param userName
+     * @param password
+     * @return
+     */
+    public boolean isVerified(String userName, char[] password) {
+        Key key = createKey(userName, password);
+        long now = System.currentTimeMillis();
+
+        synchronized (this.entries) {
+            CachedCredential entry = this.entries.get(key);
+
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    this.hits.incrementAndGet();
+                    return true;
+                }
+
+                this.entries.remove(key);
+            }
+        }
+
+        this.misses.incrementAndGet();
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Records that the given credentials were successfully validated. Nothing is recorded if any user was updated or removed
+     * since the <code>generation</code> was read.
+     * </p>
+     *
+     * @param userName
+     * @param password
+     * @param generation the value returned by {@link #getGeneration()} before the credentials were validated.
+     */
+    public void verified(String userName, char[] password, long generation) {
+        Key key = createKey(userName, password);
+        CachedCredential entry = new CachedCredential(userName, System.currentTimeMillis() + this.timeToLive);
+
+        synchronized (this.entries) {
+            if (this.generation.get() == generation) {
+                this.entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns a counter that changes every time an user is invalidated. Callers read it before validating the credentials
+     * against the store and pass it to {@link #verified(String, char[], long)}.
+     * </p>
+     *
+     * @return
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * <p>
+     * Removes all entries for the given user.
+     * </p>
+     *
+     * @param userName
+     */
+    public void invalidate(String userName) {
+        synchronized (this.entries) {
+            this.generation.incrementAndGet();
+
+            Iterator<CachedCredential> iterator = this.entries.values().iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().userName.equals(userName)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries.
+     * </p>
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.generation.incrementAndGet();
+            this.entries.clear();
+        }
+    }
+
+    @EventObserver
+    public void onUserUpdated(UserUpdatedEvent event) {
+        invalidate(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserRemoved(UserRemovedEvent event) {
+        invalidate(event.getUser());
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    private void invalidate(User user) {
+        if (user != null && user.getLoginName() != null) {
+            invalidate(user.getLoginName());
+        }
+    }
+
+    private Key createKey(String userName, char[] password) {
+        Mac mac = MAC.get();
+
+        try {
+            mac.init(this.secretKey);
+        } catch (GeneralSecurityException e) {
+            throw PicketBoxMessages.MESSAGES.couldNotInitializeCredentialCache(e);
+        }
+
+        byte[] userNameBytes = userName.getBytes(UTF_8);
+
+        // the length prefix keeps the boundary between the username and the password unambiguous
+        mac.update(ByteBuffer.allocate(4).putInt(userNameBytes.length).array());
+        mac.update(userNameBytes);
+
+        ByteBuffer encoded = UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+
+        encoded.get(passwordBytes);
+
+        try {
+            mac.update(passwordBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+
+        return new Key(mac.doFinal());
+    }
+
+    private static class Key {
+
+        private final byte[] hash;
+        private final int hashCode;
+
+        Key(byte[] hash) {
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(this.hash, ((Key) obj).hash);
+        }
+    }
+
+    private static class CachedCredential {
+
+        private final String userName;
+        private final long expiresAt;
+
+        CachedCredential(String userName, long expiresAt) {
+            this.userName = userName;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -29,9 +29,14 @@ import org.picketbox.core.authentication.AuthenticationInfo;
 import org.picketbox.core.authentication.AuthenticationMechanism;
 import org.picketbox.core.authentication.AuthenticationResult;
 import org.picketbox.core.authentication.AuthenticationStatus;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
 import org.picketbox.core.authentication.credential.UserCredential;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.credential.Credentials;
+import org.picketlink.idm.credential.Credentials.Status;
+import org.picketlink.idm.credential.UsernamePasswordCredentials;
+import org.picketlink.idm.model.User;
 
 /**
  * <p>
@@ -44,16 +49,15 @@ import org.picketlink.idm.IdentityManager;
 public abstract class AbstractAuthenticationMechanism implements AuthenticationMechanism {
 
     private PicketBoxManager picketBoxManager;
+    private volatile Class<?>[] supportedCredentials;
 
     public AbstractAuthenticationMechanism() {
     }
 
     @Override
     public boolean supports(UserCredential credential) {
-        List<AuthenticationInfo> authenticationInfo = getAuthenticationInfo();
-
-        for (AuthenticationInfo callbackInfo : authenticationInfo) {
-            if (callbackInfo.getSupportedCredentials().equals(credential.getClass())) {
+        for (Class<?> supportedCredential : getSupportedCredentials()) {
+            if (supportedCredential.isInstance(credential)) {
                 return true;
             }
         }
@@ -61,6 +65,31 @@ public abstract class AbstractAuthenticationMechanism implements AuthenticationM
         return false;
     }
 
+    /**
+     * <p>
+     * Returns the credential types from {@link #getAuthenticationInfo()}, which is only called once.
+     * </p>
+     *
+     * @return
+     */
+    private Class<?>[] getSupportedCredentials() {
+        Class<?>[] credentials = this.supportedCredentials;
+
+        if (credentials == null) {
+            List<AuthenticationInfo> authenticationInfo = getAuthenticationInfo();
+
+            credentials = new Class<?>[authenticationInfo.size()];
+
+            for (int i = 0; i < credentials.length; i++) {
+                credentials[i] = authenticationInfo.get(i).getSupportedCredentials();
+            }
+
+            this.supportedCredentials = credentials;
+        }
+
+        return credentials;
+    }
+
     @Override
     public AuthenticationResult authenticate(UserCredential credential) throws AuthenticationException {
         Principal principal = null;
@@ -164,4 +193,59 @@ public abstract class AbstractAuthenticationMechanism implements AuthenticationM
     protected IdentityManager getIdentityManager() {
         return this.picketBoxManager.getIdentityManager();
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Checks if the user exists and if the given credentials are valid.
+     * </p>
+     * <p>
+     * If a {@link VerifiedCredentialCache} is configured, username/password credentials that were recently validated are not
+     * checked against the identity store again.
+     * </p>
+     *
+     * @param userName
+     * @param credentials
+     * @return
+     */
+    protected boolean validateCredentials(String userName, Credentials credentials) {
+        VerifiedCredentialCache cache = getCredentialCache();
+        char[] password = null;
+
+        if (cache != null && credentials instanceof UsernamePasswordCredentials) {
+            UsernamePasswordCredentials passwordCredentials = (UsernamePasswordCredentials) credentials;
+
+            if (passwordCredentials.getPassword() != null) {
+                password = passwordCredentials.getPassword().getValue();
+            }
+        }
+
+        if (password != null && cache.isVerified(userName, password)) {
+            return true;
+        }
+
+        long generation = password != null ? cache.getGeneration() : 0;
+
+        // try to retrieve the user from the configured identity store
+        User user = getIdentityManager().getUser(userName);
+
+        getIdentityManager().validateCredentials(credentials);
+
+        if (user == null || !credentials.getStatus().equals(Status.VALID)) {
+            return false;
+        }
+
+        if (password != null) {
+            cache.verified(userName, password, generation);
+        }
+
+        return true;
+    }
+
+    private VerifiedCredentialCache getCredentialCache() {
+        if (this.picketBoxManager == null || this.picketBoxManager.getConfiguration() == null) {
+            return null;
+        }
+
+        return this.picketBoxManager.getConfiguration().getAuthentication().getCredentialCache();
+    }
+}
@@ -22,11 +22,17 @@
 package org.picketbox.core.authentication.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.picketbox.core.PicketBoxManager;
 import org.picketbox.core.authentication.AuthenticationInfo;
@@ -38,42 +44,70 @@ import org.picketbox.core.authentication.credential.UserCredential;
  * <p>
  * Base class for {@link AuthenticationProvider} implementations.
  * </p>
+ * <p>
+ * The mechanisms are indexed once, when the provider is created. A credential is handled by the mechanisms registered for its
+ * most specific type: its own class, then its superclasses and finally its interfaces. Mechanisms registered for a more
+ * general type are not used when a more specific one has mechanisms, so a credential like an OTP credential, which extends
+ * the username/password credential, is never handled by the username/password mechanism. The resolved mechanisms are cached
+ * for each credential class.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
  */
 public abstract class AbstractAuthenticationProvider implements AuthenticationProvider {
 
-    private final Map<Class<? extends UserCredential>, List<AuthenticationMechanism>> mechanisms = new HashMap<Class<? extends UserCredential>, List<AuthenticationMechanism>>();
+    private static final List<AuthenticationMechanism> NO_MECHANISMS = Collections.emptyList();
+
+    private final Map<Class<?>, List<AuthenticationMechanism>> mechanisms =
+            new HashMap<Class<?>, List<AuthenticationMechanism>>();
+    private final ConcurrentMap<Class<?>, List<AuthenticationMechanism>> resolvedMechanisms =
+            new ConcurrentHashMap<Class<?>, List<AuthenticationMechanism>>();
+    private final Map<String, AuthenticationMechanism> mechanismsByName = new LinkedHashMap<String, AuthenticationMechanism>();
+    private final String[] supportedMechanisms;
     private final PicketBoxManager picketboxManager;
 
     public AbstractAuthenticationProvider(PicketBoxManager picketBoxManager) {
         this.picketboxManager = picketBoxManager;
         initMechanisms(this.picketboxManager.getConfiguration().getAuthentication().getMechanisms());
+        this.supportedMechanisms = this.mechanismsByName.keySet().toArray(new String[this.mechanismsByName.size()]);
     }
 
     private void initMechanisms(List<AuthenticationMechanism> providedMechanisms) {
+        Map<Class<?>, List<AuthenticationMechanism>> registered = new HashMap<Class<?>, List<AuthenticationMechanism>>();
+
         for (AuthenticationMechanism authenticationMechanism : providedMechanisms) {
 
             if (authenticationMechanism instanceof AbstractAuthenticationMechanism) {
                 ((AbstractAuthenticationMechanism) authenticationMechanism).setPicketBoxManager(this.picketboxManager);
             }
 
+            String mechanismName = authenticationMechanism.getClass().getName();
+
+            if (!this.mechanismsByName.containsKey(mechanismName)) {
+                this.mechanismsByName.put(mechanismName, authenticationMechanism);
+            }
+
             List<AuthenticationInfo> mechanismInfos = authenticationMechanism.getAuthenticationInfo();
 
             for (AuthenticationInfo info : mechanismInfos) {
                 Class<? extends UserCredential> supportedCredential = info.getSupportedCredentials();
 
-                List<AuthenticationMechanism> supportedMechanisms = this.mechanisms.get(supportedCredential);
+                List<AuthenticationMechanism> supportedMechanisms = registered.get(supportedCredential);
 
                 if (supportedMechanisms == null) {
                     supportedMechanisms = new ArrayList<AuthenticationMechanism>();
-                    this.mechanisms.put(supportedCredential, supportedMechanisms);
+                    registered.put(supportedCredential, supportedMechanisms);
                 }
 
                 supportedMechanisms.add(authenticationMechanism);
             }
         }
+
+        for (Map.Entry<Class<?>, List<AuthenticationMechanism>> entry : registered.entrySet()) {
+            this.mechanisms.put(entry.getKey(), Collections.unmodifiableList(Arrays.asList(entry.getValue().toArray(
+                    new AuthenticationMechanism[entry.getValue().size()]))));
+        }
     }
 
     /*
@@ -83,22 +117,26 @@ public abstract class AbstractAuthenticationProvider implements AuthenticationPr
      */
     @Override
     public String[] getSupportedMechanisms() {
-        List<AuthenticationMechanism> supportedMechanisms = getAllMechanisms();
-
-        String[] mechanisms = new String[supportedMechanisms.size()];
-
-        int i = 0;
-
-        for (AuthenticationMechanism entry : supportedMechanisms) {
-            mechanisms[i++] = entry.getClass().getName();
-        }
-
-        return mechanisms;
+        return this.supportedMechanisms.clone();
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authentication.AuthenticationProvider#getMechanisms(org.picketbox.core.authentication.credential.
+     * UserCredential)
+     */
     @Override
     public List<AuthenticationMechanism> getMechanisms(UserCredential credential) {
-        return this.mechanisms.get(credential.getClass());
+        Class<?> credentialType = credential.getClass();
+        List<AuthenticationMechanism> resolved = this.resolvedMechanisms.get(credentialType);
+
+        if (resolved == null) {
+            resolved = resolveMechanisms(credentialType);
+            this.resolvedMechanisms.putIfAbsent(credentialType, resolved);
+        }
+
+        return resolved;
     }
 
     /*
@@ -108,13 +146,7 @@ public abstract class AbstractAuthenticationProvider implements AuthenticationPr
      */
     @Override
     public boolean supports(String mechanismName) {
-        for (String supportedMechanismName : getSupportedMechanisms()) {
-            if (supportedMechanismName.equals(mechanismName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return this.mechanismsByName.containsKey(mechanismName);
     }
 
     /*
@@ -124,25 +156,50 @@ public abstract class AbstractAuthenticationProvider implements AuthenticationPr
      */
     @Override
     public AuthenticationMechanism getMechanism(String mechanismName) {
-        for (AuthenticationMechanism currentMechanism : getAllMechanisms()) {
-            if (currentMechanism.getClass().getName().equals(mechanismName)) {
-                return currentMechanism;
+        return this.mechanismsByName.get(mechanismName);
+    }
+
+    /**
+     * <p>
+     * Returns the mechanisms registered for the most specific type of the given credential class.
+     * </p>
+     *
+     * @param credentialType
+     * @return
+     */
+    private List<AuthenticationMechanism> resolveMechanisms(Class<?> credentialType) {
+        for (Class<?> type = credentialType; type != null; type = type.getSuperclass()) {
+            List<AuthenticationMechanism> registered = this.mechanisms.get(type);
+
+            if (registered != null) {
+                return registered;
             }
         }
 
-        return null;
-    }
+        Set<Class<?>> visited = new HashSet<Class<?>>();
+        LinkedList<Class<?>> interfaces = new LinkedList<Class<?>>();
+
+        for (Class<?> type = credentialType; type != null; type = type.getSuperclass()) {
+            interfaces.addAll(Arrays.asList(type.getInterfaces()));
+        }
 
-    private List<AuthenticationMechanism> getAllMechanisms() {
-        Set<Entry<Class<? extends UserCredential>, List<AuthenticationMechanism>>> entrySet = this.mechanisms.entrySet();
+        while (!interfaces.isEmpty()) {
+            Class<?> type = interfaces.removeFirst();
 
-        List<AuthenticationMechanism> supportedMechanisms = new ArrayList<AuthenticationMechanism>();
+            if (!visited.add(type)) {
+                continue;
+            }
+
+            List<AuthenticationMechanism> registered = this.mechanisms.get(type);
+
+            if (registered != null) {
+                return registered;
+            }
 
-        for (Entry<Class<? extends UserCredential>, List<AuthenticationMechanism>> entry : entrySet) {
-            supportedMechanisms.addAll(entry.getValue());
+            interfaces.addAll(Arrays.asList(type.getInterfaces()));
         }
 
-        return supportedMechanisms;
+        return NO_MECHANISMS;
     }
 
-}
\ No newline at end of file
+}
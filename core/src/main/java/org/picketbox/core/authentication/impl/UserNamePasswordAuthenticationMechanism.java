@@ -33,9 +33,6 @@ import org.picketbox.core.authentication.AuthenticationResult;
 import org.picketbox.core.authentication.credential.UserCredential;
 import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
 import org.picketbox.core.exceptions.AuthenticationException;
-import org.picketlink.idm.credential.Credentials;
-import org.picketlink.idm.credential.Credentials.Status;
-import org.picketlink.idm.model.User;
 
 /**
  * <p>
@@ -62,14 +59,7 @@ public class UserNamePasswordAuthenticationMechanism extends AbstractAuthenticat
     protected Principal doAuthenticate(UserCredential credential, AuthenticationResult result) throws AuthenticationException {
         UsernamePasswordCredential userCredential = (UsernamePasswordCredential) credential;
 
-        // try to retrieve the user from the configured identity store
-        User user = getIdentityManager().getUser(userCredential.getUserName());
-
-        Credentials passwordCredential = userCredential.getCredential();
-
-        getIdentityManager().validateCredentials(passwordCredential);
-
-        if (user != null && passwordCredential.getStatus().equals(Status.VALID)) {
+        if (validateCredentials(userCredential.getUserName(), userCredential.getCredential())) {
             return new PicketBoxPrincipal(userCredential.getUserName());
         }
 
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Assigns a dense int identifier to each role or group name, so a set of names can be represented by a {@link RoleMask}.
+ * </p>
+ * <p>
+ * Identifiers are assigned on first use and never released, they are only meaningful inside this JVM and must not be
+ * serialized. There is one dictionary for role names and another one for group names.
+ * </p>
+ */
+public final class RoleDictionary {
+
+    /**
+     * Dictionary of role names.
+     */
+    public static final RoleDictionary ROLES = new RoleDictionary();
+
+    /**
+     * Dictionary of group names.
+     */
+    public static final RoleDictionary GROUPS = new RoleDictionary();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    private int nextId;
+
+    private RoleDictionary() {
+    }
+
+    /**
+     * <p>
+     * Returns the identifier of the given name, assigning a new one if the name was not used yet.
+     * </p>
+     *
+     * @param name
+     * @return
+     */
+    public int getId(String name) {
+        Integer id = this.ids.get(name);
+
+        if (id == null) {
+            synchronized (this) {
+                id = this.ids.get(name);
+
+                if (id == null) {
+                    id = this.nextId++;
+                    this.ids.put(name, id);
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * <p>
+     * Returns the identifier of the given name without assigning a new one.
+     * </p>
+     *
+     * @param name
+     * @return the identifier, or -1 if the name was never used.
+     */
+    public int findId(String name) {
+        Integer id = this.ids.get(name);
+
+        return id != null ? id : -1;
+    }
+
+    /**
+     * <p>
+     * Compiles the given names to a {@link RoleMask}.
+     * </p>
+     *
+     * @param names
+     * @return
+     */
+    public RoleMask compile(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return RoleMask.EMPTY;
+        }
+
+        int[] nameIds = new int[names.size()];
+        int i = 0;
+
+        for (String name : names) {
+            nameIds[i++] = getId(name);
+        }
+
+        return RoleMask.of(nameIds);
+    }
+
+    /**
+     * <p>
+     * Compiles the given names to a {@link RoleMask}.
+     * </p>
+     *
+     * @param names
+     * @return
+     */
+    public RoleMask compile(String... names) {
+        if (names == null || names.length == 0) {
+            return RoleMask.EMPTY;
+        }
+
+        int[] nameIds = new int[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            nameIds[i] = getId(names[i]);
+        }
+
+        return RoleMask.of(nameIds);
+    }
+
+    /**
+     * <p>
+     * Returns the number of names with an identifier.
+     * </p>
+     *
+     * @return
+     */
+    public int size() {
+        return this.ids.size();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization;
+
+/**
+ * <p>
+ * Immutable set of role or group identifiers assigned by a {@link RoleDictionary}, stored as a bitset. Checking if two masks
+ * have an identifier in common is an AND of their words and does not allocate.
+ * </p>
+ */
+public final class RoleMask {
+
+    /**
+     * Mask without identifiers.
+     */
+    public static final RoleMask EMPTY = new RoleMask(new long[0]);
+
+    private final long[] words;
+
+    private RoleMask(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * <p>
+     * Creates a mask with the given identifiers.
+     * </p>
+     *
+     * @param ids
+     * @return
+     */
+    public static RoleMask of(int... ids) {
+        int max = -1;
+
+        for (int id : ids) {
+            max = Math.max(max, id);
+        }
+
+        if (max < 0) {
+            return EMPTY;
+        }
+
+        long[] words = new long[(max >> 6) + 1];
+
+        for (int id : ids) {
+            if (id >= 0) {
+                words[id >> 6] |= 1L << id;
+            }
+        }
+
+        return new RoleMask(words);
+    }
+
+    /**
+     * <p>
+     * Checks if this mask has the given identifier.
+     * </p>
+     *
+     * @param id
+     * @return
+     */
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+
+        int word = id >> 6;
+
+        return word < this.words.length && (this.words[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * <p>
+     * Checks if this mask and the given one have at least one identifier in common.
+     * </p>
+     *
+     * @param other
+     * @return
+     */
+    public boolean intersects(RoleMask other) {
+        int length = Math.min(this.words.length, other.words.length);
+
+        for (int i = 0; i < length; i++) {
+            if ((this.words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean isEmpty() {
+        for (long word : this.words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>
+     * Returns the number of identifiers in this mask.
+     * </p>
+     *
+     * @return
+     */
+    public int cardinality() {
+        int count = 0;
+
+        for (long word : this.words) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+}
@@ -22,34 +22,46 @@
 package org.picketbox.core.authorization.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.UserContext;
+import org.picketbox.core.UserContextSnapshot;
 import org.picketbox.core.authorization.AuthorizationManager;
 import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.RoleDictionary;
+import org.picketbox.core.authorization.RoleMask;
 import org.picketbox.core.exceptions.AuthorizationException;
 
 /**
  * A simple implementation of {@link AuthorizationManager} that just checks the subject against the injected role names.
  *
+ * The role names are copied when set and compiled to a {@link RoleMask}, compiled again when the names are replaced.
+ *
  * @author anil saldhana
  * @since Jul 23, 2012
  */
 public class SimpleAuthorizationManager implements AuthorizationManager {
 
-    protected List<String> roleNames = new ArrayList<String>();
+    protected List<String> roleNames = Collections.emptyList();
 
     protected boolean started = false;
     protected boolean stopped = false;
 
+    private volatile CompiledRoles compiledRoles;
+
     /**
-     * Set the role names
+     * Set the role names. The names are copied, changing the given list afterwards does not change the allowed roles.
      *
      * @param roleNames
      */
     public void setRoleNames(List<String> roleNames) {
-        this.roleNames = roleNames;
+        if (roleNames == null) {
+            this.roleNames = Collections.emptyList();
+        } else {
+            this.roleNames = Collections.unmodifiableList(new ArrayList<String>(roleNames));
+        }
     }
 
     @Override
@@ -82,12 +94,46 @@ public class SimpleAuthorizationManager implements AuthorizationManager {
             throw PicketBoxMessages.MESSAGES.instanceNotStarted();
         }
 
-        for (String role : this.roleNames) {
-            if (subject.hasRole(role)) {
-                return true;
-            }
+        RoleMask allowedRoles = getRoleMask();
+
+        if (allowedRoles.isEmpty()) {
+            return false;
+        }
+
+        UserContextSnapshot snapshot = subject.snapshot();
+
+        if (!snapshot.isAuthenticated()) {
+            throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
         }
 
-        return false;
+        return snapshot.hasAnyRole(allowedRoles);
+    }
+
+    private RoleMask getRoleMask() {
+        List<String> currentNames = this.roleNames;
+        CompiledRoles compiled = this.compiledRoles;
+
+        if (compiled == null || compiled.source != currentNames) {
+            compiled = new CompiledRoles(currentNames, RoleDictionary.ROLES.compile(currentNames));
+            this.compiledRoles = compiled;
+        }
+
+        return compiled.mask;
+    }
+
+    /**
+     * <p>
+     * Role names and the mask they were compiled to.
+     * </p>
+     */
+    private static class CompiledRoles {
+
+        private final List<String> source;
+        private final RoleMask mask;
+
+        CompiledRoles(List<String> source, RoleMask mask) {
+            this.source = source;
+            this.mask = mask;
+        }
     }
 }
\ No newline at end of file
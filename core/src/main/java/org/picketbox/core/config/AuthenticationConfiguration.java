@@ -25,6 +25,7 @@ package org.picketbox.core.config;
 import java.util.List;
 
 import org.picketbox.core.authentication.AuthenticationMechanism;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
 
 /**
  * Defines a configuration for authentication
@@ -35,12 +36,19 @@ public class AuthenticationConfiguration {
     private EventManagerConfiguration eventManager;
     private List<AuthenticationMechanism> mechanisms;
     private ClientCertConfiguration certConfiguration;
+    private VerifiedCredentialCache credentialCache;
 
     public AuthenticationConfiguration(List<AuthenticationMechanism> mechanisms, EventManagerConfiguration eventManager,
             ClientCertConfiguration certConfiguration) {
+        this(mechanisms, eventManager, certConfiguration, null);
+    }
+
+    public AuthenticationConfiguration(List<AuthenticationMechanism> mechanisms, EventManagerConfiguration eventManager,
+            ClientCertConfiguration certConfiguration, VerifiedCredentialCache credentialCache) {
         this.eventManager = eventManager;
         this.mechanisms = mechanisms;
         this.certConfiguration = certConfiguration;
+        this.credentialCache = credentialCache;
     }
 
     /**
@@ -64,4 +72,13 @@ public class AuthenticationConfiguration {
     public ClientCertConfiguration getCertConfiguration() {
         return this.certConfiguration;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the cache for validated username/password credentials. Returns null if the cache is disabled.
+     *
+     * @return
+     */
+    public VerifiedCredentialCache getCredentialCache() {
+        return this.credentialCache;
+    }
+}
@@ -22,6 +22,7 @@
 
 package org.picketbox.core.config;
 
+import org.picketbox.core.event.AsyncEventDispatcher;
 import org.picketbox.core.event.PicketBoxEventManager;
 
 /**
@@ -31,13 +32,23 @@ import org.picketbox.core.event.PicketBoxEventManager;
 public class EventManagerConfiguration {
 
     private PicketBoxEventManager eventManager;
+    private AsyncEventDispatcher asyncDispatcher;
 
     public EventManagerConfiguration(PicketBoxEventManager manager) {
+        this(manager, null);
+    }
+
+    public EventManagerConfiguration(PicketBoxEventManager manager, AsyncEventDispatcher asyncDispatcher) {
         this.eventManager = manager;
+        this.asyncDispatcher = asyncDispatcher;
     }
 
     public PicketBoxEventManager getEventManager() {
         return this.eventManager;
     }
 
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        return this.asyncDispatcher;
+    }
+
 }
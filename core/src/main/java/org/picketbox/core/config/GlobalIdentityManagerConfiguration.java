@@ -34,12 +34,22 @@ public class GlobalIdentityManagerConfiguration {
     private IdentityManagerConfiguration identityManagerConfiguration;
     private UserContextPopulator userPopulator;
     private IdentityManager identityManager;
+    private int cacheSize;
+    private long cacheTimeToLive;
 
     public GlobalIdentityManagerConfiguration(IdentityManager identityManager,
             IdentityManagerConfiguration identityManagerConfiguration, UserContextPopulator userPopulator) {
+        this(identityManager, identityManagerConfiguration, userPopulator, 0, 0);
+    }
+
+    public GlobalIdentityManagerConfiguration(IdentityManager identityManager,
+            IdentityManagerConfiguration identityManagerConfiguration, UserContextPopulator userPopulator, int cacheSize,
+            long cacheTimeToLive) {
         this.identityManager = identityManager;
         this.identityManagerConfiguration = identityManagerConfiguration;
         this.userPopulator = userPopulator;
+        this.cacheSize = cacheSize;
+        this.cacheTimeToLive = cacheTimeToLive;
     }
 
     public IdentityManagerConfiguration getIdentityManagerConfiguration() {
@@ -53,4 +63,19 @@ public class GlobalIdentityManagerConfiguration {
     public IdentityManager getIdentityManager() {
         return this.identityManager;
     }
+
+    /**
+     * <p>
+     * Returns the maximum number of entries of each identity lookup cache, or zero if lookups are not cached.
+     * </p>
+     *
+     * @return
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    public long getCacheTimeToLive() {
+        return this.cacheTimeToLive;
+    }
 }
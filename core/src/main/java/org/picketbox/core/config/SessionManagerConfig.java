@@ -22,6 +22,9 @@
 
 package org.picketbox.core.config;
 
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionIdGenerator;
+import org.picketbox.core.session.SessionLimitPolicy;
 import org.picketbox.core.session.SessionManager;
 import org.picketbox.core.session.SessionStore;
 
@@ -34,6 +37,12 @@ public class SessionManagerConfig {
     private SessionManager manager;
     private SessionStore store;
     private int sessionTimeout;
+    private long touchInterval = PicketBoxSession.DEFAULT_TOUCH_INTERVAL;
+    private boolean deferAttributeWrites;
+    private SessionIdGenerator sessionIdGenerator;
+    private boolean indexByPrincipal;
+    private int maxSessionsPerUser;
+    private SessionLimitPolicy sessionLimitPolicy = SessionLimitPolicy.REJECT_NEW;
 
     public SessionManagerConfig(SessionManager manager, SessionStore store, int sessionTimeout) {
         this.manager = manager;
@@ -41,6 +50,23 @@ public class SessionManagerConfig {
         this.sessionTimeout = sessionTimeout;
     }
 
+    /**
+     * <p>
+     * Creates a copy of the given configuration. Useful for subclasses that extend an existing configuration.
+     * </p>
+     *
+     * @param configuration
+     */
+    protected SessionManagerConfig(SessionManagerConfig configuration) {
+        this(configuration.manager, configuration.store, configuration.sessionTimeout);
+        this.touchInterval = configuration.touchInterval;
+        this.deferAttributeWrites = configuration.deferAttributeWrites;
+        this.sessionIdGenerator = configuration.sessionIdGenerator;
+        this.indexByPrincipal = configuration.indexByPrincipal;
+        this.maxSessionsPerUser = configuration.maxSessionsPerUser;
+        this.sessionLimitPolicy = configuration.sessionLimitPolicy;
+    }
+
     public SessionManager getManager() {
         return this.manager;
     }
@@ -53,4 +79,88 @@ public class SessionManagerConfig {
         return this.sessionTimeout;
     }
 
+    /**
+     * <p>
+     * Interval, in milliseconds, during which session touches are coalesced into a single event.
+     * </p>
+     *
+     * @return
+     */
+    public long getTouchInterval() {
+        return this.touchInterval;
+    }
+
+    public void setTouchInterval(long touchInterval) {
+        this.touchInterval = touchInterval;
+    }
+
+    /**
+     * <p>
+     * Indicates if attribute changes are kept in the session until it is flushed, instead of being written to the store on
+     * every change.
+     * </p>
+     *
+     * @return
+     */
+    public boolean isDeferAttributeWrites() {
+        return this.deferAttributeWrites;
+    }
+
+    public void setDeferAttributeWrites(boolean deferAttributeWrites) {
+        this.deferAttributeWrites = deferAttributeWrites;
+    }
+
+    /**
+     * <p>
+     * The {@link SessionIdGenerator} used to create session identifiers. If null, the session manager uses its default.
+     * </p>
+     *
+     * @return
+     */
+    public SessionIdGenerator getSessionIdGenerator() {
+        return this.sessionIdGenerator;
+    }
+
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    /**
+     * <p>
+     * Indicates if sessions are indexed by principal name. Always true if there is a maximum number of sessions per user.
+     * </p>
+     *
+     * @return
+     */
+    public boolean isIndexByPrincipal() {
+        return this.indexByPrincipal || this.maxSessionsPerUser > 0;
+    }
+
+    public void setIndexByPrincipal(boolean indexByPrincipal) {
+        this.indexByPrincipal = indexByPrincipal;
+    }
+
+    /**
+     * <p>
+     * Maximum number of concurrent sessions per user. Zero or less means no limit.
+     * </p>
+     *
+     * @return
+     */
+    public int getMaxSessionsPerUser() {
+        return this.maxSessionsPerUser;
+    }
+
+    public void setMaxSessionsPerUser(int maxSessionsPerUser) {
+        this.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    public SessionLimitPolicy getSessionLimitPolicy() {
+        return this.sessionLimitPolicy;
+    }
+
+    public void setSessionLimitPolicy(SessionLimitPolicy sessionLimitPolicy) {
+        this.sessionLimitPolicy = sessionLimitPolicy;
+    }
+
 }
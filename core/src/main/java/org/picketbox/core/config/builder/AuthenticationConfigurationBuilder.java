@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.picketbox.core.authentication.AuthenticationMechanism;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
 import org.picketbox.core.authentication.impl.CertificateAuthenticationMechanism;
 import org.picketbox.core.authentication.impl.OTPAuthenticationMechanism;
 import org.picketbox.core.authentication.impl.TrustedUsernameAuthenticationMechanism;
@@ -42,6 +43,8 @@ public class AuthenticationConfigurationBuilder extends AbstractConfigurationBui
 
     protected List<AuthenticationMechanism> mechanisms;
     protected ClientCertConfigurationBuilder certAuthentication;
+    private int credentialCacheSize;
+    private long credentialCacheTimeToLive;
 
     public AuthenticationConfigurationBuilder(ConfigurationBuilder builder) {
         super(builder);
@@ -54,6 +57,22 @@ public class AuthenticationConfigurationBuilder extends AbstractConfigurationBui
         return this;
     }
 
+    /**
+     * <p>
+     * Enables the {@link VerifiedCredentialCache}. Username/password credentials that were successfully validated are trusted
+     * for the given time, without checking them against the identity store again.
+     * </p>
+     *
+     * @param maxSize the maximum number of cached credentials.
+     * @param timeToLiveInMillis how long a validated credential is trusted.
+     * @return
+     */
+    public AuthenticationConfigurationBuilder verifiedCredentialCache(int maxSize, long timeToLiveInMillis) {
+        this.credentialCacheSize = maxSize;
+        this.credentialCacheTimeToLive = timeToLiveInMillis;
+        return this;
+    }
+
     public ClientCertConfigurationBuilder clientCert() {
         return this.certAuthentication;
     }
@@ -69,6 +88,14 @@ public class AuthenticationConfigurationBuilder extends AbstractConfigurationBui
     @Override
     public AuthenticationConfiguration doBuild() {
         return new AuthenticationConfiguration(this.mechanisms, this.builder.eventManager().build(),
-                this.certAuthentication.build());
+                this.certAuthentication.build(), buildCredentialCache());
+    }
+
+    protected VerifiedCredentialCache buildCredentialCache() {
+        if (this.credentialCacheSize <= 0) {
+            return null;
+        }
+
+        return new VerifiedCredentialCache(this.credentialCacheSize, this.credentialCacheTimeToLive);
     }
 }
\ No newline at end of file
@@ -27,6 +27,8 @@ import java.util.List;
 
 import org.picketbox.core.config.ConfigurationBuilder;
 import org.picketbox.core.config.EventManagerConfiguration;
+import org.picketbox.core.event.AsyncEventDispatcher;
+import org.picketbox.core.event.BackPressurePolicy;
 import org.picketbox.core.event.DefaultEventManager;
 import org.picketbox.core.event.PicketBoxEventManager;
 
@@ -38,10 +40,18 @@ public class EventManagerConfigurationBuilder extends AbstractConfigurationBuild
 
     private PicketBoxEventManager manager;
     private List<Object> handlers;
+    private List<Object> asyncHandlers;
+    private List<Class<?>> asyncEventTypes;
+    private int asyncWorkers = Runtime.getRuntime().availableProcessors();
+    private int asyncQueueSize = 1024;
+    private BackPressurePolicy backPressurePolicy = BackPressurePolicy.BLOCK;
+    private AsyncEventDispatcher asyncDispatcher;
 
     public EventManagerConfigurationBuilder(ConfigurationBuilder builder) {
         super(builder);
         this.handlers = new ArrayList<Object>();
+        this.asyncHandlers = new ArrayList<Object>();
+        this.asyncEventTypes = new ArrayList<Class<?>>();
     }
 
     /*
@@ -52,7 +62,12 @@ public class EventManagerConfigurationBuilder extends AbstractConfigurationBuild
     @Override
     protected void setDefaults() {
         if (this.manager == null) {
-            this.manager = new DefaultEventManager(this.handlers);
+            if (!this.asyncHandlers.isEmpty() || !this.asyncEventTypes.isEmpty()) {
+                this.asyncDispatcher = new AsyncEventDispatcher(this.asyncEventTypes, this.asyncHandlers, this.asyncWorkers,
+                        this.asyncQueueSize, this.backPressurePolicy);
+            }
+
+            this.manager = new DefaultEventManager(this.handlers, this.asyncDispatcher);
         }
     }
 
@@ -66,6 +81,72 @@ public class EventManagerConfigurationBuilder extends AbstractConfigurationBuild
         return this;
     }
 
+    /**
+     * <p>
+     * Registers a handler whose methods are invoked asynchronously, on the event dispatcher workers.
+     * </p>
+     *
+     * @param handler
+     * @return
+     */
+    public EventManagerConfigurationBuilder asyncHandler(Object handler) {
+        this.handlers.add(handler);
+        this.asyncHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * <p>
+     * Events of the given type, or any of its subtypes, are delivered asynchronously to all handlers.
+     * </p>
+     *
+     * @param eventType
+     * @return
+     */
+    public EventManagerConfigurationBuilder asyncEvent(Class<?> eventType) {
+        this.asyncEventTypes.add(eventType);
+        return this;
+    }
+
+    /**
+     * <p>
+     * Number of threads used to dispatch asynchronous events. Defaults to the number of available processors.
+     * </p>
+     *
+     * @param workers
+     * @return
+     */
+    public EventManagerConfigurationBuilder asyncWorkers(int workers) {
+        this.asyncWorkers = workers;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Maximum number of pending events for each asynchronous worker. Defaults to 1024.
+     * </p>
+     *
+     * @param queueSize
+     * @return
+     */
+    public EventManagerConfigurationBuilder asyncQueueSize(int queueSize) {
+        this.asyncQueueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * <p>
+     * What to do when the queue of an asynchronous worker is full. Defaults to {@link BackPressurePolicy#BLOCK}.
+     * </p>
+     *
+     * @param policy
+     * @return
+     */
+    public EventManagerConfigurationBuilder backPressurePolicy(BackPressurePolicy policy) {
+        this.backPressurePolicy = policy;
+        return this;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -73,7 +154,7 @@ public class EventManagerConfigurationBuilder extends AbstractConfigurationBuild
      */
     @Override
     protected EventManagerConfiguration doBuild() {
-        return new EventManagerConfiguration(this.manager);
+        return new EventManagerConfiguration(this.manager, this.asyncDispatcher);
     }
 
     public void setEventManager(PicketBoxEventManager eventManager) {
@@ -44,6 +44,9 @@ public class IdentityManagerConfigurationBuilder extends AbstractConfigurationBu
 
     private UserContextPopulator userPopulator;
 
+    private int cacheSize;
+    private long cacheTimeToLive;
+
     public IdentityManagerConfigurationBuilder(ConfigurationBuilder builder) {
         super(builder);
     }
@@ -87,7 +90,7 @@ public class IdentityManagerConfigurationBuilder extends AbstractConfigurationBu
     @Override
     public GlobalIdentityManagerConfiguration doBuild() {
         return new GlobalIdentityManagerConfiguration(this.identityManager, this.identityManagerBuilder.build(),
-                this.userPopulator);
+                this.userPopulator, this.cacheSize, this.cacheTimeToLive);
     }
 
     public IdentityManagerConfigurationBuilder userPopulator(UserContextPopulator userPopulator) {
@@ -95,4 +98,21 @@ public class IdentityManagerConfigurationBuilder extends AbstractConfigurationBu
         return this;
     }
 
+    /**
+     * <p>
+     * Caches the users, roles, groups and group memberships looked up from the identity store. Each kind of lookup has its own
+     * cache with the given maximum size. Entries are removed when the identity is created, updated or removed through the
+     * {@link org.picketbox.core.identity.PicketBoxIdentityManager}, or after the given time to live.
+     * </p>
+     *
+     * @param maxSize the maximum number of entries of each cache.
+     * @param timeToLiveInMillis how long a lookup result is cached.
+     * @return
+     */
+    public IdentityManagerConfigurationBuilder cache(int maxSize, long timeToLiveInMillis) {
+        this.cacheSize = maxSize;
+        this.cacheTimeToLive = timeToLiveInMillis;
+        return this;
+    }
+
 }
@@ -25,10 +25,19 @@ package org.picketbox.core.config.builder;
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.config.ConfigurationBuilder;
 import org.picketbox.core.config.SessionManagerConfig;
+import org.picketbox.core.session.ConcurrentSessionStore;
 import org.picketbox.core.session.FileSessionStore;
 import org.picketbox.core.session.InMemorySessionStore;
+import org.picketbox.core.session.MappedSessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SecureSessionIdGenerator;
+import org.picketbox.core.session.SessionEvictionPolicy;
+import org.picketbox.core.session.SessionIdGenerator;
+import org.picketbox.core.session.SessionLimitPolicy;
 import org.picketbox.core.session.SessionManager;
 import org.picketbox.core.session.SessionStore;
+import org.picketbox.core.session.TieredSessionStore;
+import org.picketbox.core.session.WriteBehindSessionStore;
 
 /**
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
@@ -39,6 +48,16 @@ public class SessionManagerConfigurationBuilder extends AbstractConfigurationBui
     private SessionManager manager;
     private SessionStore store;
     private int sessionTimeout;
+    private long touchInterval = PicketBoxSession.DEFAULT_TOUCH_INTERVAL;
+    private boolean deferAttributeWrites;
+    private boolean writeBehind;
+    private SessionIdGenerator sessionIdGenerator;
+    private boolean indexByPrincipal;
+    private int maxSessionsPerUser;
+    private SessionLimitPolicy sessionLimitPolicy = SessionLimitPolicy.REJECT_NEW;
+    private int writeBehindBatchSize;
+    private long writeBehindFlushInterval;
+    private WriteBehindSessionStore writeBehindStore;
 
     public SessionManagerConfigurationBuilder(ConfigurationBuilder configurationBuilder) {
         super(configurationBuilder);
@@ -88,7 +107,73 @@ public class SessionManagerConfigurationBuilder extends AbstractConfigurationBui
         return this;
     }
 
+    /**
+     * Create a {@link ConcurrentSessionStore} without a limit of sessions.
+     *
+     * @return
+     */
+    public SessionManagerConfigurationBuilder concurrentSessionStore() {
+        return concurrentSessionStore(0, SessionEvictionPolicy.LRU);
+    }
+
+    /**
+     * Create a {@link ConcurrentSessionStore} that holds at most the given number of sessions.
+     *
+     * @param maxSessions maximum number of sessions. Zero or less means no limit.
+     * @param evictionPolicy defines which session is evicted when the limit is reached
+     * @return
+     */
+    public SessionManagerConfigurationBuilder concurrentSessionStore(int maxSessions, SessionEvictionPolicy evictionPolicy) {
+        if (this.store == null) {
+            this.store = new ConcurrentSessionStore(maxSessions, evictionPolicy);
+        }
+        if (this.store instanceof ConcurrentSessionStore == false) {
+            throw PicketBoxMessages.MESSAGES.wrongSessionStore(this.store.getClass().getName());
+        }
+
+        return this;
+    }
+
+    /**
+     * Create a {@link MappedSessionStore}
+     *
+     * @param fileName base name of the files where the sessions are persisted
+     * @return
+     */
+    public SessionManagerConfigurationBuilder mappedSessionStore(String fileName) {
+        if (this.store == null) {
+            this.store = new MappedSessionStore(fileName);
+        }
+        if (this.store instanceof MappedSessionStore == false) {
+            throw PicketBoxMessages.MESSAGES.wrongSessionStore(this.store.getClass().getName());
+        }
+
+        return this;
+    }
+
+    /**
+     * Create a {@link TieredSessionStore}
+     *
+     * @param directory directory where idle sessions are passivated
+     * @param idleTimeoutInMillis time after which a session not accessed is passivated
+     * @return
+     */
+    public SessionManagerConfigurationBuilder tieredSessionStore(String directory, long idleTimeoutInMillis) {
+        if (this.store == null) {
+            this.store = new TieredSessionStore(directory, idleTimeoutInMillis);
+        }
+        if (this.store instanceof TieredSessionStore == false) {
+            throw PicketBoxMessages.MESSAGES.wrongSessionStore(this.store.getClass().getName());
+        }
+
+        return this;
+    }
+
     public SessionManagerConfigurationBuilder store(SessionStore store) {
+        if (this.store != store) {
+            this.writeBehindStore = null;
+        }
+
         this.store = store;
         return this;
     }
@@ -98,12 +183,136 @@ public class SessionManagerConfigurationBuilder extends AbstractConfigurationBui
         return this;
     }
 
+    /**
+     * <p>
+     * Touches of the same session within the given interval, in milliseconds, raise a single
+     * {@link org.picketbox.core.session.event.SessionTouchedEvent}. Use zero if handlers need to be notified about every
+     * access to the session.
+     * </p>
+     *
+     * @param touchIntervalInMillis
+     * @return
+     */
+    public SessionManagerConfigurationBuilder touchInterval(long touchIntervalInMillis) {
+        this.touchInterval = touchIntervalInMillis;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Keeps attribute changes in the session until {@link SessionManager#flush(PicketBoxSession)} is called, usually at the
+     * end of a request, so that several changes result in a single write to the store.
+     * </p>
+     *
+     * @return
+     */
+    public SessionManagerConfigurationBuilder deferAttributeWrites() {
+        this.deferAttributeWrites = true;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Wraps the configured store with a {@link WriteBehindSessionStore}, so writes are merged and done in batches by a
+     * background thread. The same wrapper is used by all the configurations built until the store or the write-behind settings
+     * change.
+     * </p>
+     *
+     * @param batchSize number of pending writes that triggers a flush
+     * @param flushIntervalInMillis how often the pending writes are flushed
+     * @return
+     */
+    public SessionManagerConfigurationBuilder writeBehind(int batchSize, long flushIntervalInMillis) {
+        this.writeBehind = true;
+        this.writeBehindStore = null;
+        this.writeBehindBatchSize = batchSize;
+        this.writeBehindFlushInterval = flushIntervalInMillis;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Sets the {@link SessionIdGenerator} used to create session identifiers.
+     * </p>
+     *
+     * @param sessionIdGenerator
+     * @return
+     */
+    public SessionManagerConfigurationBuilder sessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        this.sessionIdGenerator = sessionIdGenerator;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Session identifiers will start with the given node prefix. See {@link SecureSessionIdGenerator}.
+     * </p>
+     *
+     * @param nodePrefix
+     * @return
+     */
+    public SessionManagerConfigurationBuilder nodePrefix(String nodePrefix) {
+        return sessionIdGenerator(new SecureSessionIdGenerator(nodePrefix));
+    }
+
+    /**
+     * <p>
+     * Indexes the sessions by principal name, so they can be found or invalidated with
+     * {@link SessionManager#findByPrincipal(String)} and {@link SessionManager#invalidateAllFor(String)}.
+     * </p>
+     *
+     * @return
+     */
+    public SessionManagerConfigurationBuilder indexSessionsByPrincipal() {
+        this.indexByPrincipal = true;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Limits the number of concurrent sessions of a user. Implies {@link #indexSessionsByPrincipal()}.
+     * </p>
+     *
+     * @param maxSessions maximum number of sessions per user
+     * @param policy what to do when a user with the maximum number of sessions authenticates again
+     * @return
+     */
+    public SessionManagerConfigurationBuilder maxSessionsPerUser(int maxSessions, SessionLimitPolicy policy) {
+        this.maxSessionsPerUser = maxSessions;
+        this.sessionLimitPolicy = policy;
+        return this;
+    }
+
     @Override
     protected void setDefaults() {
     }
 
     @Override
     protected SessionManagerConfig doBuild() {
-        return new SessionManagerConfig(this.manager, this.store, this.sessionTimeout);
+        SessionStore store = this.store;
+
+        if (this.writeBehind) {
+            if (this.store == null) {
+                this.store = new InMemorySessionStore();
+            }
+
+            if (this.writeBehindStore == null) {
+                this.writeBehindStore = new WriteBehindSessionStore(this.store, this.writeBehindBatchSize,
+                        this.writeBehindFlushInterval);
+            }
+
+            store = this.writeBehindStore;
+        }
+
+        SessionManagerConfig configuration = new SessionManagerConfig(this.manager, store, this.sessionTimeout);
+
+        configuration.setTouchInterval(this.touchInterval);
+        configuration.setDeferAttributeWrites(this.deferAttributeWrites);
+        configuration.setSessionIdGenerator(this.sessionIdGenerator);
+        configuration.setIndexByPrincipal(this.indexByPrincipal);
+        configuration.setMaxSessionsPerUser(this.maxSessionsPerUser);
+        configuration.setSessionLimitPolicy(this.sessionLimitPolicy);
+
+        return configuration;
     }
 }
\ No newline at end of file
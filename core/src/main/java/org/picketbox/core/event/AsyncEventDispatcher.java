@@ -0,0 +1,353 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.event;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+
+/**
+ * <p>
+ * Dispatches events to handlers on a pool of worker threads instead of the thread raising the event.
+ * </p>
+ * <p>
+ * Each worker consumes a bounded queue. A handler is always bound to the same worker, so it receives its events in the order
+ * they were raised. When a queue is full the configured {@link BackPressurePolicy} is applied. Handlers are dispatched
+ * asynchronously when their instance was registered as asynchronous or when the event is of one of the asynchronous event
+ * types. While the dispatcher is not started, all events are delivered on the caller's thread.
+ * </p>
+ * <p>
+ * Events raised by a handler running on one of the workers are never blocked on a full queue, as that queue may only be
+ * drained by the same worker. They are invoked on the worker's thread instead.
+ * </p>
+ *
+ */
+public class AsyncEventDispatcher extends AbstractPicketBoxLifeCycle {
+
+    private static final long POLL_INTERVAL = 100;
+
+    private Logger log = Logger.getLogger(AsyncEventDispatcher.class);
+
+    private final Set<Class<?>> asyncEventTypes;
+    private final Set<Object> asyncHandlers;
+    private final int workerCount;
+    private final int queueSize;
+    private final BackPressurePolicy backPressurePolicy;
+
+    private final ConcurrentMap<Class<?>, Boolean> asyncEventCache = new ConcurrentHashMap<Class<?>, Boolean>();
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    private volatile Worker[] workers;
+
+    public AsyncEventDispatcher(Collection<Class<?>> asyncEventTypes, Collection<Object> asyncHandlers, int workerCount,
+            int queueSize, BackPressurePolicy backPressurePolicy) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("The number of workers must be greater than zero.");
+        }
+
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("The queue size must be greater than zero.");
+        }
+
+        this.asyncEventTypes = new HashSet<Class<?>>(asyncEventTypes);
+        this.asyncHandlers = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        this.asyncHandlers.addAll(asyncHandlers);
+        this.workerCount = workerCount;
+        this.queueSize = queueSize;
+        this.backPressurePolicy = backPressurePolicy;
+    }
+
+    /**
+     * <p>
+     * Checks if the given handler should be invoked asynchronously for the given event type.
+     * </p>
+     *
+     * @param handler
+     * @param eventType
+     * @return
+     */
+    public boolean isAsynchronous(EventHandlerDefinition handler, Class<?> eventType) {
+        return this.asyncHandlers.contains(handler.getInstance()) || isAsynchronousEvent(eventType);
+    }
+
+    /**
+     * <p>
+     * Dispatches the event to the handler. If the dispatcher is not started the handler is invoked on the caller's thread.
+     * </p>
+     *
+     * @param handler
+     * @param event
+     */
+    public void dispatch(EventHandlerDefinition handler, Object event) {
+        Worker[] currentWorkers = this.workers;
+
+        if (currentWorkers == null) {
+            invoke(handler, event);
+            return;
+        }
+
+        int index = (System.identityHashCode(handler) & 0x7fffffff) % currentWorkers.length;
+        Worker worker = currentWorkers[index];
+        DispatchTask task = new DispatchTask(handler, event);
+
+        if (isWorkerThread()) {
+            // a handler raising an event must not wait for a queue that may only be drained by itself
+            if (!enqueue(worker, task)) {
+                invoke(handler, event);
+            }
+
+            return;
+        }
+
+        switch (this.backPressurePolicy) {
+            case BLOCK:
+                try {
+                    while (!enqueue(worker, task, POLL_INTERVAL)) {
+                        if (worker.terminated) {
+                            invoke(handler, event);
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.droppedEvents.incrementAndGet();
+                }
+                break;
+            case DROP:
+                if (!enqueue(worker, task)) {
+                    this.droppedEvents.incrementAndGet();
+                }
+                break;
+            case CALLER_RUNS:
+            default:
+                if (!enqueue(worker, task)) {
+                    invoke(handler, event);
+                }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of events waiting to be dispatched, for all workers.
+     * </p>
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        Worker[] currentWorkers = this.workers;
+        int depth = 0;
+
+        if (currentWorkers != null) {
+            for (Worker worker : currentWorkers) {
+                depth += worker.queue.size();
+            }
+        }
+
+        return depth;
+    }
+
+    /**
+     * <p>
+     * Returns the number of events that were discarded because a queue was full.
+     * </p>
+     *
+     * @return
+     */
+    public long getDroppedEvents() {
+        return this.droppedEvents.get();
+    }
+
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    public BackPressurePolicy getBackPressurePolicy() {
+        return this.backPressurePolicy;
+    }
+
+    @Override
+    protected void doStart() {
+        Worker[] newWorkers = new Worker[this.workerCount];
+
+        for (int i = 0; i < newWorkers.length; i++) {
+            newWorkers[i] = new Worker(i, new ArrayBlockingQueue<DispatchTask>(this.queueSize));
+            newWorkers[i].start();
+        }
+
+        this.workers = newWorkers;
+    }
+
+    /**
+     * <p>
+     * Stops accepting events and waits for the workers to process the events already queued.
+     * </p>
+     */
+    @Override
+    protected void doStop() {
+        Worker[] currentWorkers = this.workers;
+
+        this.workers = null;
+
+        if (currentWorkers == null) {
+            return;
+        }
+
+        for (Worker worker : currentWorkers) {
+            worker.running = false;
+        }
+
+        for (Worker worker : currentWorkers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private boolean isAsynchronousEvent(Class<?> eventType) {
+        if (this.asyncEventTypes.isEmpty()) {
+            return false;
+        }
+
+        Boolean async = this.asyncEventCache.get(eventType);
+
+        if (async == null) {
+            async = Boolean.FALSE;
+
+            for (Class<?> asyncEventType : this.asyncEventTypes) {
+                if (asyncEventType.isAssignableFrom(eventType)) {
+                    async = Boolean.TRUE;
+                    break;
+                }
+            }
+
+            this.asyncEventCache.put(eventType, async);
+        }
+
+        return async;
+    }
+
+    private boolean enqueue(Worker worker, DispatchTask task) {
+        return worker.queue.offer(task) && ensureConsumed(worker, task);
+    }
+
+    private boolean enqueue(Worker worker, DispatchTask task, long timeout) throws InterruptedException {
+        return worker.queue.offer(task, timeout, TimeUnit.MILLISECONDS) && ensureConsumed(worker, task);
+    }
+
+    /**
+     * <p>
+     * A task queued after its worker terminated would never be consumed. In that case it is taken back and the handler is
+     * invoked on the caller's thread.
+     * </p>
+     */
+    private boolean ensureConsumed(Worker worker, DispatchTask task) {
+        if (worker.terminated && worker.queue.remove(task)) {
+            invoke(task.handler, task.event);
+        }
+
+        return true;
+    }
+
+    private boolean isWorkerThread() {
+        Thread currentThread = Thread.currentThread();
+        return currentThread instanceof Worker && ((Worker) currentThread).getDispatcher() == this;
+    }
+
+    private void invoke(EventHandlerDefinition handler, Object event) {
+        try {
+            handler.invoke(event);
+        } catch (Exception e) {
+            this.log.error("Error dispatching event [" + event + "] to handler [" + handler.getInstance() + "].", e);
+        }
+    }
+
+    private static class DispatchTask {
+
+        private final EventHandlerDefinition handler;
+        private final Object event;
+
+        DispatchTask(EventHandlerDefinition handler, Object event) {
+            this.handler = handler;
+            this.event = event;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        private final BlockingQueue<DispatchTask> queue;
+        private volatile boolean running = true;
+        private volatile boolean terminated;
+
+        Worker(int index, BlockingQueue<DispatchTask> queue) {
+            super("PicketBox Event Dispatcher " + index);
+            this.queue = queue;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (this.running || !this.queue.isEmpty()) {
+                try {
+                    DispatchTask task = this.queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+                    if (task != null) {
+                        invoke(task.handler, task.event);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            this.terminated = true;
+
+            // events queued while this worker was terminating are delivered here, or by the thread that queued them
+            DispatchTask task;
+
+            while ((task = this.queue.poll()) != null) {
+                invoke(task.handler, task.event);
+            }
+        }
+
+        AsyncEventDispatcher getDispatcher() {
+            return AsyncEventDispatcher.this;
+        }
+    }
+}
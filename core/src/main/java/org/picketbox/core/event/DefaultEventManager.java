@@ -24,20 +24,51 @@ package org.picketbox.core.event;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Default Implementation of the {@link PicketBoxEventManager}
+ * <p>
+ * Default Implementation of the {@link PicketBoxEventManager}.
+ * </p>
+ * <p>
+ * Handlers are resolved once per concrete event class, considering the whole class and interface hierarchy of the event, and
+ * cached in a dispatch table. Registrations are copy-on-write so that raising events does not require any locking, and are
+ * idempotent for a given handler instance and method.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
 public class DefaultEventManager implements PicketBoxEventManager {
 
-    private Map<Object, List<EventHandlerDefinition>> observers = new HashMap<Object, List<EventHandlerDefinition>>();
+    private static final EventHandlerDefinition[] NO_HANDLERS = new EventHandlerDefinition[0];
+
+    private volatile Registry registry = new Registry(Collections.<Class<?>, List<EventHandlerDefinition>> emptyMap());
+
+    private final AsyncEventDispatcher asyncDispatcher;
 
     public DefaultEventManager(List<Object> handlers) {
+        this(handlers, null);
+    }
+
+    /**
+     * <p>
+     * Creates a event manager that dispatches some of the events or handlers using the given {@link AsyncEventDispatcher}.
+     * </p>
+     *
+     * @param handlers
+     * @param asyncDispatcher the dispatcher for asynchronous handlers, or null if all handlers are synchronous.
+     */
+    public DefaultEventManager(List<Object> handlers, AsyncEventDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
+
         for (Object handler : handlers) {
             addHandler(handler);
         }
@@ -51,29 +82,32 @@ public class DefaultEventManager implements PicketBoxEventManager {
      */
     @Override
     public void raiseEvent(Object event) {
-        List<EventHandlerDefinition> handlers = this.observers.get(event.getClass());
+        Class<?> eventType = event.getClass();
+        EventHandlerDefinition[] handlers = this.registry.getHandlers(eventType);
 
-        if (handlers == null) {
-            handlers = this.observers.get(event.getClass().getSuperclass());
-        }
-
-        if (handlers != null) {
-            for (EventHandlerDefinition handler : handlers) {
-                try {
-                    Method methodHandler = handler.getMethodHandler();
-                    Object handlerInstance = handler.getInstance();
+        for (EventHandlerDefinition handler : handlers) {
+            if (this.asyncDispatcher != null && this.asyncDispatcher.isAsynchronous(handler, eventType)) {
+                this.asyncDispatcher.dispatch(handler, event);
+                continue;
+            }
 
-                    methodHandler.invoke(handlerInstance, event);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            try {
+                handler.invoke(event);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
         }
     }
 
+    /**
+     * <p>
+     * Registers the handler methods of the given instance. Registering the same instance more than once has no effect.
+     * </p>
+     */
     @Override
-    public void addHandler(Object handler) {
+    public synchronized void addHandler(Object handler) {
         Method[] declaredMethods = handler.getClass().getDeclaredMethods();
+        Map<Class<?>, List<EventHandlerDefinition>> observers = null;
 
         for (Method method : declaredMethods) {
             EventObserver eventHandler = method.getAnnotation(EventObserver.class);
@@ -89,14 +123,203 @@ public class DefaultEventManager implements PicketBoxEventManager {
             }
 
             Class<? extends Object> eventType = parameterTypes[0];
+            EventHandlerDefinition definition = new EventHandlerDefinition(eventType, handler, method);
+
+            if (observers == null) {
+                List<EventHandlerDefinition> registered = this.registry.observers.get(eventType);
+
+                if (registered != null && registered.contains(definition)) {
+                    continue;
+                }
+
+                observers = this.registry.copyObservers();
+            }
 
-            if (!this.observers.containsKey(eventType)) {
-                this.observers.put(eventType, new ArrayList<EventHandlerDefinition>());
+            List<EventHandlerDefinition> handlers = observers.get(eventType);
+
+            if (handlers == null) {
+                handlers = new ArrayList<EventHandlerDefinition>();
+                observers.put(eventType, handlers);
+            }
+
+            if (!handlers.contains(definition)) {
+                handlers.add(definition);
             }
+        }
 
-            List<EventHandlerDefinition> handlers = this.observers.get(eventType);
+        if (observers != null) {
+            this.registry = new Registry(observers);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.event.PicketBoxEventManager#removeHandler(java.lang.Object)
+     */
+    @Override
+    public synchronized void removeHandler(Object handler) {
+        Map<Class<?>, List<EventHandlerDefinition>> observers = this.registry.copyObservers();
+        boolean removed = false;
+
+        for (Iterator<List<EventHandlerDefinition>> iterator = observers.values().iterator(); iterator.hasNext();) {
+            List<EventHandlerDefinition> handlers = iterator.next();
+
+            for (Iterator<EventHandlerDefinition> handlersIterator = handlers.iterator(); handlersIterator.hasNext();) {
+                if (handlersIterator.next().getInstance() == handler) {
+                    handlersIterator.remove();
+                    removed = true;
+                }
+            }
+
+            if (handlers.isEmpty()) {
+                iterator.remove();
+            }
+        }
+
+        if (removed) {
+            this.registry = new Registry(observers);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of handler methods registered for the given event type. Handlers registered for supertypes of the
+     * given type are not considered.
+     * </p>
+     *
+     * @param eventType
+     * @return
+     */
+    public int getHandlerCount(Class<?> eventType) {
+        List<EventHandlerDefinition> handlers = this.registry.observers.get(eventType);
+
+        if (handlers == null) {
+            return 0;
+        }
+
+        return handlers.size();
+    }
+
+    /**
+     * <p>
+     * Returns the number of handler methods registered for each event type.
+     * </p>
+     *
+     * @return
+     */
+    public Map<Class<?>, Integer> getHandlerCounts() {
+        Map<Class<?>, Integer> counts = new HashMap<Class<?>, Integer>();
+
+        for (Map.Entry<Class<?>, List<EventHandlerDefinition>> entry : this.registry.observers.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * <p>
+     * Returns the {@link AsyncEventDispatcher} used by this instance, or null if all handlers are invoked synchronously.
+     * </p>
+     *
+     * @return
+     */
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        return this.asyncDispatcher;
+    }
+
+    /**
+     * <p>
+     * Immutable snapshot of the registered handlers. Each snapshot owns its own dispatch table, so a table is never populated
+     * with handlers from an older set of registrations.
+     * </p>
+     */
+    private static class Registry {
+
+        private final Map<Class<?>, List<EventHandlerDefinition>> observers;
+        private final ConcurrentMap<Class<?>, EventHandlerDefinition[]> dispatchTable =
+                new ConcurrentHashMap<Class<?>, EventHandlerDefinition[]>();
+
+        Registry(Map<Class<?>, List<EventHandlerDefinition>> observers) {
+            this.observers = observers;
+        }
+
+        EventHandlerDefinition[] getHandlers(Class<?> eventType) {
+            EventHandlerDefinition[] handlers = this.dispatchTable.get(eventType);
+
+            if (handlers == null) {
+                handlers = resolve(eventType);
+
+                EventHandlerDefinition[] existing = this.dispatchTable.putIfAbsent(eventType, handlers);
+
+                if (existing != null) {
+                    handlers = existing;
+                }
+            }
+
+            return handlers;
+        }
+
+        /**
+         * <p>
+         * Collects the handlers for the given event type and all its superclasses and interfaces, from the most specific type to
+         * the most generic one.
+         * </p>
+         *
+         * @param eventType
+         * @return
+         */
+        private EventHandlerDefinition[] resolve(Class<?> eventType) {
+            if (this.observers.isEmpty()) {
+                return NO_HANDLERS;
+            }
+
+            Set<Class<?>> hierarchy = new LinkedHashSet<Class<?>>();
+
+            for (Class<?> type = eventType; type != null && type != Object.class; type = type.getSuperclass()) {
+                hierarchy.add(type);
+            }
+
+            for (Class<?> type = eventType; type != null; type = type.getSuperclass()) {
+                collectInterfaces(type, hierarchy);
+            }
+
+            hierarchy.add(Object.class);
+
+            List<EventHandlerDefinition> handlers = new ArrayList<EventHandlerDefinition>();
+
+            for (Class<?> type : hierarchy) {
+                List<EventHandlerDefinition> typeHandlers = this.observers.get(type);
+
+                if (typeHandlers != null) {
+                    handlers.addAll(typeHandlers);
+                }
+            }
+
+            if (handlers.isEmpty()) {
+                return NO_HANDLERS;
+            }
+
+            return handlers.toArray(new EventHandlerDefinition[handlers.size()]);
+        }
+
+        private void collectInterfaces(Class<?> type, Set<Class<?>> hierarchy) {
+            for (Class<?> interfaceType : type.getInterfaces()) {
+                if (hierarchy.add(interfaceType)) {
+                    collectInterfaces(interfaceType, hierarchy);
+                }
+            }
+        }
+
+        Map<Class<?>, List<EventHandlerDefinition>> copyObservers() {
+            Map<Class<?>, List<EventHandlerDefinition>> copy = new HashMap<Class<?>, List<EventHandlerDefinition>>();
+
+            for (Map.Entry<Class<?>, List<EventHandlerDefinition>> entry : this.observers.entrySet()) {
+                copy.put(entry.getKey(), new ArrayList<EventHandlerDefinition>(entry.getValue()));
+            }
 
-            handlers.add(new EventHandlerDefinition(eventType, handler, method));
+            return copy;
         }
     }
 
@@ -22,6 +22,7 @@
 
 package org.picketbox.core.event;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 /**
@@ -42,6 +43,42 @@ public class EventHandlerDefinition {
         this.event = event;
         this.instance = instance;
         this.methodHandler = handler;
+
+        // access checks are resolved once here instead of on every dispatch
+        if (!this.methodHandler.isAccessible()) {
+            try {
+                this.methodHandler.setAccessible(true);
+            } catch (SecurityException ignore) {
+                // not allowed by the security manager, keep the checked invocation
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Invokes the handler method with the given event. Exceptions thrown by the handler are unwrapped from the
+     * {@link InvocationTargetException}.
+     * </p>
+     *
+     * @param event
+     * @throws Exception
+     */
+    public void invoke(Object event) throws Exception {
+        try {
+            this.methodHandler.invoke(this.instance, event);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
     }
 
     public Object getInstance() {
@@ -55,4 +92,29 @@ public class EventHandlerDefinition {
     public Class<?> getEvent() {
         return this.event;
     }
+
+    /**
+     * <p>
+     * Two definitions are equal if they refer to the same handler instance and method.
+     * </p>
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof EventHandlerDefinition)) {
+            return false;
+        }
+
+        EventHandlerDefinition other = (EventHandlerDefinition) obj;
+
+        return this.instance == other.instance && this.methodHandler.equals(other.methodHandler);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(this.instance) + this.methodHandler.hashCode();
+    }
 }
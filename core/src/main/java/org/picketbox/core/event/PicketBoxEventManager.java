@@ -49,4 +49,13 @@ public interface PicketBoxEventManager {
      * @param defaultSessionEventHandler
      */
     void addHandler(Object handler);
+
+    /**
+     * <p>
+     * Removes all the event handler methods registered for the given handler instance.
+     * </p>
+     *
+     * @param handler
+     */
+    void removeHandler(Object handler);
 }
@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.identity;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.picketbox.core.event.EventObserver;
+import org.picketbox.core.identity.event.GroupCreatedEvent;
+import org.picketbox.core.identity.event.GroupRemovedEvent;
+import org.picketbox.core.identity.event.GroupUpdatedEvent;
+import org.picketbox.core.identity.event.RoleCreatedEvent;
+import org.picketbox.core.identity.event.RoleRemovedEvent;
+import org.picketbox.core.identity.event.RoleUpdatedEvent;
+import org.picketbox.core.identity.event.UserCreatedEvent;
+import org.picketbox.core.identity.event.UserRemovedEvent;
+import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Tracks changes to users, roles and groups, so that a {@link org.picketbox.core.UserContext} populated earlier can be reused
+ * as long as nothing it was populated from has changed.
+ * </p>
+ * <p>
+ * Every user, role or group event advances a generation counter. A {@link Stamp} taken before a user context is populated
+ * records the generation at that time. The stamp is current while neither the user nor any role or group changed after it
+ * was taken. Users are tracked in a fixed number of slots, so a change to one user may also invalidate the stamps of a few
+ * others. That only costs an extra population.
+ * </p>
+ * <p>
+ * Stamps are only meaningful for the tracker that created them. A stamp from another tracker, for example one restored
+ * from a session created on another node, is never current.
+ * </p>
+ */
+public class IdentityChangeTracker {
+
+    private static final int USER_SLOTS = 1024;
+
+    private final long instanceId = new SecureRandom().nextLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong lastSharedChange = new AtomicLong();
+    private final AtomicLongArray lastUserChange = new AtomicLongArray(USER_SLOTS);
+
+    /**
+     * <p>
+     * Returns a stamp for the current generation. Take it before reading the identity store.
+     * </p>
+     *
+     * @return
+     */
+    public Stamp stamp() {
+        return new Stamp(this.instanceId, this.generation.get());
+    }
+
+    /**
+     * <p>
+     * Checks if nothing that affects the given user changed since the stamp was taken.
+     * </p>
+     *
+     * @param userName
+     * @param stamp
+     * @return
+     */
+    public boolean isCurrent(String userName, Stamp stamp) {
+        if (stamp == null || stamp.instanceId != this.instanceId || userName == null) {
+            return false;
+        }
+
+        return this.lastSharedChange.get() <= stamp.generation
+                && this.lastUserChange.get(slot(userName)) <= stamp.generation;
+    }
+
+    /**
+     * <p>
+     * Records a change to the given user.
+     * </p>
+     *
+     * @param userName
+     */
+    public void userChanged(String userName) {
+        long changed = this.generation.incrementAndGet();
+        int slot = slot(userName);
+
+        while (true) {
+            long current = this.lastUserChange.get(slot);
+
+            if (current >= changed || this.lastUserChange.compareAndSet(slot, current, changed)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Records a change that may affect any user, like a role or group change.
+     * </p>
+     */
+    public void sharedChanged() {
+        long changed = this.generation.incrementAndGet();
+
+        while (true) {
+            long current = this.lastSharedChange.get();
+
+            if (current >= changed || this.lastSharedChange.compareAndSet(current, changed)) {
+                return;
+            }
+        }
+    }
+
+    @EventObserver
+    public void onUserCreated(UserCreatedEvent event) {
+        userChanged(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserUpdated(UserUpdatedEvent event) {
+        userChanged(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserRemoved(UserRemovedEvent event) {
+        userChanged(event.getUser());
+    }
+
+    @EventObserver
+    public void onRoleCreated(RoleCreatedEvent event) {
+        sharedChanged();
+    }
+
+    @EventObserver
+    public void onRoleUpdated(RoleUpdatedEvent event) {
+        sharedChanged();
+    }
+
+    @EventObserver
+    public void onRoleRemoved(RoleRemovedEvent event) {
+        sharedChanged();
+    }
+
+    @EventObserver
+    public void onGroupCreated(GroupCreatedEvent event) {
+        sharedChanged();
+    }
+
+    @EventObserver
+    public void onGroupUpdated(GroupUpdatedEvent event) {
+        sharedChanged();
+    }
+
+    @EventObserver
+    public void onGroupRemoved(GroupRemovedEvent event) {
+        sharedChanged();
+    }
+
+    private void userChanged(User user) {
+        if (user == null || user.getLoginName() == null) {
+            sharedChanged();
+        } else {
+            userChanged(user.getLoginName());
+        }
+    }
+
+    private static int slot(String userName) {
+        return userName.hashCode() & (USER_SLOTS - 1);
+    }
+
+    /**
+     * <p>
+     * The generation of an {@link IdentityChangeTracker} at the time a user context was populated.
+     * </p>
+     */
+    public static final class Stamp implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long instanceId;
+        private final long generation;
+
+        Stamp(long instanceId, long generation) {
+            this.instanceId = instanceId;
+            this.generation = generation;
+        }
+
+        /**
+         * <p>
+         * Restores a stamp written by a session codec. It is only current for the tracker it was taken from.
+         * </p>
+         *
+         * @param instanceId
+         * @param generation
+         * @return
+         */
+        public static Stamp restore(long instanceId, long generation) {
+            return new Stamp(instanceId, generation);
+        }
+
+        public long getInstanceId() {
+            return this.instanceId;
+        }
+
+        public long getGeneration() {
+            return this.generation;
+        }
+
+        @Override
+        public String toString() {
+            return "Stamp [generation=" + this.generation + "]";
+        }
+    }
+}
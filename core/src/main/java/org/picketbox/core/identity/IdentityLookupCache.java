@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.identity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded cache for the results of identity store lookups. Entries expire after a fixed time to live and the least recently
+ * used entries are evicted when the cache is full.
+ * </p>
+ * <p>
+ * Lookups that found nothing are cached as well, so repeated requests for an unknown user do not reach the store either.
+ * </p>
+ * <p>
+ * A value loaded while the cache was invalidated is returned to the caller but not cached, so a lookup that raced with an
+ * update never brings back the old value.
+ * </p>
+ *
+ * @param <K> the lookup key.
+ * @param <V> the type of the identity being looked up.
+ */
+public class IdentityLookupCache<K, V> {
+
+    private final long timeToLive;
+    private final Map<K, CachedValue<V>> entries;
+
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public IdentityLookupCache(final int maxSize, long timeToLiveInMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero.");
+        }
+
+        if (timeToLiveInMillis <= 0) {
+            throw new IllegalArgumentException("The time to live must be greater than zero.");
+        }
+
+        this.timeToLive = timeToLiveInMillis;
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Returns the cached value for the given key, or loads it with the given {@link Loader} if it is not cached or expired.
+     * </p>
+     *
+     * @param key
+     * @param loader
+     * @return
+     */
+    public V get(K key, Loader<K, V> loader) {
+        long loadGeneration;
+
+        synchronized (this.entries) {
+            CachedValue<V> cached = this.entries.get(key);
+
+            if (cached != null) {
+                if (cached.expiresAt > System.currentTimeMillis()) {
+                    this.hits.incrementAndGet();
+                    return cached.value;
+                }
+
+                this.entries.remove(key);
+            }
+
+            loadGeneration = this.generation;
+        }
+
+        this.misses.incrementAndGet();
+
+        V value = loader.load(key);
+
+        synchronized (this.entries) {
+            if (this.generation == loadGeneration) {
+                this.entries.put(key, new CachedValue<V>(value, System.currentTimeMillis() + this.timeToLive));
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * <p>
+     * Removes the entry for the given key.
+     * </p>
+     *
+     * @param key
+     */
+    public void invalidate(K key) {
+        synchronized (this.entries) {
+            this.generation++;
+            this.entries.remove(key);
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries.
+     * </p>
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.generation++;
+            this.entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * <p>
+     * Loads a value from the identity store when it is not cached.
+     * </p>
+     *
+     * @param <K>
+     * @param <V>
+     */
+    public interface Loader<K, V> {
+
+        V load(K key);
+
+    }
+
+    private static class CachedValue<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -22,6 +22,11 @@
 
 package org.picketbox.core.identity;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Date;
 
 import javax.persistence.EntityManager;
@@ -31,6 +36,7 @@ import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.config.GlobalIdentityManagerConfiguration;
 import org.picketbox.core.config.IdentityManagerConfiguration;
 import org.picketbox.core.config.JPAIdentityManagerConfiguration;
+import org.picketbox.core.event.EventObserver;
 import org.picketbox.core.identity.event.GroupCreatedEvent;
 import org.picketbox.core.identity.event.GroupRemovedEvent;
 import org.picketbox.core.identity.event.GroupUpdatedEvent;
@@ -40,6 +46,7 @@ import org.picketbox.core.identity.event.RoleUpdatedEvent;
 import org.picketbox.core.identity.event.UserCreatedEvent;
 import org.picketbox.core.identity.event.UserRemovedEvent;
 import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketbox.core.util.StreamUtil;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.config.IdentityConfiguration;
 import org.picketlink.idm.config.IdentityStoreConfiguration;
@@ -63,6 +70,13 @@ import org.picketlink.idm.spi.StoreFactory;
  * <p>
  * PicketBox default implementation for the PicketLink {@link IdentityManager} interface.
  * </p>
+ * <p>
+ * If caching is enabled (see {@link GlobalIdentityManagerConfiguration#getCacheSize()}), the results of
+ * {@link #getUser(String)}, {@link #getRole(String)}, {@link #getGroup(String)} and {@link #isMember(IdentityType, Group)} are
+ * kept in an {@link IdentityLookupCache}. Entries are invalidated by the user, role and group events raised by this class and
+ * when group memberships change. Cached users are mutable, so {@link #getUser(String)} always returns a copy of the cached
+ * instance: changes made by a caller are only seen by the others once they are stored with {@link #update(IdentityType)}.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
@@ -75,10 +89,62 @@ public class PicketBoxIdentityManager implements IdentityManager {
     private GlobalIdentityManagerConfiguration configuration;
     private IdentityManager delegate;
 
+    private IdentityLookupCache<String, User> userCache;
+    private IdentityLookupCache<String, Role> roleCache;
+    private IdentityLookupCache<String, Group> groupCache;
+    private IdentityLookupCache<Membership, Boolean> membershipCache;
+
+    private final IdentityLookupCache.Loader<String, User> userLoader = new IdentityLookupCache.Loader<String, User>() {
+        @Override
+        public User load(String id) {
+            return PicketBoxIdentityManager.this.delegate.getUser(id);
+        }
+    };
+
+    private final IdentityLookupCache.Loader<String, Role> roleLoader = new IdentityLookupCache.Loader<String, Role>() {
+        @Override
+        public Role load(String name) {
+            return PicketBoxIdentityManager.this.delegate.getRole(name);
+        }
+    };
+
+    private final IdentityLookupCache.Loader<String, Group> groupLoader = new IdentityLookupCache.Loader<String, Group>() {
+        @Override
+        public Group load(String groupId) {
+            return PicketBoxIdentityManager.this.delegate.getGroup(groupId);
+        }
+    };
+
+    private final IdentityLookupCache.Loader<Membership, Boolean> membershipLoader =
+            new IdentityLookupCache.Loader<Membership, Boolean>() {
+        @Override
+        public Boolean load(Membership membership) {
+            return PicketBoxIdentityManager.this.delegate.isMember(membership.identityType, membership.group);
+        }
+    };
+
     public PicketBoxIdentityManager(PicketBoxManager picketboxManager) {
         this.picketboxManager = picketboxManager;
         this.configuration = this.picketboxManager.getConfiguration().getIdentityManager();
         initIdentityManager();
+        initCaches();
+    }
+
+    private void initCaches() {
+        int cacheSize = this.configuration.getCacheSize();
+
+        if (cacheSize <= 0) {
+            return;
+        }
+
+        long timeToLive = this.configuration.getCacheTimeToLive();
+
+        this.userCache = new IdentityLookupCache<String, User>(cacheSize, timeToLive);
+        this.roleCache = new IdentityLookupCache<String, Role>(cacheSize, timeToLive);
+        this.groupCache = new IdentityLookupCache<String, Group>(cacheSize, timeToLive);
+        this.membershipCache = new IdentityLookupCache<Membership, Boolean>(cacheSize, timeToLive);
+
+        this.picketboxManager.getEventManager().addHandler(this);
     }
 
     private void initIdentityManager() {
@@ -166,13 +232,33 @@ public class PicketBoxIdentityManager implements IdentityManager {
         return this.delegate.getAgent(id);
     }
 
+    /**
+     * <p>
+     * Returns the user with the given id. When caching is enabled the result is a copy of the cached user, so the cached instance
+     * is never changed by the callers.
+     * </p>
+     */
     @Override
     public User getUser(String id) {
+        if (this.userCache != null) {
+            User cachedUser = this.userCache.get(id, this.userLoader);
+
+            if (cachedUser != null) {
+                return copyOf(cachedUser);
+            }
+
+            return null;
+        }
+
         return this.delegate.getUser(id);
     }
 
     @Override
     public Group getGroup(String groupId) {
+        if (this.groupCache != null) {
+            return this.groupCache.get(groupId, this.groupLoader);
+        }
+
         return this.delegate.getGroup(groupId);
     }
 
@@ -183,6 +269,10 @@ public class PicketBoxIdentityManager implements IdentityManager {
 
     @Override
     public boolean isMember(IdentityType identityType, Group group) {
+        if (this.membershipCache != null) {
+            return this.membershipCache.get(new Membership(identityType, group), this.membershipLoader);
+        }
+
         return this.delegate.isMember(identityType, group);
     }
 
@@ -196,10 +286,16 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void removeFromGroup(Agent member, Group group) {
         this.delegate.removeFromGroup(member, group);
+        clearMemberships();
+        raiseMembershipChanged(member);
     }
 
     @Override
     public Role getRole(String name) {
+        if (this.roleCache != null) {
+            return this.roleCache.get(name, this.roleLoader);
+        }
+
         return this.delegate.getRole(name);
     }
 
@@ -211,11 +307,13 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void grantGroupRole(IdentityType identityType, Role role, Group group) {
         this.delegate.grantGroupRole(identityType, role, group);
+        raiseMembershipChanged(identityType);
     }
 
     @Override
     public void revokeGroupRole(IdentityType member, Role role, Group group) {
         this.delegate.revokeGroupRole(member, role, group);
+        raiseMembershipChanged(member);
     }
 
     @Override
@@ -226,11 +324,13 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void grantRole(IdentityType identityType, Role role) {
         this.delegate.grantRole(identityType, role);
+        raiseMembershipChanged(identityType);
     }
 
     @Override
     public void revokeRole(IdentityType identityType, Role role) {
         this.delegate.revokeRole(identityType, role);
+        raiseMembershipChanged(identityType);
     }
 
     @Override
@@ -246,11 +346,19 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void updateCredential(Agent agent, Object value) {
         this.delegate.updateCredential(agent, value);
+
+        if (User.class.isInstance(agent)) {
+            raiseEvent(new UserUpdatedEvent((User) agent));
+        }
     }
 
     @Override
     public void updateCredential(Agent agent, Object value, Date effectiveDate, Date expiryDate) {
         this.delegate.updateCredential(agent, value, effectiveDate, expiryDate);
+
+        if (User.class.isInstance(agent)) {
+            raiseEvent(new UserUpdatedEvent((User) agent));
+        }
     }
 
     /*
@@ -305,16 +413,19 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void add(Relationship value) {
         delegate.add(value);
+        clearMemberships();
     }
 
     @Override
     public void update(Relationship value) {
         delegate.update(value);
+        clearMemberships();
     }
 
     @Override
     public void remove(Relationship value) {
         delegate.remove(value);
+        clearMemberships();
     }
 
     @Override
@@ -327,6 +438,22 @@ public class PicketBoxIdentityManager implements IdentityManager {
         return delegate.createRelationshipQuery(relationshipType);
     }
 
+    /**
+     * <p>
+     * Raises an update event for the given user or group when its roles or group memberships changed, so that caches holding
+     * them are invalidated.
+     * </p>
+     *
+     * @param identityType
+     */
+    private void raiseMembershipChanged(IdentityType identityType) {
+        if (User.class.isInstance(identityType)) {
+            raiseEvent(new UserUpdatedEvent((User) identityType));
+        } else if (Group.class.isInstance(identityType)) {
+            raiseEvent(new GroupUpdatedEvent((Group) identityType));
+        }
+    }
+
     private void raiseEvent(Object event) {
         this.picketboxManager.getEventManager().raiseEvent(event);
     }
@@ -334,6 +461,198 @@ public class PicketBoxIdentityManager implements IdentityManager {
     @Override
     public void addToGroup(Agent agent, Group group) {
         delegate.addToGroup(agent, group);
+        clearMemberships();
+        raiseMembershipChanged(agent);
+    }
+
+    @EventObserver
+    public void onUserCreated(UserCreatedEvent event) {
+        invalidateUser(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserUpdated(UserUpdatedEvent event) {
+        invalidateUser(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserRemoved(UserRemovedEvent event) {
+        invalidateUser(event.getUser());
+        clearMemberships();
+    }
+
+    @EventObserver
+    public void onRoleCreated(RoleCreatedEvent event) {
+        invalidateRole(event.getRole());
+    }
+
+    @EventObserver
+    public void onRoleUpdated(RoleUpdatedEvent event) {
+        invalidateRole(event.getRole());
+    }
+
+    @EventObserver
+    public void onRoleRemoved(RoleRemovedEvent event) {
+        invalidateRole(event.getRole());
+    }
+
+    @EventObserver
+    public void onGroupCreated(GroupCreatedEvent event) {
+        clearGroups();
+    }
+
+    @EventObserver
+    public void onGroupUpdated(GroupUpdatedEvent event) {
+        clearGroups();
+    }
+
+    @EventObserver
+    public void onGroupRemoved(GroupRemovedEvent event) {
+        clearGroups();
+    }
+
+    /**
+     * <p>
+     * Returns the cache for {@link #getUser(String)}, or null if caching is disabled.
+     * </p>
+     *
+     * @return
+     */
+    public IdentityLookupCache<String, User> getUserCache() {
+        return this.userCache;
+    }
+
+    /**
+     * <p>
+     * Returns the cache for {@link #getRole(String)}, or null if caching is disabled.
+     * </p>
+     *
+     * @return
+     */
+    public IdentityLookupCache<String, Role> getRoleCache() {
+        return this.roleCache;
+    }
+
+    /**
+     * <p>
+     * Returns the cache for {@link #getGroup(String)}, or null if caching is disabled.
+     * </p>
+     *
+     * @return
+     */
+    public IdentityLookupCache<String, Group> getGroupCache() {
+        return this.groupCache;
+    }
+
+    /**
+     * <p>
+     * Returns the cache for {@link #isMember(IdentityType, Group)}, or null if caching is disabled.
+     * </p>
+     *
+     * @return
+     */
+    public IdentityLookupCache<Membership, Boolean> getMembershipCache() {
+        return this.membershipCache;
+    }
+
+    /**
+     * <p>
+     * Copies a cached user by serializing it, as sessions already do with the users they hold. If the user can not be copied it
+     * is loaded again from the underlying identity manager.
+     * </p>
+     *
+     * @param user the cached user
+     * @return a copy of the given user
+     */
+    private User copyOf(User user) {
+        ObjectOutputStream output = null;
+        ObjectInputStream input = null;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            output = new ObjectOutputStream(bytes);
+            output.writeObject(user);
+            output.flush();
+
+            input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+            return (User) input.readObject();
+        } catch (IOException e) {
+            return this.delegate.getUser(user.getLoginName());
+        } catch (ClassNotFoundException e) {
+            return this.delegate.getUser(user.getLoginName());
+        } finally {
+            StreamUtil.safeClose(output);
+            StreamUtil.safeClose(input);
+        }
+    }
+
+    private void invalidateUser(User user) {
+        if (this.userCache != null && user != null) {
+            this.userCache.invalidate(user.getLoginName());
+        }
+    }
+
+    private void invalidateRole(Role role) {
+        if (this.roleCache != null && role != null) {
+            this.roleCache.invalidate(role.getName());
+        }
+    }
+
+    private void clearGroups() {
+        if (this.groupCache != null) {
+            // groups are looked up by identifier, which is not always known from the event. They change rarely.
+            this.groupCache.clear();
+        }
+
+        clearMemberships();
+    }
+
+    private void clearMemberships() {
+        if (this.membershipCache != null) {
+            this.membershipCache.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Key for the {@link #isMember(IdentityType, Group)} cache.
+     * </p>
+     */
+    public static final class Membership {
+
+        private final IdentityType identityType;
+        private final Group group;
+
+        Membership(IdentityType identityType, Group group) {
+            this.identityType = identityType;
+            this.group = group;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hashCode(this.identityType) + hashCode(this.group);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Membership)) {
+                return false;
+            }
+
+            Membership other = (Membership) obj;
+
+            return equals(this.identityType, other.identityType) && equals(this.group, other.group);
+        }
+
+        private static int hashCode(Object value) {
+            return value == null ? 0 : value.hashCode();
+        }
+
+        private static boolean equals(Object value, Object other) {
+            return value == null ? other == null : value.equals(other);
+        }
     }
 
 }
\ No newline at end of file
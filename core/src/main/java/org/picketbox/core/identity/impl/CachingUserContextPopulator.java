@@ -0,0 +1,412 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.identity.impl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.picketbox.core.PicketBoxLifecycle;
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.event.EventObserver;
+import org.picketbox.core.identity.IdentityLookupCache;
+import org.picketbox.core.identity.event.GroupCreatedEvent;
+import org.picketbox.core.identity.event.GroupRemovedEvent;
+import org.picketbox.core.identity.event.GroupUpdatedEvent;
+import org.picketbox.core.identity.event.RoleCreatedEvent;
+import org.picketbox.core.identity.event.RoleRemovedEvent;
+import org.picketbox.core.identity.event.RoleUpdatedEvent;
+import org.picketbox.core.identity.event.UserCreatedEvent;
+import org.picketbox.core.identity.event.UserRemovedEvent;
+import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * A {@link DefaultUserContextPopulator} that caches the user, roles and groups loaded for each user, and that runs the role
+ * and group queries concurrently when they have to go to the identity store.
+ * </p>
+ * <p>
+ * Cached entries expire after a fixed time to live. They are also invalidated by the user, role and group events raised by the
+ * {@link org.picketbox.core.identity.PicketBoxIdentityManager}. A user's entry is dropped when the user changes, and all
+ * entries are dropped when a role or group changes.
+ * </p>
+ * <p>
+ * The users given to {@link #preload(String...)} are loaded in the background when the populator is started.
+ * </p>
+ * <p>
+ * When it is configured as the user populator of the identity manager, the PicketBox manager sets the {@link IdentityManager},
+ * registers the populator as an event handler and starts and stops it.
+ * </p>
+ */
+public class CachingUserContextPopulator extends DefaultUserContextPopulator implements PicketBoxLifecycle {
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private final IdentityLookupCache<String, Memberships> cache;
+
+    private final IdentityLookupCache.Loader<String, Memberships> loader =
+            new IdentityLookupCache.Loader<String, Memberships>() {
+        @Override
+        public Memberships load(String userName) {
+            return loadMemberships(userName);
+        }
+    };
+
+    private final List<String> preloadedUsers = new ArrayList<String>();
+    private int threads = DEFAULT_THREADS;
+
+    private volatile ExecutorService executor;
+    private volatile boolean started;
+
+    public CachingUserContextPopulator(int maxSize, long timeToLiveInMillis) {
+        this(null, maxSize, timeToLiveInMillis);
+    }
+
+    public CachingUserContextPopulator(IdentityManager identityManager, int maxSize, long timeToLiveInMillis) {
+        super(identityManager);
+        this.cache = new IdentityLookupCache<String, Memberships>(maxSize, timeToLiveInMillis);
+    }
+
+    /**
+     * <p>
+     * Sets the number of threads used to run the group queries and to preload users.
+     * </p>
+     *
+     * @param threads
+     * @return
+     */
+    public CachingUserContextPopulator threads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be greater than zero.");
+        }
+
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * <p>
+     * Adds users that should be loaded into the cache when the populator is started.
+     * </p>
+     *
+     * @param userNames
+     * @return
+     */
+    public CachingUserContextPopulator preload(String... userNames) {
+        this.preloadedUsers.addAll(Arrays.asList(userNames));
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.identity.impl.DefaultUserContextPopulator#getIdentity(org.picketbox.core.UserContext)
+     */
+    @Override
+    public UserContext getIdentity(UserContext authenticatedUserContext) {
+        if (authenticatedUserContext == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("authenticatedUserContext");
+        }
+
+        Principal principal = authenticatedUserContext.getPrincipal();
+
+        Memberships memberships = this.cache.get(principal.getName(), this.loader);
+
+        authenticatedUserContext.setUser(memberships.user);
+        authenticatedUserContext.setRoles(memberships.roles);
+        authenticatedUserContext.setGroups(memberships.groups);
+
+        return authenticatedUserContext;
+    }
+
+    /**
+     * <p>
+     * Loads the given users into the cache in the background. If the populator is not started the users are loaded on the
+     * caller's thread. Users loaded in the background run their role and group queries one after the other, on the same pool
+     * thread.
+     * </p>
+     *
+     * @param userNames
+     */
+    public void warmUp(Collection<String> userNames) {
+        ExecutorService currentExecutor = this.executor;
+
+        for (final String userName : userNames) {
+            if (currentExecutor == null) {
+                this.cache.get(userName, this.loader);
+                continue;
+            }
+
+            currentExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    CachingUserContextPopulator.this.cache.get(userName, CachingUserContextPopulator.this.loader);
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>
+     * Removes the cached entry for the given user.
+     * </p>
+     *
+     * @param userName
+     */
+    public void invalidate(String userName) {
+        this.cache.invalidate(userName);
+    }
+
+    /**
+     * <p>
+     * Removes all cached entries.
+     * </p>
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public IdentityLookupCache<String, Memberships> getCache() {
+        return this.cache;
+    }
+
+    @EventObserver
+    public void onUserCreated(UserCreatedEvent event) {
+        invalidate(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserUpdated(UserUpdatedEvent event) {
+        invalidate(event.getUser());
+    }
+
+    @EventObserver
+    public void onUserRemoved(UserRemovedEvent event) {
+        invalidate(event.getUser());
+    }
+
+    @EventObserver
+    public void onRoleCreated(RoleCreatedEvent event) {
+        clear();
+    }
+
+    @EventObserver
+    public void onRoleUpdated(RoleUpdatedEvent event) {
+        clear();
+    }
+
+    @EventObserver
+    public void onRoleRemoved(RoleRemovedEvent event) {
+        clear();
+    }
+
+    @EventObserver
+    public void onGroupCreated(GroupCreatedEvent event) {
+        clear();
+    }
+
+    @EventObserver
+    public void onGroupUpdated(GroupUpdatedEvent event) {
+        clear();
+    }
+
+    @EventObserver
+    public void onGroupRemoved(GroupRemovedEvent event) {
+        clear();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (this.started) {
+            throw PicketBoxMessages.MESSAGES.instanceAlreadyStarted();
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new PoolThread(CachingUserContextPopulator.this, runnable,
+                                "PicketBox-UserContextPopulator-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // threads are only kept while there is work to do
+        pool.allowCoreThreadTimeOut(true);
+
+        this.executor = pool;
+        this.started = true;
+
+        warmUp(this.preloadedUsers);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!this.started) {
+            throw PicketBoxMessages.MESSAGES.instanceAlreadyStopped();
+        }
+
+        this.started = false;
+        this.executor.shutdownNow();
+        this.executor = null;
+        this.cache.clear();
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    @Override
+    public boolean stopped() {
+        return !this.started;
+    }
+
+    private Memberships loadMemberships(String userName) {
+        final User user = getIdentityManager().getUser(userName);
+        ExecutorService currentExecutor = this.executor;
+
+        // a pool thread, warming up the cache, never waits for another task of the pool: with all threads warming up no
+        // thread would be left to run the group queries
+        if (currentExecutor == null || isPoolThread()) {
+            return new Memberships(user, getRoles(user), getGroups(user));
+        }
+
+        // the group query runs on the pool while this thread runs the role query
+        Future<List<Group>> groups = currentExecutor.submit(new Callable<List<Group>>() {
+            @Override
+            public List<Group> call() throws Exception {
+                return getGroups(user);
+            }
+        });
+
+        List<Role> roles;
+
+        try {
+            roles = getRoles(user);
+        } catch (RuntimeException e) {
+            groups.cancel(true);
+            throw e;
+        }
+
+        try {
+            return new Memberships(user, roles, groups.get());
+        } catch (InterruptedException e) {
+            groups.cancel(true);
+            Thread.currentThread().interrupt();
+            throw PicketBoxMessages.MESSAGES.failedToPopulateUserContext(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw PicketBoxMessages.MESSAGES.failedToPopulateUserContext(e.getCause());
+        }
+    }
+
+    private boolean isPoolThread() {
+        Thread currentThread = Thread.currentThread();
+
+        return currentThread instanceof PoolThread && ((PoolThread) currentThread).populator == this;
+    }
+
+    private void invalidate(User user) {
+        if (user != null && user.getLoginName() != null) {
+            invalidate(user.getLoginName());
+        }
+    }
+
+    /**
+     * <p>
+     * A thread of the pool of a populator.
+     * </p>
+     */
+    private static class PoolThread extends Thread {
+
+        private final CachingUserContextPopulator populator;
+
+        PoolThread(CachingUserContextPopulator populator, Runnable runnable, String name) {
+            super(runnable, name);
+            this.populator = populator;
+        }
+    }
+
+    /**
+     * <p>
+     * The user, roles and groups cached for an user name. The lists are shared by all {@link UserContext} instances populated
+     * from the same entry and can not be modified.
+     * </p>
+     */
+    public static final class Memberships {
+
+        private final User user;
+        private final List<Role> roles;
+        private final List<Group> groups;
+
+        Memberships(User user, List<Role> roles, List<Group> groups) {
+            this.user = user;
+            this.roles = unmodifiable(roles);
+            this.groups = unmodifiable(groups);
+        }
+
+        public User getUser() {
+            return this.user;
+        }
+
+        public List<Role> getRoles() {
+            return this.roles;
+        }
+
+        public List<Group> getGroups() {
+            return this.groups;
+        }
+
+        private static <T> List<T> unmodifiable(List<T> list) {
+            if (list == null) {
+                return null;
+            }
+
+            return Collections.unmodifiableList(new ArrayList<T>(list));
+        }
+    }
+}
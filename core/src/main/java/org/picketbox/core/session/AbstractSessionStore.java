@@ -22,8 +22,8 @@
 package org.picketbox.core.session;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.picketbox.core.AbstractPicketBoxLifeCycle;
 
@@ -36,7 +36,7 @@ import org.picketbox.core.AbstractPicketBoxLifeCycle;
  */
 public abstract class AbstractSessionStore extends AbstractPicketBoxLifeCycle implements SessionStore {
 
-    protected Map<Serializable, PicketBoxSession> sessions = new HashMap<Serializable, PicketBoxSession>();
+    protected Map<Serializable, PicketBoxSession> sessions = new ConcurrentHashMap<Serializable, PicketBoxSession>();
 
     /*
      * (non-Javadoc)
@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.session;
+
+/**
+ * <p>
+ * {@link SessionStore} told about the accesses to the sessions it keeps. Stores that return a new instance on every load
+ * implement it to persist the last access time, so a session that is only read is not found expired when it is loaded again.
+ * </p>
+ * <p>
+ * Touches are coalesced by the session touch interval, so the stored access time may lag behind by that interval.
+ * </p>
+ *
+ */
+public interface AccessTrackingSessionStore extends SessionStore {
+
+    /**
+     * <p>
+     * Extends the idle time of a session already in the store.
+     * </p>
+     *
+     * @param session
+     */
+    void touch(PicketBoxSession session);
+
+}
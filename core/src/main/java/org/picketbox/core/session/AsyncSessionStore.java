@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+
+import org.picketbox.core.PicketBoxLifecycle;
+
+/**
+ * <p>
+ * Non-blocking counterpart of the {@link SessionStore}. Operations return immediately and their result is provided by a
+ * {@link SessionFuture}.
+ * </p>
+ * <p>
+ * Blocking stores can be used through an {@link AsyncSessionStoreAdapter}, and non-blocking stores can be used where a
+ * {@link SessionStore} is expected through a {@link SyncSessionStoreAdapter}.
+ * </p>
+ */
+public interface AsyncSessionStore extends PicketBoxLifecycle {
+
+    /**
+     * <p>
+     * Loads a {@link PicketBoxSession} given its {@link SessionId}.
+     * </p>
+     *
+     * @param key
+     * @return the session, or null if there is no session with the given id.
+     */
+    SessionFuture<PicketBoxSession> loadAsync(SessionId<? extends Serializable> key);
+
+    /**
+     * <p>
+     * Stores a {@link PicketBoxSession}.
+     * </p>
+     *
+     * @param session
+     * @return
+     */
+    SessionFuture<Void> storeAsync(PicketBoxSession session);
+
+    /**
+     * <p>
+     * Removes a {@link PicketBoxSession}.
+     * </p>
+     *
+     * @param id
+     * @return
+     */
+    SessionFuture<Void> removeAsync(SessionId<? extends Serializable> id);
+
+    /**
+     * <p>
+     * Updates a {@link PicketBoxSession}.
+     * </p>
+     *
+     * @param session
+     * @return
+     */
+    SessionFuture<Void> updateAsync(PicketBoxSession session);
+
+}
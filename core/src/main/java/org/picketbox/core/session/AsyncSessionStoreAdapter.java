@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+
+/**
+ * <p>
+ * {@link AsyncSessionStore} running the operations of a blocking {@link SessionStore} on a bounded pool of threads.
+ * </p>
+ * <p>
+ * Operations submitted while all threads are busy and the queue is full fail with a {@link RejectedExecutionException}, instead
+ * of blocking the caller. The underlying store is started and stopped with this adapter, unless it was already started.
+ * </p>
+ */
+public class AsyncSessionStoreAdapter extends AbstractPicketBoxLifeCycle implements AsyncSessionStore {
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    private final SessionStore delegate;
+    private final int threads;
+    private final int queueSize;
+
+    private volatile ThreadPoolExecutor executor;
+    private boolean delegateStarted;
+
+    public AsyncSessionStoreAdapter(SessionStore delegate) {
+        this(delegate, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * <p>
+     * Creates an adapter for the given store.
+     * </p>
+     *
+     * @param delegate the underlying store.
+     * @param threads maximum number of operations running at the same time.
+     * @param queueSize maximum number of operations waiting for a thread.
+     */
+    public AsyncSessionStoreAdapter(SessionStore delegate, int threads, int queueSize) {
+        this.delegate = delegate;
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public SessionFuture<PicketBoxSession> loadAsync(final SessionId<? extends Serializable> key) {
+        return submit(new Operation<PicketBoxSession>() {
+            @Override
+            PicketBoxSession run() {
+                return delegate.load(key);
+            }
+        });
+    }
+
+    @Override
+    public SessionFuture<Void> storeAsync(final PicketBoxSession session) {
+        return submit(new Operation<Void>() {
+            @Override
+            Void run() {
+                delegate.store(session);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public SessionFuture<Void> removeAsync(final SessionId<? extends Serializable> id) {
+        return submit(new Operation<Void>() {
+            @Override
+            Void run() {
+                delegate.remove(id);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public SessionFuture<Void> updateAsync(final PicketBoxSession session) {
+        return submit(new Operation<Void>() {
+            @Override
+            Void run() {
+                delegate.update(session);
+                return null;
+            }
+        });
+    }
+
+    public SessionStore getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    protected void doStart() {
+        if (!this.delegate.started()) {
+            this.delegate.start();
+            this.delegateStarted = true;
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(this.queueSize), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PicketBox-AsyncSessionStore-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // threads are only kept while there is work to do
+        pool.allowCoreThreadTimeOut(true);
+
+        this.executor = pool;
+    }
+
+    @Override
+    protected void doStop() {
+        ThreadPoolExecutor pool = this.executor;
+
+        this.executor = null;
+
+        if (pool != null) {
+            pool.shutdown();
+
+            try {
+                pool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (this.delegateStarted) {
+            this.delegate.stop();
+            this.delegateStarted = false;
+        }
+    }
+
+    private <T> SessionFuture<T> submit(final Operation<T> operation) {
+        checkIfStarted();
+
+        final SessionFuture<T> future = new SessionFuture<T>();
+
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        // cancelled while waiting for a thread
+                        return;
+                    }
+
+                    T result;
+
+                    try {
+                        result = operation.run();
+                    } catch (RuntimeException e) {
+                        future.fail(e);
+                        return;
+                    }
+
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.fail(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * <p>
+     * An operation of the underlying store.
+     * </p>
+     */
+    private abstract static class Operation<T> {
+
+        abstract T run();
+
+    }
+}
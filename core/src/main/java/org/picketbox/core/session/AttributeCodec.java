@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Encodes values of a specific type for the {@link BinarySessionCodec}. Codecs are looked up by the exact class of the value
+ * and identified in the encoded data by the name of the type, so every node that decodes a session must register a codec for
+ * the same types.
+ * </p>
+ *
+ * @param <T> the type supported by this codec.
+ */
+public interface AttributeCodec<T> {
+
+    /**
+     * <p>
+     * Returns the type of the values supported by this codec.
+     * </p>
+     *
+     * @return
+     */
+    Class<T> getType();
+
+    /**
+     * <p>
+     * Writes the given value.
+     * </p>
+     *
+     * @param value
+     * @param output
+     * @throws IOException
+     */
+    void write(T value, SessionDataOutput output) throws IOException;
+
+    /**
+     * <p>
+     * Reads a value written by {@link #write(Object, SessionDataOutput)}.
+     * </p>
+     *
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    T read(SessionDataInput input) throws IOException;
+}
@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.picketbox.core.PicketBoxPrincipal;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.UserContextCodec;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+
+/**
+ * <p>
+ * Default {@link SessionCodec}. Sessions are written in a compact and versioned binary format, where the state of the session
+ * and its {@link UserContext} is written field by field and attribute values are written by the {@link AttributeCodec}
+ * registered for their types.
+ * </p>
+ * <p>
+ * Codecs are provided for the session identifier, the {@link UserContext}, {@link PicketBoxPrincipal} and for
+ * {@link SimpleRole} and {@link SimpleGroup}, which are written by name only. Additional codecs can be registered using
+ * {@link #register(AttributeCodec)}, replacing the default codec for the same type if necessary. Values without a codec, and
+ * sessions that are subclasses of {@link PicketBoxSession}, are written using Java serialization.
+ * </p>
+ */
+public class BinarySessionCodec implements SessionCodec {
+
+    static final int MAGIC = 0x5042;
+
+    /*
+     * Version 2 added the identity stamp of the user context. Sessions written with version 1 can still be read.
+     */
+    static final int VERSION = 2;
+    static final int MIN_VERSION = 1;
+
+    private static final byte FIELDS_SESSION = 0;
+    private static final byte SERIALIZED_SESSION = 1;
+
+    /*
+     * Limits the number of role and group names shared between decoded sessions.
+     */
+    private static final int MAX_CANONICAL_NAMES = 10000;
+
+    private final ConcurrentMap<Class<?>, AttributeCodec<?>> codecsByType = new ConcurrentHashMap<Class<?>, AttributeCodec<?>>();
+    private final ConcurrentMap<String, AttributeCodec<?>> codecsByName = new ConcurrentHashMap<String, AttributeCodec<?>>();
+    private final ConcurrentMap<String, String> canonicalNames = new ConcurrentHashMap<String, String>();
+
+    public BinarySessionCodec() {
+        register(new SessionIdCodec());
+        register(new PrincipalCodec());
+        register(new RoleCodec());
+        register(new GroupCodec());
+        register(new UserContextCodec());
+    }
+
+    /**
+     * <p>
+     * Registers a codec for the values of a specific type.
+     * </p>
+     *
+     * @param codec
+     */
+    public void register(AttributeCodec<?> codec) {
+        this.codecsByType.put(codec.getType(), codec);
+        this.codecsByName.put(codec.getType().getName(), codec);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionCodec#encode(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public byte[] encode(PicketBoxSession session) throws IOException {
+        SessionDataOutput output = new SessionDataOutput(this);
+
+        if (session.getClass() != PicketBoxSession.class) {
+            output.writeByte(SERIALIZED_SESSION);
+            output.writeSerialized(session);
+        } else {
+            output.writeByte(FIELDS_SESSION);
+            output.writeObject(session.id);
+            output.writeBoolean(session.invalid);
+            output.writeVarLong(session.getCreationDate().getTime());
+            output.writeVarLong(session.getLastAccessedTime());
+            writeAttributes(session.attributes, output);
+            writeAttributes(session.applicationAttributes, output);
+            output.writeObject(session.userContext);
+        }
+
+        return output.toByteArray();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionCodec#decode(byte[])
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public PicketBoxSession decode(byte[] data) throws IOException {
+        SessionDataInput input = new SessionDataInput(this, data);
+
+        if (input.readByte() == SERIALIZED_SESSION) {
+            return (PicketBoxSession) input.readObject();
+        }
+
+        PicketBoxSession session = new PicketBoxSession((SessionId<? extends Serializable>) input.readObject());
+
+        session.invalid = input.readBoolean();
+
+        long creationTime = input.readVarLong();
+
+        session.restoreTimestamps(creationTime, input.readVarLong());
+
+        readAttributes(session.attributes, input);
+        readAttributes(session.applicationAttributes, input);
+
+        session.userContext = (UserContext) input.readObject();
+
+        return session;
+    }
+
+    AttributeCodec<?> getCodec(Class<?> type) {
+        return this.codecsByType.get(type);
+    }
+
+    AttributeCodec<?> getCodec(String typeName) {
+        return this.codecsByName.get(typeName);
+    }
+
+    String canonicalName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        String canonical = this.canonicalNames.get(name);
+
+        if (canonical == null) {
+            if (this.canonicalNames.size() >= MAX_CANONICAL_NAMES) {
+                return name;
+            }
+
+            canonical = this.canonicalNames.putIfAbsent(name, name);
+
+            if (canonical == null) {
+                canonical = name;
+            }
+        }
+
+        return canonical;
+    }
+
+    private void writeAttributes(Map<String, Object> attributes, SessionDataOutput output) throws IOException {
+        // entries added while writing are not counted, so the entries are copied first
+        Object[] entries = attributes.entrySet().toArray();
+
+        output.writeVarInt(entries.length);
+
+        for (Object object : entries) {
+            @SuppressWarnings("unchecked")
+            Entry<String, Object> entry = (Entry<String, Object>) object;
+
+            output.writeString(entry.getKey());
+            output.writeObject(entry.getValue());
+        }
+    }
+
+    private void readAttributes(Map<String, Object> attributes, SessionDataInput input) throws IOException {
+        int size = input.readVarInt();
+
+        for (int i = 0; i < size; i++) {
+            attributes.put(input.readString(), input.readObject());
+        }
+    }
+
+    private static class SessionIdCodec implements AttributeCodec<DefaultSessionId> {
+
+        @Override
+        public Class<DefaultSessionId> getType() {
+            return DefaultSessionId.class;
+        }
+
+        @Override
+        public void write(DefaultSessionId value, SessionDataOutput output) {
+            output.writeString(value.getId());
+        }
+
+        @Override
+        public DefaultSessionId read(SessionDataInput input) throws IOException {
+            return new DefaultSessionId(input.readString());
+        }
+    }
+
+    private static class PrincipalCodec implements AttributeCodec<PicketBoxPrincipal> {
+
+        @Override
+        public Class<PicketBoxPrincipal> getType() {
+            return PicketBoxPrincipal.class;
+        }
+
+        @Override
+        public void write(PicketBoxPrincipal value, SessionDataOutput output) {
+            output.writeString(value.getName());
+        }
+
+        @Override
+        public PicketBoxPrincipal read(SessionDataInput input) throws IOException {
+            return new PicketBoxPrincipal(input.readName());
+        }
+    }
+
+    private static class RoleCodec implements AttributeCodec<SimpleRole> {
+
+        @Override
+        public Class<SimpleRole> getType() {
+            return SimpleRole.class;
+        }
+
+        @Override
+        public void write(SimpleRole value, SessionDataOutput output) {
+            output.writeString(value.getName());
+        }
+
+        @Override
+        public SimpleRole read(SessionDataInput input) throws IOException {
+            return new SimpleRole(input.readName());
+        }
+    }
+
+    private static class GroupCodec implements AttributeCodec<SimpleGroup> {
+
+        @Override
+        public Class<SimpleGroup> getType() {
+            return SimpleGroup.class;
+        }
+
+        @Override
+        public void write(SimpleGroup value, SessionDataOutput output) {
+            output.writeString(value.getName());
+        }
+
+        @Override
+        public SimpleGroup read(SessionDataInput input) throws IOException {
+            return new SimpleGroup(input.readName());
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
+
+/**
+ * <p>
+ * In-memory {@link SessionStore} designed for concurrent access. Sessions are spread over a fixed number of shards, each one
+ * guarded by its own lock, and the number of stored sessions is kept in a counter.
+ * </p>
+ * <p>
+ * A maximum number of sessions can be defined. When a new session exceeds it, a session is evicted according to the
+ * {@link SessionEvictionPolicy} and expired, which raises a {@link org.picketbox.core.session.event.SessionExpiredEvent}. The
+ * candidates of every shard are compared, so the victim is chosen across the whole store: with
+ * {@link SessionEvictionPolicy#LRU} it is the least recently used session of the store, and with
+ * {@link SessionEvictionPolicy#OLDEST_IDLE} the oldest idle session among the least recently used ones of each shard.
+ * </p>
+ *
+ */
+public class ConcurrentSessionStore extends AbstractPicketBoxLifeCycle implements SessionStore {
+
+    /**
+     * Default number of shards.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * Number of least recently used sessions of a shard that are inspected when looking for the oldest idle session.
+     */
+    private static final int IDLE_SAMPLE_SIZE = 16;
+
+    /**
+     * Number of times the selection of a victim is repeated when the selected session is used before it could be evicted.
+     */
+    private static final int MAX_EVICTION_ATTEMPTS = 3;
+
+    private Logger log = Logger.getLogger(ConcurrentSessionStore.class);
+
+    private final Shard[] shards;
+    private final int mask;
+    private final int maxSessions;
+    private final SessionEvictionPolicy evictionPolicy;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong evictedSessions = new AtomicLong();
+
+    /**
+     * <p>
+     * Creates a store without a limit of sessions.
+     * </p>
+     */
+    public ConcurrentSessionStore() {
+        this(0, SessionEvictionPolicy.LRU);
+    }
+
+    /**
+     * @param maxSessions the maximum number of sessions. Zero or less means no limit.
+     * @param evictionPolicy
+     */
+    public ConcurrentSessionStore(int maxSessions, SessionEvictionPolicy evictionPolicy) {
+        this(maxSessions, evictionPolicy, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param maxSessions the maximum number of sessions. Zero or less means no limit.
+     * @param evictionPolicy
+     * @param shardCount number of shards, rounded up to a power of two
+     */
+    public ConcurrentSessionStore(int maxSessions, SessionEvictionPolicy evictionPolicy, int shardCount) {
+        int count = 1;
+
+        while (count < shardCount) {
+            count <<= 1;
+        }
+
+        this.shards = new Shard[count];
+
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard();
+        }
+
+        this.mask = count - 1;
+        this.maxSessions = maxSessions;
+        this.evictionPolicy = evictionPolicy == null ? SessionEvictionPolicy.LRU : evictionPolicy;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#load(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public PicketBoxSession load(SessionId<? extends Serializable> key) {
+        Shard shard = shardFor(key.getId());
+
+        synchronized (shard) {
+            Slot slot = shard.sessions.get(key.getId());
+
+            if (slot == null) {
+                return null;
+            }
+
+            slot.lastUsed = this.clock.incrementAndGet();
+
+            return slot.session;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#store(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void store(PicketBoxSession session) {
+        Serializable key = session.getId().getId();
+        Shard shard = shardFor(key);
+        Slot previous;
+
+        synchronized (shard) {
+            previous = shard.sessions.put(key, new Slot(session, this.clock.incrementAndGet()));
+
+            if (previous != null) {
+                previous.detached = true;
+            }
+        }
+
+        if (previous == null && this.size.incrementAndGet() > this.maxSessions && this.maxSessions > 0) {
+            evict(key);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#remove(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        Shard shard = shardFor(id.getId());
+        Slot removed;
+
+        synchronized (shard) {
+            removed = shard.sessions.remove(id.getId());
+
+            if (removed != null) {
+                removed.detached = true;
+            }
+        }
+
+        if (removed != null) {
+            this.size.decrementAndGet();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#update(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void update(PicketBoxSession session) {
+        store(session);
+    }
+
+    /**
+     * <p>
+     * Returns the number of stored sessions.
+     * </p>
+     *
+     * @return
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    public int getMaxSessions() {
+        return this.maxSessions;
+    }
+
+    public SessionEvictionPolicy getEvictionPolicy() {
+        return this.evictionPolicy;
+    }
+
+    /**
+     * <p>
+     * Returns the number of sessions evicted because the maximum number of sessions was reached.
+     * </p>
+     *
+     * @return
+     */
+    public long getEvictedSessions() {
+        return this.evictedSessions.get();
+    }
+
+    @Override
+    protected void doStart() {
+    }
+
+    @Override
+    protected void doStop() {
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                this.size.addAndGet(-shard.sessions.size());
+                shard.sessions.clear();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Evicts one session, other than the one identified by the given key, and expires it.
+     * </p>
+     * <p>
+     * Each shard is locked in turn to select its candidate, and the victim is the oldest of those candidates. If the victim is
+     * used or removed before its shard is locked again, the selection is repeated.
+     * </p>
+     *
+     * @param newKey
+     */
+    private void evict(Serializable newKey) {
+        for (int attempt = 0; attempt < MAX_EVICTION_ATTEMPTS; attempt++) {
+            Shard victimShard = null;
+            Slot victim = null;
+            long victimStamp = 0;
+
+            for (Shard shard : this.shards) {
+                synchronized (shard) {
+                    Slot candidate = shard.selectVictim(this.evictionPolicy, newKey);
+
+                    if (candidate != null && (victim == null || isOlder(candidate, victim))) {
+                        victimShard = shard;
+                        victim = candidate;
+                        victimStamp = candidate.lastUsed;
+                    }
+                }
+            }
+
+            if (victim == null) {
+                return;
+            }
+
+            boolean evicted = false;
+
+            synchronized (victimShard) {
+                if (!victim.detached && victim.lastUsed == victimStamp) {
+                    victimShard.sessions.remove(victim.session.getId().getId());
+                    victim.detached = true;
+                    evicted = true;
+                }
+            }
+
+            if (evicted) {
+                this.size.decrementAndGet();
+                this.evictedSessions.incrementAndGet();
+                expire(victim.session);
+                return;
+            }
+        }
+    }
+
+    private boolean isOlder(Slot candidate, Slot victim) {
+        if (this.evictionPolicy == SessionEvictionPolicy.LRU) {
+            return candidate.lastUsed < victim.lastUsed;
+        }
+
+        return candidate.session.getLastAccessedTime() < victim.session.getLastAccessedTime();
+    }
+
+    private void expire(PicketBoxSession session) {
+        if (!session.isValid()) {
+            return;
+        }
+
+        try {
+            session.expire();
+        } catch (PicketBoxSessionException e) {
+            this.log.error("Session Eviction Error:", e);
+        }
+    }
+
+    private Shard shardFor(Serializable key) {
+        return this.shards[spread(key.hashCode()) & this.mask];
+    }
+
+    private static int spread(int hash) {
+        int h = hash;
+
+        h ^= (h >>> 20) ^ (h >>> 12);
+
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * <p>
+     * A stored session and the last time, in ticks of the store's clock, it was loaded or stored. Only modified holding the
+     * lock of its shard.
+     * </p>
+     */
+    private static class Slot {
+
+        private final PicketBoxSession session;
+        private long lastUsed;
+        private boolean detached;
+
+        Slot(PicketBoxSession session, long lastUsed) {
+            this.session = session;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static class Shard {
+
+        private final LinkedHashMap<Serializable, Slot> sessions = new LinkedHashMap<Serializable, Slot>(16, 0.75f, true);
+
+        /**
+         * <p>
+         * Selects the candidate of this shard to be evicted. Must be called holding the shard lock.
+         * </p>
+         */
+        Slot selectVictim(SessionEvictionPolicy policy, Serializable excludedKey) {
+            Slot victim = null;
+            int inspected = 0;
+
+            for (Iterator<Entry<Serializable, Slot>> iterator = this.sessions.entrySet().iterator(); iterator.hasNext()
+                    && inspected < IDLE_SAMPLE_SIZE;) {
+                Entry<Serializable, Slot> entry = iterator.next();
+
+                if (entry.getKey().equals(excludedKey)) {
+                    continue;
+                }
+
+                Slot candidate = entry.getValue();
+
+                if (policy == SessionEvictionPolicy.LRU) {
+                    return candidate;
+                }
+
+                if (victim == null || candidate.session.getLastAccessedTime() < victim.session.getLastAccessedTime()) {
+                    victim = candidate;
+                }
+
+                inspected++;
+            }
+
+            return victim;
+        }
+    }
+}
@@ -23,11 +23,10 @@
 package org.picketbox.core.session;
 
 import org.picketbox.core.event.EventObserver;
-import org.picketbox.core.exceptions.PicketBoxSessionException;
 import org.picketbox.core.session.event.SessionCreatedEvent;
 import org.picketbox.core.session.event.SessionExpiredEvent;
-import org.picketbox.core.session.event.SessionGetAttributeEvent;
 import org.picketbox.core.session.event.SessionInvalidatedEvent;
+import org.picketbox.core.session.event.SessionRemoveAttributeEvent;
 import org.picketbox.core.session.event.SessionSetAttributeEvent;
 
 /**
@@ -53,20 +52,15 @@ public class DefaultSessionEventHandler {
 
     @EventObserver
     public void onSetAttribute(SessionSetAttributeEvent event) {
-        this.sessionManager.update(event.getSession());
+        if (!isDeferAttributeWrites()) {
+            this.sessionManager.flush(event.getSession());
+        }
     }
 
     @EventObserver
-    public void onGetAttribute(SessionGetAttributeEvent event) {
-        PicketBoxSession storedSession = this.sessionManager.retrieve(event.getSession().getId());
-
-        if (storedSession != null) {
-            try {
-                event.getSession().setAttribute(event.getAttributeName(),
-                        storedSession.getAttributes().get(event.getAttributeName()));
-            } catch (PicketBoxSessionException e) {
-                throw new IllegalStateException("Unable to update session with stored attribute.", e);
-            }
+    public void onRemoveAttribute(SessionRemoveAttributeEvent event) {
+        if (!isDeferAttributeWrites()) {
+            this.sessionManager.flush(event.getSession());
         }
     }
 
@@ -80,4 +74,9 @@ public class DefaultSessionEventHandler {
         this.sessionManager.remove(event.getSession());
     }
 
+    private boolean isDeferAttributeWrites() {
+        return this.sessionManager instanceof DefaultSessionManager
+                && ((DefaultSessionManager) this.sessionManager).isDeferAttributeWrites();
+    }
+
 }
@@ -25,25 +25,41 @@ package org.picketbox.core.session;
 import static org.picketbox.core.PicketBoxMessages.MESSAGES;
 
 import java.io.Serializable;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 import org.picketbox.core.AbstractPicketBoxLifeCycle;
 import org.picketbox.core.PicketBoxManager;
 import org.picketbox.core.UserContext;
 import org.picketbox.core.config.PicketBoxConfiguration;
 import org.picketbox.core.event.PicketBoxEventManager;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
 import org.picketbox.core.session.event.SessionCreatedEvent;
 
 /**
  * Default implementation of the {@link SessionManager}
  *
+ * Sessions can also be retrieved and restored without blocking the caller, see {@link #retrieveAsync(SessionId)} and
+ * {@link #restoreSessionAsync(UserContext)}. Stores implementing {@link AsyncSessionStore} are used directly, others are run
+ * on a bounded pool of threads.
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
 public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements SessionManager {
 
     private SessionStore sessionStore;
+    private AsyncSessionStore asyncSessionStore;
     private final SessionExpirationManager sessionExpirationManager;
     private PicketBoxManager picketBoxManager;
     private DefaultSessionEventHandler defaultSessionEventHandler = new DefaultSessionEventHandler(this);
+    private final long touchInterval;
+    private final boolean deferAttributeWrites;
+    private final SessionIdGenerator sessionIdGenerator;
+    private final PrincipalSessionIndex principalIndex;
+    private final int maxSessionsPerUser;
+    private final SessionLimitPolicy sessionLimitPolicy;
 
     /**
      * Construct the session manager
@@ -55,13 +71,55 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
 
         PicketBoxConfiguration configuration = this.picketBoxManager.getConfiguration();
 
-        this.sessionExpirationManager = new SessionExpirationManager(configuration);
         this.sessionStore = configuration.getSessionManager().getStore();
+        this.touchInterval = configuration.getSessionManager().getTouchInterval();
+        this.deferAttributeWrites = configuration.getSessionManager().isDeferAttributeWrites();
+
+        SessionIdGenerator configuredGenerator = configuration.getSessionManager().getSessionIdGenerator();
+
+        this.sessionIdGenerator = configuredGenerator != null ? configuredGenerator : new SecureSessionIdGenerator();
+
+        this.principalIndex = configuration.getSessionManager().isIndexByPrincipal() ? new PrincipalSessionIndex() : null;
+        this.maxSessionsPerUser = configuration.getSessionManager().getMaxSessionsPerUser();
+        this.sessionLimitPolicy = configuration.getSessionManager().getSessionLimitPolicy();
 
         if (this.sessionStore == null) {
             this.sessionStore = new InMemorySessionStore();
         }
 
+        SessionStore expirationStore = this.sessionStore;
+
+        // expiration and touches are not writes, so the store behind a write-behind store handles them directly
+        if (expirationStore instanceof WriteBehindSessionStore) {
+            expirationStore = ((WriteBehindSessionStore) expirationStore).getDelegate();
+        }
+
+        this.sessionExpirationManager = new SessionExpirationManager(configuration, new SessionTimingWheel.SessionLoader() {
+            @Override
+            public PicketBoxSession load(SessionId<? extends Serializable> id) {
+                PicketBoxSession session = sessionStore.load(id);
+
+                if (session != null) {
+                    prepare(session);
+                }
+
+                return session;
+            }
+        }, expirationStore, new ExpiringSessionStore.ExpirationListener() {
+            @Override
+            public void sessionExpired(PicketBoxSession session) {
+                prepare(session);
+
+                if (session.isValid()) {
+                    try {
+                        session.expire();
+                    } catch (PicketBoxSessionException e) {
+                        // already invalidated by another thread
+                    }
+                }
+            }
+        });
+
         registerDefaultEventHandler();
     }
 
@@ -74,26 +132,26 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
         PicketBoxEventManager eventManager = this.picketBoxManager.getEventManager();
 
         session.setEventManager(eventManager);
-
-        fireEvent(new SessionCreatedEvent(session));
+        session.setTouchInterval(this.touchInterval);
 
         if (session.getId() == null || session.getId().getId() == null) {
             throw new IllegalStateException("Invalid session id: " + session.getId());
         }
 
-        // checks for duplicate session id
-        if (this.sessionStore.load(session.getId()) != null) {
-            throw new IllegalStateException("Duplicate session id: " + session.getId());
+        // identifiers are unique by construction, see SessionIdGenerator, so the store is not checked for duplicates
+
+        if (this.principalIndex != null) {
+            index(session, authenticatedUserContext);
         }
 
+        fireEvent(new SessionCreatedEvent(session));
+
         authenticatedUserContext.setSession(session);
 
         this.sessionStore.store(session);
 
         this.sessionExpirationManager.setTimer(session);
 
-        eventManager.addHandler(sessionExpirationManager); // Let the session expiration manager listen on session events
-
         return session;
     }
 
@@ -101,13 +159,44 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
     public PicketBoxSession retrieve(SessionId<? extends Serializable> id) {
         checkIfStarted();
 
-        PicketBoxSession session = this.sessionStore.load(id);
+        return activate(this.sessionStore.load(id));
+    }
 
-        if (session != null) {
-            session.setEventManager(this.picketBoxManager.getEventManager());
-        }
+    /**
+     * <p>
+     * Retrieves a session without blocking the caller.
+     * </p>
+     *
+     * @param id
+     * @return the session, or null if there is no valid session with the given id.
+     */
+    public SessionFuture<PicketBoxSession> retrieveAsync(SessionId<? extends Serializable> id) {
+        checkIfStarted();
 
-        return session;
+        final SessionFuture<PicketBoxSession> result = new SessionFuture<PicketBoxSession>();
+
+        this.asyncSessionStore.loadAsync(id).addCallback(new SessionCallback<PicketBoxSession>() {
+            @Override
+            public void completed(PicketBoxSession session) {
+                PicketBoxSession activated;
+
+                try {
+                    activated = activate(session);
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                    return;
+                }
+
+                result.complete(activated);
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                result.fail(cause);
+            }
+        });
+
+        return result;
     }
 
     @Override
@@ -118,14 +207,53 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
             session = retrieve(userContext.getSession().getId());
         }
 
-        // check if the provided subject is marked as authenticated and if the session is valid
-        if (userContext.isAuthenticated()) {
-            if (session == null || !session.isValid()) {
-                throw MESSAGES.invalidUserSession();
+        checkRestoredSession(userContext, session);
+
+        return session;
+    }
+
+    /**
+     * <p>
+     * Restores the session of the given {@link UserContext} without blocking the caller. The future fails like
+     * {@link #restoreSession(UserContext)} if the user is authenticated and the session is no longer valid.
+     * </p>
+     *
+     * @param userContext
+     * @return
+     */
+    public SessionFuture<PicketBoxSession> restoreSessionAsync(final UserContext userContext) {
+        if (userContext.getSession() == null || userContext.getSession().getId() == null) {
+            try {
+                checkRestoredSession(userContext, null);
+            } catch (IllegalStateException e) {
+                return SessionFuture.failed(e);
             }
+
+            return SessionFuture.completed(null);
         }
 
-        return session;
+        final SessionFuture<PicketBoxSession> result = new SessionFuture<PicketBoxSession>();
+
+        retrieveAsync(userContext.getSession().getId()).addCallback(new SessionCallback<PicketBoxSession>() {
+            @Override
+            public void completed(PicketBoxSession session) {
+                try {
+                    checkRestoredSession(userContext, session);
+                } catch (IllegalStateException e) {
+                    result.fail(e);
+                    return;
+                }
+
+                result.complete(session);
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                result.fail(cause);
+            }
+        });
+
+        return result;
     }
 
     @Override
@@ -134,9 +262,55 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
 
         if (session != null) {
             this.sessionStore.remove(session.getId());
+
+            if (this.principalIndex != null) {
+                this.principalIndex.remove(session.getId());
+            }
         }
     }
 
+    @Override
+    public List<PicketBoxSession> findByPrincipal(String principalName) {
+        checkIfStarted();
+
+        if (this.principalIndex == null) {
+            throw MESSAGES.sessionsNotIndexedByPrincipal();
+        }
+
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+
+        for (SessionId<? extends Serializable> id : this.principalIndex.get(principalName)) {
+            PicketBoxSession session = this.sessionStore.load(id);
+
+            if (session != null && session.isValid()) {
+                sessions.add(session);
+            } else {
+                // removed from the store without going through this manager
+                this.principalIndex.remove(id);
+            }
+        }
+
+        return sessions;
+    }
+
+    @Override
+    public int invalidateAllFor(String principalName) {
+        int invalidated = 0;
+
+        for (PicketBoxSession session : findByPrincipal(principalName)) {
+            session.setEventManager(this.picketBoxManager.getEventManager());
+
+            try {
+                session.invalidate();
+                invalidated++;
+            } catch (PicketBoxSessionException e) {
+                // already invalidated by another thread
+            }
+        }
+
+        return invalidated;
+    }
+
     @Override
     public void update(PicketBoxSession session) {
         checkIfStarted();
@@ -144,20 +318,191 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
         this.sessionStore.update(session);
     }
 
+    @Override
+    public void flush(PicketBoxSession session) {
+        checkIfStarted();
+
+        if (session == null || !session.isValid()) {
+            return;
+        }
+
+        Set<String> dirtyAttributes = session.takeDirtyAttributes();
+
+        if (dirtyAttributes.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (this.sessionStore instanceof DeltaSessionStore) {
+                ((DeltaSessionStore) this.sessionStore).updateAttributes(session, dirtyAttributes);
+            } else {
+                this.sessionStore.update(session);
+            }
+        } catch (RuntimeException e) {
+            // keeps the changes so they are written on the next flush
+            session.markDirty(dirtyAttributes);
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if attribute changes are only written to the store when the session is flushed.
+     * </p>
+     *
+     * @return
+     */
+    public boolean isDeferAttributeWrites() {
+        return this.deferAttributeWrites;
+    }
+
     protected PicketBoxSession doCreateSession(UserContext authenticatedUserContext) {
-        return new PicketBoxSession(authenticatedUserContext, new DefaultSessionId());
+        return new PicketBoxSession(authenticatedUserContext, this.sessionIdGenerator.generate());
+    }
+
+    /**
+     * <p>
+     * Creates the {@link AsyncSessionStore} used to retrieve sessions asynchronously from a blocking store.
+     * </p>
+     *
+     * @param store
+     * @return
+     */
+    protected AsyncSessionStore createAsyncSessionStore(SessionStore store) {
+        return new AsyncSessionStoreAdapter(store);
     }
 
     @Override
     protected void doStart() {
         this.sessionStore.start();
+
+        if (this.sessionStore instanceof AsyncSessionStore) {
+            this.asyncSessionStore = (AsyncSessionStore) this.sessionStore;
+        } else {
+            this.asyncSessionStore = createAsyncSessionStore(this.sessionStore);
+            this.asyncSessionStore.start();
+        }
+
+        this.sessionExpirationManager.start();
     }
 
     @Override
     protected void doStop() {
+        this.sessionExpirationManager.stop();
+
+        if (this.asyncSessionStore != this.sessionStore) {
+            this.asyncSessionStore.stop();
+        }
+
         this.sessionStore.stop();
     }
 
+    /**
+     * <p>
+     * Adds the session to the principal index, enforcing the maximum number of sessions per user.
+     * </p>
+     */
+    private void index(PicketBoxSession session, UserContext authenticatedUserContext) {
+        Principal principal = authenticatedUserContext.getPrincipal();
+
+        if (principal == null) {
+            return;
+        }
+
+        String principalName = principal.getName();
+
+        while (!this.principalIndex.add(principalName, session.getId(), this.maxSessionsPerUser)) {
+            if (this.sessionLimitPolicy == SessionLimitPolicy.REJECT_NEW) {
+                throw MESSAGES.maximumSessionsReached(principalName);
+            }
+
+            PicketBoxSession oldest = null;
+
+            for (PicketBoxSession candidate : findByPrincipal(principalName)) {
+                if (oldest == null || candidate.getCreationDate().before(oldest.getCreationDate())) {
+                    oldest = candidate;
+                }
+            }
+
+            if (oldest != null) {
+                try {
+                    oldest.setEventManager(this.picketBoxManager.getEventManager());
+                    oldest.invalidate();
+                } catch (PicketBoxSessionException e) {
+                    // already invalidated by another thread
+                }
+
+                // the invalidation event removes the session from the store, but not if the handler was replaced
+                this.principalIndex.remove(oldest.getId());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Prepares a session loaded from the store and checks if it expired.
+     * </p>
+     *
+     * @param session
+     * @return the session, or null if it expired.
+     */
+    private PicketBoxSession activate(PicketBoxSession session) {
+        if (session != null) {
+            prepare(session);
+
+            if (session.isValid() && this.sessionExpirationManager.isExpired(session)) {
+                expire(session);
+                return null;
+            }
+
+            this.sessionExpirationManager.setTimer(session);
+        }
+
+        return session;
+    }
+
+    /**
+     * <p>
+     * Checks if the provided user context is marked as authenticated and if the session is valid.
+     * </p>
+     *
+     * @throws IllegalStateException if the user is authenticated but the session is not valid.
+     */
+    private void checkRestoredSession(UserContext userContext, PicketBoxSession session) {
+        if (userContext.isAuthenticated()) {
+            if (session == null || !session.isValid()) {
+                throw MESSAGES.invalidUserSession();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Prepares a session loaded from the store to be used by this manager.
+     * </p>
+     *
+     * @param session
+     */
+    private void prepare(PicketBoxSession session) {
+        session.setEventManager(this.picketBoxManager.getEventManager());
+        session.setTouchInterval(this.touchInterval);
+    }
+
+    /**
+     * <p>
+     * Expires a session that was not accessed within the configured timeout.
+     * </p>
+     *
+     * @param session
+     */
+    private void expire(PicketBoxSession session) {
+        try {
+            session.expire();
+        } catch (PicketBoxSessionException e) {
+            throw MESSAGES.unableToInvalidateSession(e);
+        }
+    }
+
     /**
      * <p>
      * Fires the specified event.
@@ -171,11 +516,19 @@ public class DefaultSessionManager extends AbstractPicketBoxLifeCycle implements
 
     /**
      * <p>
-     * Registers the default implementation for {@link SessionEventHandler}.
+     * Registers the default implementation for {@link SessionEventHandler} and lets the {@link SessionExpirationManager} listen
+     * on session events. Handlers are registered only once, not for each created session.
      * </p>
      */
     private void registerDefaultEventHandler() {
-        this.picketBoxManager.getEventManager().addHandler(this.defaultSessionEventHandler);
+        PicketBoxEventManager eventManager = this.picketBoxManager.getEventManager();
+
+        eventManager.addHandler(this.defaultSessionEventHandler);
+        eventManager.addHandler(this.sessionExpirationManager);
+    }
+
+    protected SessionIdGenerator getSessionIdGenerator() {
+        return this.sessionIdGenerator;
     }
 
     protected PicketBoxManager getPicketBoxManager() {
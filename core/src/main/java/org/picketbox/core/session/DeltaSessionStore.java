@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.Set;
+
+/**
+ * <p>
+ * {@link SessionStore} able to write only the attributes that changed, instead of the whole session. The
+ * {@link DefaultSessionManager} uses it when flushing sessions with changed attributes.
+ * </p>
+ */
+public interface DeltaSessionStore extends SessionStore {
+
+    /**
+     * <p>
+     * Writes the given attributes of a session already in the store. Attributes no longer in the session were removed.
+     * </p>
+     *
+     * @param session
+     * @param changedAttributes names of the attributes set or removed since the session was last written.
+     */
+    void updateAttributes(PicketBoxSession session, Set<String> changedAttributes);
+
+}
@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+/**
+ * <p>
+ * {@link SessionStore} able to expire sessions by itself, for example by giving a maximum idle time to the entries of a
+ * distributed cache. The {@link DefaultSessionManager} delegates the session timeout to these stores instead of keeping
+ * timers for the sessions it created.
+ * </p>
+ */
+public interface ExpiringSessionStore extends AccessTrackingSessionStore {
+
+    /**
+     * <p>
+     * Enables the expiration of sessions not accessed within the given time. Called before the store is started.
+     * </p>
+     *
+     * @param maxIdleInMillis
+     * @param listener notified about each expired session.
+     */
+    void setExpiration(long maxIdleInMillis, ExpirationListener listener);
+
+    /**
+     * <p>
+     * Notified about the sessions expired by an {@link ExpiringSessionStore}.
+     * </p>
+     */
+    interface ExpirationListener {
+
+        /**
+         * @param session the expired session, still valid.
+         */
+        void sessionExpired(PicketBoxSession session);
+    }
+}
@@ -21,6 +21,13 @@
  */
 package org.picketbox.core.session;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,67 +35,593 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.util.StreamUtil;
 
 /**
- * A {@link SessionStore} that serializes/deserializes sessions from a file
+ * <p>
+ * A {@link SessionStore} that persists sessions to the file system.
+ * </p>
+ * <p>
+ * The store keeps a snapshot file with all the sessions and a write-ahead journal. Every store, update and remove
+ * operation appends a single checksummed record to the journal, so the cost of an operation depends only on the
+ * size of the session being written. Records written concurrently are made durable by a single group commit.
+ * </p>
+ * <p>
+ * When the store is created the snapshot is loaded and the journals are replayed on top of it, stopping at the first
+ * incomplete or corrupted record. When started, the store periodically compacts the journal into a new snapshot. A final
+ * compaction is done when the store is stopped.
+ * </p>
+ * <p>
+ * Sessions are written using a {@link SessionCodec}, by default the {@link BinarySessionCodec}. Snapshots written by previous
+ * versions, containing the serialized map of sessions, are still loaded.
+ * </p>
  *
  * @author anil saldhana
  * @since Aug 22, 2012
  */
 public class FileSessionStore extends AbstractSessionStore {
+
+    private static final long DEFAULT_COMPACTION_INTERVAL = 60000;
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final String JOURNAL_SUFFIX = ".journal.";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String BACKUP_SUFFIX = ".old";
+
+    private static final byte STORE_RECORD = 1;
+    private static final byte REMOVE_RECORD = 2;
+
+    private static final int SNAPSHOT_MAGIC = 0x50425353;
+
     private String sessionFileName = "PBOXSESSION.DAT";
+    private long compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private SessionCodec codec = new BinarySessionCodec();
+
+    /*
+     * Guards the journal stream and the session map, so records are appended in the same order the changes are applied.
+     */
+    private final Object journalLock = new Object();
+
+    /*
+     * Only one thread at a time forces the journal to disk. Threads waiting on this lock have their records made durable
+     * by the thread that holds it.
+     */
+    private final Object syncLock = new Object();
+
+    /*
+     * Only one compaction at a time writes the snapshot and deletes the journals it replaces.
+     */
+    private final Object compactionLock = new Object();
+
+    private FileOutputStream journal;
+    private long generation;
+    private long journalSize;
+    private long writtenRecords;
+    private volatile long syncedRecords;
+
+    private ScheduledExecutorService compactionExecutor;
 
     public FileSessionStore() {
         loadFromFile();
     }
 
     public FileSessionStore(String sessionFileName) {
+        this(sessionFileName, DEFAULT_COMPACTION_INTERVAL, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * <p>
+     * Creates a store using the given file and compaction settings.
+     * </p>
+     *
+     * @param sessionFileName the snapshot file name. Journals are created next to it.
+     * @param compactionInterval how often, in milliseconds, the journal size is checked.
+     * @param compactionThreshold the journal size, in bytes, that triggers a compaction.
+     */
+    public FileSessionStore(String sessionFileName, long compactionInterval, long compactionThreshold) {
+        this(sessionFileName, compactionInterval, compactionThreshold, new BinarySessionCodec());
+    }
+
+    /**
+     * <p>
+     * Creates a store using the given file, compaction settings and {@link SessionCodec}.
+     * </p>
+     *
+     * @param sessionFileName the snapshot file name. Journals are created next to it.
+     * @param compactionInterval how often, in milliseconds, the journal size is checked.
+     * @param compactionThreshold the journal size, in bytes, that triggers a compaction.
+     * @param codec the codec used to write the sessions.
+     */
+    public FileSessionStore(String sessionFileName, long compactionInterval, long compactionThreshold, SessionCodec codec) {
         if (sessionFileName == null) {
             throw PicketBoxMessages.MESSAGES.invalidNullArgument("sessionFileName");
         }
+        if (codec == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("codec");
+        }
         this.sessionFileName = sessionFileName;
+        this.compactionInterval = compactionInterval;
+        this.compactionThreshold = compactionThreshold;
+        this.codec = codec;
         loadFromFile();
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AbstractSessionStore#store(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void store(PicketBoxSession session) {
+        Serializable key = session.getId().getId();
+        sync(append(STORE_RECORD, key, session));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AbstractSessionStore#update(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void update(PicketBoxSession session) {
+        store(session);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AbstractSessionStore#remove(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        sync(append(REMOVE_RECORD, id.getId(), null));
+    }
+
+    @Override
+    protected void doStart() {
+        if (this.compactionInterval > 0) {
+            this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PicketBox-FileSessionStore-Compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            this.compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (getJournalSize() >= compactionThreshold) {
+                        compact();
+                    }
+                }
+            }, this.compactionInterval, this.compactionInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
     @Override
     protected void doStop() {
+        if (this.compactionExecutor != null) {
+            this.compactionExecutor.shutdown();
+
+            try {
+                this.compactionExecutor.awaitTermination(this.compactionInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.compactionExecutor = null;
+        }
+
+        compact();
+
+        synchronized (this.journalLock) {
+            StreamUtil.safeClose(this.journal);
+            this.journal = null;
+        }
+
         super.doStop();
-        storeToFile();
     }
 
+    /**
+     * <p>
+     * Returns the number of bytes written to the current journal since the last compaction.
+     * </p>
+     *
+     * @return
+     */
+    public long getJournalSize() {
+        synchronized (this.journalLock) {
+            return this.journalSize;
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the current sessions to a new snapshot and discards the journals that it replaces. The snapshot is written to
+     * a temporary file and renamed over the previous one, so a crash during compaction leaves the previous snapshot and
+     * journals intact. Concurrent compactions run one after the other.
+     * </p>
+     */
+    public void compact() {
+        synchronized (this.compactionLock) {
+            doCompact();
+        }
+    }
+
+    private void doCompact() {
+        Map<Serializable, PicketBoxSession> snapshot;
+        long snapshotGeneration;
+
+        synchronized (this.syncLock) {
+            synchronized (this.journalLock) {
+                if (this.journal != null) {
+                    try {
+                        this.journal.getChannel().force(false);
+                    } catch (IOException e) {
+                        throw PicketBoxMessages.MESSAGES.unableToStoreToFile(getJournalName(this.generation), e);
+                    } finally {
+                        StreamUtil.safeClose(this.journal);
+                        this.journal = null;
+                    }
+                }
+
+                snapshotGeneration = this.generation;
+                snapshot = new HashMap<Serializable, PicketBoxSession>(this.sessions);
+
+                // new records go to the next journal, which is not covered by this snapshot
+                this.generation++;
+                this.journalSize = 0;
+                this.syncedRecords = this.writtenRecords;
+            }
+        }
+
+        storeToFile(snapshot);
+
+        for (Long journalGeneration : listJournals()) {
+            if (journalGeneration <= snapshotGeneration) {
+                new File(getJournalName(journalGeneration)).delete();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Loads the snapshot and replays the journals on top of it. If any journal was found, the recovered state is compacted
+     * into a new snapshot.
+     * </p>
+     */
     @SuppressWarnings("unchecked")
     protected void loadFromFile() {
-        ObjectInputStream ois = null;
+        this.sessions.clear();
+
+        File file = new File(this.sessionFileName);
+        File backupFile = new File(this.sessionFileName + BACKUP_SUFFIX);
+
+        // a compaction stopped while replacing the snapshot, the previous one was moved aside
+        if (backupFile.exists()) {
+            if (file.exists()) {
+                backupFile.delete();
+            } else if (!backupFile.renameTo(file)) {
+                throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.sessionFileName, null);
+            }
+        }
+
+        if (file.exists()) {
+            DataInputStream dis = null;
+
+            try {
+                dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                dis.mark(4);
+
+                if (dis.readInt() == SNAPSHOT_MAGIC) {
+                    int size = dis.readInt();
+
+                    for (int i = 0; i < size; i++) {
+                        byte[] data = new byte[dis.readInt()];
+
+                        dis.readFully(data);
+
+                        PicketBoxSession session = this.codec.decode(data);
+
+                        this.sessions.put(session.getId().getId(), session);
+                    }
+                } else {
+                    dis.reset();
+                    this.sessions.putAll((Map<? extends Serializable, ? extends PicketBoxSession>) new ObjectInputStream(dis)
+                            .readObject());
+                }
+            } catch (IOException e) {
+                throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.sessionFileName, e);
+            } catch (ClassNotFoundException e) {
+                throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.sessionFileName, e);
+            } finally {
+                StreamUtil.safeClose(dis);
+            }
+        }
+
+        List<Long> journals = listJournals();
+
+        // replaying a journal already covered by the snapshot is harmless: the last record for each session wins either way
+        for (Long journalGeneration : journals) {
+            replay(getJournalName(journalGeneration));
+            this.generation = journalGeneration;
+        }
+
+        if (!journals.isEmpty()) {
+            compact();
+        }
+    }
+
+    protected void storeToFile() {
+        synchronized (this.compactionLock) {
+            storeToFile(new HashMap<Serializable, PicketBoxSession>(this.sessions));
+        }
+    }
+
+    private void storeToFile(Map<Serializable, PicketBoxSession> snapshot) {
+        File file = new File(this.sessionFileName);
+        File tempFile = new File(this.sessionFileName + TEMP_SUFFIX);
+        FileOutputStream fos = null;
+
         try {
-            File file = new File(this.sessionFileName);
-            if (file.exists() == false) {
-                return; // If there is no session file, return as the store will create one
+            fos = new FileOutputStream(tempFile);
+
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+
+            dos.writeInt(SNAPSHOT_MAGIC);
+            dos.writeInt(snapshot.size());
+
+            for (PicketBoxSession session : snapshot.values()) {
+                byte[] data = this.codec.encode(session);
+
+                dos.writeInt(data.length);
+                dos.write(data);
             }
-            ois = new ObjectInputStream(new FileInputStream(file));
-            this.sessions.clear();
-            this.sessions.putAll((Map<? extends Serializable, ? extends PicketBoxSession>) ois.readObject());
+
+            dos.flush();
+            fos.getFD().sync();
         } catch (IOException e) {
-            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.sessionFileName, e);
-        } catch (ClassNotFoundException e) {
-            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.sessionFileName, e);
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.sessionFileName, e);
         } finally {
-            StreamUtil.safeClose(ois);
+            StreamUtil.safeClose(fos);
+        }
+
+        if (!tempFile.renameTo(file)) {
+            // some platforms do not rename over an existing file. The previous snapshot is moved aside, not deleted, so a
+            // crash before the new one is in place still finds it when loading.
+            File backupFile = new File(this.sessionFileName + BACKUP_SUFFIX);
+
+            backupFile.delete();
+
+            if (file.exists() && !file.renameTo(backupFile)) {
+                throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.sessionFileName, null);
+            }
+
+            if (!tempFile.renameTo(file)) {
+                backupFile.renameTo(file);
+                throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.sessionFileName, null);
+            }
+
+            backupFile.delete();
         }
     }
 
-    protected void storeToFile() {
-        ObjectOutputStream oos = null;
+    /**
+     * <p>
+     * Applies the change to the session map and appends the corresponding record to the journal. The record is serialized
+     * before the lock is acquired.
+     * </p>
+     *
+     * @return the sequence number of the record.
+     */
+    private long append(byte type, Serializable key, PicketBoxSession session) {
+        byte[] record = createRecord(type, key, session);
+
+        synchronized (this.journalLock) {
+            if (type == STORE_RECORD) {
+                this.sessions.put(key, session);
+            } else {
+                this.sessions.remove(key);
+            }
+
+            String journalName = getJournalName(this.generation);
+
+            try {
+                if (this.journal == null) {
+                    this.journal = new FileOutputStream(journalName, true);
+                }
+
+                this.journal.write(record);
+            } catch (IOException e) {
+                throw PicketBoxMessages.MESSAGES.unableToStoreToFile(journalName, e);
+            }
+
+            this.journalSize += record.length;
+
+            return ++this.writtenRecords;
+        }
+    }
+
+    /**
+     * <p>
+     * Makes sure the given record is on disk. Only one thread forces the journal at a time, and it covers all the records
+     * written up to that point, so threads that were waiting usually find their records already synced.
+     * </p>
+     */
+    private void sync(long record) {
+        if (this.syncedRecords >= record) {
+            return;
+        }
+
+        synchronized (this.syncLock) {
+            if (this.syncedRecords >= record) {
+                return;
+            }
+
+            FileOutputStream currentJournal;
+            long target;
+
+            synchronized (this.journalLock) {
+                currentJournal = this.journal;
+                target = this.writtenRecords;
+            }
+
+            if (currentJournal != null) {
+                try {
+                    currentJournal.getChannel().force(false);
+                } catch (IOException e) {
+                    throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.sessionFileName, e);
+                }
+            }
+
+            this.syncedRecords = target;
+        }
+    }
+
+    /**
+     * <p>
+     * Creates a journal record: <code>[length][crc32][payload]</code>, where the payload is the record type followed by the
+     * encoded session, for store records, or by the serialized key, for remove records.
+     * </p>
+     */
+    private byte[] createRecord(byte type, Serializable key, PicketBoxSession session) {
         try {
-            oos = new ObjectOutputStream(new FileOutputStream(this.sessionFileName));
-            oos.writeObject(this.sessions);
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+
+            payloadBytes.write(type);
+
+            if (type == STORE_RECORD) {
+                payloadBytes.write(this.codec.encode(session));
+            } else {
+                ObjectOutputStream oos = new ObjectOutputStream(payloadBytes);
+
+                oos.writeObject(key);
+                oos.close();
+            }
+
+            byte[] payload = payloadBytes.toByteArray();
+            CRC32 crc = new CRC32();
+
+            crc.update(payload);
+
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(payload.length + 8);
+            DataOutputStream dos = new DataOutputStream(recordBytes);
+
+            dos.writeInt(payload.length);
+            dos.writeInt((int) crc.getValue());
+            dos.write(payload);
+            dos.close();
+
+            return recordBytes.toByteArray();
         } catch (IOException e) {
             throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.sessionFileName, e);
+        }
+    }
+
+    /**
+     * <p>
+     * Replays the records from the given journal. Replay stops at the first record that is incomplete or fails the checksum,
+     * which is what a crash in the middle of an append leaves behind.
+     * </p>
+     */
+    private void replay(String journalName) {
+        DataInputStream dis = null;
+
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(journalName)));
+
+            while (true) {
+                byte[] payload;
+                int expectedCrc;
+
+                try {
+                    int length = dis.readInt();
+
+                    if (length <= 0 || length > dis.available()) {
+                        return;
+                    }
+
+                    expectedCrc = dis.readInt();
+                    payload = new byte[length];
+                    dis.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+
+                CRC32 crc = new CRC32();
+
+                crc.update(payload);
+
+                if ((int) crc.getValue() != expectedCrc) {
+                    return;
+                }
+
+                if (payload[0] == STORE_RECORD) {
+                    byte[] data = new byte[payload.length - 1];
+
+                    System.arraycopy(payload, 1, data, 0, data.length);
+
+                    PicketBoxSession session = this.codec.decode(data);
+
+                    this.sessions.put(session.getId().getId(), session);
+                } else {
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+
+                    this.sessions.remove(ois.readObject());
+                }
+            }
+        } catch (IOException e) {
+            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(journalName, e);
+        } catch (ClassNotFoundException e) {
+            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(journalName, e);
         } finally {
-            StreamUtil.safeClose(oos);
+            StreamUtil.safeClose(dis);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Returns the generations of the existing journals, in ascending order.
+     * </p>
+     */
+    private List<Long> listJournals() {
+        File snapshotFile = new File(this.sessionFileName).getAbsoluteFile();
+        String prefix = snapshotFile.getName() + JOURNAL_SUFFIX;
+        List<Long> generations = new ArrayList<Long>();
+        String[] names = snapshotFile.getParentFile().list();
+
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    try {
+                        generations.add(Long.valueOf(name.substring(prefix.length())));
+                    } catch (NumberFormatException ignore) {
+                    }
+                }
+            }
+        }
+
+        Collections.sort(generations);
+
+        return generations;
+    }
+
+    private String getJournalName(long journalGeneration) {
+        return this.sessionFileName + JOURNAL_SUFFIX + journalGeneration;
+    }
+}
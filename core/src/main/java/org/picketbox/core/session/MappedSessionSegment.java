@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.util.StreamUtil;
+
+/**
+ * <p>
+ * An append-only file, mapped into memory, holding encoded sessions. Records are never overwritten: a record is released when
+ * the session it holds is activated, updated or removed, and the file is deleted once the segment is full and has no live
+ * records left.
+ * </p>
+ * <p>
+ * The mapped buffer is only accessed with absolute positions through duplicates, so records can be read concurrently while
+ * new records are appended.
+ * </p>
+ */
+class MappedSessionSegment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private final AtomicInteger liveRecords = new AtomicInteger();
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    /*
+     * Guarded by this.
+     */
+    private int position;
+
+    MappedSessionSegment(File file, int capacity) {
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(capacity);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(file.getAbsolutePath(), e);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            StreamUtil.safeClose(raf);
+        }
+
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    /**
+     * <p>
+     * Appends a record.
+     * </p>
+     *
+     * @param data
+     * @return the offset of the record, or -1 if the segment does not have enough room left.
+     */
+    int append(byte[] data) {
+        int offset;
+
+        synchronized (this) {
+            if (data.length > this.capacity - this.position) {
+                return -1;
+            }
+
+            offset = this.position;
+            this.position += data.length;
+        }
+
+        ByteBuffer target = this.buffer.duplicate();
+
+        target.position(offset);
+        target.put(data);
+
+        this.liveRecords.incrementAndGet();
+        this.liveBytes.addAndGet(data.length);
+
+        return offset;
+    }
+
+    byte[] read(int offset, int length) {
+        ByteBuffer source = this.buffer.duplicate();
+        byte[] data = new byte[length];
+
+        source.position(offset);
+        source.get(data);
+
+        return data;
+    }
+
+    /**
+     * <p>
+     * Releases a record.
+     * </p>
+     *
+     * @return true if the segment has no live records left.
+     */
+    boolean release(int length) {
+        this.liveBytes.addAndGet(-length);
+        return this.liveRecords.decrementAndGet() == 0;
+    }
+
+    /**
+     * <p>
+     * Returns the fraction of the written bytes that belong to live records.
+     * </p>
+     */
+    synchronized double getLiveRatio() {
+        return this.position == 0 ? 1 : (double) this.liveBytes.get() / this.position;
+    }
+
+    int getLiveRecords() {
+        return this.liveRecords.get();
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    void delete() {
+        // the mapping itself is released when the buffer is garbage collected
+        this.file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getName();
+    }
+}
@@ -0,0 +1,834 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.util.StreamUtil;
+
+/**
+ * <p>
+ * {@link SessionStore} that keeps encoded sessions outside of the Java heap, in memory-mapped files. The number of stored
+ * sessions does not change the amount of memory the garbage collector has to trace.
+ * </p>
+ * <p>
+ * Sessions are encoded with a {@link SessionCodec} and written to fixed-size slots of a data file. A session larger than a slot
+ * continues in other slots, chained from the first one. An index file holds an open-addressing hash table that maps the hash
+ * of a session id to the first slot of the session. When a session is updated its slots are rewritten in place, and slots
+ * are only allocated or released when the number of slots it needs changes.
+ * </p>
+ * <p>
+ * All the structures, including the list of free slots, live in the mapped files, so a restarted store is ready as soon as
+ * the files are mapped again. Sessions are decoded on every load, so each load returns a new instance. Sessions that are not
+ * accessed after a restart are only removed once they are loaded and found expired.
+ * </p>
+ * <p>
+ * As touching a loaded instance does not change the stored session, the last access time is kept next to the encoded
+ * session and overwritten in place on every {@link #touch(PicketBoxSession)}. Loaded sessions carry that time, so a session
+ * that is only read is not expired while it is in use.
+ * </p>
+ */
+public class MappedSessionStore extends AbstractPicketBoxLifeCycle implements AccessTrackingSessionStore {
+
+    private static final int DATA_MAGIC = 0x50424d44;
+    private static final int INDEX_MAGIC = 0x50424d49;
+    private static final int VERSION = 1;
+
+    private static final int DEFAULT_SLOT_SIZE = 512;
+    private static final int DEFAULT_SLOTS_PER_CHUNK = 64 * 1024;
+    private static final int DEFAULT_INDEX_CAPACITY = 4096;
+
+    /**
+     * Maximum percentage of used and deleted buckets before the index is rebuilt.
+     */
+    private static final int MAX_INDEX_LOAD = 70;
+
+    /*
+     * Data file header.
+     */
+    private static final int DATA_HEADER_SIZE = 64;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int SLOTS_PER_CHUNK_OFFSET = 12;
+    private static final int CHUNKS_OFFSET = 16;
+    private static final int FREE_HEAD_OFFSET = 20;
+    private static final int UNUSED_SLOT_OFFSET = 24;
+
+    /*
+     * Index file header. Each bucket holds the hash of the session id, the first slot plus one, or zero if the bucket is
+     * empty or -1 if the session was removed, and the length of the record.
+     */
+    private static final int INDEX_HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int TOMBSTONES_OFFSET = 16;
+    private static final int BUCKET_SIZE = 16;
+    private static final int TOMBSTONE = -1;
+
+    /*
+     * Each record holds the length of the key, the key, the last access time and the encoded session.
+     */
+    private static final int ACCESS_TIME_SIZE = 8;
+
+    private static final byte STRING_KEY = 0;
+    private static final byte SERIALIZED_KEY = 1;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final int defaultSlotSize;
+    private final int defaultSlotsPerChunk;
+    private final SessionCodec codec;
+
+    /*
+     * Loads hold the read lock, writes hold the write lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private RandomAccessFile data;
+    private RandomAccessFile indexData;
+    private MappedByteBuffer dataHeader;
+    private MappedByteBuffer index;
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+
+    private int slotSize;
+    private int slotsPerChunk;
+    private int capacity;
+
+    public MappedSessionStore() {
+        this("PBOXSESSION");
+    }
+
+    public MappedSessionStore(String fileName) {
+        this(fileName, DEFAULT_SLOT_SIZE, DEFAULT_SLOTS_PER_CHUNK, new BinarySessionCodec());
+    }
+
+    /**
+     * <p>
+     * Creates a store using the given files. The slot settings are only used when the files are created.
+     * </p>
+     *
+     * @param fileName base name of the files. The data and index files are created with the <code>.data</code> and
+     *        <code>.index</code> extensions.
+     * @param slotSize size, in bytes, of each slot. Sessions that fit in a single slot are read and written with a single
+     *        access.
+     * @param slotsPerChunk number of slots mapped at a time when the data file grows.
+     * @param codec the codec used to write the sessions.
+     */
+    public MappedSessionStore(String fileName, int slotSize, int slotsPerChunk, SessionCodec codec) {
+        if (fileName == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("fileName");
+        }
+
+        if (codec == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("codec");
+        }
+
+        this.dataFile = new File(fileName + ".data");
+        this.indexFile = new File(fileName + ".index");
+        this.defaultSlotSize = Math.max(slotSize, 64);
+
+        // a chunk is mapped as a single buffer, which is limited to 2GB
+        this.defaultSlotsPerChunk = Math.max(Math.min(slotsPerChunk, Integer.MAX_VALUE / this.defaultSlotSize), 1);
+        this.codec = codec;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#load(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public PicketBoxSession load(SessionId<? extends Serializable> key) {
+        checkIfStarted();
+
+        byte[] keyBytes = encodeKey(key.getId());
+        long hash = hash(keyBytes);
+        byte[] storedSession;
+
+        this.lock.readLock().lock();
+
+        try {
+            int bucket = findBucket(hash, keyBytes);
+
+            if (bucket < 0) {
+                return null;
+            }
+
+            int recordOffset = 4 + keyBytes.length;
+
+            storedSession = read(getFirstSlot(bucket), recordOffset, getRecordLength(bucket) - recordOffset);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(storedSession);
+        long lastAccessedTime = buffer.getLong();
+        byte[] encodedSession = new byte[buffer.remaining()];
+
+        buffer.get(encodedSession);
+
+        PicketBoxSession session;
+
+        try {
+            session = this.codec.decode(encodedSession);
+        } catch (IOException e) {
+            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.dataFile.getAbsolutePath(), e);
+        }
+
+        if (lastAccessedTime > session.getLastAccessedTime()) {
+            session.restoreTimestamps(session.getCreationDate().getTime(), lastAccessedTime);
+        }
+
+        return session;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#store(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void store(PicketBoxSession session) {
+        update(session);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#remove(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        checkIfStarted();
+
+        byte[] keyBytes = encodeKey(id.getId());
+        long hash = hash(keyBytes);
+
+        this.lock.writeLock().lock();
+
+        try {
+            int bucket = findBucket(hash, keyBytes);
+
+            if (bucket >= 0) {
+                releaseChain(getFirstSlot(bucket), slotsFor(getRecordLength(bucket)));
+
+                this.index.putInt(bucketOffset(bucket) + 8, TOMBSTONE);
+                this.index.putInt(SIZE_OFFSET, this.index.getInt(SIZE_OFFSET) - 1);
+                this.index.putInt(TOMBSTONES_OFFSET, this.index.getInt(TOMBSTONES_OFFSET) + 1);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#update(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void update(PicketBoxSession session) {
+        checkIfStarted();
+
+        byte[] keyBytes = encodeKey(session.getId().getId());
+        long hash = hash(keyBytes);
+        byte[] encodedSession;
+
+        try {
+            encodedSession = this.codec.encode(session);
+        } catch (IOException e) {
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.dataFile.getAbsolutePath(), e);
+        }
+
+        byte[] record = new byte[4 + keyBytes.length + ACCESS_TIME_SIZE + encodedSession.length];
+
+        ByteBuffer.wrap(record).putInt(keyBytes.length).put(keyBytes).putLong(session.getLastAccessedTime())
+                .put(encodedSession);
+
+        this.lock.writeLock().lock();
+
+        try {
+            int bucket = findBucket(hash, keyBytes);
+
+            if (bucket >= 0) {
+                long storedAccessTime = readAccessTime(getFirstSlot(bucket), keyBytes.length);
+
+                // another instance of the session may have been touched after this one
+                if (storedAccessTime > session.getLastAccessedTime()) {
+                    ByteBuffer.wrap(record, 4 + keyBytes.length, ACCESS_TIME_SIZE).putLong(storedAccessTime);
+                }
+
+                int firstSlot = write(getFirstSlot(bucket), slotsFor(getRecordLength(bucket)), record);
+
+                this.index.putInt(bucketOffset(bucket) + 8, firstSlot + 1);
+                this.index.putInt(bucketOffset(bucket) + 12, record.length);
+            } else {
+                ensureIndexCapacity();
+
+                int firstSlot = write(-1, 0, record);
+
+                putBucket(this.index, this.capacity, hash, firstSlot, record.length);
+
+                this.index.putInt(SIZE_OFFSET, this.index.getInt(SIZE_OFFSET) + 1);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the last access time of the session in place, without encoding it again.
+     * </p>
+     *
+     * @see org.picketbox.core.session.AccessTrackingSessionStore#touch(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void touch(PicketBoxSession session) {
+        checkIfStarted();
+
+        byte[] keyBytes = encodeKey(session.getId().getId());
+        long hash = hash(keyBytes);
+        byte[] accessTime = ByteBuffer.allocate(ACCESS_TIME_SIZE).putLong(session.getLastAccessedTime()).array();
+
+        this.lock.writeLock().lock();
+
+        try {
+            int bucket = findBucket(hash, keyBytes);
+
+            if (bucket < 0) {
+                return;
+            }
+
+            int firstSlot = getFirstSlot(bucket);
+
+            if (readAccessTime(firstSlot, keyBytes.length) < session.getLastAccessedTime()) {
+                overwrite(firstSlot, 4 + keyBytes.length, accessTime);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of stored sessions.
+     * </p>
+     *
+     * @return
+     */
+    public int getSize() {
+        this.lock.readLock().lock();
+
+        try {
+            return this.index != null ? this.index.getInt(SIZE_OFFSET) : 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of slots allocated by the data file, used or not.
+     * </p>
+     *
+     * @return
+     */
+    public long getAllocatedSlots() {
+        this.lock.readLock().lock();
+
+        try {
+            return (long) this.chunks.size() * this.slotsPerChunk;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doStart() {
+        this.lock.writeLock().lock();
+
+        // the files are only valid together, if one of them is missing both are created again
+        boolean exists = this.dataFile.length() >= DATA_HEADER_SIZE && this.indexFile.length() >= INDEX_HEADER_SIZE;
+
+        try {
+            openData(exists);
+            openIndex(exists);
+        } catch (IOException e) {
+            close();
+            throw PicketBoxMessages.MESSAGES.unableToLoadFromFile(this.dataFile.getAbsolutePath(), e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        this.lock.writeLock().lock();
+
+        try {
+            this.dataHeader.force();
+            this.index.force();
+
+            for (MappedByteBuffer chunk : this.chunks) {
+                chunk.force();
+            }
+        } finally {
+            close();
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void openData(boolean exists) throws IOException {
+        this.data = new RandomAccessFile(this.dataFile, "rw");
+
+        if (!exists) {
+            this.data.setLength(0);
+        }
+
+        this.dataHeader = this.data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_HEADER_SIZE);
+
+        if (exists) {
+            checkHeader(this.dataHeader, DATA_MAGIC, this.dataFile);
+
+            this.slotSize = this.dataHeader.getInt(SLOT_SIZE_OFFSET);
+            this.slotsPerChunk = this.dataHeader.getInt(SLOTS_PER_CHUNK_OFFSET);
+
+            int chunkCount = this.dataHeader.getInt(CHUNKS_OFFSET);
+
+            for (int i = 0; i < chunkCount; i++) {
+                this.chunks.add(mapChunk(i));
+            }
+        } else {
+            this.slotSize = this.defaultSlotSize;
+            this.slotsPerChunk = this.defaultSlotsPerChunk;
+
+            this.dataHeader.putInt(0, DATA_MAGIC);
+            this.dataHeader.putInt(4, VERSION);
+            this.dataHeader.putInt(SLOT_SIZE_OFFSET, this.slotSize);
+            this.dataHeader.putInt(SLOTS_PER_CHUNK_OFFSET, this.slotsPerChunk);
+            this.dataHeader.putInt(CHUNKS_OFFSET, 0);
+            this.dataHeader.putInt(FREE_HEAD_OFFSET, 0);
+            this.dataHeader.putInt(UNUSED_SLOT_OFFSET, 0);
+        }
+    }
+
+    private void openIndex(boolean exists) throws IOException {
+        if (exists) {
+            this.indexData = new RandomAccessFile(this.indexFile, "rw");
+
+            MappedByteBuffer header = this.indexData.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER_SIZE);
+
+            checkHeader(header, INDEX_MAGIC, this.indexFile);
+
+            this.capacity = header.getInt(CAPACITY_OFFSET);
+            this.index = this.indexData.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexLength(this.capacity));
+        } else {
+            this.capacity = DEFAULT_INDEX_CAPACITY;
+            this.indexData = new RandomAccessFile(this.indexFile, "rw");
+            this.index = createIndex(this.indexData, this.capacity);
+        }
+    }
+
+    private void checkHeader(ByteBuffer header, int magic, File file) throws IOException {
+        if (header.getInt(0) != magic || header.getInt(4) != VERSION) {
+            throw PicketBoxMessages.MESSAGES.invalidSessionStoreFile(file.getAbsolutePath());
+        }
+    }
+
+    private void close() {
+        this.chunks.clear();
+        this.dataHeader = null;
+        this.index = null;
+
+        // the mappings are released when the buffers are garbage collected
+        StreamUtil.safeClose(this.data);
+        StreamUtil.safeClose(this.indexData);
+
+        this.data = null;
+        this.indexData = null;
+    }
+
+    private MappedByteBuffer mapChunk(int chunk) throws IOException {
+        long chunkSize = (long) this.slotSize * this.slotsPerChunk;
+
+        return this.data.getChannel().map(FileChannel.MapMode.READ_WRITE, DATA_HEADER_SIZE + chunk * chunkSize, chunkSize);
+    }
+
+    private MappedByteBuffer createIndex(RandomAccessFile file, int indexCapacity) throws IOException {
+        file.setLength(0);
+
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexLength(indexCapacity));
+
+        buffer.putInt(0, INDEX_MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, indexCapacity);
+
+        return buffer;
+    }
+
+    private long indexLength(int indexCapacity) {
+        return INDEX_HEADER_SIZE + (long) indexCapacity * BUCKET_SIZE;
+    }
+
+    /**
+     * <p>
+     * Rebuilds the index when adding a session would exceed the maximum load. The index doubles in size unless most of the
+     * used buckets belong to removed sessions.
+     * </p>
+     */
+    private void ensureIndexCapacity() {
+        int size = this.index.getInt(SIZE_OFFSET);
+        int tombstones = this.index.getInt(TOMBSTONES_OFFSET);
+
+        if ((long) (size + tombstones + 1) * 100 <= (long) this.capacity * MAX_INDEX_LOAD) {
+            return;
+        }
+
+        int newCapacity = (long) (size + 1) * 200 > (long) this.capacity * MAX_INDEX_LOAD ? this.capacity * 2 : this.capacity;
+        File tempFile = new File(this.indexFile.getPath() + ".tmp");
+        RandomAccessFile newIndexData = null;
+
+        try {
+            newIndexData = new RandomAccessFile(tempFile, "rw");
+
+            MappedByteBuffer newIndex = createIndex(newIndexData, newCapacity);
+
+            for (int bucket = 0; bucket < this.capacity; bucket++) {
+                int offset = bucketOffset(bucket);
+                int firstSlot = this.index.getInt(offset + 8);
+
+                if (firstSlot > 0) {
+                    putBucket(newIndex, newCapacity, this.index.getLong(offset), firstSlot - 1, this.index.getInt(offset + 12));
+                }
+            }
+
+            newIndex.putInt(SIZE_OFFSET, size);
+            newIndex.force();
+
+            if (!tempFile.renameTo(this.indexFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + this.indexFile);
+            }
+
+            StreamUtil.safeClose(this.indexData);
+
+            this.indexData = newIndexData;
+            this.index = newIndex;
+            this.capacity = newCapacity;
+        } catch (IOException e) {
+            StreamUtil.safeClose(newIndexData);
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.indexFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the bucket of the given key, or -1 if the key is not indexed.
+     * </p>
+     */
+    private int findBucket(long hash, byte[] keyBytes) {
+        int mask = this.capacity - 1;
+
+        for (int bucket = spread(hash) & mask;; bucket = (bucket + 1) & mask) {
+            int offset = bucketOffset(bucket);
+            int firstSlot = this.index.getInt(offset + 8);
+
+            if (firstSlot == 0) {
+                return -1;
+            }
+
+            if (firstSlot != TOMBSTONE && this.index.getLong(offset) == hash && keyEquals(firstSlot - 1, keyBytes)) {
+                return bucket;
+            }
+        }
+    }
+
+    private void putBucket(ByteBuffer target, int targetCapacity, long hash, int firstSlot, int recordLength) {
+        int mask = targetCapacity - 1;
+
+        for (int bucket = spread(hash) & mask;; bucket = (bucket + 1) & mask) {
+            int offset = bucketOffset(bucket);
+            int current = target.getInt(offset + 8);
+
+            if (current == 0 || current == TOMBSTONE) {
+                if (current == TOMBSTONE) {
+                    target.putInt(TOMBSTONES_OFFSET, target.getInt(TOMBSTONES_OFFSET) - 1);
+                }
+
+                target.putLong(offset, hash);
+                target.putInt(offset + 8, firstSlot + 1);
+                target.putInt(offset + 12, recordLength);
+
+                return;
+            }
+        }
+    }
+
+    private boolean keyEquals(int firstSlot, byte[] keyBytes) {
+        ByteBuffer slot = slotBuffer(firstSlot);
+
+        if (slot.getInt(slot.position() + 4) != keyBytes.length) {
+            return false;
+        }
+
+        return Arrays.equals(read(firstSlot, 4, keyBytes.length), keyBytes);
+    }
+
+    private int getFirstSlot(int bucket) {
+        return this.index.getInt(bucketOffset(bucket) + 8) - 1;
+    }
+
+    private int getRecordLength(int bucket) {
+        return this.index.getInt(bucketOffset(bucket) + 12);
+    }
+
+    private int bucketOffset(int bucket) {
+        return INDEX_HEADER_SIZE + bucket * BUCKET_SIZE;
+    }
+
+    /**
+     * <p>
+     * Reads part of a record, following the chain of slots.
+     * </p>
+     */
+    private byte[] read(int firstSlot, int offset, int length) {
+        byte[] result = new byte[length];
+
+        transfer(firstSlot, offset, result, false);
+
+        return result;
+    }
+
+    private long readAccessTime(int firstSlot, int keyLength) {
+        return ByteBuffer.wrap(read(firstSlot, 4 + keyLength, ACCESS_TIME_SIZE)).getLong();
+    }
+
+    /**
+     * <p>
+     * Overwrites part of a record in place, following the chain of slots.
+     * </p>
+     */
+    private void overwrite(int firstSlot, int offset, byte[] bytes) {
+        transfer(firstSlot, offset, bytes, true);
+    }
+
+    private void transfer(int firstSlot, int offset, byte[] bytes, boolean write) {
+        int payloadSize = this.slotSize - 4;
+        int length = bytes.length;
+        int slot = firstSlot;
+
+        // skips the slots before the requested offset
+        for (int skipped = payloadSize; skipped <= offset; skipped += payloadSize) {
+            slot = nextSlot(slot);
+        }
+
+        int position = offset % payloadSize;
+        int transferred = 0;
+
+        while (transferred < length) {
+            int count = Math.min(payloadSize - position, length - transferred);
+            ByteBuffer buffer = slotBuffer(slot);
+
+            buffer.position(buffer.position() + 4 + position);
+
+            if (write) {
+                buffer.put(bytes, transferred, count);
+            } else {
+                buffer.get(bytes, transferred, count);
+            }
+
+            transferred += count;
+            position = 0;
+
+            if (transferred < length) {
+                slot = nextSlot(slot);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Writes a record, reusing the slots of the chain starting at the given slot and allocating or releasing slots as needed.
+     * </p>
+     *
+     * @return the first slot of the record.
+     */
+    private int write(int firstSlot, int usedSlots, byte[] record) {
+        int payloadSize = this.slotSize - 4;
+        int neededSlots = slotsFor(record.length);
+        int[] slots = new int[neededSlots];
+        int slot = firstSlot;
+
+        for (int i = 0; i < neededSlots; i++) {
+            if (i < usedSlots) {
+                slots[i] = slot;
+                slot = nextSlot(slot);
+            } else {
+                slots[i] = allocateSlot();
+            }
+        }
+
+        if (usedSlots > neededSlots) {
+            releaseChain(slot, usedSlots - neededSlots);
+        }
+
+        for (int i = 0; i < neededSlots; i++) {
+            ByteBuffer buffer = slotBuffer(slots[i]);
+            int offset = i * payloadSize;
+
+            buffer.putInt(i + 1 < neededSlots ? slots[i + 1] + 1 : 0);
+            buffer.put(record, offset, Math.min(payloadSize, record.length - offset));
+        }
+
+        return slots[0];
+    }
+
+    private int allocateSlot() {
+        int freeHead = this.dataHeader.getInt(FREE_HEAD_OFFSET);
+
+        if (freeHead > 0) {
+            int slot = freeHead - 1;
+
+            this.dataHeader.putInt(FREE_HEAD_OFFSET, slotBuffer(slot).getInt());
+
+            return slot;
+        }
+
+        int slot = this.dataHeader.getInt(UNUSED_SLOT_OFFSET);
+
+        if (slot == this.chunks.size() * this.slotsPerChunk) {
+            try {
+                this.chunks.add(mapChunk(this.chunks.size()));
+            } catch (IOException e) {
+                throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.dataFile.getAbsolutePath(), e);
+            }
+
+            this.dataHeader.putInt(CHUNKS_OFFSET, this.chunks.size());
+        }
+
+        this.dataHeader.putInt(UNUSED_SLOT_OFFSET, slot + 1);
+
+        return slot;
+    }
+
+    /**
+     * <p>
+     * Adds the given number of slots of a chain to the free list.
+     * </p>
+     */
+    private void releaseChain(int firstSlot, int count) {
+        int slot = firstSlot;
+
+        for (int i = 0; i < count; i++) {
+            int next = nextSlot(slot);
+
+            slotBuffer(slot).putInt(this.dataHeader.getInt(FREE_HEAD_OFFSET));
+            this.dataHeader.putInt(FREE_HEAD_OFFSET, slot + 1);
+
+            slot = next;
+        }
+    }
+
+    private int nextSlot(int slot) {
+        return slotBuffer(slot).getInt() - 1;
+    }
+
+    private int slotsFor(int recordLength) {
+        int payloadSize = this.slotSize - 4;
+        return Math.max(1, (recordLength + payloadSize - 1) / payloadSize);
+    }
+
+    /**
+     * <p>
+     * Returns a buffer positioned at the start of the given slot. Each call returns a new buffer, so concurrent readers do not
+     * share positions.
+     * </p>
+     */
+    private ByteBuffer slotBuffer(int slot) {
+        ByteBuffer buffer = this.chunks.get(slot / this.slotsPerChunk).duplicate();
+
+        buffer.position((slot % this.slotsPerChunk) * this.slotSize);
+
+        return buffer;
+    }
+
+    private byte[] encodeKey(Serializable key) {
+        try {
+            if (key instanceof String) {
+                byte[] bytes = ((String) key).getBytes("UTF-8");
+                byte[] result = new byte[bytes.length + 1];
+
+                result[0] = STRING_KEY;
+                System.arraycopy(bytes, 0, result, 1, bytes.length);
+
+                return result;
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            bos.write(SERIALIZED_KEY);
+
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+            oos.writeObject(key);
+            oos.close();
+
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.dataFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * <p>
+     * 64-bit FNV-1a hash of the encoded key.
+     * </p>
+     */
+    private static long hash(byte[] keyBytes) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : keyBytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & 0x7fffffff;
+    }
+}
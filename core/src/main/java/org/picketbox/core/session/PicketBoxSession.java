@@ -21,12 +21,18 @@
  */
 package org.picketbox.core.session;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.UserContext;
@@ -35,6 +41,7 @@ import org.picketbox.core.exceptions.PicketBoxSessionException;
 import org.picketbox.core.session.event.SessionExpiredEvent;
 import org.picketbox.core.session.event.SessionGetAttributeEvent;
 import org.picketbox.core.session.event.SessionInvalidatedEvent;
+import org.picketbox.core.session.event.SessionRemoveAttributeEvent;
 import org.picketbox.core.session.event.SessionSetAttributeEvent;
 import org.picketbox.core.session.event.SessionTouchedEvent;
 
@@ -48,6 +55,14 @@ public class PicketBoxSession implements Serializable {
 
     private static final long serialVersionUID = 2149908831443524877L;
 
+    /**
+     * Default interval, in milliseconds, during which touches are coalesced into a single {@link SessionTouchedEvent}.
+     */
+    public static final long DEFAULT_TOUCH_INTERVAL = 1000;
+
+    private static final AtomicLongFieldUpdater<PicketBoxSession> LAST_TOUCH_EVENT_UPDATER = AtomicLongFieldUpdater
+            .newUpdater(PicketBoxSession.class, "lastTouchEventTime");
+
     protected ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
 
     protected ConcurrentMap<String, Object> applicationAttributes = new ConcurrentHashMap<String, Object>();
@@ -56,8 +71,12 @@ public class PicketBoxSession implements Serializable {
     protected boolean invalid = false;
     protected UserContext userContext;
     private Date creationDate = new Date();
+    private volatile long lastAccessedTime = this.creationDate.getTime();
 
     private transient PicketBoxEventManager eventManager;
+    private transient volatile long lastTouchEventTime;
+    private transient long touchInterval = DEFAULT_TOUCH_INTERVAL;
+    private transient volatile Set<String> dirtyAttributes;
 
     public PicketBoxSession() {
         this(new DefaultSessionId());
@@ -92,6 +111,9 @@ public class PicketBoxSession implements Serializable {
     public void removeAttribute(String key) throws PicketBoxSessionException {
         checkIfIsInvalid();
         this.attributes.remove(key);
+        getDirtyAttributeSet().add(key);
+
+        this.eventManager.raiseEvent(new SessionRemoveAttributeEvent(this, key));
     }
 
     /**
@@ -105,6 +127,7 @@ public class PicketBoxSession implements Serializable {
         checkIfIsInvalid();
 
         this.attributes.put(key, val);
+        getDirtyAttributeSet().add(key);
 
         this.eventManager.raiseEvent(new SessionSetAttributeEvent(this, key, val));
     }
@@ -121,7 +144,105 @@ public class PicketBoxSession implements Serializable {
     }
 
     /**
-     * Get an attribute
+     * <p>
+     * Indicates if there are attribute changes that were not written to the store yet.
+     * </p>
+     *
+     * @return
+     */
+    public boolean isDirty() {
+        Set<String> dirty = this.dirtyAttributes;
+        return dirty != null && !dirty.isEmpty();
+    }
+
+    /**
+     * <p>
+     * Get the names of the attributes that were set or removed since the session was last written to the store.
+     * </p>
+     *
+     * @return
+     */
+    public Set<String> getDirtyAttributes() {
+        Set<String> dirty = this.dirtyAttributes;
+
+        if (dirty == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(new HashSet<String>(dirty));
+    }
+
+    /**
+     * <p>
+     * Applies the state of a newer copy of this session, usually received from another node. Attributes changed locally and
+     * not written to the store yet are kept. No events are raised.
+     * </p>
+     *
+     * @param newer
+     */
+    public void refresh(PicketBoxSession newer) {
+        Set<String> dirty = getDirtyAttributeSet();
+
+        for (Map.Entry<String, Object> entry : newer.attributes.entrySet()) {
+            if (!dirty.contains(entry.getKey())) {
+                this.attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (String key : this.attributes.keySet()) {
+            if (!newer.attributes.containsKey(key) && !dirty.contains(key)) {
+                this.attributes.remove(key);
+            }
+        }
+
+        this.applicationAttributes.putAll(newer.applicationAttributes);
+        this.applicationAttributes.keySet().retainAll(newer.applicationAttributes.keySet());
+
+        if (newer.lastAccessedTime > this.lastAccessedTime) {
+            this.lastAccessedTime = newer.lastAccessedTime;
+        }
+    }
+
+    /**
+     * <p>
+     * Applies attribute changes made to another copy of this session, usually on another node. Attributes changed locally and
+     * not written to the store yet are kept. No events are raised.
+     * </p>
+     *
+     * @param changedAttributes attributes set in the other copy.
+     * @param removedAttributes names of the attributes removed from the other copy.
+     * @param lastAccessedTime last access time of the other copy.
+     */
+    public void applyAttributeChanges(Map<String, Object> changedAttributes, Collection<String> removedAttributes,
+            long lastAccessedTime) {
+        Set<String> dirty = getDirtyAttributeSet();
+
+        for (Map.Entry<String, Object> entry : changedAttributes.entrySet()) {
+            if (!dirty.contains(entry.getKey())) {
+                this.attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (String key : removedAttributes) {
+            if (!dirty.contains(key)) {
+                this.attributes.remove(key);
+            }
+        }
+
+        if (lastAccessedTime > this.lastAccessedTime) {
+            this.lastAccessedTime = lastAccessedTime;
+        }
+    }
+
+    /**
+     * <p>
+     * Get an attribute. Attributes are read from the local session: stores shared between nodes are responsible for applying
+     * the changes made by other nodes, so the session is not loaded from the store on every read.
+     * </p>
+     * <p>
+     * A {@link SessionGetAttributeEvent} is still raised, because reads count as session activity for the
+     * {@link SessionExpirationManager} and because it is part of the events exposed to application handlers.
+     * </p>
      *
      * @param key
      * @return
@@ -217,14 +338,36 @@ public class PicketBoxSession implements Serializable {
     }
 
     /**
-     * Method to indicate that there was a operation that touches the session and thereby extending the session expiry
+     * Method to indicate that there was a operation that touches the session and thereby extending the session expiry.
+     *
+     * The last access time is always updated, but a {@link SessionTouchedEvent} is raised at most once per touch interval.
      */
     public void touch() {
+        long now = System.currentTimeMillis();
+
+        if (this.lastAccessedTime != now) {
+            this.lastAccessedTime = now;
+        }
+
         if (this.eventManager != null) {
-            this.eventManager.raiseEvent(new SessionTouchedEvent(this));
+            long lastTouchEvent = this.lastTouchEventTime;
+
+            if (now - lastTouchEvent >= this.touchInterval
+                    && LAST_TOUCH_EVENT_UPDATER.compareAndSet(this, lastTouchEvent, now)) {
+                this.eventManager.raiseEvent(new SessionTouchedEvent(this));
+            }
         }
     }
 
+    /**
+     * Get the last time, in milliseconds, this session was touched.
+     *
+     * @return
+     */
+    public long getLastAccessedTime() {
+        return this.lastAccessedTime;
+    }
+
     /**
      * Expire the session
      *
@@ -242,6 +385,17 @@ public class PicketBoxSession implements Serializable {
         return this.userContext;
     }
 
+    /**
+     * <p>
+     * Replaces the user context held by this session, for example after the user was populated again.
+     * </p>
+     *
+     * @param userContext
+     */
+    public void setUserContext(UserContext userContext) {
+        this.userContext = userContext;
+    }
+
     /**
      * @return the creationDate
      */
@@ -261,10 +415,88 @@ public class PicketBoxSession implements Serializable {
             throw PicketBoxMessages.MESSAGES.invalidatedSession();
     }
 
+    /**
+     * <p>
+     * Restores the creation and last access times of a session being decoded by a {@link SessionCodec}.
+     * </p>
+     */
+    void restoreTimestamps(long creationTime, long lastAccessedTime) {
+        this.creationDate = new Date(creationTime);
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+    /**
+     * <p>
+     * Removes and returns the names of the changed attributes. Called when the session is about to be written to the store.
+     * </p>
+     */
+    Set<String> takeDirtyAttributes() {
+        Set<String> dirty = this.dirtyAttributes;
+
+        if (dirty == null || dirty.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> taken = new HashSet<String>();
+
+        for (String key : dirty) {
+            if (dirty.remove(key)) {
+                taken.add(key);
+            }
+        }
+
+        return taken;
+    }
+
+    /**
+     * <p>
+     * Marks the given attributes as changed again, if writing them to the store failed.
+     * </p>
+     */
+    void markDirty(Collection<String> keys) {
+        getDirtyAttributeSet().addAll(keys);
+    }
+
+    private Set<String> getDirtyAttributeSet() {
+        Set<String> dirty = this.dirtyAttributes;
+
+        if (dirty == null) {
+            synchronized (this) {
+                dirty = this.dirtyAttributes;
+
+                if (dirty == null) {
+                    dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    this.dirtyAttributes = dirty;
+                }
+            }
+        }
+
+        return dirty;
+    }
+
     protected void setEventManager(PicketBoxEventManager eventManager) {
         this.eventManager = eventManager;
     }
 
+    /**
+     * <p>
+     * Sets the interval, in milliseconds, during which touches are coalesced into a single {@link SessionTouchedEvent}. A value
+     * of zero raises an event for every touch.
+     * </p>
+     *
+     * @param touchInterval
+     */
+    protected void setTouchInterval(long touchInterval) {
+        this.touchInterval = touchInterval;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        // transient fields are not initialized on deserialization, the default applies until the session manager prepares it
+        this.touchInterval = DEFAULT_TOUCH_INTERVAL;
+    }
+
     @Override
     public String toString() {
         return "SessionId: " + this.id + " / Creation Date: " + getCreationDate();
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Index of session identifiers by principal name, maintained by the {@link DefaultSessionManager} when sessions are created
+ * and removed. Lookups cost time proportional to the number of sessions of the principal.
+ * </p>
+ */
+class PrincipalSessionIndex {
+
+    private final ConcurrentMap<String, Set<SessionId<? extends Serializable>>> sessionsByPrincipal = new ConcurrentHashMap<String, Set<SessionId<? extends Serializable>>>();
+    private final ConcurrentMap<Serializable, String> principalsBySession = new ConcurrentHashMap<Serializable, String>();
+
+    /**
+     * <p>
+     * Adds a session to the index, unless the principal already has the maximum number of sessions.
+     * </p>
+     *
+     * @param principalName
+     * @param id
+     * @param maxSessions maximum number of sessions of the principal, zero or less means no limit.
+     * @return true if the session was added.
+     */
+    boolean add(String principalName, SessionId<? extends Serializable> id, int maxSessions) {
+        while (true) {
+            Set<SessionId<? extends Serializable>> sessions = this.sessionsByPrincipal.get(principalName);
+
+            if (sessions == null) {
+                Set<SessionId<? extends Serializable>> newSessions = Collections
+                        .newSetFromMap(new ConcurrentHashMap<SessionId<? extends Serializable>, Boolean>());
+
+                sessions = this.sessionsByPrincipal.putIfAbsent(principalName, newSessions);
+
+                if (sessions == null) {
+                    sessions = newSessions;
+                }
+            }
+
+            synchronized (sessions) {
+                // the set is discarded by remove() once empty, in which case a new one is needed
+                if (this.sessionsByPrincipal.get(principalName) != sessions) {
+                    continue;
+                }
+
+                if (maxSessions > 0 && sessions.size() >= maxSessions) {
+                    return false;
+                }
+
+                sessions.add(id);
+                this.principalsBySession.put(id.getId(), principalName);
+
+                return true;
+            }
+        }
+    }
+
+    void remove(SessionId<? extends Serializable> id) {
+        String principalName = this.principalsBySession.remove(id.getId());
+
+        if (principalName == null) {
+            return;
+        }
+
+        Set<SessionId<? extends Serializable>> sessions = this.sessionsByPrincipal.get(principalName);
+
+        if (sessions != null) {
+            synchronized (sessions) {
+                sessions.remove(id);
+
+                if (sessions.isEmpty()) {
+                    this.sessionsByPrincipal.remove(principalName, sessions);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns a copy of the session identifiers of the given principal.
+     * </p>
+     */
+    List<SessionId<? extends Serializable>> get(String principalName) {
+        Set<SessionId<? extends Serializable>> sessions = this.sessionsByPrincipal.get(principalName);
+
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+
+        return new ArrayList<SessionId<? extends Serializable>>(sessions);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * Default {@link SessionIdGenerator}. Identifiers are 32 URL-safe characters encoding 24 bytes:
+ * </p>
+ * <ul>
+ * <li>6 random bytes chosen when the generator is created, which distinguish generators from each other</li>
+ * <li>a 6 byte sequence number, shared by all the generators in the JVM, so identifiers never repeat</li>
+ * <li>12 bytes from a {@link SecureRandom}, so identifiers can not be guessed</li>
+ * </ul>
+ * <p>
+ * Each thread has its own {@link SecureRandom}, which fills a buffer with random bytes for several identifiers at once, and
+ * reserves sequence numbers in blocks. Threads do not contend with each other when generating identifiers. The per-thread
+ * state is shared by all the generators, so creating several generators does not leave more state behind in pooled
+ * threads.
+ * </p>
+ * <p>
+ * If a node prefix is given, identifiers start with the prefix followed by a dot. Load balancers and clustered stores can use
+ * it to route a session to the node that created it. See {@link #getNodePrefix(SessionId)}.
+ * </p>
+ */
+public class SecureSessionIdGenerator implements SessionIdGenerator {
+
+    private static final char NODE_SEPARATOR = '.';
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int INSTANCE_BYTES = 6;
+    private static final int SEQUENCE_BYTES = 6;
+    private static final int RANDOM_BYTES = 12;
+    private static final int ID_BYTES = INSTANCE_BYTES + SEQUENCE_BYTES + RANDOM_BYTES;
+
+    private static final int PREFETCHED_IDS = 64;
+    private static final int SEQUENCE_BLOCK = 1024;
+
+    private static final AtomicLong NEXT_SEQUENCE_BLOCK = new AtomicLong();
+
+    private static final ThreadLocal<ThreadState> THREAD_STATE = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    private final String nodePrefix;
+    private final byte[] instance = new byte[INSTANCE_BYTES];
+
+    public SecureSessionIdGenerator() {
+        this(null);
+    }
+
+    /**
+     * <p>
+     * Creates a generator whose identifiers start with the given node prefix.
+     * </p>
+     *
+     * @param nodePrefix the node prefix, or null. Must not contain a dot.
+     */
+    public SecureSessionIdGenerator(String nodePrefix) {
+        if (nodePrefix != null && (nodePrefix.length() == 0 || nodePrefix.indexOf(NODE_SEPARATOR) != -1)) {
+            throw PicketBoxMessages.MESSAGES.invalidNodePrefix(nodePrefix);
+        }
+
+        this.nodePrefix = nodePrefix;
+
+        new SecureRandom().nextBytes(this.instance);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionIdGenerator#generate()
+     */
+    @Override
+    public SessionId<? extends Serializable> generate() {
+        ThreadState state = THREAD_STATE.get();
+        byte[] id = new byte[ID_BYTES];
+
+        System.arraycopy(this.instance, 0, id, 0, INSTANCE_BYTES);
+
+        long sequence = state.nextSequence();
+
+        for (int i = INSTANCE_BYTES + SEQUENCE_BYTES - 1; i >= INSTANCE_BYTES; i--) {
+            id[i] = (byte) sequence;
+            sequence >>>= 8;
+        }
+
+        state.nextRandomBytes(id, INSTANCE_BYTES + SEQUENCE_BYTES, RANDOM_BYTES);
+
+        return new DefaultSessionId(encode(id));
+    }
+
+    /**
+     * <p>
+     * Returns the node prefix of the identifiers generated by this instance, or null.
+     * </p>
+     *
+     * @return
+     */
+    public String getNodePrefix() {
+        return this.nodePrefix;
+    }
+
+    /**
+     * <p>
+     * Returns the node prefix of a session identifier generated with a node prefix, or null.
+     * </p>
+     *
+     * @param id
+     * @return
+     */
+    public static String getNodePrefix(SessionId<? extends Serializable> id) {
+        if (id == null || !(id.getId() instanceof String)) {
+            return null;
+        }
+
+        String value = (String) id.getId();
+        int separator = value.indexOf(NODE_SEPARATOR);
+
+        return separator > 0 ? value.substring(0, separator) : null;
+    }
+
+    /**
+     * <p>
+     * Encodes the bytes using the URL-safe Base64 alphabet. The length must be a multiple of three, so there is no padding.
+     * </p>
+     */
+    private String encode(byte[] bytes) {
+        int prefixLength = this.nodePrefix != null ? this.nodePrefix.length() + 1 : 0;
+        char[] chars = new char[prefixLength + bytes.length / 3 * 4];
+        int position = 0;
+
+        if (this.nodePrefix != null) {
+            this.nodePrefix.getChars(0, this.nodePrefix.length(), chars, 0);
+            chars[this.nodePrefix.length()] = NODE_SEPARATOR;
+            position = prefixLength;
+        }
+
+        for (int i = 0; i < bytes.length; i += 3) {
+            int block = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+
+            chars[position++] = ALPHABET[(block >>> 18) & 0x3F];
+            chars[position++] = ALPHABET[(block >>> 12) & 0x3F];
+            chars[position++] = ALPHABET[(block >>> 6) & 0x3F];
+            chars[position++] = ALPHABET[block & 0x3F];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * <p>
+     * The platform default {@link SecureRandom} may share a single source between all its instances, so a pure Java algorithm
+     * is preferred. It is seeded from the platform source.
+     * </p>
+     */
+    private static SecureRandom createRandom() {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * <p>
+     * Random bytes and sequence numbers reserved by a thread.
+     * </p>
+     */
+    private static class ThreadState {
+
+        private final SecureRandom random = createRandom();
+        private final byte[] randomBytes = new byte[RANDOM_BYTES * PREFETCHED_IDS];
+        private int randomPosition = this.randomBytes.length;
+
+        private long sequence;
+        private long sequenceLimit;
+
+        long nextSequence() {
+            if (this.sequence == this.sequenceLimit) {
+                this.sequence = NEXT_SEQUENCE_BLOCK.getAndIncrement() * SEQUENCE_BLOCK;
+                this.sequenceLimit = this.sequence + SEQUENCE_BLOCK;
+            }
+
+            return this.sequence++;
+        }
+
+        void nextRandomBytes(byte[] target, int offset, int length) {
+            if (this.randomPosition + length > this.randomBytes.length) {
+                this.random.nextBytes(this.randomBytes);
+                this.randomPosition = 0;
+            }
+
+            System.arraycopy(this.randomBytes, this.randomPosition, target, offset, length);
+
+            // the bytes are not kept after being used
+            Arrays.fill(this.randomBytes, this.randomPosition, this.randomPosition + length, (byte) 0);
+
+            this.randomPosition += length;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * <p>
+ * {@link SessionCodec} that uses the default Java serialization.
+ * </p>
+ */
+public class SerializationSessionCodec implements SessionCodec {
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionCodec#encode(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public byte[] encode(PicketBoxSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+
+        oos.writeObject(session);
+        oos.close();
+
+        return bytes.toByteArray();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionCodec#decode(byte[])
+     */
+    @Override
+    public PicketBoxSession decode(byte[] data) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+
+        try {
+            return (PicketBoxSession) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            IOException exception = new IOException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            ois.close();
+        }
+    }
+}
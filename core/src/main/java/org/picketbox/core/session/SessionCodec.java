@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Converts {@link PicketBoxSession} instances to and from bytes. {@link SessionStore} implementations that persist or
+ * replicate sessions use a codec instead of relying on the default Java serialization.
+ * </p>
+ *
+ * @see BinarySessionCodec
+ * @see SerializationSessionCodec
+ */
+public interface SessionCodec {
+
+    /**
+     * <p>
+     * Encodes the given session.
+     * </p>
+     *
+     * @param session
+     * @return
+     * @throws IOException if the session could not be encoded.
+     */
+    byte[] encode(PicketBoxSession session) throws IOException;
+
+    /**
+     * <p>
+     * Decodes a session previously encoded by this codec.
+     * </p>
+     *
+     * @param data
+     * @return
+     * @throws IOException if the data could not be decoded.
+     */
+    PicketBoxSession decode(byte[] data) throws IOException;
+}
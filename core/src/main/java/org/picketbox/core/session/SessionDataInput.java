@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * Input used by the {@link BinarySessionCodec} and the registered {@link AttributeCodec} instances to read a session written
+ * by a {@link SessionDataOutput}.
+ * </p>
+ */
+public final class SessionDataInput {
+
+    private final BinarySessionCodec codec;
+    private final byte[] data;
+    private final int limit;
+    private final int version;
+    private final List<String> strings = new ArrayList<String>();
+
+    private int position;
+    private int serializedOffset;
+    private ObjectInputStream serialized;
+
+    SessionDataInput(BinarySessionCodec codec, byte[] data) throws IOException {
+        this.codec = codec;
+        this.data = data;
+
+        if (data.length < 3 || ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) != BinarySessionCodec.MAGIC) {
+            throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(-1);
+        }
+
+        this.version = data[2] & 0xFF;
+
+        if (this.version < BinarySessionCodec.MIN_VERSION || this.version > BinarySessionCodec.VERSION) {
+            throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(this.version);
+        }
+
+        this.position = 3;
+        this.limit = data.length;
+        this.serializedOffset = this.limit;
+
+        int length = readVarInt();
+
+        if (length < 0 || length > this.limit - this.position) {
+            throw new EOFException();
+        }
+
+        this.serializedOffset = this.position + length;
+    }
+
+    /**
+     * <p>
+     * Returns the version of the format the session was written with, so codecs can read data written before their fields
+     * were added.
+     * </p>
+     *
+     * @return
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    public int readByte() throws IOException {
+        if (this.position >= this.serializedOffset) {
+            throw new EOFException();
+        }
+
+        return this.data[this.position++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(BinarySessionCodec.VERSION);
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(BinarySessionCodec.VERSION);
+    }
+
+    public String readString() throws IOException {
+        int reference = readVarInt();
+
+        if (reference == 0) {
+            return null;
+        }
+
+        if (reference > 1) {
+            int index = reference - 2;
+
+            if (index >= this.strings.size()) {
+                throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(BinarySessionCodec.VERSION);
+            }
+
+            return this.strings.get(index);
+        }
+
+        int length = readVarInt();
+
+        if (length < 0 || length > this.serializedOffset - this.position) {
+            throw new EOFException();
+        }
+
+        String value = new String(this.data, this.position, length, SessionDataOutput.UTF_8);
+
+        this.position += length;
+        this.strings.add(value);
+
+        return value;
+    }
+
+    /**
+     * <p>
+     * Reads a string that is expected to repeat across sessions, like a role or group name. The returned instance is shared
+     * with other sessions decoded by the same codec.
+     * </p>
+     *
+     * @return
+     * @throws IOException
+     */
+    public String readName() throws IOException {
+        return this.codec.canonicalName(readString());
+    }
+
+    public Object readObject() throws IOException {
+        int type = readByte();
+
+        switch (type) {
+            case SessionDataOutput.NULL_VALUE:
+                return null;
+            case SessionDataOutput.STRING_VALUE:
+                return readString();
+            case SessionDataOutput.INTEGER_VALUE:
+                int intValue = readVarInt();
+                return (intValue >>> 1) ^ -(intValue & 1);
+            case SessionDataOutput.LONG_VALUE:
+                long longValue = readVarLong();
+                return (longValue >>> 1) ^ -(longValue & 1);
+            case SessionDataOutput.TRUE_VALUE:
+                return Boolean.TRUE;
+            case SessionDataOutput.FALSE_VALUE:
+                return Boolean.FALSE;
+            case SessionDataOutput.DATE_VALUE:
+                return new Date(readVarLong());
+            case SessionDataOutput.CODEC_VALUE:
+                String typeName = readString();
+                AttributeCodec<?> attributeCodec = this.codec.getCodec(typeName);
+
+                if (attributeCodec == null) {
+                    throw PicketBoxMessages.MESSAGES.noCodecForType(typeName);
+                }
+
+                return attributeCodec.read(this);
+            case SessionDataOutput.SERIALIZED_VALUE:
+                return readSerialized();
+            default:
+                throw PicketBoxMessages.MESSAGES.unsupportedSessionEncoding(BinarySessionCodec.VERSION);
+        }
+    }
+
+    private Object readSerialized() throws IOException {
+        if (this.serialized == null) {
+            this.serialized = new ObjectInputStream(new ByteArrayInputStream(this.data, this.serializedOffset, this.limit
+                    - this.serializedOffset));
+        }
+
+        try {
+            return this.serialized.readObject();
+        } catch (ClassNotFoundException e) {
+            IOException exception = new IOException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Output used by the {@link BinarySessionCodec} and the registered {@link AttributeCodec} instances to write a session.
+ * </p>
+ * <p>
+ * Integers and lengths are written as variable length integers. Strings are written once per session, further occurrences
+ * are written as a reference to the first one. Values without a registered codec are written with Java serialization to a
+ * single stream shared by the whole session, so class descriptors are written only once.
+ * </p>
+ */
+public final class SessionDataOutput {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte NULL_VALUE = 0;
+    static final byte STRING_VALUE = 1;
+    static final byte INTEGER_VALUE = 2;
+    static final byte LONG_VALUE = 3;
+    static final byte TRUE_VALUE = 4;
+    static final byte FALSE_VALUE = 5;
+    static final byte DATE_VALUE = 6;
+    static final byte CODEC_VALUE = 7;
+    static final byte SERIALIZED_VALUE = 8;
+
+    private final BinarySessionCodec codec;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    private ByteArrayOutputStream serializedBytes;
+    private ObjectOutputStream serialized;
+
+    SessionDataOutput(BinarySessionCodec codec) {
+        this.codec = codec;
+    }
+
+    public void writeByte(int value) {
+        this.body.write(value);
+    }
+
+    public void writeBoolean(boolean value) {
+        this.body.write(value ? 1 : 0);
+    }
+
+    /**
+     * <p>
+     * Writes an integer using one to five bytes. Small non-negative values use fewer bytes.
+     * </p>
+     *
+     * @param value
+     */
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            this.body.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        this.body.write(value);
+    }
+
+    /**
+     * <p>
+     * Writes a long using one to ten bytes. Small non-negative values use fewer bytes.
+     * </p>
+     *
+     * @param value
+     */
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            this.body.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        this.body.write((int) value);
+    }
+
+    /**
+     * <p>
+     * Writes a string, which may be null. A string already written to this output is written as a reference.
+     * </p>
+     *
+     * @param value
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        Integer index = this.strings.get(value);
+
+        if (index != null) {
+            writeVarInt(index + 2);
+            return;
+        }
+
+        this.strings.put(value, this.strings.size());
+
+        byte[] bytes = value.getBytes(UTF_8);
+
+        writeVarInt(1);
+        writeVarInt(bytes.length);
+        this.body.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <p>
+     * Writes a value, which may be null. Strings, numbers, booleans and dates are written directly, values with a registered
+     * {@link AttributeCodec} are written by the codec and any other value is serialized.
+     * </p>
+     *
+     * @param value
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public void writeObject(Object value) throws IOException {
+        if (value == null) {
+            writeByte(NULL_VALUE);
+        } else if (value instanceof String) {
+            writeByte(STRING_VALUE);
+            writeString((String) value);
+        } else if (value instanceof Integer) {
+            int number = (Integer) value;
+            writeByte(INTEGER_VALUE);
+            writeVarInt((number << 1) ^ (number >> 31));
+        } else if (value instanceof Long) {
+            long number = (Long) value;
+            writeByte(LONG_VALUE);
+            writeVarLong((number << 1) ^ (number >> 63));
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+        } else if (value.getClass() == Date.class) {
+            writeByte(DATE_VALUE);
+            writeVarLong(((Date) value).getTime());
+        } else {
+            AttributeCodec<Object> attributeCodec = (AttributeCodec<Object>) this.codec.getCodec(value.getClass());
+
+            if (attributeCodec != null) {
+                writeByte(CODEC_VALUE);
+                writeString(attributeCodec.getType().getName());
+                attributeCodec.write(value, this);
+            } else {
+                writeSerialized(value);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Writes a value using Java serialization, even if there is a codec registered for its type.
+     * </p>
+     *
+     * @param value
+     * @throws IOException
+     */
+    public void writeSerialized(Object value) throws IOException {
+        if (this.serialized == null) {
+            this.serializedBytes = new ByteArrayOutputStream();
+            this.serialized = new ObjectOutputStream(this.serializedBytes);
+        }
+
+        writeByte(SERIALIZED_VALUE);
+        this.serialized.writeObject(value);
+    }
+
+    /**
+     * <p>
+     * Returns the encoded session: the header, the length of the body, the body and the serialized values, if any.
+     * </p>
+     */
+    byte[] toByteArray() throws IOException {
+        byte[] serializedValues = null;
+
+        if (this.serialized != null) {
+            this.serialized.close();
+            serializedValues = this.serializedBytes.toByteArray();
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(this.body.size() + 8
+                + (serializedValues != null ? serializedValues.length : 0));
+
+        result.write(BinarySessionCodec.MAGIC >>> 8);
+        result.write(BinarySessionCodec.MAGIC & 0xFF);
+        result.write(BinarySessionCodec.VERSION);
+
+        int length = this.body.size();
+
+        while ((length & ~0x7F) != 0) {
+            result.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+
+        result.write(length);
+
+        this.body.writeTo(result);
+
+        if (serializedValues != null) {
+            result.write(serializedValues);
+        }
+
+        return result.toByteArray();
+    }
+}
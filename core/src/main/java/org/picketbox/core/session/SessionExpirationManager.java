@@ -21,36 +21,82 @@
  */
 package org.picketbox.core.session;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.WeakHashMap;
-
-import org.jboss.logging.Logger;
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.config.PicketBoxConfiguration;
 import org.picketbox.core.event.EventObserver;
-import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.session.event.SessionExpiredEvent;
 import org.picketbox.core.session.event.SessionGetAttributeEvent;
+import org.picketbox.core.session.event.SessionInvalidatedEvent;
+import org.picketbox.core.session.event.SessionRemoveAttributeEvent;
 import org.picketbox.core.session.event.SessionSetAttributeEvent;
+import org.picketbox.core.session.event.SessionTouchedEvent;
 
 /**
- * A manager capable of creating PicketBox sessions
+ * A manager capable of expiring PicketBox sessions.
+ *
+ * Sessions are tracked by a {@link SessionTimingWheel}. Accessing a session only updates its last access time, the deadline is
+ * checked lazily when the session is retrieved and when its bucket in the wheel is processed.
+ *
+ * When the sessions are kept in an {@link ExpiringSessionStore} no wheel is used: the timeout is given to the store, which
+ * is also told about the touches of each session. Touches are also given to any other {@link AccessTrackingSessionStore}, so
+ * the sessions it loads again carry their last access time.
  *
  * @author anil saldhana
  * @since Jul 16, 2012
  */
 public class SessionExpirationManager {
 
-    private Logger log = Logger.getLogger(SessionExpirationManager.class);
+    /**
+     * Duration, in milliseconds, of each tick of the wheel. Sessions expire with this precision.
+     */
+    static final long TICK_DURATION = 1000;
 
-    private static Timer timer = new Timer();
+    /**
+     * Number of buckets of the wheel.
+     */
+    static final int TICKS_PER_WHEEL = 512;
 
     private final long expiryValue;
 
-    private WeakHashMap<String, SessionTimerTask> timerMap = new WeakHashMap<String, SessionTimerTask>();
+    private final SessionTimingWheel timingWheel;
+
+    private final ExpiringSessionStore expiringStore;
+
+    private final AccessTrackingSessionStore accessTrackingStore;
 
     public SessionExpirationManager(PicketBoxConfiguration configuration) {
+        this(configuration, null, null, null);
+    }
+
+    /**
+     * @param configuration
+     * @param loader loads the sessions released from memory by the store, so they can be expired.
+     * @param store the store keeping the sessions. If it is an {@link ExpiringSessionStore} the sessions are expired by it,
+     *        otherwise by this manager.
+     * @param listener notified about the sessions expired by the store.
+     */
+    SessionExpirationManager(PicketBoxConfiguration configuration, SessionTimingWheel.SessionLoader loader,
+            SessionStore store, ExpiringSessionStore.ExpirationListener listener) {
         this.expiryValue = configuration.getSessionManager().getSessionTimeout() * 60 * 1000;
+
+        if (this.expiryValue > 0 && store instanceof ExpiringSessionStore) {
+            this.expiringStore = (ExpiringSessionStore) store;
+            this.expiringStore.setExpiration(this.expiryValue, listener);
+        } else {
+            this.expiringStore = null;
+        }
+
+        if (this.expiryValue > 0 && store instanceof AccessTrackingSessionStore) {
+            this.accessTrackingStore = (AccessTrackingSessionStore) store;
+        } else {
+            this.accessTrackingStore = null;
+        }
+
+        if (this.expiryValue > 0 && this.expiringStore == null) {
+            this.timingWheel = new SessionTimingWheel(this.expiryValue, TICK_DURATION, TICKS_PER_WHEEL, loader);
+        } else {
+            this.timingWheel = null;
+        }
     }
 
     /**
@@ -59,66 +105,90 @@ public class SessionExpirationManager {
      * @param session
      */
     void setTimer(final PicketBoxSession session) {
-        if (this.expiryValue <= 0) {
+        if (this.timingWheel == null) {
             return;
         }
 
-        handleSessionExpiration(session);
+        if (session == null)
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("Session");
+
+        this.timingWheel.schedule(session);
     }
 
-    @EventObserver
-    public void handleEvents(Object event) {
-        PicketBoxSession session = null;
-        if (event instanceof SessionSetAttributeEvent) {
-            SessionSetAttributeEvent ssae = (SessionSetAttributeEvent) event;
-            session = ssae.getSession();
-        } else if (event instanceof SessionGetAttributeEvent) {
-            SessionGetAttributeEvent sgae = (SessionGetAttributeEvent) event;
-            session = sgae.getSession();
-        }
+    /**
+     * <p>
+     * Checks if the given session was not accessed within the configured timeout.
+     * </p>
+     *
+     * @param session
+     * @return
+     */
+    boolean isExpired(PicketBoxSession session) {
+        return this.timingWheel != null && this.timingWheel.isExpired(session);
+    }
 
-        if (session != null) {
-            handleSessionExpiration(session);
+    /**
+     * <p>
+     * Returns the number of sessions whose expiration is being tracked.
+     * </p>
+     *
+     * @return
+     */
+    public int getTrackedSessions() {
+        if (this.timingWheel == null) {
+            return 0;
         }
+
+        return this.timingWheel.size();
     }
 
-    public class SessionTimerTask extends TimerTask {
-        private PicketBoxSession session = null;
+    @EventObserver
+    public void onGetAttribute(SessionGetAttributeEvent event) {
+        event.getSession().touch();
+    }
 
-        public SessionTimerTask(PicketBoxSession session) {
-            this.session = session;
-        }
+    @EventObserver
+    public void onSetAttribute(SessionSetAttributeEvent event) {
+        event.getSession().touch();
+    }
 
-        public SessionId<?> getID() {
-            return session.getId();
-        }
+    @EventObserver
+    public void onRemoveAttribute(SessionRemoveAttributeEvent event) {
+        event.getSession().touch();
+    }
 
-        @Override
-        public void run() {
-            if (session.isValid()) {
-                try {
-                    session.expire();
-                } catch (PicketBoxSessionException e) {
-                    log.error("Session Expiry Error:", e);
-                }
-            }
+    @EventObserver
+    public void onTouch(SessionTouchedEvent event) {
+        if (this.accessTrackingStore != null && event.getSession().isValid()) {
+            this.accessTrackingStore.touch(event.getSession());
         }
     }
 
-    private void handleSessionExpiration(PicketBoxSession session) {
-        if (session == null)
-            throw PicketBoxMessages.MESSAGES.invalidNullArgument("Session");
+    @EventObserver
+    public void onInvalidate(SessionInvalidatedEvent event) {
+        cancel(event.getSession());
+    }
 
-        // Get the timertask
-        String key = session.getId().getId().toString();
+    @EventObserver
+    public void onExpiration(SessionExpiredEvent event) {
+        cancel(event.getSession());
+    }
+
+    void start() {
+        if (this.timingWheel != null) {
+            this.timingWheel.start();
+        }
+    }
 
-        SessionTimerTask sessionTimerTask = timerMap.get(key);
-        if (sessionTimerTask != null) {
-            sessionTimerTask.cancel();
+    void stop() {
+        if (this.timingWheel != null) {
+            this.timingWheel.stop();
         }
+    }
 
-        sessionTimerTask = new SessionTimerTask(session);
-        timerMap.put(session.getId().getId().toString(), sessionTimerTask);
-        timer.schedule(sessionTimerTask, this.expiryValue);
+    private void cancel(PicketBoxSession session) {
+        if (this.timingWheel != null && session != null && session.getId() != null) {
+            this.timingWheel.cancel(session);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * Result of an operation of an {@link AsyncSessionStore}. Besides waiting for the result, callers can register
+ * {@link SessionCallback} instances, which are notified by the thread completing the operation, or immediately by the
+ * registering thread if the operation is already complete.
+ * </p>
+ *
+ * @param <T> type of the result of the operation.
+ */
+public class SessionFuture<T> implements Future<T> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private List<SessionCallback<? super T>> callbacks;
+    private boolean completed;
+    private boolean cancelled;
+    private T result;
+    private Throwable cause;
+
+    /**
+     * <p>
+     * Returns a future already completed with the given result.
+     * </p>
+     *
+     * @param result
+     * @return
+     */
+    public static <T> SessionFuture<T> completed(T result) {
+        SessionFuture<T> future = new SessionFuture<T>();
+
+        future.complete(result);
+
+        return future;
+    }
+
+    /**
+     * <p>
+     * Returns a future already failed with the given cause.
+     * </p>
+     *
+     * @param cause
+     * @return
+     */
+    public static <T> SessionFuture<T> failed(Throwable cause) {
+        SessionFuture<T> future = new SessionFuture<T>();
+
+        future.fail(cause);
+
+        return future;
+    }
+
+    /**
+     * <p>
+     * Completes the operation with the given result. Does nothing if it is already complete.
+     * </p>
+     *
+     * @param result
+     * @return true if this call completed the operation.
+     */
+    public boolean complete(T result) {
+        List<SessionCallback<? super T>> toNotify;
+
+        synchronized (this) {
+            if (this.completed) {
+                return false;
+            }
+
+            this.result = result;
+            toNotify = finish();
+        }
+
+        for (SessionCallback<? super T> callback : toNotify) {
+            callback.completed(result);
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>
+     * Fails the operation with the given cause. Does nothing if it is already complete.
+     * </p>
+     *
+     * @param cause
+     * @return true if this call completed the operation.
+     */
+    public boolean fail(Throwable cause) {
+        List<SessionCallback<? super T>> toNotify;
+
+        synchronized (this) {
+            if (this.completed) {
+                return false;
+            }
+
+            this.cause = cause;
+            toNotify = finish();
+        }
+
+        for (SessionCallback<? super T> callback : toNotify) {
+            callback.failed(cause);
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>
+     * Registers a callback notified when the operation completes.
+     * </p>
+     *
+     * @param callback
+     * @return this future.
+     */
+    public SessionFuture<T> addCallback(SessionCallback<? super T> callback) {
+        synchronized (this) {
+            if (!this.completed) {
+                if (this.callbacks == null) {
+                    this.callbacks = new ArrayList<SessionCallback<? super T>>(1);
+                }
+
+                this.callbacks.add(callback);
+
+                return this;
+            }
+        }
+
+        if (this.cause != null) {
+            callback.failed(this.cause);
+        } else {
+            callback.completed(this.result);
+        }
+
+        return this;
+    }
+
+    /**
+     * <p>
+     * Marks the operation as cancelled, the callbacks are notified with a {@link CancellationException}. Operations already
+     * running are not interrupted.
+     * </p>
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (this.completed) {
+                return false;
+            }
+
+            this.cancelled = true;
+        }
+
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.completed;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        this.done.await();
+
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+
+        if (this.cause != null) {
+            throw new ExecutionException(this.cause);
+        }
+
+        return this.result;
+    }
+
+    /**
+     * <p>
+     * Marks the operation as complete and returns the callbacks to notify. Called while holding the lock of this future.
+     * </p>
+     */
+    private List<SessionCallback<? super T>> finish() {
+        List<SessionCallback<? super T>> toNotify = this.callbacks;
+
+        this.completed = true;
+        this.callbacks = null;
+        this.done.countDown();
+
+        if (toNotify == null) {
+            return new ArrayList<SessionCallback<? super T>>(0);
+        }
+
+        return toNotify;
+    }
+}
@@ -23,6 +23,7 @@
 package org.picketbox.core.session;
 
 import java.io.Serializable;
+import java.util.List;
 
 import org.picketbox.core.PicketBoxLifecycle;
 import org.picketbox.core.UserContext;
@@ -76,6 +77,36 @@ public interface SessionManager extends PicketBoxLifecycle {
      */
     void update(PicketBoxSession session);
 
+    /**
+     * <p>
+     * Writes the attribute changes of a {@link PicketBoxSession} to the store, if there is any. Should be called at the end of
+     * a request or whenever the changes must be visible to other nodes.
+     * </p>
+     *
+     * @param session
+     */
+    void flush(PicketBoxSession session);
+
+    /**
+     * <p>
+     * Returns the valid sessions of the given principal. Requires sessions to be indexed by principal.
+     * </p>
+     *
+     * @param principalName
+     * @return
+     */
+    List<PicketBoxSession> findByPrincipal(String principalName);
+
+    /**
+     * <p>
+     * Invalidates all the sessions of the given principal. Requires sessions to be indexed by principal.
+     * </p>
+     *
+     * @param principalName
+     * @return the number of invalidated sessions.
+     */
+    int invalidateAllFor(String principalName);
+
     /**
      * <p>
      * Restores a {@link PicketBoxSession} for the given {@link UserContext}.
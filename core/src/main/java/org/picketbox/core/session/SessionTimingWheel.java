@@ -0,0 +1,436 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
+
+/**
+ * <p>
+ * Hashed timing wheel that tracks the expiration of {@link PicketBoxSession} instances using a single thread.
+ * </p>
+ * <p>
+ * Scheduling a session is O(1): the entry is queued and placed in its bucket by the ticking thread. Accessing a session does
+ * not reschedule it. When the bucket of a session is processed its deadline is computed again from
+ * {@link PicketBoxSession#getLastAccessedTime()}, and the session is either expired or moved to the bucket of its new
+ * deadline.
+ * </p>
+ * <p>
+ * Sessions are only weakly referenced, so tracking a session does not keep it in memory when the {@link SessionStore} releases
+ * it, for example after passivating it. When the bucket of such a session is processed it is loaded again using the
+ * {@link SessionLoader}.
+ * </p>
+ */
+class SessionTimingWheel {
+
+    private static final Logger log = Logger.getLogger(SessionTimingWheel.class);
+
+    private final long expiryValue;
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final SessionLoader loader;
+
+    private final Queue<Entry> pendingEntries = new ConcurrentLinkedQueue<Entry>();
+    private final ConcurrentMap<Serializable, Entry> entries = new ConcurrentHashMap<Serializable, Entry>();
+
+    private long startTime;
+    private long tick;
+
+    private volatile Thread worker;
+
+    /**
+     * @param expiryValue session timeout in milliseconds
+     * @param tickDuration duration of each tick in milliseconds
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     * @param loader loads the sessions released from memory. If null, those sessions are no longer tracked.
+     */
+    SessionTimingWheel(long expiryValue, long tickDuration, int ticksPerWheel, SessionLoader loader) {
+        this.expiryValue = expiryValue;
+        this.tickDuration = tickDuration;
+        this.loader = loader;
+
+        int size = 1;
+
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.wheel = new Bucket[size];
+
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new Bucket();
+        }
+
+        this.mask = size - 1;
+    }
+
+    /**
+     * <p>
+     * Tracks the expiration of the given session. If the session is already tracked, the tracked instance is replaced by the
+     * given one without rescheduling it.
+     * </p>
+     *
+     * @param session
+     */
+    void schedule(PicketBoxSession session) {
+        Serializable key = session.getId().getId();
+        Entry entry = this.entries.get(key);
+
+        if (entry != null) {
+            entry.track(session);
+            return;
+        }
+
+        entry = new Entry(key, session, session.getLastAccessedTime() + this.expiryValue);
+
+        Entry existing = this.entries.putIfAbsent(key, entry);
+
+        if (existing != null) {
+            existing.track(session);
+            return;
+        }
+
+        this.pendingEntries.add(entry);
+    }
+
+    /**
+     * <p>
+     * Stops tracking the given session.
+     * </p>
+     *
+     * @param session
+     */
+    void cancel(PicketBoxSession session) {
+        Entry entry = this.entries.remove(session.getId().getId());
+
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    /**
+     * <p>
+     * Checks if the session was not accessed within the session timeout.
+     * </p>
+     *
+     * @param session
+     * @return
+     */
+    boolean isExpired(PicketBoxSession session) {
+        return session.getLastAccessedTime() + this.expiryValue <= System.currentTimeMillis();
+    }
+
+    /**
+     * <p>
+     * Returns the number of sessions being tracked.
+     * </p>
+     *
+     * @return
+     */
+    int size() {
+        return this.entries.size();
+    }
+
+    synchronized void start() {
+        if (this.worker != null) {
+            return;
+        }
+
+        this.startTime = System.currentTimeMillis();
+        this.tick = 0;
+
+        // entries placed before a previous stop are placed again relative to the new start time
+        for (Bucket bucket : this.wheel) {
+            bucket.clear();
+        }
+
+        this.pendingEntries.addAll(this.entries.values());
+
+        Thread thread = new Thread(new Worker(), "PicketBox Session Expiration");
+
+        thread.setDaemon(true);
+
+        this.worker = thread;
+
+        thread.start();
+    }
+
+    synchronized void stop() {
+        Thread thread = this.worker;
+
+        if (thread == null) {
+            return;
+        }
+
+        this.worker = null;
+
+        thread.interrupt();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <p>
+     * Places the entry in the bucket of its deadline. Only called by the ticking thread.
+     * </p>
+     *
+     * @param entry
+     * @param minimumTick the first tick in which the entry can be processed
+     */
+    private void place(Entry entry, long minimumTick) {
+        long deadlineTick = (entry.deadline - this.startTime + this.tickDuration - 1) / this.tickDuration;
+        long targetTick = Math.max(deadlineTick, minimumTick);
+
+        entry.remainingRounds = (targetTick - this.tick) / this.wheel.length;
+
+        this.wheel[(int) (targetTick & this.mask)].add(entry);
+    }
+
+    private void expire(Entry entry, PicketBoxSession session) {
+        this.entries.remove(entry.key, entry);
+
+        if (session.isValid()) {
+            try {
+                session.expire();
+            } catch (PicketBoxSessionException e) {
+                log.error("Session Expiry Error:", e);
+            } catch (RuntimeException e) {
+                log.error("Session Expiry Error:", e);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            Thread currentThread = Thread.currentThread();
+
+            while (worker == currentThread) {
+                long now = waitForNextTick();
+
+                if (now < 0) {
+                    return;
+                }
+
+                transferPendingEntries();
+
+                wheel[(int) (tick & mask)].process(now);
+
+                tick++;
+            }
+        }
+
+        private long waitForNextTick() {
+            long deadline = startTime + (tick + 1) * tickDuration;
+
+            while (true) {
+                long now = System.currentTimeMillis();
+                long sleepTime = deadline - now;
+
+                if (sleepTime <= 0) {
+                    return now;
+                }
+
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+        }
+
+        private void transferPendingEntries() {
+            Entry entry;
+
+            while ((entry = pendingEntries.poll()) != null) {
+                if (!entry.cancelled && entry.bucket == null) {
+                    place(entry, tick);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Doubly-linked list of entries. Only accessed by the ticking thread.
+     * </p>
+     */
+    private class Bucket {
+
+        private Entry head;
+        private Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+
+            if (this.head == null) {
+                this.head = entry;
+                this.tail = entry;
+            } else {
+                this.tail.next = entry;
+                entry.prev = this.tail;
+                this.tail = entry;
+            }
+        }
+
+        void remove(Entry entry) {
+            Entry next = entry.next;
+
+            if (entry.prev != null) {
+                entry.prev.next = next;
+            }
+
+            if (next != null) {
+                next.prev = entry.prev;
+            }
+
+            if (entry == this.head) {
+                this.head = next;
+            }
+
+            if (entry == this.tail) {
+                this.tail = entry.prev;
+            }
+
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+
+        void clear() {
+            while (this.head != null) {
+                remove(this.head);
+            }
+        }
+
+        void process(long now) {
+            Entry entry = this.head;
+
+            while (entry != null) {
+                Entry next = entry.next;
+
+                if (entry.cancelled) {
+                    remove(entry);
+                } else if (entry.remainingRounds <= 0) {
+                    remove(entry);
+
+                    PicketBoxSession session = resolve(entry);
+
+                    if (session == null || !session.isValid()) {
+                        entries.remove(entry.key, entry);
+                    } else {
+                        entry.deadline = session.getLastAccessedTime() + expiryValue;
+
+                        if (entry.deadline <= now) {
+                            expire(entry, session);
+                        } else {
+                            place(entry, tick + 1);
+                        }
+                    }
+                } else {
+                    entry.remainingRounds--;
+                }
+
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the session tracked by the entry, loading it if it was released from memory.
+     * </p>
+     */
+    private PicketBoxSession resolve(Entry entry) {
+        PicketBoxSession session = entry.session.get();
+
+        if (session == null && this.loader != null) {
+            try {
+                session = this.loader.load(entry.id);
+            } catch (RuntimeException e) {
+                log.error("Session Expiry Error:", e);
+            }
+
+            if (session != null) {
+                entry.track(session);
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * <p>
+     * Loads sessions that were released from memory while being tracked.
+     * </p>
+     */
+    interface SessionLoader {
+
+        /**
+         * @param id
+         * @return the session or null if it no longer exists.
+         */
+        PicketBoxSession load(SessionId<? extends Serializable> id);
+    }
+
+    private static class Entry {
+
+        private final Serializable key;
+        private final SessionId<? extends Serializable> id;
+        private volatile WeakReference<PicketBoxSession> session;
+        private volatile boolean cancelled;
+
+        private long deadline;
+        private long remainingRounds;
+
+        private Bucket bucket;
+        private Entry next;
+        private Entry prev;
+
+        Entry(Serializable key, PicketBoxSession session, long deadline) {
+            this.key = key;
+            this.id = session.getId();
+            this.session = new WeakReference<PicketBoxSession>(session);
+            this.deadline = deadline;
+        }
+
+        void track(PicketBoxSession session) {
+            if (this.session.get() != session) {
+                this.session = new WeakReference<PicketBoxSession>(session);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * {@link SessionStore} waiting for the operations of an {@link AsyncSessionStore} to complete.
+ * </p>
+ * <p>
+ * The asynchronous operations are still available, so the {@link DefaultSessionManager} uses them directly when restoring
+ * sessions asynchronously.
+ * </p>
+ */
+public class SyncSessionStoreAdapter extends AbstractPicketBoxLifeCycle implements SessionStore, AsyncSessionStore {
+
+    private final AsyncSessionStore delegate;
+
+    public SyncSessionStoreAdapter(AsyncSessionStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public PicketBoxSession load(SessionId<? extends Serializable> key) {
+        return await(this.delegate.loadAsync(key));
+    }
+
+    @Override
+    public void store(PicketBoxSession session) {
+        await(this.delegate.storeAsync(session));
+    }
+
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        await(this.delegate.removeAsync(id));
+    }
+
+    @Override
+    public void update(PicketBoxSession session) {
+        await(this.delegate.updateAsync(session));
+    }
+
+    @Override
+    public SessionFuture<PicketBoxSession> loadAsync(SessionId<? extends Serializable> key) {
+        return this.delegate.loadAsync(key);
+    }
+
+    @Override
+    public SessionFuture<Void> storeAsync(PicketBoxSession session) {
+        return this.delegate.storeAsync(session);
+    }
+
+    @Override
+    public SessionFuture<Void> removeAsync(SessionId<? extends Serializable> id) {
+        return this.delegate.removeAsync(id);
+    }
+
+    @Override
+    public SessionFuture<Void> updateAsync(PicketBoxSession session) {
+        return this.delegate.updateAsync(session);
+    }
+
+    public AsyncSessionStore getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    protected void doStart() {
+        this.delegate.start();
+    }
+
+    @Override
+    protected void doStop() {
+        this.delegate.stop();
+    }
+
+    /**
+     * <p>
+     * Waits for the result of an operation, rethrowing the runtime exceptions it failed with.
+     * </p>
+     */
+    private <T> T await(SessionFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw PicketBoxMessages.MESSAGES.asyncSessionStoreOperationFailed(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw PicketBoxMessages.MESSAGES.asyncSessionStoreOperationFailed(cause);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * {@link SessionStore} that keeps recently used sessions in memory and passivates idle sessions to disk.
+ * </p>
+ * <p>
+ * A background thread periodically looks for sessions not accessed within the idle timeout. Those sessions are encoded with a
+ * {@link SessionCodec} and appended to segment files mapped into memory, leaving only their location in memory. A passivated
+ * session is activated, that is decoded and moved back to memory, when it is loaded. Segments are deleted once all their
+ * sessions were activated or removed, and the remaining sessions of mostly unused segments are moved to the current segment.
+ * </p>
+ * <p>
+ * The disk tier only extends the memory available for sessions, it is not durable. Segment files are deleted when the store
+ * is stopped.
+ * </p>
+ */
+public class TieredSessionStore extends AbstractPicketBoxLifeCycle implements SessionStore {
+
+    private static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final long DEFAULT_PASSIVATION_INTERVAL = 30 * 1000;
+    private static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Segments with less live data than this fraction have their sessions moved to the current segment.
+     */
+    private static final double COMPACTION_RATIO = 0.5;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final File directory;
+    private final long idleTimeout;
+    private final long passivationInterval;
+    private final int segmentSize;
+    private final SessionCodec codec;
+
+    private final ConcurrentMap<Serializable, PicketBoxSession> hotSessions = new ConcurrentHashMap<Serializable, PicketBoxSession>();
+    private final ConcurrentMap<Serializable, Location> passivatedSessions = new ConcurrentHashMap<Serializable, Location>();
+
+    /*
+     * Moving a session between the tiers is done while holding the lock of its stripe.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /*
+     * Segments are only created and written by the passivation thread, while holding the passivation lock.
+     */
+    private final Object passivationLock = new Object();
+    private final List<MappedSessionSegment> segments = new CopyOnWriteArrayList<MappedSessionSegment>();
+    private MappedSessionSegment currentSegment;
+
+    private final AtomicLong passivations = new AtomicLong();
+    private final AtomicLong activations = new AtomicLong();
+    private final AtomicLong activationTime = new AtomicLong();
+
+    private ScheduledExecutorService passivationExecutor;
+
+    public TieredSessionStore() {
+        this(new File(System.getProperty("java.io.tmpdir"), "picketbox-sessions").getAbsolutePath(), DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public TieredSessionStore(String directory, long idleTimeout) {
+        this(directory, idleTimeout, DEFAULT_PASSIVATION_INTERVAL, DEFAULT_SEGMENT_SIZE, new BinarySessionCodec());
+    }
+
+    /**
+     * <p>
+     * Creates a store that passivates sessions to the given directory.
+     * </p>
+     *
+     * @param directory directory where the segment files are created.
+     * @param idleTimeout time, in milliseconds, after which a session not accessed is passivated.
+     * @param passivationInterval how often, in milliseconds, idle sessions are looked for. Zero or less disables the
+     *        background thread, sessions are then only passivated when {@link #passivate()} is called.
+     * @param segmentSize size, in bytes, of each segment file.
+     * @param codec the codec used to write the passivated sessions.
+     */
+    public TieredSessionStore(String directory, long idleTimeout, long passivationInterval, int segmentSize,
+            SessionCodec codec) {
+        if (directory == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("directory");
+        }
+
+        if (codec == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("codec");
+        }
+
+        this.directory = new File(directory);
+        this.idleTimeout = idleTimeout;
+        this.passivationInterval = passivationInterval;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#load(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public PicketBoxSession load(SessionId<? extends Serializable> key) {
+        Serializable id = key.getId();
+        PicketBoxSession session = this.hotSessions.get(id);
+
+        if (session != null || !this.passivatedSessions.containsKey(id)) {
+            return session;
+        }
+
+        synchronized (lockFor(id)) {
+            session = this.hotSessions.get(id);
+
+            if (session != null) {
+                return session;
+            }
+
+            Location location = this.passivatedSessions.remove(id);
+
+            if (location == null) {
+                return null;
+            }
+
+            long start = System.nanoTime();
+
+            try {
+                session = this.codec.decode(location.segment.read(location.offset, location.length));
+            } catch (IOException e) {
+                PicketBoxLogger.LOGGER.failedToActivateSession(key, e);
+                return null;
+            } finally {
+                location.segment.release(location.length);
+            }
+
+            this.hotSessions.put(id, session);
+
+            this.activationTime.addAndGet(System.nanoTime() - start);
+            this.activations.incrementAndGet();
+
+            return session;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#store(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void store(PicketBoxSession session) {
+        update(session);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#remove(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        synchronized (lockFor(id.getId())) {
+            this.hotSessions.remove(id.getId());
+            release(this.passivatedSessions.remove(id.getId()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#update(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void update(PicketBoxSession session) {
+        Serializable id = session.getId().getId();
+
+        synchronized (lockFor(id)) {
+            this.hotSessions.put(id, session);
+            release(this.passivatedSessions.remove(id));
+        }
+    }
+
+    /**
+     * <p>
+     * Passivates the sessions not accessed within the idle timeout and reclaims the space of mostly unused segments.
+     * </p>
+     */
+    public void passivate() {
+        synchronized (this.passivationLock) {
+            long idleSince = System.currentTimeMillis() - this.idleTimeout;
+
+            for (Entry<Serializable, PicketBoxSession> entry : this.hotSessions.entrySet()) {
+                PicketBoxSession session = entry.getValue();
+
+                if (session.getLastAccessedTime() <= idleSince && session.isValid()) {
+                    passivate(entry.getKey(), session);
+                }
+            }
+
+            compact();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of sessions in memory.
+     * </p>
+     *
+     * @return
+     */
+    public int getHotSessions() {
+        return this.hotSessions.size();
+    }
+
+    /**
+     * <p>
+     * Returns the number of sessions passivated to disk.
+     * </p>
+     *
+     * @return
+     */
+    public int getPassivatedSessions() {
+        return this.passivatedSessions.size();
+    }
+
+    /**
+     * <p>
+     * Returns how many times a session was passivated since the store was created.
+     * </p>
+     *
+     * @return
+     */
+    public long getPassivations() {
+        return this.passivations.get();
+    }
+
+    /**
+     * <p>
+     * Returns how many times a session was activated since the store was created.
+     * </p>
+     *
+     * @return
+     */
+    public long getActivations() {
+        return this.activations.get();
+    }
+
+    /**
+     * <p>
+     * Returns the average time, in nanoseconds, taken to read and decode a passivated session.
+     * </p>
+     *
+     * @return
+     */
+    public long getAverageActivationTime() {
+        long count = this.activations.get();
+        return count == 0 ? 0 : this.activationTime.get() / count;
+    }
+
+    /**
+     * <p>
+     * Returns the number of bytes allocated by the segment files.
+     * </p>
+     *
+     * @return
+     */
+    public long getDiskSize() {
+        long size = 0;
+
+        for (MappedSessionSegment segment : this.segments) {
+            size += segment.getCapacity();
+        }
+
+        return size;
+    }
+
+    @Override
+    protected void doStart() {
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.directory.getAbsolutePath(), null);
+        }
+
+        if (this.passivationInterval > 0) {
+            this.passivationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PicketBox-TieredSessionStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            this.passivationExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    passivate();
+                }
+            }, this.passivationInterval, this.passivationInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        if (this.passivationExecutor != null) {
+            this.passivationExecutor.shutdownNow();
+            this.passivationExecutor = null;
+        }
+
+        synchronized (this.passivationLock) {
+            this.hotSessions.clear();
+            this.passivatedSessions.clear();
+
+            for (MappedSessionSegment segment : this.segments) {
+                segment.delete();
+            }
+
+            this.segments.clear();
+            this.currentSegment = null;
+        }
+    }
+
+    private void passivate(Serializable id, PicketBoxSession session) {
+        byte[] data;
+
+        try {
+            data = this.codec.encode(session);
+        } catch (IOException e) {
+            PicketBoxLogger.LOGGER.failedToPassivateSession(session.getId(), e);
+            return;
+        } catch (RuntimeException e) {
+            PicketBoxLogger.LOGGER.failedToPassivateSession(session.getId(), e);
+            return;
+        }
+
+        synchronized (lockFor(id)) {
+            // the session was accessed, replaced or removed while being encoded
+            if (this.hotSessions.get(id) != session
+                    || session.getLastAccessedTime() > System.currentTimeMillis() - this.idleTimeout) {
+                return;
+            }
+
+            this.passivatedSessions.put(id, write(data));
+            this.hotSessions.remove(id);
+        }
+
+        this.passivations.incrementAndGet();
+    }
+
+    /**
+     * <p>
+     * Deletes the segments without live sessions and moves the sessions of mostly unused segments to the current segment.
+     * </p>
+     */
+    private void compact() {
+        Set<MappedSessionSegment> sparseSegments = new HashSet<MappedSessionSegment>();
+
+        for (MappedSessionSegment segment : this.segments) {
+            if (segment == this.currentSegment) {
+                continue;
+            }
+
+            if (segment.getLiveRecords() == 0) {
+                this.segments.remove(segment);
+                segment.delete();
+            } else if (segment.getLiveRatio() < COMPACTION_RATIO) {
+                sparseSegments.add(segment);
+            }
+        }
+
+        if (sparseSegments.isEmpty()) {
+            return;
+        }
+
+        for (Entry<Serializable, Location> entry : this.passivatedSessions.entrySet()) {
+            Location location = entry.getValue();
+
+            if (!sparseSegments.contains(location.segment)) {
+                continue;
+            }
+
+            synchronized (lockFor(entry.getKey())) {
+                if (this.passivatedSessions.get(entry.getKey()) == location) {
+                    byte[] data = location.segment.read(location.offset, location.length);
+
+                    this.passivatedSessions.put(entry.getKey(), write(data));
+                    release(location);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Appends a record to the current segment, creating a new one if it is full. Only called by the thread holding the
+     * passivation lock.
+     * </p>
+     */
+    private Location write(byte[] data) {
+        int offset = this.currentSegment != null ? this.currentSegment.append(data) : -1;
+
+        if (offset < 0) {
+            File file;
+
+            try {
+                file = File.createTempFile("sessions-", ".segment", this.directory);
+            } catch (IOException e) {
+                throw PicketBoxMessages.MESSAGES.unableToStoreToFile(this.directory.getAbsolutePath(), e);
+            }
+
+            this.currentSegment = new MappedSessionSegment(file, Math.max(this.segmentSize, data.length));
+            this.segments.add(this.currentSegment);
+
+            offset = this.currentSegment.append(data);
+        }
+
+        return new Location(this.currentSegment, offset, data.length);
+    }
+
+    private void release(Location location) {
+        if (location != null) {
+            location.segment.release(location.length);
+        }
+    }
+
+    private Object lockFor(Serializable id) {
+        return this.locks[(id.hashCode() & 0x7fffffff) % this.locks.length];
+    }
+
+    /**
+     * <p>
+     * Location of a passivated session. The only state kept in memory for such a session.
+     * </p>
+     */
+    private static class Location {
+
+        private final MappedSessionSegment segment;
+        private final int offset;
+        private final int length;
+
+        Location(MappedSessionSegment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * {@link SessionStore} decorator that writes to the underlying store in the background.
+ * </p>
+ * <p>
+ * Stores, updates and removals are kept in memory, indexed by session id, so repeated changes to the same session result in a
+ * single write. Pending writes are flushed in batches by a background thread, either periodically or as soon as the number of
+ * pending writes reaches the batch size. Sessions with a pending write are loaded from memory, so a change is visible before
+ * it reaches the underlying store. All pending writes are flushed when the store is stopped.
+ * </p>
+ * <p>
+ * Attribute changes written through {@link DeltaSessionStore#updateAttributes(PicketBoxSession, Set)} are merged as well, and
+ * reach the underlying store as a single delta when it is a {@link DeltaSessionStore}. Loads are asynchronous when the
+ * underlying store is an {@link AsyncSessionStore}, and run on an {@link AsyncSessionStoreAdapter} otherwise. Expiration and
+ * touches are not writes, so an underlying {@link ExpiringSessionStore} or {@link AccessTrackingSessionStore} is used directly
+ * by the session manager, see {@link #getDelegate()}.
+ * </p>
+ */
+public class WriteBehindSessionStore extends AbstractPicketBoxLifeCycle implements DeltaSessionStore, AsyncSessionStore {
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final SessionStore delegate;
+    private final AsyncSessionStore asyncDelegate;
+    private final int batchSize;
+    private final long flushInterval;
+
+    private final ConcurrentMap<Serializable, PendingWrite> pendingWrites = new ConcurrentHashMap<Serializable, PendingWrite>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong mergedWrites = new AtomicLong();
+    private final Object flushLock = new Object();
+
+    private volatile ScheduledExecutorService flushExecutor;
+
+    public WriteBehindSessionStore(SessionStore delegate) {
+        this(delegate, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * <p>
+     * Creates a store that writes to the given store in the background.
+     * </p>
+     *
+     * @param delegate the underlying store.
+     * @param batchSize number of pending writes that triggers a flush.
+     * @param flushInterval how often, in milliseconds, the pending writes are flushed.
+     */
+    public WriteBehindSessionStore(SessionStore delegate, int batchSize, long flushInterval) {
+        if (delegate == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("delegate");
+        }
+
+        this.delegate = delegate;
+        this.asyncDelegate = delegate instanceof AsyncSessionStore ? null : new AsyncSessionStoreAdapter(delegate);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#load(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public PicketBoxSession load(SessionId<? extends Serializable> key) {
+        PendingWrite pendingWrite = this.pendingWrites.get(key.getId());
+
+        if (pendingWrite != null) {
+            return pendingWrite.session;
+        }
+
+        return this.delegate.load(key);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#store(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void store(PicketBoxSession session) {
+        write(session.getId().getId(), new PendingWrite(session.getId(), session, true, null));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#remove(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public void remove(SessionId<? extends Serializable> id) {
+        write(id.getId(), new PendingWrite(id, null, false, null));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.SessionStore#update(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void update(PicketBoxSession session) {
+        write(session.getId().getId(), new PendingWrite(session.getId(), session, false, null));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.DeltaSessionStore#updateAttributes(org.picketbox.core.session.PicketBoxSession,
+     * java.util.Set)
+     */
+    @Override
+    public void updateAttributes(PicketBoxSession session, Set<String> changedAttributes) {
+        Set<String> attributes = new HashSet<String>(changedAttributes);
+
+        write(session.getId().getId(), new PendingWrite(session.getId(), session, false, attributes));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AsyncSessionStore#loadAsync(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public SessionFuture<PicketBoxSession> loadAsync(SessionId<? extends Serializable> key) {
+        PendingWrite pendingWrite = this.pendingWrites.get(key.getId());
+
+        if (pendingWrite != null) {
+            return SessionFuture.completed(pendingWrite.session);
+        }
+
+        if (this.asyncDelegate == null) {
+            return ((AsyncSessionStore) this.delegate).loadAsync(key);
+        }
+
+        if (!this.asyncDelegate.started()) {
+            return SessionFuture.completed(this.delegate.load(key));
+        }
+
+        return this.asyncDelegate.loadAsync(key);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AsyncSessionStore#storeAsync(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public SessionFuture<Void> storeAsync(PicketBoxSession session) {
+        store(session);
+        return SessionFuture.completed(null);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AsyncSessionStore#removeAsync(org.picketbox.core.session.SessionId)
+     */
+    @Override
+    public SessionFuture<Void> removeAsync(SessionId<? extends Serializable> id) {
+        remove(id);
+        return SessionFuture.completed(null);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.AsyncSessionStore#updateAsync(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public SessionFuture<Void> updateAsync(PicketBoxSession session) {
+        update(session);
+        return SessionFuture.completed(null);
+    }
+
+    /**
+     * <p>
+     * Writes all pending writes to the underlying store. Writes that fail are kept and retried on the next flush.
+     * </p>
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            for (Entry<Serializable, PendingWrite> entry : this.pendingWrites.entrySet()) {
+                PendingWrite pendingWrite = entry.getValue();
+
+                try {
+                    if (pendingWrite.session == null) {
+                        this.delegate.remove(pendingWrite.id);
+                    } else if (pendingWrite.created) {
+                        this.delegate.store(pendingWrite.session);
+                    } else if (pendingWrite.changedAttributes != null && this.delegate instanceof DeltaSessionStore) {
+                        DeltaSessionStore deltaStore = (DeltaSessionStore) this.delegate;
+
+                        deltaStore.updateAttributes(pendingWrite.session, pendingWrite.changedAttributes);
+                    } else {
+                        this.delegate.update(pendingWrite.session);
+                    }
+                } catch (RuntimeException e) {
+                    PicketBoxLogger.LOGGER.failedToWriteSession(pendingWrite.id, e);
+                    continue;
+                }
+
+                // the write stays pending until the underlying store has it, unless it was replaced in the meantime
+                this.pendingWrites.remove(entry.getKey(), pendingWrite);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of sessions with changes not yet written to the underlying store.
+     * </p>
+     *
+     * @return
+     */
+    public int getPendingWrites() {
+        return this.pendingWrites.size();
+    }
+
+    /**
+     * <p>
+     * Returns how many writes were merged with a pending write for the same session, and so never reached the underlying store.
+     * </p>
+     *
+     * @return
+     */
+    public long getMergedWrites() {
+        return this.mergedWrites.get();
+    }
+
+    public SessionStore getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    protected void doStart() {
+        this.delegate.start();
+
+        if (this.asyncDelegate != null) {
+            this.asyncDelegate.start();
+        }
+
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PicketBox-WriteBehindSessionStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        if (this.flushInterval > 0) {
+            this.flushExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        ScheduledExecutorService executor = this.flushExecutor;
+
+        this.flushExecutor = null;
+
+        if (executor != null) {
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(this.flushInterval > 0 ? this.flushInterval : DEFAULT_FLUSH_INTERVAL,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+
+        if (this.asyncDelegate != null) {
+            this.asyncDelegate.stop();
+        }
+
+        this.delegate.stop();
+    }
+
+    private void write(Serializable key, PendingWrite pendingWrite) {
+        while (true) {
+            PendingWrite previous = this.pendingWrites.get(key);
+
+            // the merged write replaces the previous one in a single step, so a flush never sees only half of it
+            if (previous == null) {
+                if (this.pendingWrites.putIfAbsent(key, pendingWrite) == null) {
+                    break;
+                }
+            } else if (this.pendingWrites.replace(key, previous, pendingWrite.mergeWith(previous))) {
+                this.mergedWrites.incrementAndGet();
+                break;
+            }
+        }
+
+        ScheduledExecutorService executor = this.flushExecutor;
+
+        if (executor == null) {
+            // not started, writes go straight to the underlying store
+            flush();
+        } else if (this.pendingWrites.size() >= this.batchSize && this.flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushScheduled.set(false);
+                        flush();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the store is being stopped, which flushes all pending writes
+                this.flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * A write waiting to be applied to the underlying store. A null session means the session was removed, and null changed
+     * attributes mean the whole session is written.
+     * </p>
+     */
+    private static class PendingWrite {
+
+        private final SessionId<? extends Serializable> id;
+        private final PicketBoxSession session;
+        private final boolean created;
+        private final Set<String> changedAttributes;
+
+        PendingWrite(SessionId<? extends Serializable> id, PicketBoxSession session, boolean created,
+                Set<String> changedAttributes) {
+            this.id = id;
+            this.session = session;
+            this.created = created;
+            this.changedAttributes = changedAttributes;
+        }
+
+        /**
+         * <p>
+         * Returns the write that has the effect of the given previous write followed by this one.
+         * </p>
+         */
+        PendingWrite mergeWith(PendingWrite previous) {
+            // removals and creations do not depend on what was written before
+            if (this.session == null || this.created) {
+                return this;
+            }
+
+            // the underlying store did not see the session yet, so it still needs to be created
+            if (previous.created) {
+                return new PendingWrite(this.id, this.session, true, null);
+            }
+
+            // only two deltas are merged into a delta, anything else writes the whole session
+            if (previous.session == null || previous.changedAttributes == null || this.changedAttributes == null) {
+                return this.changedAttributes == null ? this : new PendingWrite(this.id, this.session, false, null);
+            }
+
+            Set<String> mergedAttributes = new HashSet<String>(previous.changedAttributes);
+
+            mergedAttributes.addAll(this.changedAttributes);
+
+            return new PendingWrite(this.id, this.session, false, mergedAttributes);
+        }
+    }
+}
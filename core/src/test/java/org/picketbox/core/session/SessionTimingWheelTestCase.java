@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.session;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.event.DefaultEventManager;
+import org.picketbox.core.event.EventObserver;
+import org.picketbox.core.session.event.SessionExpiredEvent;
+
+/**
+ * <p>
+ * Tests the {@link SessionTimingWheel} using a short tick.
+ * </p>
+ * <p>
+ * This test lives in the package of the wheel, as the wheel is not part of the public API.
+ * </p>
+ *
+ */
+public class SessionTimingWheelTestCase {
+
+    private static final long TICK_DURATION = 10;
+
+    private SessionTimingWheel wheel;
+
+    @After
+    public void onFinish() {
+        if (this.wheel != null) {
+            this.wheel.stop();
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if a session that is not accessed is expired after the timeout and is no longer tracked.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        this.wheel = createWheel(200, 64);
+
+        PicketBoxSession session = createSession();
+
+        this.wheel.schedule(session);
+
+        assertEquals(1, this.wheel.size());
+
+        Thread.sleep(100);
+
+        assertTrue(session.isValid());
+
+        waitForExpiration(session, 2000);
+
+        assertFalse(session.isValid());
+        assertEquals(0, this.wheel.size());
+    }
+
+    /**
+     * <p>
+     * Tests if a session accessed before its deadline is moved to a later bucket instead of being expired.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRescheduleAfterAccess() throws Exception {
+        this.wheel = createWheel(200, 64);
+
+        PicketBoxSession session = createSession();
+
+        this.wheel.schedule(session);
+
+        long end = System.currentTimeMillis() + 600;
+
+        while (System.currentTimeMillis() < end) {
+            session.touch();
+            Thread.sleep(50);
+        }
+
+        assertTrue(session.isValid());
+        assertEquals(1, this.wheel.size());
+
+        waitForExpiration(session, 2000);
+
+        assertFalse(session.isValid());
+    }
+
+    /**
+     * <p>
+     * Tests if a cancelled session, for example after being invalidated, is neither tracked nor expired.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCancel() throws Exception {
+        this.wheel = createWheel(100, 64);
+
+        PicketBoxSession session = createSession();
+
+        this.wheel.schedule(session);
+        this.wheel.cancel(session);
+
+        assertEquals(0, this.wheel.size());
+
+        Thread.sleep(300);
+
+        assertTrue(session.isValid());
+    }
+
+    /**
+     * <p>
+     * Tests if a deadline beyond one turn of the wheel is only expired after the remaining rounds.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMultipleRounds() throws Exception {
+        // 4 buckets of 10ms, a timeout of 400ms takes 10 turns of the wheel
+        this.wheel = createWheel(400, 4);
+
+        PicketBoxSession session = createSession();
+
+        this.wheel.schedule(session);
+
+        Thread.sleep(250);
+
+        assertTrue(session.isValid());
+
+        waitForExpiration(session, 2000);
+
+        assertFalse(session.isValid());
+        assertEquals(0, this.wheel.size());
+    }
+
+    /**
+     * <p>
+     * Tests if a session kept in a {@link MappedSessionStore} and only read, never written, stays active past the timeout.
+     * Every load decodes a new instance, so the instance tracked by the wheel is released and loaded again by it.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadOnlySessionInMappedStore() throws Exception {
+        File directory = File.createTempFile("picketbox-wheel", "");
+
+        directory.delete();
+        directory.mkdirs();
+
+        final MappedSessionStore store = new MappedSessionStore(new File(directory, "sessions").getAbsolutePath(), 256, 1024,
+                new BinarySessionCodec());
+        final ExpirationEventHandler handler = new ExpirationEventHandler();
+
+        store.start();
+
+        try {
+            this.wheel = createWheel(300, 64, new SessionTimingWheel.SessionLoader() {
+                @Override
+                public PicketBoxSession load(SessionId<? extends Serializable> id) {
+                    PicketBoxSession session = store.load(id);
+
+                    if (session != null) {
+                        session.setEventManager(createEventManager(handler));
+                    }
+
+                    return session;
+                }
+            });
+
+            PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+            session.setEventManager(createEventManager(handler));
+            store.store(session);
+            this.wheel.schedule(session);
+
+            SessionId<? extends Serializable> id = session.getId();
+
+            session = null;
+
+            long end = System.currentTimeMillis() + 900;
+
+            while (System.currentTimeMillis() < end) {
+                PicketBoxSession loadedSession = store.load(id);
+
+                loadedSession.touch();
+                store.touch(loadedSession);
+
+                System.gc();
+                Thread.sleep(50);
+            }
+
+            assertEquals(0, handler.expiredSessions.get());
+
+            long timeout = System.currentTimeMillis() + 2000;
+
+            while (handler.expiredSessions.get() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(TICK_DURATION);
+            }
+
+            assertEquals(1, handler.expiredSessions.get());
+        } finally {
+            this.wheel.stop();
+            this.wheel = null;
+            store.stop();
+
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+    private SessionTimingWheel createWheel(long expiryValue, int ticksPerWheel) {
+        return createWheel(expiryValue, ticksPerWheel, null);
+    }
+
+    private SessionTimingWheel createWheel(long expiryValue, int ticksPerWheel, SessionTimingWheel.SessionLoader loader) {
+        SessionTimingWheel timingWheel = new SessionTimingWheel(expiryValue, TICK_DURATION, ticksPerWheel, loader);
+
+        timingWheel.start();
+
+        return timingWheel;
+    }
+
+    private PicketBoxSession createSession() {
+        PicketBoxSession session = new PicketBoxSession();
+
+        session.setEventManager(new DefaultEventManager(new ArrayList<Object>()));
+
+        return session;
+    }
+
+    private DefaultEventManager createEventManager(Object handler) {
+        List<Object> handlers = new ArrayList<Object>();
+
+        handlers.add(handler);
+
+        return new DefaultEventManager(handlers);
+    }
+
+    private void waitForExpiration(PicketBoxSession session, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+
+        while (session.isValid() && System.currentTimeMillis() < end) {
+            Thread.sleep(TICK_DURATION);
+        }
+    }
+
+    public static class ExpirationEventHandler {
+
+        private final AtomicInteger expiredSessions = new AtomicInteger();
+
+        @EventObserver
+        public void onExpiration(SessionExpiredEvent event) {
+            this.expiredSessions.incrementAndGet();
+        }
+    }
+}
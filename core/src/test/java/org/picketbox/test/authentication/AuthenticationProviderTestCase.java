@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.picketbox.core.authentication.AuthenticationMechanism;
+import org.picketbox.core.authentication.AuthenticationProvider;
+import org.picketbox.core.authentication.credential.OTPCredential;
+import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
+import org.picketbox.core.authentication.impl.OTPAuthenticationMechanism;
+import org.picketbox.core.authentication.impl.PicketBoxAuthenticationProvider;
+import org.picketbox.core.authentication.impl.UserNamePasswordAuthenticationMechanism;
+import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
+
+/**
+ * <p>
+ * Tests how the {@link AuthenticationProvider} selects the mechanisms for a credential.
+ * </p>
+ */
+public class AuthenticationProviderTestCase extends AbstractDefaultPicketBoxManagerTestCase {
+
+    /**
+     * <p>
+     * Tests if credentials are handled by the mechanisms registered for their most specific type and if the selection is
+     * cached.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMechanismSelection() throws Exception {
+        AuthenticationProvider provider = new PicketBoxAuthenticationProvider(createManager());
+
+        List<AuthenticationMechanism> mechanisms = provider.getMechanisms(new UsernamePasswordCredential("admin", "admin"));
+
+        assertEquals(1, mechanisms.size());
+        assertTrue(mechanisms.get(0) instanceof UserNamePasswordAuthenticationMechanism);
+        assertSame(mechanisms, provider.getMechanisms(new UsernamePasswordCredential("other", "other")));
+
+        // the OTP credential extends the username/password credential, only the OTP mechanism must handle it
+        mechanisms = provider.getMechanisms(new OTPCredential("admin", "admin", "123456"));
+
+        assertEquals(1, mechanisms.size());
+        assertTrue(mechanisms.get(0) instanceof OTPAuthenticationMechanism);
+
+        // a subclass without mechanisms of its own is handled by the mechanisms of its superclass
+        mechanisms = provider.getMechanisms(new ExtendedPasswordCredential());
+
+        assertEquals(1, mechanisms.size());
+        assertTrue(mechanisms.get(0) instanceof UserNamePasswordAuthenticationMechanism);
+        assertTrue(mechanisms.get(0).supports(new ExtendedPasswordCredential()));
+
+        assertTrue(provider.getMechanisms(new CustomCredential("admin")).isEmpty());
+    }
+
+    /**
+     * <p>
+     * Tests the lookup of mechanisms by name.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMechanismNames() throws Exception {
+        AuthenticationProvider provider = new PicketBoxAuthenticationProvider(createManager());
+
+        String name = UserNamePasswordAuthenticationMechanism.class.getName();
+
+        assertEquals(4, provider.getSupportedMechanisms().length);
+        assertTrue(provider.supports(name));
+        assertTrue(provider.getMechanism(name) instanceof UserNamePasswordAuthenticationMechanism);
+        assertNull(provider.getMechanism("unknown"));
+    }
+
+    private static class ExtendedPasswordCredential extends UsernamePasswordCredential {
+
+        ExtendedPasswordCredential() {
+            super("admin", "admin");
+        }
+    }
+
+}
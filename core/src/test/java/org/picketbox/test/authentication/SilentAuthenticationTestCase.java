@@ -27,6 +27,10 @@ import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
+import java.io.File;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.picketbox.core.PicketBoxManager;
@@ -34,10 +38,14 @@ import org.picketbox.core.UserContext;
 import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
 import org.picketbox.core.config.ConfigurationBuilder;
 import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.identity.impl.DefaultUserContextPopulator;
 import org.picketbox.core.session.DefaultSessionId;
 import org.picketbox.core.session.PicketBoxSession;
 import org.picketbox.core.session.SessionId;
 import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleRole;
 
 /**
  * <p>
@@ -183,4 +191,96 @@ public class SilentAuthenticationTestCase extends AbstractDefaultPicketBoxManage
         return createManager(builder);
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Tests if a restored session reuses the populated {@link UserContext} and if the user is populated again only after its
+     * roles changed.
+     * </p>
+     *
+     * @throws AuthenticationException
+     */
+    @Test
+    public void testRestoreWithoutPopulation() throws AuthenticationException {
+        assertRestoreWithoutPopulation(new ConfigurationBuilder());
+    }
+
+    /**
+     * <p>
+     * Tests if a session restored from a store that encodes the sessions, and decodes a new {@link UserContext} on every load,
+     * reuses the populated {@link UserContext} as well.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRestoreWithoutPopulationFromEncodedSession() throws Exception {
+        File directory = File.createTempFile("picketbox-silent", "");
+
+        directory.delete();
+        directory.mkdirs();
+
+        try {
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+
+            builder.sessionManager().mappedSessionStore(new File(directory, "sessions").getAbsolutePath());
+
+            assertRestoreWithoutPopulation(builder);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+    private void assertRestoreWithoutPopulation(ConfigurationBuilder builder) throws AuthenticationException {
+        final AtomicInteger populations = new AtomicInteger();
+
+        builder.identityManager().userPopulator(new DefaultUserContextPopulator(null) {
+            @Override
+            public UserContext getIdentity(UserContext authenticatedUserContext) {
+                populations.incrementAndGet();
+                return super.getIdentity(authenticatedUserContext);
+            }
+        });
+
+        PicketBoxManager picketBoxManager = createManager(builder);
+
+        UserContext authenticatingUser = new UserContext();
+
+        authenticatingUser.setCredential(new UsernamePasswordCredential("admin", "admin"));
+
+        UserContext authenticatedUser = picketBoxManager.authenticate(authenticatingUser);
+        SessionId<? extends Serializable> sessionId = authenticatedUser.getSession().getId();
+
+        assertEquals(1, populations.get());
+
+        UserContext restoredUser = picketBoxManager.authenticate(new UserContext(sessionId));
+
+        assertTrue(restoredUser.isAuthenticated());
+        assertEquals(authenticatedUser.getSession(), restoredUser.getSession());
+        assertRoles(restoredUser);
+        assertGroups(restoredUser);
+        assertEquals(1, populations.get());
+
+        IdentityManager identityManager = picketBoxManager.getIdentityManager();
+        Role auditor = new SimpleRole("auditor");
+
+        identityManager.add(auditor);
+        identityManager.grantRole(identityManager.getUser("admin"), auditor);
+
+        restoredUser = picketBoxManager.authenticate(new UserContext(sessionId));
+
+        assertEquals(2, populations.get());
+        assertTrue(restoredUser.hasRole("auditor"));
+
+        restoredUser = picketBoxManager.authenticate(new UserContext(sessionId));
+
+        assertEquals(2, populations.get());
+        assertTrue(restoredUser.hasRole("auditor"));
+
+        picketBoxManager.stop();
+    }
+
+}
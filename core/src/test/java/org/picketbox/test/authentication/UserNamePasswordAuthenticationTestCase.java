@@ -22,16 +22,21 @@
 
 package org.picketbox.test.authentication;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
 import org.junit.Test;
 import org.picketbox.core.PicketBoxManager;
 import org.picketbox.core.UserContext;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
 import org.picketbox.core.authentication.credential.UserCredential;
 import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
+import org.picketbox.core.config.ConfigurationBuilder;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
+import org.picketlink.idm.credential.Password;
 
 /**
  * <p>
@@ -67,4 +72,48 @@ public class UserNamePasswordAuthenticationTestCase extends AbstractDefaultPicke
         assertGroups(authenticatedUser);
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Tests if validated credentials are cached when the {@link VerifiedCredentialCache} is enabled and if changing the
+     * password invalidates them.
+     * </p>
+     *
+     * @throws AuthenticationException
+     */
+    @Test
+    public void testVerifiedCredentialCache() throws AuthenticationException {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.authentication().verifiedCredentialCache(100, 60000);
+
+        PicketBoxManager picketBoxManager = createManager(builder);
+
+        VerifiedCredentialCache cache = picketBoxManager.getConfiguration().getAuthentication().getCredentialCache();
+
+        assertNotNull(cache);
+
+        assertTrue(authenticate(picketBoxManager, "admin", "admin"));
+        assertTrue(authenticate(picketBoxManager, "admin", "admin"));
+        assertEquals(1, cache.getHits());
+        assertFalse(authenticate(picketBoxManager, "admin", "wrong"));
+
+        picketBoxManager.getIdentityManager().updateCredential(picketBoxManager.getIdentityManager().getUser("admin"),
+                new Password("changed".toCharArray()));
+
+        assertEquals(0, cache.size());
+        assertFalse(authenticate(picketBoxManager, "admin", "admin"));
+        assertTrue(authenticate(picketBoxManager, "admin", "changed"));
+    }
+
+    private boolean authenticate(PicketBoxManager picketBoxManager, String userName, String password)
+            throws AuthenticationException {
+        UserContext authenticatingUser = new UserContext();
+
+        authenticatingUser.setCredential(new UsernamePasswordCredential(userName, password));
+
+        UserContext authenticatedUser = picketBoxManager.authenticate(authenticatingUser);
+
+        return authenticatedUser != null && authenticatedUser.isAuthenticated();
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.authentication;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
+import org.picketbox.core.identity.event.UserRemovedEvent;
+import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketlink.idm.model.SimpleUser;
+
+/**
+ * <p>
+ * Tests the {@link VerifiedCredentialCache}.
+ * </p>
+ */
+public class VerifiedCredentialCacheTestCase {
+
+    /**
+     * <p>
+     * Tests if only the exact username/password pair that was verified is trusted.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testVerified() throws Exception {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(10, 60000);
+
+        assertFalse(cache.isVerified("admin", "admin".toCharArray()));
+
+        cache.verified("admin", "admin".toCharArray(), cache.getGeneration());
+
+        assertTrue(cache.isVerified("admin", "admin".toCharArray()));
+        assertFalse(cache.isVerified("admin", "wrong".toCharArray()));
+        assertFalse(cache.isVerified("other", "admin".toCharArray()));
+        assertFalse(cache.isVerified("admi", "nadmin".toCharArray()));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    /**
+     * <p>
+     * Tests if a username containing the separator of a password does not share an entry with another username/password pair
+     * made of the same characters.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAmbiguousUserNameAndPassword() throws Exception {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(10, 60000);
+
+        cache.verified("a\0x", "y".toCharArray(), cache.getGeneration());
+
+        assertTrue(cache.isVerified("a\0x", "y".toCharArray()));
+        assertFalse(cache.isVerified("a", "x\0y".toCharArray()));
+
+        cache.verified("a", "x\0y".toCharArray(), cache.getGeneration());
+
+        assertEquals(2, cache.size());
+
+        // two caches with different keys on the same thread
+        VerifiedCredentialCache otherCache = new VerifiedCredentialCache(10, 60000);
+
+        assertFalse(otherCache.isVerified("a", "x\0y".toCharArray()));
+        assertTrue(cache.isVerified("a", "x\0y".toCharArray()));
+    }
+
+    /**
+     * <p>
+     * Tests if entries expire and if the least recently used entry is evicted when the cache is full.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpirationAndEviction() throws Exception {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(10, 50);
+
+        cache.verified("admin", "admin".toCharArray(), cache.getGeneration());
+
+        Thread.sleep(100);
+
+        assertFalse(cache.isVerified("admin", "admin".toCharArray()));
+        assertEquals(0, cache.size());
+
+        cache = new VerifiedCredentialCache(2, 60000);
+
+        cache.verified("first", "secret".toCharArray(), cache.getGeneration());
+        cache.verified("second", "secret".toCharArray(), cache.getGeneration());
+
+        assertTrue(cache.isVerified("first", "secret".toCharArray()));
+
+        cache.verified("third", "secret".toCharArray(), cache.getGeneration());
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.isVerified("first", "secret".toCharArray()));
+        assertFalse(cache.isVerified("second", "secret".toCharArray()));
+        assertTrue(cache.isVerified("third", "secret".toCharArray()));
+    }
+
+    /**
+     * <p>
+     * Tests if user events drop the cached entries and if a validation that raced with an update is not cached.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(10, 60000);
+
+        cache.verified("admin", "admin".toCharArray(), cache.getGeneration());
+        cache.verified("other", "other".toCharArray(), cache.getGeneration());
+
+        cache.onUserUpdated(new UserUpdatedEvent(new SimpleUser("admin")));
+
+        assertFalse(cache.isVerified("admin", "admin".toCharArray()));
+        assertTrue(cache.isVerified("other", "other".toCharArray()));
+
+        cache.onUserRemoved(new UserRemovedEvent(new SimpleUser("other")));
+
+        assertFalse(cache.isVerified("other", "other".toCharArray()));
+
+        long generation = cache.getGeneration();
+
+        cache.invalidate("admin");
+        cache.verified("admin", "admin".toCharArray(), generation);
+
+        assertFalse(cache.isVerified("admin", "admin".toCharArray()));
+    }
+
+}
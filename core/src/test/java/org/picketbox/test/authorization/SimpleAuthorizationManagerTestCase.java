@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxPrincipal;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.authentication.AuthenticationResult;
+import org.picketbox.core.authentication.AuthenticationStatus;
+import org.picketbox.core.authorization.impl.SimpleAuthorizationManager;
+import org.picketbox.core.authorization.impl.SimpleResource;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleRole;
+
+/**
+ * <p>
+ * Tests the {@link SimpleAuthorizationManager}.
+ * </p>
+ *
+ */
+public class SimpleAuthorizationManagerTestCase {
+
+    private SimpleAuthorizationManager authorizationManager;
+
+    @Before
+    public void onSetup() {
+        this.authorizationManager = new SimpleAuthorizationManager();
+        this.authorizationManager.start();
+    }
+
+    @After
+    public void onFinish() {
+        this.authorizationManager.stop();
+    }
+
+    @Test
+    public void testAuthorize() throws Exception {
+        this.authorizationManager.setRoleNames(Arrays.asList("manager"));
+
+        assertTrue(this.authorizationManager.authorize(new SimpleResource("resource"), createUserContext("manager")));
+        assertFalse(this.authorizationManager.authorize(new SimpleResource("resource"), createUserContext("guest")));
+    }
+
+    @Test
+    public void testChangedRoleNamesList() throws Exception {
+        List<String> roleNames = new ArrayList<String>();
+
+        roleNames.add("manager");
+
+        this.authorizationManager.setRoleNames(roleNames);
+
+        UserContext guest = createUserContext("guest");
+
+        assertFalse(this.authorizationManager.authorize(new SimpleResource("resource"), guest));
+
+        // same size, different role: the allowed roles are a copy and do not change
+        roleNames.set(0, "guest");
+
+        assertFalse(this.authorizationManager.authorize(new SimpleResource("resource"), guest));
+        assertTrue(this.authorizationManager.authorize(new SimpleResource("resource"), createUserContext("manager")));
+
+        this.authorizationManager.setRoleNames(roleNames);
+
+        assertTrue(this.authorizationManager.authorize(new SimpleResource("resource"), guest));
+    }
+
+    private UserContext createUserContext(String roleName) {
+        AuthenticatedUserContext userContext = new AuthenticatedUserContext();
+        List<Role> roles = new ArrayList<Role>();
+
+        roles.add(new SimpleRole(roleName));
+
+        userContext.setRoles(roles);
+        userContext.authenticate("admin");
+
+        return userContext;
+    }
+
+    private static class AuthenticatedUserContext extends UserContext {
+
+        private static final long serialVersionUID = 1L;
+
+        void authenticate(String userName) {
+            AuthenticationResult result = new AuthenticationResult(AuthenticationStatus.SUCCESS);
+
+            result.setPrincipal(new PicketBoxPrincipal(userName));
+
+            setAuthenticationResult(result);
+        }
+    }
+}
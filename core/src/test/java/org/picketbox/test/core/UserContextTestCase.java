@@ -2,8 +2,15 @@ package org.picketbox.test.core;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.picketbox.core.PicketBoxPrincipal;
 import org.picketbox.core.UserContext;
+import org.picketbox.core.UserContextSnapshot;
+import org.picketbox.core.authentication.AuthenticationResult;
+import org.picketbox.core.authentication.AuthenticationStatus;
+import org.picketbox.core.authorization.RoleDictionary;
+import org.picketlink.idm.model.Group;
 import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
 import org.picketlink.idm.model.SimpleRole;
 
 import java.util.ArrayList;
@@ -11,7 +18,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -24,7 +35,15 @@ import static org.junit.Assert.assertTrue;
  */
 public class UserContextTestCase {
 
-    private UserContext userContext = new UserContext();
+    private UserContext userContext = new UserContext() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean isAuthenticated() {
+            return true;
+        }
+    };
 
     private List<String> roleNames = Arrays.asList("manager", "developer");
 
@@ -52,4 +71,110 @@ public class UserContextTestCase {
     public void testNonExistentRole() throws Exception {
         assertFalse(this.userContext.getRoleNames().contains("guest"));
     }
+
+    @Test
+    public void testHasRole() throws Exception {
+        assertTrue(this.userContext.hasRole("manager"));
+        assertTrue(this.userContext.hasRole("developer"));
+        assertFalse(this.userContext.hasRole("guest"));
+        assertFalse(this.userContext.hasRole("never-used-role"));
+    }
+
+    @Test
+    public void testHasAnyRole() throws Exception {
+        assertTrue(this.userContext.hasAnyRole(RoleDictionary.ROLES.compile("guest", "developer")));
+        assertFalse(this.userContext.hasAnyRole(RoleDictionary.ROLES.compile("guest", "admin")));
+        assertFalse(this.userContext.hasAnyRole(RoleDictionary.ROLES.compile()));
+    }
+
+    @Test
+    public void testReplacedRoles() throws Exception {
+        assertTrue(this.userContext.hasRole("manager"));
+
+        this.userContext.setRoles(buildRoles(Arrays.asList("guest")));
+
+        assertFalse(this.userContext.hasRole("manager"));
+        assertTrue(this.userContext.hasRole("guest"));
+        assertTrue(this.userContext.getRoleNames().contains("guest"));
+        assertFalse(this.userContext.getRoleNames().contains("manager"));
+    }
+
+    @Test
+    public void testChangedRolesCollection() throws Exception {
+        Collection<Role> roles = buildRoles(Arrays.asList("guest"));
+
+        this.userContext.setRoles(roles);
+
+        assertTrue(this.userContext.hasRole("guest"));
+
+        // same size, different role: the user roles are a copy and do not change
+        roles.clear();
+        roles.add(new SimpleRole("admin"));
+
+        assertTrue(this.userContext.hasRole("guest"));
+        assertFalse(this.userContext.hasRole("admin"));
+        assertFalse(this.userContext.getRoleNames().contains("admin"));
+    }
+
+    @Test
+    public void testChangedGroupsCollection() throws Exception {
+        Collection<Group> groups = new ArrayList<Group>();
+
+        groups.add(new SimpleGroup("sales"));
+
+        this.userContext.setGroups(groups);
+
+        assertTrue(this.userContext.hasGroup("sales"));
+
+        groups.clear();
+        groups.add(new SimpleGroup("finance"));
+
+        assertTrue(this.userContext.hasGroup("sales"));
+        assertFalse(this.userContext.hasGroup("finance"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        AuthenticatedUserContext authenticated = new AuthenticatedUserContext();
+
+        assertFalse(authenticated.snapshot().isAuthenticated());
+        assertNull(authenticated.snapshot().getPrincipal());
+        assertFalse(authenticated.snapshot().hasRole("manager"));
+
+        authenticated.authenticate("admin");
+
+        UserContextSnapshot snapshot = authenticated.snapshot();
+
+        assertTrue(snapshot.isAuthenticated());
+        assertEquals("admin", snapshot.getPrincipal().getName());
+        assertTrue(snapshot.hasRole("manager"));
+        assertFalse(snapshot.hasRole("guest"));
+        assertTrue(snapshot.getRoleNames().containsAll(this.roleNames));
+
+        // nothing changed, the same snapshot is returned
+        assertSame(snapshot, authenticated.snapshot());
+
+        authenticated.setRoles(buildRoles(Arrays.asList("guest")));
+
+        assertNotSame(snapshot, authenticated.snapshot());
+        assertTrue(authenticated.snapshot().hasRole("guest"));
+        assertTrue(snapshot.hasRole("manager"));
+    }
+
+    private class AuthenticatedUserContext extends UserContext {
+
+        private static final long serialVersionUID = 1L;
+
+        AuthenticatedUserContext() {
+            setRoles(buildRoles(roleNames));
+        }
+
+        void authenticate(String userName) {
+            AuthenticationResult result = new AuthenticationResult(AuthenticationStatus.SUCCESS);
+
+            result.setPrincipal(new PicketBoxPrincipal(userName));
+
+            setAuthenticationResult(result);
+        }
+    }
 }
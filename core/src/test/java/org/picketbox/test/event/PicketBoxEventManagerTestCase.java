@@ -22,18 +22,30 @@
 
 package org.picketbox.test.event;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 import org.picketbox.core.PicketBoxManager;
 import org.picketbox.core.UserContext;
 import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
 import org.picketbox.core.authentication.event.UserPreAuthenticationEvent;
 import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.event.AsyncEventDispatcher;
+import org.picketbox.core.event.BackPressurePolicy;
+import org.picketbox.core.event.DefaultEventManager;
+import org.picketbox.core.event.EventObserver;
 import org.picketbox.core.event.PicketBoxEventManager;
 import org.picketbox.core.logout.event.UserLoggedOutEvent;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.event.SessionTouchedEvent;
 import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
 
 /**
@@ -162,4 +174,144 @@ public class PicketBoxEventManagerTestCase extends AbstractDefaultPicketBoxManag
         assertNotNull(subject.getContextData().get(MockEventHandler.PRE_AUTH_CONTEXT_DATA));
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Tests if handlers observing a superclass of the event or {@link Object} are also invoked, from the most specific type to
+     * the most generic one.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEventHierarchyDispatch() throws Exception {
+        MockHierarchyEventHandler handler = new MockHierarchyEventHandler();
+
+        DefaultEventManager eventManager = new DefaultEventManager(new ArrayList<Object>());
+
+        eventManager.addHandler(handler);
+
+        eventManager.raiseEvent(new SessionTouchedEvent(new PicketBoxSession()));
+
+        assertEquals(Arrays.asList("touched", "session", "any"), handler.getInvocations());
+
+        handler.getInvocations().clear();
+
+        eventManager.raiseEvent("not a session event");
+
+        assertEquals(Arrays.asList("any"), handler.getInvocations());
+    }
+
+    /**
+     * <p>
+     * Tests if events are delivered to handlers registered as asynchronous, and if all queued events are delivered when the
+     * dispatcher is stopped.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsynchronousHandler() throws Exception {
+        MockHierarchyEventHandler handler = new MockHierarchyEventHandler();
+
+        AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(Collections.<Class<?>> emptyList(),
+                Arrays.<Object> asList(handler), 2, 16, BackPressurePolicy.BLOCK);
+
+        DefaultEventManager eventManager = new DefaultEventManager(Arrays.<Object> asList(handler), dispatcher);
+
+        dispatcher.start();
+
+        for (int i = 0; i < 10; i++) {
+            eventManager.raiseEvent("event");
+        }
+
+        dispatcher.stop();
+
+        assertEquals(10, handler.getInvocations().size());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(0, dispatcher.getDroppedEvents());
+    }
+
+    /**
+     * <p>
+     * Tests if a handler raising events from a worker does not block on its own full queue, and if events dispatched after the
+     * dispatcher is stopped are still delivered.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testReentrantDispatchWithFullQueue() throws Exception {
+        ReentrantEventHandler handler = new ReentrantEventHandler();
+
+        AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(Collections.<Class<?>> emptyList(),
+                Arrays.<Object> asList(handler), 1, 1, BackPressurePolicy.BLOCK);
+
+        DefaultEventManager eventManager = new DefaultEventManager(Arrays.<Object> asList(handler), dispatcher);
+
+        handler.eventManager = eventManager;
+
+        dispatcher.start();
+
+        eventManager.raiseEvent("event");
+
+        dispatcher.stop();
+
+        assertEquals(6, handler.invocations.get());
+
+        eventManager.raiseEvent(Integer.valueOf(0));
+
+        assertEquals(7, handler.invocations.get());
+        assertEquals(0, dispatcher.getDroppedEvents());
+    }
+
+    /**
+     * <p>
+     * Tests if registering the same handler twice does not duplicate its methods and if removed handlers are not invoked.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIdempotentRegistrationAndRemoval() throws Exception {
+        MockHierarchyEventHandler handler = new MockHierarchyEventHandler();
+
+        DefaultEventManager eventManager = new DefaultEventManager(new ArrayList<Object>());
+
+        eventManager.addHandler(handler);
+        eventManager.addHandler(handler);
+
+        assertEquals(1, eventManager.getHandlerCount(SessionTouchedEvent.class));
+        assertEquals(1, eventManager.getHandlerCount(Object.class));
+
+        eventManager.raiseEvent("event");
+
+        assertEquals(1, handler.getInvocations().size());
+
+        eventManager.removeHandler(handler);
+
+        assertEquals(0, eventManager.getHandlerCount(Object.class));
+        assertTrue(eventManager.getHandlerCounts().isEmpty());
+
+        eventManager.raiseEvent("event");
+
+        assertEquals(1, handler.getInvocations().size());
+    }
+
+    public static class ReentrantEventHandler {
+
+        private final AtomicInteger invocations = new AtomicInteger();
+        private volatile PicketBoxEventManager eventManager;
+
+        @EventObserver
+        public void onEvent(Object event) {
+            this.invocations.incrementAndGet();
+
+            if (event instanceof String) {
+                for (int i = 0; i < 5; i++) {
+                    this.eventManager.raiseEvent(Integer.valueOf(i));
+                }
+            }
+        }
+    }
+
+}
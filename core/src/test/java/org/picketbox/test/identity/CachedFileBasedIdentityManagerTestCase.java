@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.identity.IdentityLookupCache;
+import org.picketbox.core.identity.PicketBoxIdentityManager;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Runs the identity manager tests against a file-based identity store with lookup caching enabled.
+ * </p>
+ */
+public class CachedFileBasedIdentityManagerTestCase extends AbstractIdentityManagerTestCase {
+
+    @Override
+    protected ConfigurationBuilder doGetConfigurationBuilder() {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.identityManager().cache(100, 60000);
+
+        return builder;
+    }
+
+    /**
+     * <p>
+     * Tests if users are cached, including unknown users, and if the events raised by the identity manager invalidate them.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUserCache() throws Exception {
+        PicketBoxIdentityManager identityManager = (PicketBoxIdentityManager) getIdentityManager();
+        IdentityLookupCache<String, User> userCache = identityManager.getUserCache();
+
+        assertNotNull(userCache);
+
+        User mary = identityManager.getUser("mary");
+        long hits = userCache.getHits();
+
+        User cachedMary = identityManager.getUser("mary");
+
+        assertNotSame(mary, cachedMary);
+        assertEquals(mary.getLoginName(), cachedMary.getLoginName());
+        assertEquals(hits + 1, userCache.getHits());
+
+        mary.setFirstName("Changed");
+
+        assertFalse("Changed".equals(identityManager.getUser("mary").getFirstName()));
+
+        assertNull(identityManager.getUser("cachedUser"));
+        assertNull(identityManager.getUser("cachedUser"));
+
+        SimpleUser user = new SimpleUser("cachedUser");
+
+        identityManager.add(user);
+
+        assertNotNull(identityManager.getUser("cachedUser"));
+
+        identityManager.remove(identityManager.getUser("cachedUser"));
+
+        assertNull(identityManager.getUser("cachedUser"));
+    }
+
+}
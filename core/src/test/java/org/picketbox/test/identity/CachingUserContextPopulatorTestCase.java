@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.authentication.credential.UsernamePasswordCredential;
+import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.identity.impl.CachingUserContextPopulator;
+import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleRole;
+
+/**
+ * <p>
+ * Tests the {@link CachingUserContextPopulator}.
+ * </p>
+ */
+public class CachingUserContextPopulatorTestCase extends AbstractDefaultPicketBoxManagerTestCase {
+
+    /**
+     * <p>
+     * Tests if the roles and groups are cached and if granting a role invalidates the cached entry.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCachedPopulation() throws Exception {
+        CachingUserContextPopulator populator = new CachingUserContextPopulator(100, 60000).threads(2);
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.identityManager().userPopulator(populator);
+
+        PicketBoxManager picketBoxManager = createManager(builder);
+
+        assertTrue(populator.started());
+
+        UserContext authenticatedUser = authenticate(picketBoxManager);
+
+        assertRoles(authenticatedUser);
+        assertGroups(authenticatedUser);
+
+        long hits = populator.getCache().getHits();
+
+        authenticatedUser = authenticate(picketBoxManager);
+
+        assertRoles(authenticatedUser);
+        assertGroups(authenticatedUser);
+        assertEquals(hits + 1, populator.getCache().getHits());
+        assertFalse(authenticatedUser.hasRole("auditor"));
+
+        IdentityManager identityManager = picketBoxManager.getIdentityManager();
+
+        Role auditor = new SimpleRole("auditor");
+
+        identityManager.add(auditor);
+        identityManager.grantRole(identityManager.getUser("admin"), auditor);
+
+        assertTrue(authenticate(picketBoxManager).hasRole("auditor"));
+
+        picketBoxManager.stop();
+
+        assertFalse(populator.started());
+    }
+
+    /**
+     * <p>
+     * Tests if warming up more users than there are threads finishes. Every user loaded in the background runs its group query
+     * on its own thread instead of waiting for another thread of the pool.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testWarmUpMoreUsersThanThreads() throws Exception {
+        CachingUserContextPopulator populator = new CachingUserContextPopulator(100, 60000).threads(1);
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.identityManager().userPopulator(populator);
+
+        PicketBoxManager picketBoxManager = createManager(builder);
+
+        populator.warmUp(Arrays.asList("admin", "jbid test", "CN=jbid test, OU=JBoss, O=JBoss, C=US"));
+
+        while (populator.getCache().size() < 3) {
+            Thread.sleep(10);
+        }
+
+        long hits = populator.getCache().getHits();
+
+        UserContext authenticatedUser = authenticate(picketBoxManager);
+
+        assertRoles(authenticatedUser);
+        assertGroups(authenticatedUser);
+        assertEquals(hits + 1, populator.getCache().getHits());
+
+        picketBoxManager.stop();
+    }
+
+    private UserContext authenticate(PicketBoxManager picketBoxManager) throws Exception {
+        UserContext authenticatingUser = new UserContext();
+
+        authenticatingUser.setCredential(new UsernamePasswordCredential("admin", "admin"));
+
+        UserContext authenticatedUser = picketBoxManager.authenticate(authenticatingUser);
+
+        assertTrue(authenticatedUser.isAuthenticated());
+
+        return authenticatedUser;
+    }
+
+}
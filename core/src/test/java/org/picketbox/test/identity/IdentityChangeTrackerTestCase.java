@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.picketbox.core.identity.IdentityChangeTracker;
+import org.picketbox.core.identity.IdentityChangeTracker.Stamp;
+import org.picketbox.core.identity.event.RoleUpdatedEvent;
+import org.picketbox.core.identity.event.UserUpdatedEvent;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+
+/**
+ * <p>
+ * Tests the {@link IdentityChangeTracker}.
+ * </p>
+ */
+public class IdentityChangeTrackerTestCase {
+
+    /**
+     * <p>
+     * Tests if a stamp stays current until the user, or any role or group, changes.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStamp() throws Exception {
+        IdentityChangeTracker tracker = new IdentityChangeTracker();
+
+        Stamp stamp = tracker.stamp();
+
+        assertTrue(tracker.isCurrent("admin", stamp));
+        assertTrue(tracker.isCurrent("mary", stamp));
+
+        tracker.onUserUpdated(new UserUpdatedEvent(new SimpleUser("admin")));
+
+        assertFalse(tracker.isCurrent("admin", stamp));
+        assertTrue(tracker.isCurrent("mary", stamp));
+        assertTrue(tracker.isCurrent("admin", tracker.stamp()));
+
+        stamp = tracker.stamp();
+
+        tracker.onRoleUpdated(new RoleUpdatedEvent(new SimpleRole("manager")));
+
+        assertFalse(tracker.isCurrent("admin", stamp));
+        assertFalse(tracker.isCurrent("mary", stamp));
+    }
+
+    /**
+     * <p>
+     * Tests if stamps taken by another tracker are never current.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testForeignStamp() throws Exception {
+        IdentityChangeTracker tracker = new IdentityChangeTracker();
+
+        assertFalse(tracker.isCurrent("admin", new IdentityChangeTracker().stamp()));
+        assertFalse(tracker.isCurrent("admin", null));
+    }
+
+}
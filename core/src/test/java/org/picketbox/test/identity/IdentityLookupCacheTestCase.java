@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.picketbox.core.identity.IdentityLookupCache;
+
+/**
+ * <p>
+ * Tests the {@link IdentityLookupCache}.
+ * </p>
+ */
+public class IdentityLookupCacheTestCase {
+
+    /**
+     * <p>
+     * Tests if values, including missing ones, are loaded only once and if the least recently used entry is evicted.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLookup() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        IdentityLookupCache<String, String> cache = new IdentityLookupCache<String, String>(2, 60000);
+
+        assertEquals("VALUE-a", cache.get("a", loader));
+        assertEquals("VALUE-a", cache.get("a", loader));
+        assertNull(cache.get("missing", loader));
+        assertNull(cache.get("missing", loader));
+
+        assertEquals(2, loader.loads.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        cache.get("a", loader);
+        cache.get("b", loader);
+
+        assertEquals(2, cache.size());
+
+        cache.get("missing", loader);
+
+        assertEquals(4, loader.loads.get());
+    }
+
+    /**
+     * <p>
+     * Tests if entries expire and if invalidated entries are loaded again.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpirationAndInvalidation() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        IdentityLookupCache<String, String> cache = new IdentityLookupCache<String, String>(10, 50);
+
+        cache.get("a", loader);
+
+        Thread.sleep(100);
+
+        cache.get("a", loader);
+
+        assertEquals(2, loader.loads.get());
+
+        cache.invalidate("a");
+        cache.get("a", loader);
+
+        assertEquals(3, loader.loads.get());
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * <p>
+     * Tests if a value loaded while the cache was invalidated is not cached.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidationDuringLoad() throws Exception {
+        final IdentityLookupCache<String, String> cache = new IdentityLookupCache<String, String>(10, 60000);
+
+        String value = cache.get("a", new IdentityLookupCache.Loader<String, String>() {
+            @Override
+            public String load(String key) {
+                cache.invalidate(key);
+                return "stale";
+            }
+        });
+
+        assertEquals("stale", value);
+        assertEquals(0, cache.size());
+    }
+
+    private static class CountingLoader implements IdentityLookupCache.Loader<String, String> {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String load(String key) {
+            this.loads.incrementAndGet();
+            return key.equals("missing") ? null : "VALUE-" + key;
+        }
+    }
+}
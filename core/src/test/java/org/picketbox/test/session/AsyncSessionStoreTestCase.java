@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.session;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.session.AsyncSessionStoreAdapter;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.InMemorySessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionCallback;
+import org.picketbox.core.session.SessionFuture;
+import org.picketbox.core.session.SyncSessionStoreAdapter;
+
+/**
+ * <p>
+ * Tests the {@link AsyncSessionStoreAdapter} and the {@link SyncSessionStoreAdapter}.
+ * </p>
+ */
+public class AsyncSessionStoreTestCase {
+
+    /**
+     * <p>
+     * Tests if operations run in the background and if callbacks are notified with their result.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncOperations() throws Exception {
+        AsyncSessionStoreAdapter store = new AsyncSessionStoreAdapter(new InMemorySessionStore());
+
+        store.start();
+
+        try {
+            PicketBoxSession session = createSession();
+
+            store.storeAsync(session).get(5, TimeUnit.SECONDS);
+
+            final AtomicReference<PicketBoxSession> loaded = new AtomicReference<PicketBoxSession>();
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            store.loadAsync(session.getId()).addCallback(new SessionCallback<PicketBoxSession>() {
+                @Override
+                public void completed(PicketBoxSession result) {
+                    loaded.set(result);
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable cause) {
+                    latch.countDown();
+                }
+            });
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertSame(session, loaded.get());
+
+            store.removeAsync(session.getId()).get(5, TimeUnit.SECONDS);
+
+            assertNull(store.loadAsync(session.getId()).get(5, TimeUnit.SECONDS));
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if failures of the underlying store are propagated by the {@link SyncSessionStoreAdapter}.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFailurePropagation() throws Exception {
+        SyncSessionStoreAdapter store = new SyncSessionStoreAdapter(new AsyncSessionStoreAdapter(new InMemorySessionStore() {
+            @Override
+            public void update(PicketBoxSession session) {
+                throw new UnsupportedOperationException();
+            }
+        }));
+
+        store.start();
+
+        try {
+            PicketBoxSession session = createSession();
+
+            store.store(session);
+
+            assertNotNull(store.load(session.getId()));
+
+            try {
+                store.update(session);
+                fail("The update failed.");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+
+            try {
+                store.updateAsync(session).get();
+                fail("The update failed.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof UnsupportedOperationException);
+            }
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if operations are rejected when all threads are busy and the queue is full, instead of blocking the caller.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBoundedQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        AsyncSessionStoreAdapter store = new AsyncSessionStoreAdapter(new InMemorySessionStore() {
+            @Override
+            public void store(PicketBoxSession session) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.store(session);
+            }
+        }, 1, 1);
+
+        store.start();
+
+        try {
+            PicketBoxSession first = createSession();
+            PicketBoxSession second = createSession();
+
+            SessionFuture<Void> running = store.storeAsync(first);
+            SessionFuture<Void> queued = store.storeAsync(second);
+            SessionFuture<Void> rejected = store.storeAsync(createSession());
+
+            assertTrue(rejected.isDone());
+
+            try {
+                rejected.get();
+                fail("The operation was rejected.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+
+            running.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+
+            assertNotNull(store.loadAsync(first.getId()).get(5, TimeUnit.SECONDS));
+            assertNotNull(store.loadAsync(second.getId()).get(5, TimeUnit.SECONDS));
+        } finally {
+            store.stop();
+        }
+    }
+
+    private PicketBoxSession createSession() {
+        return new PicketBoxSession(new UserContext(), new DefaultSessionId());
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SerializationSessionCodec;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleRole;
+
+/**
+ * Unit test the {@link BinarySessionCodec}
+ *
+ */
+public class BinarySessionCodecTestCase {
+
+    @Test
+    public void testEncodeAndDecode() throws Exception {
+        PicketBoxSession session = createSession();
+        BinarySessionCodec codec = new BinarySessionCodec();
+
+        PicketBoxSession decodedSession = codec.decode(codec.encode(session));
+
+        assertEquals(session.getId(), decodedSession.getId());
+        assertEquals(session.getCreationDate(), decodedSession.getCreationDate());
+        assertEquals(session.getLastAccessedTime(), decodedSession.getLastAccessedTime());
+        assertEquals(session.getApplicationStateAttributes(), decodedSession.getApplicationStateAttributes());
+        assertEquals(session.getUserContext().getRoleNames(), decodedSession.getUserContext().getRoleNames());
+    }
+
+    @Test
+    public void testEncodedSizeComparedToSerialization() throws Exception {
+        PicketBoxSession session = createSession();
+
+        int binarySize = new BinarySessionCodec().encode(session).length;
+        int serializedSize = new SerializationSessionCodec().encode(session).length;
+
+        assertTrue("Binary encoding should be smaller than Java serialization: " + binarySize + " >= " + serializedSize,
+                binarySize < serializedSize);
+    }
+
+    private PicketBoxSession createSession() throws Exception {
+        List<Role> roles = new ArrayList<Role>();
+
+        roles.add(new SimpleRole("manager"));
+        roles.add(new SimpleRole("developer"));
+
+        UserContext userContext = new UserContext();
+
+        userContext.setRoles(roles);
+
+        PicketBoxSession session = new PicketBoxSession(userContext, new DefaultSessionId());
+
+        session.setApplicationStateAttributes("name", "value");
+        session.setApplicationStateAttributes("count", 42);
+        session.setApplicationStateAttributes("expiration", new Date());
+
+        return session;
+    }
+}
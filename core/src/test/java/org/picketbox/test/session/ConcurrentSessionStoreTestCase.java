@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.session.ConcurrentSessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionEvictionPolicy;
+import org.picketbox.core.session.SessionManager;
+import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
+
+/**
+ * Unit test the {@link ConcurrentSessionStore}
+ *
+ */
+public class ConcurrentSessionStoreTestCase extends AbstractDefaultPicketBoxManagerTestCase {
+
+    private SessionManager sessionManager;
+    private ConcurrentSessionStore store;
+
+    @Before
+    public void onSetup() {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        // a single shard makes the eviction order deterministic
+        this.store = new ConcurrentSessionStore(2, SessionEvictionPolicy.LRU, 1);
+
+        builder.sessionManager().store(this.store);
+
+        PicketBoxManager picketBoxManager = createManager(builder);
+
+        this.sessionManager = picketBoxManager.getSessionManager();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        PicketBoxSession first = createSession();
+        PicketBoxSession second = createSession();
+
+        assertEquals(2, this.store.size());
+
+        // loading the first session makes the second one the least recently used
+        assertNotNull(this.store.load(first.getId()));
+
+        PicketBoxSession third = createSession();
+
+        assertEquals(2, this.store.size());
+        assertEquals(1, this.store.getEvictedSessions());
+
+        assertFalse(second.isValid());
+        assertNull(this.store.load(second.getId()));
+
+        assertTrue(first.isValid());
+        assertNotNull(this.store.load(first.getId()));
+        assertNotNull(this.store.load(third.getId()));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedAcrossShards() throws Exception {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        this.store = new ConcurrentSessionStore(8, SessionEvictionPolicy.LRU, ConcurrentSessionStore.DEFAULT_SHARDS);
+
+        builder.sessionManager().store(this.store);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession[] sessions = new PicketBoxSession[8];
+
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = createSession();
+        }
+
+        // every session but the fifth one is used again, whatever shard it is kept in
+        for (int i = 0; i < sessions.length; i++) {
+            if (i != 4) {
+                assertNotNull(this.store.load(sessions[i].getId()));
+            }
+        }
+
+        PicketBoxSession newSession = createSession();
+
+        assertEquals(8, this.store.size());
+        assertEquals(1, this.store.getEvictedSessions());
+        assertFalse(sessions[4].isValid());
+        assertTrue(newSession.isValid());
+
+        for (int i = 0; i < sessions.length; i++) {
+            if (i != 4) {
+                assertTrue(sessions[i].isValid());
+            }
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        PicketBoxSession session = createSession();
+
+        assertEquals(1, this.store.size());
+
+        session.invalidate();
+
+        assertEquals(0, this.store.size());
+        assertNull(this.store.load(session.getId()));
+    }
+
+    private PicketBoxSession createSession() {
+        UserContext subject = new UserContext() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean isAuthenticated() {
+                return true;
+            }
+        };
+
+        return this.sessionManager.create(subject);
+    }
+}
@@ -21,11 +21,21 @@
  */
 package org.picketbox.test.session;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.After;
 import org.junit.Before;
@@ -47,9 +57,15 @@ import org.picketbox.core.session.SessionManager;
 public class FileSessionStoreTestCase {
 
     private SessionManager sessionManager;
+    private File tempDirectory;
 
     @Before
-    public void onSetup() {
+    public void onSetup() throws Exception {
+        this.tempDirectory = File.createTempFile("picketbox-sessions", "");
+
+        assertTrue(this.tempDirectory.delete());
+        assertTrue(this.tempDirectory.mkdir());
+
         ConfigurationBuilder builder = new ConfigurationBuilder();
 
         builder.sessionManager().fileSessionStore();
@@ -72,11 +88,174 @@ public class FileSessionStoreTestCase {
         this.sessionManager.stop();
     }
 
+    @Test
+    public void testRecoveryFromJournal() throws Exception {
+        String fileName = "PBOXSESSION-JOURNAL.DAT";
+        File crashDirectory = new File(this.tempDirectory, "crash");
+
+        assertTrue(crashDirectory.mkdir());
+
+        FileSessionStore store = new FileSessionStore(new File(this.tempDirectory, fileName).getPath());
+
+        store.start();
+
+        PicketBoxSession storedSession = this.sessionManager.create(new UserContext());
+        PicketBoxSession removedSession = this.sessionManager.create(new UserContext());
+
+        store.store(storedSession);
+        store.store(removedSession);
+        store.remove(removedSession.getId());
+
+        // the store was not stopped, so the sessions are only in the journal
+        assertFalse(new File(this.tempDirectory, fileName).exists());
+
+        // simulates a crash by copying the files as they are while the store is running
+        copyFiles(this.tempDirectory, crashDirectory);
+
+        store.stop();
+        this.sessionManager.stop();
+
+        FileSessionStore recoveredStore = new FileSessionStore(new File(crashDirectory, fileName).getPath());
+
+        assertNotNull(recoveredStore.load(storedSession.getId()));
+        assertEquals(storedSession.getId(), recoveredStore.load(storedSession.getId()).getId());
+        assertNull(recoveredStore.load(removedSession.getId()));
+        assertEquals(0, recoveredStore.getJournalSize());
+        assertTrue(new File(crashDirectory, fileName).exists());
+    }
+
+    @Test
+    public void testConcurrentCompaction() throws Exception {
+        String fileName = "PBOXSESSION-COMPACTION.DAT";
+        final FileSessionStore store = new FileSessionStore(new File(this.tempDirectory, fileName).getPath(), 0, 0);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        store.start();
+
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            store.compact();
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (int i = 0; i < 100; i++) {
+            PicketBoxSession session = this.sessionManager.create(new UserContext());
+
+            sessions.add(session);
+            store.store(session);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        // a compaction while the store is running: nothing is left to recover from the journals
+        store.compact();
+
+        File crashDirectory = new File(this.tempDirectory, "crash");
+
+        assertTrue(crashDirectory.mkdir());
+
+        copyFiles(this.tempDirectory, crashDirectory);
+
+        store.stop();
+        this.sessionManager.stop();
+
+        FileSessionStore recoveredStore = new FileSessionStore(new File(crashDirectory, fileName).getPath());
+
+        for (PicketBoxSession session : sessions) {
+            assertNotNull(recoveredStore.load(session.getId()));
+        }
+    }
+
+    @Test
+    public void testRecoveryFromMovedAsideSnapshot() throws Exception {
+        String fileName = "PBOXSESSION-MOVED.DAT";
+        File snapshotFile = new File(this.tempDirectory, fileName);
+        FileSessionStore store = new FileSessionStore(snapshotFile.getPath());
+
+        store.start();
+
+        PicketBoxSession session = this.sessionManager.create(new UserContext());
+
+        store.store(session);
+        store.stop();
+        this.sessionManager.stop();
+
+        // simulates a crash after the snapshot was moved aside and before the new one was renamed into place
+        File backupFile = new File(this.tempDirectory, fileName + ".old");
+
+        assertTrue(snapshotFile.renameTo(backupFile));
+
+        FileSessionStore recoveredStore = new FileSessionStore(snapshotFile.getPath());
+
+        assertNotNull(recoveredStore.load(session.getId()));
+        assertTrue(snapshotFile.exists());
+        assertFalse(backupFile.exists());
+    }
+
     @After
     public void tear() throws Exception {
+        delete(this.tempDirectory);
+
         File file = new File("PBOXSESSION.DAT");
         assertTrue(file.exists());
         file.delete();
         assertFalse(file.exists());
     }
-}
\ No newline at end of file
+
+    private void copyFiles(File sourceDirectory, File targetDirectory) throws IOException {
+        for (File source : sourceDirectory.listFiles()) {
+            if (!source.isFile()) {
+                continue;
+            }
+
+            InputStream input = new FileInputStream(source);
+
+            try {
+                OutputStream output = new FileOutputStream(new File(targetDirectory, source.getName()));
+
+                try {
+                    byte[] buffer = new byte[4096];
+                    int read;
+
+                    while ((read = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    output.close();
+                }
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.MappedSessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+
+/**
+ * Unit test the {@link MappedSessionStore}
+ *
+ */
+public class MappedSessionStoreTestCase {
+
+    private File directory;
+    private MappedSessionStore store;
+
+    @Before
+    public void onSetup() throws Exception {
+        this.directory = File.createTempFile("picketbox-mapped", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+
+        this.store = createStore();
+        this.store.start();
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        if (this.store.started()) {
+            this.store.stop();
+        }
+
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+
+        this.directory.delete();
+    }
+
+    @Test
+    public void testStoreLoadAndRemove() throws Exception {
+        PicketBoxSession session = createSession("value");
+
+        this.store.store(session);
+
+        PicketBoxSession loadedSession = this.store.load(session.getId());
+
+        assertNotNull(loadedSession);
+        assertEquals(session.getId(), loadedSession.getId());
+        assertEquals("value", loadedSession.getApplicationStateAttributes("name"));
+        assertEquals(1, this.store.getSize());
+
+        this.store.remove(session.getId());
+
+        assertNull(this.store.load(session.getId()));
+        assertEquals(0, this.store.getSize());
+    }
+
+    @Test
+    public void testUpdateChangingTheNumberOfSlots() throws Exception {
+        PicketBoxSession session = createSession("value");
+
+        this.store.store(session);
+
+        // the session no longer fits in a single slot
+        session.setApplicationStateAttributes("name", createValue(1000));
+
+        this.store.update(session);
+
+        assertEquals(createValue(1000), this.store.load(session.getId()).getApplicationStateAttributes("name"));
+
+        session.setApplicationStateAttributes("name", "small");
+
+        this.store.update(session);
+
+        assertEquals("small", this.store.load(session.getId()).getApplicationStateAttributes("name"));
+        assertEquals(1, this.store.getSize());
+    }
+
+    @Test
+    public void testReleasedSlotsAreReused() throws Exception {
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+
+        for (int i = 0; i < 2000; i++) {
+            PicketBoxSession session = createSession(createValue(i % 500));
+
+            sessions.add(session);
+            this.store.store(session);
+        }
+
+        long allocatedSlots = this.store.getAllocatedSlots();
+
+        for (PicketBoxSession session : sessions) {
+            this.store.remove(session.getId());
+        }
+
+        for (PicketBoxSession session : sessions) {
+            this.store.store(session);
+        }
+
+        assertEquals(allocatedSlots, this.store.getAllocatedSlots());
+        assertEquals(2000, this.store.getSize());
+    }
+
+    @Test
+    public void testManySessionsSurviveRestart() throws Exception {
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+
+        for (int i = 0; i < 10000; i++) {
+            PicketBoxSession session = createSession(i % 10 == 0 ? createValue(i % 700) : "value" + i);
+
+            sessions.add(session);
+            this.store.store(session);
+        }
+
+        for (int i = 0; i < sessions.size(); i += 2) {
+            this.store.remove(sessions.get(i).getId());
+        }
+
+        this.store.stop();
+
+        this.store = createStore();
+        this.store.start();
+
+        assertEquals(5000, this.store.getSize());
+
+        for (int i = 0; i < sessions.size(); i++) {
+            PicketBoxSession session = sessions.get(i);
+            PicketBoxSession loadedSession = this.store.load(session.getId());
+
+            if (i % 2 == 0) {
+                assertNull(loadedSession);
+            } else {
+                assertEquals(session.getApplicationStateAttributes("name"), loadedSession.getApplicationStateAttributes("name"));
+            }
+        }
+    }
+
+    @Test
+    public void testTouchIsPersisted() throws Exception {
+        PicketBoxSession session = createSession("value");
+
+        this.store.store(session);
+
+        PicketBoxSession loadedSession = this.store.load(session.getId());
+
+        Thread.sleep(50);
+
+        // a read-only access, the session itself is never written again
+        loadedSession.touch();
+        this.store.touch(loadedSession);
+
+        assertTrue(loadedSession.getLastAccessedTime() > session.getLastAccessedTime());
+        assertEquals(loadedSession.getLastAccessedTime(), this.store.load(session.getId()).getLastAccessedTime());
+
+        // an update carrying an older access time does not move it back
+        this.store.update(session);
+
+        assertEquals(loadedSession.getLastAccessedTime(), this.store.load(session.getId()).getLastAccessedTime());
+
+        this.store.stop();
+
+        this.store = createStore();
+        this.store.start();
+
+        assertEquals(loadedSession.getLastAccessedTime(), this.store.load(session.getId()).getLastAccessedTime());
+    }
+
+    private MappedSessionStore createStore() {
+        return new MappedSessionStore(new File(this.directory, "sessions").getAbsolutePath(), 256, 1024,
+                new BinarySessionCodec());
+    }
+
+    private PicketBoxSession createSession(String value) throws Exception {
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        session.setApplicationStateAttributes("name", value);
+
+        return session;
+    }
+
+    private String createValue(int length) {
+        StringBuilder value = new StringBuilder();
+
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+
+        return value.toString();
+    }
+}
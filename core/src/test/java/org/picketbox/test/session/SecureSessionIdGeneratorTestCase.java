@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.picketbox.core.session.SecureSessionIdGenerator;
+import org.picketbox.core.session.SessionId;
+
+/**
+ * Unit test the {@link SecureSessionIdGenerator}
+ *
+ */
+public class SecureSessionIdGeneratorTestCase {
+
+    @Test
+    public void testUniqueIdentifiers() throws Exception {
+        SecureSessionIdGenerator generator = new SecureSessionIdGenerator();
+        Set<Serializable> ids = new HashSet<Serializable>();
+
+        for (int i = 0; i < 10000; i++) {
+            SessionId<? extends Serializable> id = generator.generate();
+
+            assertEquals(32, ((String) id.getId()).length());
+            assertTrue(((String) id.getId()).matches("[A-Za-z0-9_-]+"));
+            assertTrue(ids.add(id.getId()));
+        }
+
+        assertNull(SecureSessionIdGenerator.getNodePrefix(generator.generate()));
+    }
+
+    @Test
+    public void testNodePrefix() throws Exception {
+        SecureSessionIdGenerator generator = new SecureSessionIdGenerator("node1");
+        SessionId<? extends Serializable> id = generator.generate();
+
+        assertTrue(((String) id.getId()).startsWith("node1."));
+        assertEquals("node1", SecureSessionIdGenerator.getNodePrefix(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNodePrefix() throws Exception {
+        new SecureSessionIdGenerator("node.1");
+    }
+}
@@ -26,15 +26,32 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxPrincipal;
 import org.picketbox.core.UserContext;
 import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.event.EventObserver;
 import org.picketbox.core.session.DefaultSessionManager;
+import org.picketbox.core.session.DeltaSessionStore;
+import org.picketbox.core.session.ExpiringSessionStore;
+import org.picketbox.core.session.InMemorySessionStore;
 import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionLimitPolicy;
 import org.picketbox.core.session.SessionManager;
+import org.picketbox.core.session.event.SessionTouchedEvent;
 import org.picketbox.test.AbstractDefaultPicketBoxManagerTestCase;
 
 /**
@@ -135,7 +152,318 @@ public class SessionManagerTestCase extends AbstractDefaultPicketBoxManagerTestC
         assertNull(getStoredSession(session));
     }
 
+    /**
+     * <p>
+     * Tests if attribute changes are only written to the store when the session is flushed and if reads do not touch the
+     * store.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeferredAttributeWrites() throws Exception {
+        final AtomicInteger updates = new AtomicInteger();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().store(new InMemorySessionStore() {
+            @Override
+            public void update(PicketBoxSession session) {
+                updates.incrementAndGet();
+                super.update(session);
+            }
+        }).deferAttributeWrites();
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession session = createSession();
+
+        session.setAttribute("a", "a");
+        session.setAttribute("b", "b");
+        session.setAttribute("a", "changed");
+
+        assertEquals("changed", session.getAttribute("a"));
+        assertEquals(0, updates.get());
+        assertTrue(session.isDirty());
+        assertEquals(2, session.getDirtyAttributes().size());
+
+        this.sessionManager.flush(session);
+
+        assertEquals(1, updates.get());
+        assertFalse(session.isDirty());
+
+        // nothing changed, nothing to write
+        this.sessionManager.flush(session);
+
+        assertEquals(1, updates.get());
+    }
+
+    /**
+     * <p>
+     * Tests if removing an attribute is written to the store in the same way as setting it, when writes are not deferred.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRemoveAttributeIsWritten() throws Exception {
+        final AtomicInteger updates = new AtomicInteger();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().store(new InMemorySessionStore() {
+            @Override
+            public void update(PicketBoxSession session) {
+                updates.incrementAndGet();
+                super.update(session);
+            }
+        });
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession session = createSession();
+
+        session.setAttribute("a", "a");
+
+        assertEquals(1, updates.get());
+
+        session.removeAttribute("a");
+
+        assertEquals(2, updates.get());
+        assertFalse(session.isDirty());
+        assertNull(getStoredSession(session).getAttribute("a"));
+    }
+
+    /**
+     * <p>
+     * Tests if only the changed attributes are written to a {@link DeltaSessionStore}.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeltaSessionStore() throws Exception {
+        final List<Set<String>> writes = new ArrayList<Set<String>>();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        class RecordingSessionStore extends InMemorySessionStore implements DeltaSessionStore {
+            @Override
+            public void updateAttributes(PicketBoxSession session, Set<String> changedAttributes) {
+                writes.add(changedAttributes);
+            }
+        }
+
+        builder.sessionManager().store(new RecordingSessionStore()).deferAttributeWrites();
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession session = createSession();
+
+        session.setAttribute("a", "a");
+        session.setAttribute("b", "b");
+
+        this.sessionManager.flush(session);
+
+        assertEquals(1, writes.size());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), writes.get(0));
+    }
+
+    /**
+     * <p>
+     * Tests if sessions can be found and invalidated by principal.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindAndInvalidateByPrincipal() throws Exception {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().inMemorySessionStore().indexSessionsByPrincipal();
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession first = createSession("admin");
+        PicketBoxSession second = createSession("admin");
+        PicketBoxSession other = createSession("other");
+
+        assertEquals(2, this.sessionManager.findByPrincipal("admin").size());
+        assertEquals(1, this.sessionManager.findByPrincipal("other").size());
+        assertTrue(this.sessionManager.findByPrincipal("unknown").isEmpty());
+
+        first.invalidate();
+
+        assertEquals(1, this.sessionManager.findByPrincipal("admin").size());
+
+        assertEquals(1, this.sessionManager.invalidateAllFor("admin"));
+
+        assertFalse(second.isValid());
+        assertNull(getStoredSession(second));
+        assertTrue(this.sessionManager.findByPrincipal("admin").isEmpty());
+        assertNotNull(getStoredSession(other));
+    }
+
+    /**
+     * <p>
+     * Tests the maximum number of sessions per user with both {@link SessionLimitPolicy} values.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMaxSessionsPerUser() throws Exception {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().inMemorySessionStore().maxSessionsPerUser(2, SessionLimitPolicy.REJECT_NEW);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        createSession("admin");
+        createSession("admin");
+
+        try {
+            createSession("admin");
+            fail("The maximum number of sessions was reached.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals(2, this.sessionManager.findByPrincipal("admin").size());
+
+        builder = new ConfigurationBuilder();
+
+        builder.sessionManager().inMemorySessionStore().maxSessionsPerUser(2, SessionLimitPolicy.INVALIDATE_OLDEST);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession oldest = createSession("admin");
+
+        Thread.sleep(5);
+
+        PicketBoxSession second = createSession("admin");
+        PicketBoxSession third = createSession("admin");
+
+        assertFalse(oldest.isValid());
+        assertTrue(second.isValid());
+        assertTrue(third.isValid());
+        assertEquals(2, this.sessionManager.findByPrincipal("admin").size());
+    }
+
+    /**
+     * <p>
+     * Tests if the session timeout is delegated to an {@link ExpiringSessionStore} and if the sessions it expires are removed.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpiringSessionStore() throws Exception {
+        final List<ExpiringSessionStore.ExpirationListener> listeners = new ArrayList<ExpiringSessionStore.ExpirationListener>();
+        final List<Long> timeouts = new ArrayList<Long>();
+        final AtomicInteger touches = new AtomicInteger();
+
+        class NativeExpirationSessionStore extends InMemorySessionStore implements ExpiringSessionStore {
+            @Override
+            public void setExpiration(long maxIdleInMillis, ExpirationListener listener) {
+                timeouts.add(maxIdleInMillis);
+                listeners.add(listener);
+            }
+
+            @Override
+            public void touch(PicketBoxSession session) {
+                touches.incrementAndGet();
+            }
+        }
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().store(new NativeExpirationSessionStore()).sessionTimeout(1).touchInterval(0);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        assertEquals(1, listeners.size());
+        assertEquals(Long.valueOf(60 * 1000), timeouts.get(0));
+
+        PicketBoxSession session = createSession();
+
+        session.getAttribute("a");
+
+        assertTrue(touches.get() > 0);
+
+        listeners.get(0).sessionExpired(session);
+
+        assertFalse(session.isValid());
+        assertNull(getStoredSession(session));
+    }
+
+    /**
+     * <p>
+     * Tests if touches within the configured interval are coalesced into a single {@link SessionTouchedEvent}.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTouchCoalescing() throws Exception {
+        TouchEventHandler handler = new TouchEventHandler();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().inMemorySessionStore().touchInterval(500).eventManager().handler(handler);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession session = createSession();
+
+        for (int i = 0; i < 10; i++) {
+            session.touch();
+        }
+
+        assertEquals(1, handler.touches.get());
+
+        Thread.sleep(600);
+
+        for (int i = 0; i < 10; i++) {
+            session.touch();
+        }
+
+        assertEquals(2, handler.touches.get());
+    }
+
+    /**
+     * <p>
+     * Tests if a {@link SessionTouchedEvent} is raised for every touch when the touch interval is zero.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTouchEventForEveryTouch() throws Exception {
+        TouchEventHandler handler = new TouchEventHandler();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+
+        builder.sessionManager().inMemorySessionStore().touchInterval(0).eventManager().handler(handler);
+
+        this.sessionManager = createManager(builder).getSessionManager();
+
+        PicketBoxSession session = createSession();
+
+        int touchesAfterCreation = handler.touches.get();
+
+        for (int i = 0; i < 10; i++) {
+            session.touch();
+        }
+
+        assertEquals(touchesAfterCreation + 10, handler.touches.get());
+    }
+
     private PicketBoxSession createSession() {
+        return createSession(null);
+    }
+
+    private PicketBoxSession createSession(final String principalName) {
         UserContext subject = new UserContext() {
 
             private static final long serialVersionUID = 1L;
@@ -144,6 +472,11 @@ public class SessionManagerTestCase extends AbstractDefaultPicketBoxManagerTestC
             public boolean isAuthenticated() {
                 return true;
             }
+
+            @Override
+            public Principal getPrincipal() {
+                return principalName != null ? new PicketBoxPrincipal(principalName) : null;
+            }
         };
 
         return this.sessionManager.create(subject);
@@ -153,4 +486,14 @@ public class SessionManagerTestCase extends AbstractDefaultPicketBoxManagerTestC
         return this.sessionManager.retrieve(session.getId());
     }
 
-}
\ No newline at end of file
+    public static class TouchEventHandler {
+
+        private final AtomicInteger touches = new AtomicInteger();
+
+        @EventObserver
+        public void onTouch(SessionTouchedEvent event) {
+            this.touches.incrementAndGet();
+        }
+    }
+
+}
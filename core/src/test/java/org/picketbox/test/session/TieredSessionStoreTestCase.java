@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.TieredSessionStore;
+
+/**
+ * Unit test the {@link TieredSessionStore}
+ *
+ */
+public class TieredSessionStoreTestCase {
+
+    private File directory;
+    private TieredSessionStore store;
+
+    @Before
+    public void onSetup() throws Exception {
+        this.directory = File.createTempFile("picketbox-tiered", "");
+        this.directory.delete();
+
+        // every session is idle, small segments and no background thread
+        this.store = new TieredSessionStore(this.directory.getAbsolutePath(), 0, 0, 4096, new BinarySessionCodec());
+        this.store.start();
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        this.store.stop();
+
+        assertEquals(0, this.directory.listFiles().length);
+
+        this.directory.delete();
+    }
+
+    @Test
+    public void testPassivationAndActivation() throws Exception {
+        PicketBoxSession session = createSession("value");
+
+        this.store.store(session);
+
+        assertSame(session, this.store.load(session.getId()));
+
+        this.store.passivate();
+
+        assertEquals(0, this.store.getHotSessions());
+        assertEquals(1, this.store.getPassivatedSessions());
+        assertEquals(1, this.store.getPassivations());
+        assertTrue(this.store.getDiskSize() > 0);
+
+        PicketBoxSession activatedSession = this.store.load(session.getId());
+
+        assertNotNull(activatedSession);
+        assertNotSame(session, activatedSession);
+        assertEquals(session.getId(), activatedSession.getId());
+        assertEquals("value", activatedSession.getApplicationStateAttributes("name"));
+        assertEquals(1, this.store.getHotSessions());
+        assertEquals(0, this.store.getPassivatedSessions());
+        assertEquals(1, this.store.getActivations());
+
+        // further loads are served from memory
+        assertSame(activatedSession, this.store.load(session.getId()));
+    }
+
+    @Test
+    public void testUpdateAndRemovePassivatedSessions() throws Exception {
+        PicketBoxSession updatedSession = createSession("value");
+        PicketBoxSession removedSession = createSession("value");
+
+        this.store.store(updatedSession);
+        this.store.store(removedSession);
+
+        this.store.passivate();
+
+        updatedSession.setApplicationStateAttributes("name", "changed");
+
+        this.store.update(updatedSession);
+        this.store.remove(removedSession.getId());
+
+        assertSame(updatedSession, this.store.load(updatedSession.getId()));
+        assertNull(this.store.load(removedSession.getId()));
+        assertEquals(0, this.store.getPassivatedSessions());
+        assertEquals(0, this.store.getActivations());
+    }
+
+    @Test
+    public void testSegmentReclamation() throws Exception {
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+
+        for (int i = 0; i < 200; i++) {
+            PicketBoxSession session = createSession("value" + i);
+
+            sessions.add(session);
+            this.store.store(session);
+        }
+
+        this.store.passivate();
+
+        long diskSize = this.store.getDiskSize();
+
+        assertTrue(diskSize > 4096);
+
+        // activates most of the sessions, leaving the segments mostly unused
+        for (int i = 0; i < sessions.size(); i++) {
+            if (i % 10 != 0) {
+                assertNotNull(this.store.load(sessions.get(i).getId()));
+            }
+        }
+
+        this.store.passivate();
+
+        assertEquals(200, this.store.getPassivatedSessions());
+
+        // a second run reclaims the segments emptied by the first one
+        this.store.passivate();
+
+        assertTrue(this.store.getDiskSize() < 2 * diskSize);
+
+        for (PicketBoxSession session : sessions) {
+            PicketBoxSession activatedSession = this.store.load(session.getId());
+
+            assertNotNull(activatedSession);
+            assertEquals(session.getApplicationStateAttributes("name"), activatedSession.getApplicationStateAttributes("name"));
+        }
+    }
+
+    private PicketBoxSession createSession(String value) throws Exception {
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        session.setApplicationStateAttributes("name", value);
+
+        return session;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.picketbox.core.config.ConfigurationBuilder;
+import org.picketbox.core.config.builder.SessionManagerConfigurationBuilder;
+import org.picketbox.core.session.DeltaSessionStore;
+import org.picketbox.core.session.InMemorySessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionId;
+import org.picketbox.core.session.SessionStore;
+import org.picketbox.core.session.WriteBehindSessionStore;
+
+/**
+ * Unit test the {@link WriteBehindSessionStore}
+ *
+ */
+public class WriteBehindSessionStoreTestCase {
+
+    @Test
+    public void testMergedWritesAndFlush() throws Exception {
+        CountingSessionStore delegate = new CountingSessionStore();
+        WriteBehindSessionStore store = new WriteBehindSessionStore(delegate, 100, 60000);
+
+        store.start();
+
+        PicketBoxSession session = new PicketBoxSession();
+
+        store.store(session);
+        store.update(session);
+        store.update(session);
+
+        // nothing reached the underlying store, but the session can be loaded
+        assertEquals(1, store.getPendingWrites());
+        assertEquals(2, store.getMergedWrites());
+        assertEquals(0, delegate.writes.get());
+        assertSame(session, store.load(session.getId()));
+
+        store.flush();
+
+        assertEquals(0, store.getPendingWrites());
+        assertEquals(1, delegate.writes.get());
+        assertSame(session, delegate.load(session.getId()));
+
+        store.remove(session.getId());
+
+        assertNull(store.load(session.getId()));
+
+        store.stop();
+
+        assertEquals(0, store.getPendingWrites());
+        assertEquals(2, delegate.writes.get());
+    }
+
+    @Test
+    public void testFlushOnBatchSize() throws Exception {
+        CountingSessionStore delegate = new CountingSessionStore();
+        WriteBehindSessionStore store = new WriteBehindSessionStore(delegate, 2, 60000);
+
+        store.start();
+
+        store.store(new PicketBoxSession());
+        store.store(new PicketBoxSession());
+
+        for (int i = 0; i < 50 && store.getPendingWrites() > 0; i++) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(0, store.getPendingWrites());
+        assertEquals(2, delegate.writes.get());
+
+        store.stop();
+    }
+
+    @Test
+    public void testCreateNeverOvertakenByUpdate() throws Exception {
+        final RecordingSessionStore delegate = new RecordingSessionStore();
+        final WriteBehindSessionStore store = new WriteBehindSessionStore(delegate, Integer.MAX_VALUE, 60000);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        store.start();
+
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    store.flush();
+                }
+            }
+        };
+
+        flusher.start();
+
+        for (int i = 0; i < 2000; i++) {
+            PicketBoxSession session = new PicketBoxSession();
+
+            store.store(session);
+            store.update(session);
+        }
+
+        running.set(false);
+        flusher.join();
+
+        store.stop();
+
+        assertEquals(2000, delegate.firstWrites.size());
+        assertFalse(delegate.firstWrites.containsValue("update"));
+    }
+
+    @Test
+    public void testMergedAttributeChanges() throws Exception {
+        RecordingSessionStore delegate = new RecordingSessionStore();
+        WriteBehindSessionStore store = new WriteBehindSessionStore(delegate, 100, 60000);
+
+        store.start();
+
+        PicketBoxSession session = new PicketBoxSession();
+
+        store.store(session);
+        store.flush();
+
+        store.updateAttributes(session, Collections.singleton("a"));
+        store.updateAttributes(session, Collections.singleton("b"));
+
+        assertSame(session, store.loadAsync(session.getId()).get());
+
+        store.flush();
+
+        assertEquals(1, delegate.deltas.size());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), delegate.deltas.get(0));
+
+        store.stop();
+    }
+
+    @Test
+    public void testWrapperReusedAcrossBuilds() throws Exception {
+        InMemorySessionStore delegate = new InMemorySessionStore();
+        SessionManagerConfigurationBuilder builder = new ConfigurationBuilder().sessionManager();
+
+        builder.store(delegate).writeBehind(100, 60000);
+
+        SessionStore store = builder.build().getStore();
+
+        assertTrue(store instanceof WriteBehindSessionStore);
+        assertSame(store, builder.build().getStore());
+
+        builder.store(new InMemorySessionStore());
+
+        assertNotSame(store, builder.build().getStore());
+    }
+
+    private static class RecordingSessionStore extends InMemorySessionStore implements DeltaSessionStore {
+
+        private final ConcurrentMap<Serializable, String> firstWrites = new ConcurrentHashMap<Serializable, String>();
+        private final List<Set<String>> deltas = new ArrayList<Set<String>>();
+
+        @Override
+        public void store(PicketBoxSession session) {
+            this.firstWrites.putIfAbsent(session.getId().getId(), "store");
+            super.store(session);
+        }
+
+        @Override
+        public void update(PicketBoxSession session) {
+            this.firstWrites.putIfAbsent(session.getId().getId(), "update");
+            super.update(session);
+        }
+
+        @Override
+        public void updateAttributes(PicketBoxSession session, Set<String> changedAttributes) {
+            this.deltas.add(changedAttributes);
+        }
+    }
+
+    private static class CountingSessionStore extends InMemorySessionStore {
+
+        private final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public void store(PicketBoxSession session) {
+            this.writes.incrementAndGet();
+            super.store(session);
+        }
+
+        @Override
+        public void update(PicketBoxSession session) {
+            this.writes.incrementAndGet();
+            super.update(session);
+        }
+
+        @Override
+        public void remove(SessionId<? extends Serializable> id) {
+            this.writes.incrementAndGet();
+            super.remove(id);
+        }
+    }
+}
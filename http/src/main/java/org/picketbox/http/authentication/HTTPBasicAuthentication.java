@@ -34,9 +34,6 @@ import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.http.PicketBoxConstants;
 import org.picketbox.http.authentication.credential.HTTPBasicCredential;
 import org.picketbox.http.authentication.credential.HttpServletCredential;
-import org.picketlink.idm.credential.Credentials;
-import org.picketlink.idm.credential.Credentials.Status;
-import org.picketlink.idm.model.User;
 
 /**
  * Perform HTTP Basic Authentication
@@ -88,13 +85,7 @@ public class HTTPBasicAuthentication extends AbstractHTTPAuthentication {
         if (basicCredential.getCredential() != null) {
             String username = basicCredential.getUserName();
 
-            User user = getIdentityManager().getUser(username);
-
-            Credentials userCredential = basicCredential.getCredential();
-
-            getIdentityManager().validateCredentials(userCredential);
-
-            if (user != null && userCredential.getStatus().equals(Status.VALID)) {
+            if (validateCredentials(username, basicCredential.getCredential())) {
                 return new PicketBoxPrincipal(username);
             }
         }
@@ -25,6 +25,7 @@ package org.picketbox.http.config;
 import java.util.List;
 
 import org.picketbox.core.authentication.AuthenticationMechanism;
+import org.picketbox.core.authentication.VerifiedCredentialCache;
 import org.picketbox.core.config.AuthenticationConfiguration;
 import org.picketbox.core.config.ClientCertConfiguration;
 import org.picketbox.core.config.EventManagerConfiguration;
@@ -40,7 +41,13 @@ public class HTTPAuthenticationConfiguration extends AuthenticationConfiguration
 
     public HTTPAuthenticationConfiguration(List<AuthenticationMechanism> mechanisms, EventManagerConfiguration eventManager,
             ClientCertConfiguration clientCertConfiguration, HTTPDigestConfiguration digestConfiguration, HTTPFormConfiguration formConfiguration) {
-        super(mechanisms, eventManager, clientCertConfiguration);
+        this(mechanisms, eventManager, clientCertConfiguration, null, digestConfiguration, formConfiguration);
+    }
+
+    public HTTPAuthenticationConfiguration(List<AuthenticationMechanism> mechanisms, EventManagerConfiguration eventManager,
+            ClientCertConfiguration clientCertConfiguration, VerifiedCredentialCache credentialCache,
+            HTTPDigestConfiguration digestConfiguration, HTTPFormConfiguration formConfiguration) {
+        super(mechanisms, eventManager, clientCertConfiguration, credentialCache);
         this.digestConfiguration = digestConfiguration;
         this.formConfiguration = formConfiguration;
     }
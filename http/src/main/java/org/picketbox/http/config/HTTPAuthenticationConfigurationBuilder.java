@@ -73,7 +73,8 @@ public class HTTPAuthenticationConfigurationBuilder extends AuthenticationConfig
     @Override
     public AuthenticationConfiguration doBuild() {
         return new HTTPAuthenticationConfiguration(this.mechanisms, this.builder.eventManager().build(),
-                super.certAuthentication.build(), this.digestAuthentication.build(), this.formAuthentication.build());
+                super.certAuthentication.build(), buildCredentialCache(), this.digestAuthentication.build(),
+                this.formAuthentication.build());
     }
 
 }
@@ -169,11 +169,30 @@ public class DelegatingSecurityFilter implements Filter {
                 chain.doFilter(wrappedRequest, wrappedResponse);
             }
         } finally {
-            clearPropagatedSecurityContext();
+            try {
+                flushSession(wrappedRequest);
+            } finally {
+                clearPropagatedSecurityContext();
+            }
         }
 
     }
 
+    /**
+     * <p>
+     * Writes the session changes made during the request to the session store.
+     * </p>
+     *
+     * @param httpRequest
+     */
+    private void flushSession(HttpServletRequest httpRequest) {
+        UserContext userContext = this.securityManager.getUserContext(httpRequest);
+
+        if (userContext != null && userContext.getSession() != null) {
+            this.securityManager.getSessionManager().flush(userContext.getSession());
+        }
+    }
+
     /**
      * <p>
      * Clear the propagated {@link SecurityContext}.
@@ -241,9 +260,10 @@ public class DelegatingSecurityFilter implements Filter {
             return;
         }
 
+        UserContext userContext = this.securityManager.getUserContext(httpRequest);
+
         // user is already authenticated
-        if (this.securityManager.getUserContext(httpRequest) != null
-                && this.securityManager.getUserContext(httpRequest).isAuthenticated()) {
+        if (userContext != null && userContext.snapshot().isAuthenticated()) {
             return;
         }
 
@@ -22,7 +22,11 @@
 
 package org.picketbox.http.resource;
 
+import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.UserContext;
+import org.picketbox.core.UserContextSnapshot;
+import org.picketbox.core.authorization.RoleDictionary;
+import org.picketbox.core.authorization.RoleMask;
 
 /**
  * <p>
@@ -37,6 +41,9 @@ import org.picketbox.core.UserContext;
  * The security constraint defines how the resource should be protected. If it requires only authenticated users, if anonymous
  * access is permited or if it requires previous authorization.
  * </p>
+ * <p>
+ * The roles and groups allowed to access the resource are compiled to a {@link RoleMask} when first checked.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
@@ -65,6 +72,9 @@ public class ProtectedResource {
     private String[] roles;
     private String[] groups;
 
+    private volatile RoleMask roleMask;
+    private volatile RoleMask groupMask;
+
     public ProtectedResource(String pattern, ProtectedResourceConstraint constraint) {
         this.pattern = pattern;
         this.constraint = constraint.name();
@@ -165,37 +175,48 @@ public class ProtectedResource {
     }
 
     public boolean isAllowed(UserContext subject) {
-        boolean isRoleAllowed = false;
-
-        if (this.roles != null && this.roles.length > 0) {
-            for (String role : this.roles) {
-                if (subject.hasRole(role)) {
-                    isRoleAllowed = true;
-                    break;
-                }
-            }
-        } else {
-            isRoleAllowed = true;
+        RoleMask allowedRoles = getRoleMask();
+        RoleMask allowedGroups = getGroupMask();
+
+        if (allowedRoles.isEmpty() && allowedGroups.isEmpty()) {
+            return true;
         }
 
-        boolean isGroupAllowed = false;
+        UserContextSnapshot snapshot = subject.snapshot();
 
-        if (this.groups != null && this.groups.length > 0) {
-            for (String group : this.groups) {
-                if (subject.hasGroup(group)) {
-                    isGroupAllowed = true;
-                    break;
-                }
-            }
-        } else {
-            isGroupAllowed = true;
+        if (!snapshot.isAuthenticated()) {
+            throw PicketBoxMessages.MESSAGES.userNotAuthenticated();
+        }
+
+        return (allowedRoles.isEmpty() || snapshot.hasAnyRole(allowedRoles))
+                && (allowedGroups.isEmpty() || snapshot.hasAnyGroup(allowedGroups));
+    }
+
+    private RoleMask getRoleMask() {
+        RoleMask mask = this.roleMask;
+
+        if (mask == null) {
+            mask = RoleDictionary.ROLES.compile(this.roles);
+            this.roleMask = mask;
+        }
+
+        return mask;
+    }
+
+    private RoleMask getGroupMask() {
+        RoleMask mask = this.groupMask;
+
+        if (mask == null) {
+            mask = RoleDictionary.GROUPS.compile(this.groups);
+            this.groupMask = mask;
         }
 
-        return isGroupAllowed && isRoleAllowed;
+        return mask;
     }
 
     public void setRoles(String[] roles) {
         this.roles = roles;
+        this.roleMask = null;
     }
 
     public void setConstraint(ProtectedResourceConstraint constraint) {
@@ -204,5 +225,6 @@ public class ProtectedResource {
 
     public void setGroups(String[] groups) {
         this.groups = groups;
+        this.groupMask = null;
     }
 }
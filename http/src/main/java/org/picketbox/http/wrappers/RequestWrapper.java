@@ -60,7 +60,7 @@ public class RequestWrapper extends HttpServletRequestWrapper {
             return null;
         }
 
-        return userContext.getPrincipal();
+        return userContext.snapshot().getPrincipal();
     }
 
     /**
@@ -81,6 +81,6 @@ public class RequestWrapper extends HttpServletRequestWrapper {
     public boolean isUserInRole(String role) {
         UserContext userContext = getUserContext();
 
-        return userContext != null && userContext.hasRole(role);
+        return userContext != null && userContext.snapshot().hasRole(role);
     }
 }
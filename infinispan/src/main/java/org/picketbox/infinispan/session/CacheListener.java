@@ -21,19 +21,28 @@
  */
 package org.picketbox.infinispan.session;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
 import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.picketbox.core.PicketBoxLogger;
 import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.session.BinarySessionCodec;
 import org.picketbox.core.session.PicketBoxSession;
-import org.picketbox.core.session.SessionId;
+import org.picketbox.core.session.SessionCodec;
 
 /**
- * Listens on the Infinispan Cache events. Primary use is to detect when the cache entry is invalidated.
+ * Listens on the Infinispan Cache events. Primary use is to detect when the cache entry is invalidated, and to apply the
+ * changes made by other nodes to the sessions in use on this node. Sessions changed or removed by other nodes are also
+ * invalidated in the {@link NearCache}, if one is used, and dropped from the sessions this node reports the expiration of.
  *
  * @author anil saldhana
  * @since Aug 2, 2012
@@ -41,9 +50,71 @@ import org.picketbox.core.session.SessionId;
 @Listener
 public class CacheListener {
 
+    private final SessionCodec codec;
+    private final NearCache nearCache;
+    private final ConcurrentMap<Serializable, PicketBoxSession> ownedSessions;
+
+    /*
+     * Sessions in use on this node that are being replaced by a remote modification, between the pre and post events.
+     */
+    private final ConcurrentMap<Serializable, PicketBoxSession> modifiedSessions = new ConcurrentHashMap<Serializable, PicketBoxSession>();
+
+    public CacheListener() {
+        this(new BinarySessionCodec());
+    }
+
+    public CacheListener(SessionCodec codec) {
+        this(codec, null);
+    }
+
+    public CacheListener(SessionCodec codec, NearCache nearCache) {
+        this(codec, nearCache, null);
+    }
+
+    /**
+     * @param codec
+     * @param nearCache the near cache of the store, or null.
+     * @param ownedSessions the sessions written last by this node, or null. A session written by another node is dropped.
+     */
+    public CacheListener(SessionCodec codec, NearCache nearCache, ConcurrentMap<Serializable, PicketBoxSession> ownedSessions) {
+        this.codec = codec;
+        this.nearCache = nearCache;
+        this.ownedSessions = ownedSessions;
+    }
+
+    @CacheEntryModified
+    public void observeModified(CacheEntryModifiedEvent<Serializable, SessionEntry> event) {
+        if (event.isOriginLocal()) {
+            return;
+        }
+
+        if (event.isPre()) {
+            PicketBoxSession session = getLocalSession(event.getValue());
+
+            if (session != null) {
+                this.modifiedSessions.put(event.getKey(), session);
+            }
+        } else {
+            invalidateNearCache(event.getKey());
+            disown(event.getKey());
+
+            PicketBoxSession session = this.modifiedSessions.remove(event.getKey());
+
+            if (session != null && event.getValue() != null) {
+                try {
+                    event.getValue().refresh(session, this.codec);
+                } catch (IOException e) {
+                    PicketBoxLogger.LOGGER.failedToRefreshSession(event.getKey(), e);
+                }
+            }
+        }
+    }
+
     @CacheEntryInvalidated
-    public void observeInvalidated(CacheEntryInvalidatedEvent<SessionId<? extends Serializable>, PicketBoxSession> event) {
-        PicketBoxSession session = event.getValue();
+    public void observeInvalidated(CacheEntryInvalidatedEvent<Serializable, SessionEntry> event) {
+        invalidateNearCache(event.getKey());
+
+        PicketBoxSession session = getLocalSession(event.getValue());
 
         if (session != null && session.isValid()) {
             try {
@@ -55,8 +126,11 @@ public class CacheListener {
     }
 
     @CacheEntryRemoved
-    public void observeRemoved(CacheEntryRemovedEvent<SessionId<? extends Serializable>, PicketBoxSession> event) {
-        PicketBoxSession session = event.getValue();
+    public void observeRemoved(CacheEntryRemovedEvent<Serializable, SessionEntry> event) {
+        invalidateNearCache(event.getKey());
+        disown(event.getKey());
+
+        PicketBoxSession session = getLocalSession(event.getValue());
 
         if (session != null && session.isValid()) {
             try {
@@ -67,4 +141,24 @@ public class CacheListener {
         }
     }
 
-}
\ No newline at end of file
+    private void invalidateNearCache(Serializable key) {
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(key);
+        }
+    }
+
+    private void disown(Serializable key) {
+        if (this.ownedSessions != null) {
+            this.ownedSessions.remove(key);
+        }
+    }
+
+    /**
+     * <p>
+     * Only sessions already in use on this node need to be invalidated, so entries that were never decoded are ignored.
+     * </p>
+     */
+    private PicketBoxSession getLocalSession(SessionEntry entry) {
+        return entry != null ? entry.peekSession() : null;
+    }
+}
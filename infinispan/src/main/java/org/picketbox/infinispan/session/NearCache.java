@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.infinispan.session;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.session.PicketBoxSession;
+
+/**
+ * <p>
+ * Bounded, node-local cache of decoded sessions, used to serve loads without going to the Infinispan cache. Entries are
+ * invalidated by the {@link CacheListener} when a session is changed or removed by another node, and the least recently used
+ * entries are dropped when the maximum size is reached.
+ * </p>
+ * <p>
+ * Entries are spread over a fixed number of shards, each one an access ordered map guarded by its own lock.
+ * </p>
+ */
+public class NearCache {
+
+    private static final int SHARDS = 16;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of sessions kept.
+     */
+    public NearCache(int maxSize) {
+        int shardSize = Math.max(1, (maxSize + SHARDS - 1) / SHARDS);
+
+        for (int i = 0; i < SHARDS; i++) {
+            this.shards[i] = new Shard(shardSize);
+        }
+    }
+
+    public PicketBoxSession get(Serializable key) {
+        Shard shard = shardFor(key);
+        PicketBoxSession session;
+
+        synchronized (shard) {
+            session = shard.get(key);
+        }
+
+        if (session != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+
+        return session;
+    }
+
+    public void put(Serializable key, PicketBoxSession session) {
+        Shard shard = shardFor(key);
+
+        synchronized (shard) {
+            shard.put(key, session);
+        }
+    }
+
+    public void invalidate(Serializable key) {
+        Shard shard = shardFor(key);
+
+        synchronized (shard) {
+            shard.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                shard.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * <p>
+     * Returns how many loads were served by this cache.
+     * </p>
+     *
+     * @return
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * <p>
+     * Returns how many loads had to go to the Infinispan cache.
+     * </p>
+     *
+     * @return
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    private Shard shardFor(Serializable key) {
+        int hash = key.hashCode();
+
+        return this.shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static class Shard extends LinkedHashMap<Serializable, PicketBoxSession> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Shard(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Serializable, PicketBoxSession> eldest) {
+            return size() > this.maxSize;
+        }
+    }
+}
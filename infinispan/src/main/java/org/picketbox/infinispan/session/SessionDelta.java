@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.infinispan.session;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.infinispan.atomic.Delta;
+import org.infinispan.atomic.DeltaAware;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.session.PicketBoxSession;
+
+/**
+ * <p>
+ * Changes to a {@link SessionEntry}. A delta either replaces the whole encoded session or carries only the attributes set or
+ * removed since the session was last written. Putting a delta in the cache merges it with the existing entry on every node,
+ * so only the delta is replicated.
+ * </p>
+ */
+public class SessionDelta implements Delta, Externalizable {
+
+    private static final long serialVersionUID = -3362416937652016187L;
+
+    private byte[] state;
+    private Map<String, Object> changedAttributes = Collections.emptyMap();
+    private Set<String> removedAttributes = Collections.emptySet();
+    private long lastAccessedTime;
+
+    /**
+     * <p>
+     * Used during unmarshalling.
+     * </p>
+     */
+    public SessionDelta() {
+    }
+
+    /**
+     * <p>
+     * Creates a delta that replaces the whole session with the given encoded state.
+     * </p>
+     *
+     * @param state
+     */
+    public SessionDelta(byte[] state) {
+        this.state = state;
+    }
+
+    /**
+     * <p>
+     * Creates a delta with the given attribute changes.
+     * </p>
+     *
+     * @param changedAttributes
+     * @param removedAttributes
+     * @param lastAccessedTime
+     */
+    public SessionDelta(Map<String, Object> changedAttributes, Set<String> removedAttributes, long lastAccessedTime) {
+        this.changedAttributes = changedAttributes;
+        this.removedAttributes = removedAttributes;
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+    /**
+     * <p>
+     * Creates a delta with the given attributes of a session. Attributes no longer in the session are removed.
+     * </p>
+     *
+     * @param session
+     * @param attributeNames
+     * @return
+     * @throws PicketBoxSessionException if the session was invalidated.
+     */
+    public static SessionDelta forAttributes(PicketBoxSession session, Set<String> attributeNames)
+            throws PicketBoxSessionException {
+        Map<String, Object> attributes = session.getAttributes();
+        Map<String, Object> changed = new HashMap<String, Object>();
+        Set<String> removed = new HashSet<String>();
+
+        for (String name : attributeNames) {
+            Object value = attributes.get(name);
+
+            if (value != null) {
+                changed.put(name, value);
+            } else {
+                removed.add(name);
+            }
+        }
+
+        return new SessionDelta(changed, removed, session.getLastAccessedTime());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.infinispan.atomic.Delta#merge(org.infinispan.atomic.DeltaAware)
+     */
+    @Override
+    public DeltaAware merge(DeltaAware deltaAware) {
+        SessionEntry entry = deltaAware instanceof SessionEntry ? (SessionEntry) deltaAware : new SessionEntry();
+
+        if (this.state != null) {
+            entry.replace(this.state);
+        } else {
+            entry.apply(this);
+        }
+
+        return entry;
+    }
+
+    /**
+     * <p>
+     * Applies the attribute changes to the given session.
+     * </p>
+     *
+     * @param session
+     */
+    void applyTo(PicketBoxSession session) {
+        session.applyAttributeChanges(this.changedAttributes, this.removedAttributes, this.lastAccessedTime);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeBoolean(this.state != null);
+
+        if (this.state != null) {
+            out.writeInt(this.state.length);
+            out.write(this.state);
+            return;
+        }
+
+        out.writeInt(this.changedAttributes.size());
+
+        for (Entry<String, Object> entry : this.changedAttributes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+
+        out.writeInt(this.removedAttributes.size());
+
+        for (String name : this.removedAttributes) {
+            out.writeUTF(name);
+        }
+
+        out.writeLong(this.lastAccessedTime);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        if (in.readBoolean()) {
+            this.state = new byte[in.readInt()];
+            in.readFully(this.state);
+            return;
+        }
+
+        int changedCount = in.readInt();
+
+        this.changedAttributes = new HashMap<String, Object>();
+
+        for (int i = 0; i < changedCount; i++) {
+            this.changedAttributes.put(in.readUTF(), in.readObject());
+        }
+
+        int removedCount = in.readInt();
+
+        this.removedAttributes = new HashSet<String>();
+
+        for (int i = 0; i < removedCount; i++) {
+            this.removedAttributes.add(in.readUTF());
+        }
+
+        this.lastAccessedTime = in.readLong();
+    }
+}
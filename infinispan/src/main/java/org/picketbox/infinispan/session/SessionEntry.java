@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.infinispan.session;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.atomic.Delta;
+import org.infinispan.atomic.DeltaAware;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionCodec;
+import org.picketbox.infinispan.PicketBoxInfinispanMessages;
+
+/**
+ * <p>
+ * Cache entry holding a {@link PicketBoxSession}. When the entry is marshalled the session is written using a
+ * {@link SessionCodec}, and an entry received from another node is only decoded when the session is requested.
+ * </p>
+ * <p>
+ * Entries can be changed by {@link SessionDelta} instances put in the cache. Deltas received before the session is decoded
+ * are kept and applied when it is.
+ * </p>
+ */
+public class SessionEntry implements Externalizable, DeltaAware {
+
+    private static final long serialVersionUID = 2640939366432012151L;
+
+    private static final SessionCodec DEFAULT_CODEC = new BinarySessionCodec();
+
+    private transient SessionCodec codec;
+    private transient volatile PicketBoxSession session;
+    private transient byte[] data;
+    private transient List<SessionDelta> pendingDeltas;
+
+    /**
+     * <p>
+     * Used during unmarshalling.
+     * </p>
+     */
+    public SessionEntry() {
+    }
+
+    public SessionEntry(PicketBoxSession session, SessionCodec codec) {
+        this.session = session;
+        this.codec = codec;
+    }
+
+    /**
+     * <p>
+     * Returns the session, decoding it with the given codec if this entry was received from another node.
+     * </p>
+     *
+     * @param codec
+     * @return the session or null if this entry only received deltas for a session it never had.
+     * @throws IOException
+     */
+    public PicketBoxSession getSession(SessionCodec codec) throws IOException {
+        PicketBoxSession current = this.session;
+
+        if (current == null) {
+            synchronized (this) {
+                current = this.session;
+
+                if (current == null && this.data != null) {
+                    current = decode(codec);
+                    this.codec = codec;
+                    this.session = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * <p>
+     * Returns the session only if it was already decoded.
+     * </p>
+     *
+     * @return
+     */
+    public PicketBoxSession peekSession() {
+        return this.session;
+    }
+
+    /**
+     * <p>
+     * Applies the state received from another node to a session in use on this node, which is then returned by this entry.
+     * </p>
+     *
+     * @param localSession
+     * @param codec
+     * @throws IOException
+     */
+    public synchronized void refresh(PicketBoxSession localSession, SessionCodec codec) throws IOException {
+        PicketBoxSession newer = this.session;
+
+        if (newer == null) {
+            if (this.data == null) {
+                return;
+            }
+
+            newer = decode(codec);
+        }
+
+        if (newer != localSession) {
+            localSession.refresh(newer);
+        }
+
+        this.codec = codec;
+        this.session = localSession;
+    }
+
+    /**
+     * <p>
+     * Replaces the session with the given encoded state.
+     * </p>
+     *
+     * @param state
+     */
+    synchronized void replace(byte[] state) {
+        this.data = state;
+        this.session = null;
+        this.pendingDeltas = null;
+    }
+
+    /**
+     * <p>
+     * Applies attribute changes to the session, or keeps them until the session is decoded.
+     * </p>
+     *
+     * @param delta
+     */
+    synchronized void apply(SessionDelta delta) {
+        PicketBoxSession current = this.session;
+
+        if (current != null) {
+            delta.applyTo(current);
+        } else {
+            if (this.pendingDeltas == null) {
+                this.pendingDeltas = new ArrayList<SessionDelta>();
+            }
+
+            this.pendingDeltas.add(delta);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns a delta replacing the whole session, used when Infinispan replicates this entry as a delta.
+     * </p>
+     */
+    @Override
+    public Delta delta() {
+        try {
+            return new SessionDelta(encode());
+        } catch (IOException e) {
+            throw PicketBoxInfinispanMessages.MESSAGES.runtimeException(e);
+        }
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        byte[] encoded = encode();
+
+        if (encoded == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int length = in.readInt();
+
+        if (length >= 0) {
+            byte[] encoded = new byte[length];
+
+            in.readFully(encoded);
+
+            this.data = encoded;
+        }
+    }
+
+    /**
+     * <p>
+     * Encodes the session, including the deltas not applied yet.
+     * </p>
+     */
+    private synchronized byte[] encode() throws IOException {
+        if (this.session == null && this.pendingDeltas != null && this.data != null) {
+            this.session = decode(this.codec != null ? this.codec : DEFAULT_CODEC);
+        }
+
+        if (this.session != null) {
+            return (this.codec != null ? this.codec : DEFAULT_CODEC).encode(this.session);
+        }
+
+        return this.data;
+    }
+
+    /**
+     * <p>
+     * Decodes the session and applies the pending deltas. Called while holding the lock of this entry.
+     * </p>
+     */
+    private PicketBoxSession decode(SessionCodec codec) throws IOException {
+        PicketBoxSession decoded = codec.decode(this.data);
+
+        if (this.pendingDeltas != null) {
+            for (SessionDelta delta : this.pendingDeltas) {
+                delta.applyTo(decoded);
+            }
+
+            this.pendingDeltas = null;
+        }
+
+        return decoded;
+    }
+}
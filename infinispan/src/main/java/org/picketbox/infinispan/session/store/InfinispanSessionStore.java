@@ -22,15 +22,44 @@
 
 package org.picketbox.infinispan.session.store;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.infinispan.Cache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.distribution.DistributionManager;
 import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.remoting.transport.Address;
+import org.infinispan.util.concurrent.FutureListener;
+import org.infinispan.util.concurrent.NotifyingFuture;
 import org.picketbox.core.AbstractPicketBoxLifeCycle;
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.DeltaSessionStore;
+import org.picketbox.core.session.ExpiringSessionStore;
 import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionCodec;
 import org.picketbox.core.session.SessionId;
 import org.picketbox.core.session.SessionStore;
+import org.picketbox.infinispan.PicketBoxInfinispanMessages;
 import org.picketbox.infinispan.session.CacheListener;
+import org.picketbox.infinispan.session.NearCache;
+import org.picketbox.infinispan.session.SessionDelta;
+import org.picketbox.infinispan.session.SessionEntry;
 
 /**
  * <p>
@@ -43,19 +72,66 @@ import org.picketbox.infinispan.session.CacheListener;
  * <p>
  * To provide a different name for the configuration file or the internal cache name you can use one of the others constructors.
  * </p>
+ * <p>
+ * Sessions are wrapped in a {@link SessionEntry} and written with a {@link SessionCodec} when replicated, by default the
+ * {@link BinarySessionCodec}.
+ * </p>
+ * <p>
+ * With the {@link SessionReplicationMode#DELTA} mode attribute changes are put in the cache as a {@link SessionDelta}, which
+ * Infinispan merges with the existing entry on each node. Only the changed attributes are replicated, instead of the whole
+ * session and its user context.
+ * </p>
+ * <p>
+ * Writes can be made asynchronous with {@link #setAsyncWrites(boolean)}. Sessions with a write in progress are loaded from
+ * memory, so a change is visible on this node before the write completes, and failed writes are logged. A bounded
+ * {@link NearCache} can be enabled with {@link #setNearCacheSize(int)} to serve loads without going to the Infinispan cache.
+ * Both options must be set before the store is started.
+ * </p>
+ * <p>
+ * Sessions are expired by Infinispan: entries are put with the session timeout as their maximum idle time, and touches are
+ * replicated as empty deltas. Infinispan does not notify about expired entries, so each node keeps the sessions it wrote last
+ * and reports those that were not accessed within the timeout, see {@link #expireSessions()}. A session written by another
+ * node is handed over to that node. The report does not depend on the entry still being in the cache, so it is not lost when
+ * Infinispan purges the entry first.
+ * </p>
+ * <p>
+ * Sessions last written by a node that left the cluster have no node to report them. Once per timeout the expired entries
+ * of the local data container this node is the primary owner of are reported as well, see {@link #expireOrphanedSessions()}.
+ * Those entries are only reported if they were not purged by Infinispan before.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
  */
-public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implements SessionStore {
+public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implements DeltaSessionStore, ExpiringSessionStore {
 
     private static final String DEFAULT_CONFIG_FILE = "picketbox-ispn.xml";
     private static final String DEFAULT_CACHE_NAME = "picketbox-session-cache";
+    private static final long DEFAULT_EXPIRATION_INTERVAL = 1000;
 
     private String configurationFile = DEFAULT_CONFIG_FILE;
     private String cacheName = DEFAULT_CACHE_NAME;
 
-    private Cache<Serializable, PicketBoxSession> cache;
+    private SessionCodec codec = new BinarySessionCodec();
+    private SessionReplicationMode replicationMode = SessionReplicationMode.FULL;
+    private boolean asyncWrites;
+    private int nearCacheSize;
+    private long maxIdle = -1;
+    private long expirationInterval = DEFAULT_EXPIRATION_INTERVAL;
+    private ExpirationListener expirationListener;
+    private ScheduledExecutorService expirationExecutor;
+
+    private NearCache nearCache;
+    private final ConcurrentMap<Serializable, PendingWrite> pendingWrites = new ConcurrentHashMap<Serializable, PendingWrite>();
+
+    /*
+     * Sessions last written by this node, which this node reports when they expire. A session is dropped when it is removed
+     * or written by another node, see CacheListener.
+     */
+    private final ConcurrentMap<Serializable, PicketBoxSession> ownedSessions =
+            new ConcurrentHashMap<Serializable, PicketBoxSession>();
+
+    private Cache<Serializable, SessionEntry> cache;
 
     private DefaultCacheManager cacheManager;
 
@@ -92,6 +168,41 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
         this.configurationFile = configurationFile;
     }
 
+    /**
+     * <p>
+     * Creates a new instance using the specified configuration file, cache name and {@link SessionCodec}.
+     * </p>
+     *
+     * @param cacheName
+     * @param configurationFile
+     * @param codec
+     */
+    public InfinispanSessionStore(String cacheName, String configurationFile, SessionCodec codec) {
+        this(cacheName, configurationFile);
+        if (codec != null) {
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * <p>
+     * Creates a new instance using the specified configuration file, cache name, {@link SessionCodec} and
+     * {@link SessionReplicationMode}.
+     * </p>
+     *
+     * @param cacheName
+     * @param configurationFile
+     * @param codec
+     * @param replicationMode
+     */
+    public InfinispanSessionStore(String cacheName, String configurationFile, SessionCodec codec,
+            SessionReplicationMode replicationMode) {
+        this(cacheName, configurationFile, codec);
+        if (replicationMode != null) {
+            this.replicationMode = replicationMode;
+        }
+    }
+
     /**
      * <p>
      * Loads the configuration and starts the {@link DefaultCacheManager}.
@@ -107,7 +218,11 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
 
             this.cache = cacheManager.getCache(this.cacheName);
 
-            this.cache.addListener(new CacheListener());
+            if (this.nearCacheSize > 0) {
+                this.nearCache = new NearCache(this.nearCacheSize);
+            }
+
+            this.cache.addListener(new CacheListener(this.codec, this.nearCache, this.ownedSessions));
         } catch (Exception e) {
             throw new IllegalStateException("Error while initializing ISPN cache configuration.", e);
         }
@@ -120,7 +235,39 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
      */
     @Override
     public PicketBoxSession load(SessionId<? extends Serializable> key) {
-        return this.cache.get(key.getId());
+        PendingWrite pendingWrite = this.pendingWrites.get(key.getId());
+
+        if (pendingWrite != null) {
+            return pendingWrite.session;
+        }
+
+        if (this.nearCache != null) {
+            PicketBoxSession session = this.nearCache.get(key.getId());
+
+            if (session != null) {
+                return session;
+            }
+        }
+
+        SessionEntry entry = this.cache.get(key.getId());
+
+        if (entry == null) {
+            return null;
+        }
+
+        PicketBoxSession session;
+
+        try {
+            session = entry.getSession(this.codec);
+        } catch (IOException e) {
+            throw PicketBoxInfinispanMessages.MESSAGES.runtimeException(e);
+        }
+
+        if (this.nearCache != null && session != null) {
+            this.nearCache.put(key.getId(), session);
+        }
+
+        return session;
     }
 
     /*
@@ -130,7 +277,7 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
      */
     @Override
     public void store(PicketBoxSession session) {
-        this.cache.put(session.getId().getId(), session);
+        put(session, new SessionEntry(session, this.codec));
     }
 
     /*
@@ -140,7 +287,21 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
      */
     @Override
     public void remove(SessionId<? extends Serializable> id) {
-        this.cache.remove(id.getId());
+        this.ownedSessions.remove(id.getId());
+
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(id.getId());
+        }
+
+        if (this.asyncWrites) {
+            PendingWrite pendingWrite = new PendingWrite(null);
+
+            this.pendingWrites.put(id.getId(), pendingWrite);
+
+            track(id.getId(), pendingWrite, this.cache.removeAsync(id.getId()));
+        } else {
+            this.cache.remove(id.getId());
+        }
     }
 
     /*
@@ -150,17 +311,397 @@ public class InfinispanSessionStore extends AbstractPicketBoxLifeCycle implement
      */
     @Override
     public void update(PicketBoxSession session) {
-        this.cache.put(session.getId().getId(), session);
+        put(session, new SessionEntry(session, this.codec));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.DeltaSessionStore#updateAttributes(org.picketbox.core.session.PicketBoxSession,
+     * java.util.Set)
+     */
+    @Override
+    public void updateAttributes(PicketBoxSession session, Set<String> changedAttributes) {
+        if (this.replicationMode != SessionReplicationMode.DELTA) {
+            update(session);
+            return;
+        }
+
+        SessionDelta delta;
+
+        try {
+            delta = SessionDelta.forAttributes(session, changedAttributes);
+        } catch (PicketBoxSessionException e) {
+            // invalidated in the meantime, the session is being removed
+            return;
+        }
+
+        put(session, delta);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.session.ExpiringSessionStore#setExpiration(long,
+     * org.picketbox.core.session.ExpiringSessionStore.ExpirationListener)
+     */
+    @Override
+    public void setExpiration(long maxIdleInMillis, ExpirationListener listener) {
+        this.maxIdle = maxIdleInMillis;
+        this.expirationListener = listener;
+    }
+
+    /**
+     * <p>
+     * Puts an empty {@link SessionDelta} for the session, resetting the idle time of its entry on every node.
+     * </p>
+     *
+     * @see org.picketbox.core.session.ExpiringSessionStore#touch(org.picketbox.core.session.PicketBoxSession)
+     */
+    @Override
+    public void touch(PicketBoxSession session) {
+        SessionDelta delta;
+
+        try {
+            delta = SessionDelta.forAttributes(session, Collections.<String> emptySet());
+        } catch (PicketBoxSessionException e) {
+            // invalidated in the meantime, the session is being removed
+            return;
+        }
+
+        put(session, delta);
+    }
+
+    /**
+     * <p>
+     * Reports the sessions written last by this node that were not accessed within the timeout, and removes them from the
+     * cache. Called periodically once an expiration is set, see {@link #setExpiration(long, ExpirationListener)}.
+     * </p>
+     *
+     * @return the number of expired sessions.
+     */
+    public int expireSessions() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+
+        for (Map.Entry<Serializable, PicketBoxSession> owned : this.ownedSessions.entrySet()) {
+            Serializable key = owned.getKey();
+            PicketBoxSession session = owned.getValue();
+
+            if (session.getLastAccessedTime() + this.maxIdle > now || !this.ownedSessions.remove(key, session)) {
+                continue;
+            }
+
+            if (this.nearCache != null) {
+                this.nearCache.invalidate(key);
+            }
+
+            if (notifyExpiration(key, session)) {
+                expired++;
+            }
+
+            // usually removed when the session is invalidated, unless Infinispan already purged it
+            this.cache.remove(key);
+        }
+
+        return expired;
+    }
+
+    /**
+     * <p>
+     * Reports the expired sessions of the local data container this node is the primary owner of, and that no node reported
+     * for at least twice the expiration interval. Those were written last by a node that left the cluster. Called
+     * periodically, once per timeout, once an expiration is set.
+     * </p>
+     *
+     * @return the number of expired sessions.
+     */
+    public int expireOrphanedSessions() {
+        DataContainer dataContainer = this.cache.getAdvancedCache().getDataContainer();
+        long reportedBefore = System.currentTimeMillis() - 2 * this.expirationInterval;
+        int expired = 0;
+
+        for (Object key : dataContainer.keySet()) {
+            InternalCacheEntry entry = dataContainer.peek(key);
+
+            if (entry == null || this.ownedSessions.containsKey(key) || !entry.isExpired(reportedBefore)
+                    || !isPrimaryOwner(key)) {
+                continue;
+            }
+
+            dataContainer.remove(key);
+
+            if (this.nearCache != null) {
+                this.nearCache.invalidate((Serializable) key);
+            }
+
+            try {
+                PicketBoxSession session = ((SessionEntry) entry.getValue()).getSession(this.codec);
+
+                // entries created by deltas for sessions already removed have no session
+                if (session != null && notifyExpiration(key, session)) {
+                    expired++;
+                }
+            } catch (IOException e) {
+                PicketBoxLogger.LOGGER.failedToExpireSession(key, e);
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * <p>
+     * Sets the interval, in milliseconds, between two checks of the sessions written by this node. Must be set before the
+     * store is started.
+     * </p>
+     *
+     * @param expirationInterval
+     */
+    public void setExpirationInterval(long expirationInterval) {
+        this.expirationInterval = expirationInterval;
+    }
+
+    /**
+     * <p>
+     * Waits for the asynchronous writes in progress to complete.
+     * </p>
+     */
+    public void awaitPendingWrites() {
+        for (PendingWrite pendingWrite : this.pendingWrites.values()) {
+            pendingWrite.await();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of asynchronous writes in progress.
+     * </p>
+     *
+     * @return
+     */
+    public int getPendingWrites() {
+        return this.pendingWrites.size();
+    }
+
+    /**
+     * <p>
+     * Makes store, update and remove operations return without waiting for the Infinispan cache.
+     * </p>
+     *
+     * @param asyncWrites
+     */
+    public void setAsyncWrites(boolean asyncWrites) {
+        this.asyncWrites = asyncWrites;
+    }
+
+    public boolean isAsyncWrites() {
+        return this.asyncWrites;
+    }
+
+    /**
+     * <p>
+     * Enables a {@link NearCache} holding at most the given number of sessions. Zero, the default, disables it.
+     * </p>
+     *
+     * @param nearCacheSize
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    public NearCache getNearCache() {
+        return this.nearCache;
+    }
+
+    public Cache<Serializable, SessionEntry> getCache() {
+        return this.cache;
+    }
+
+    public SessionReplicationMode getReplicationMode() {
+        return this.replicationMode;
+    }
+
+    /**
+     * <p>
+     * The cache holds {@link SessionEntry} instances, but a {@link SessionDelta} can be put to change one of them.
+     * </p>
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Cache<Serializable, Object> getDeltaCache() {
+        return (Cache) this.cache;
     }
 
     @Override
     protected void doStart() {
         startCache(this.configurationFile);
+
+        if (this.maxIdle > 0) {
+            this.expirationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketbox-session-expiration");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+            this.expirationExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    expireSessions();
+                }
+            }, this.expirationInterval, this.expirationInterval, TimeUnit.MILLISECONDS);
+
+            // walks the whole local data container, so it only runs once per timeout
+            long orphanInterval = Math.max(this.maxIdle, this.expirationInterval);
+
+            this.expirationExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    expireOrphanedSessions();
+                }
+            }, orphanInterval, orphanInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     protected void doStop() {
+        if (this.expirationExecutor != null) {
+            this.expirationExecutor.shutdownNow();
+            this.expirationExecutor = null;
+        }
+
+        awaitPendingWrites();
+
+        this.ownedSessions.clear();
+
+        if (this.nearCache != null) {
+            this.nearCache.clear();
+        }
+
         this.cacheManager.stop();
     }
 
+    /**
+     * <p>
+     * Puts a {@link SessionEntry} or a {@link SessionDelta} in the cache.
+     * </p>
+     */
+    private void put(PicketBoxSession session, Object value) {
+        Serializable key = session.getId().getId();
+
+        if (this.maxIdle > 0) {
+            this.ownedSessions.put(key, session);
+        }
+
+        if (this.nearCache != null) {
+            this.nearCache.put(key, session);
+        }
+
+        if (this.asyncWrites) {
+            PendingWrite pendingWrite = new PendingWrite(session);
+
+            this.pendingWrites.put(key, pendingWrite);
+
+            if (this.maxIdle > 0) {
+                track(key, pendingWrite,
+                        getDeltaCache().putAsync(key, value, -1, TimeUnit.MILLISECONDS, this.maxIdle, TimeUnit.MILLISECONDS));
+            } else {
+                track(key, pendingWrite, getDeltaCache().putAsync(key, value));
+            }
+        } else if (this.maxIdle > 0) {
+            getDeltaCache().put(key, value, -1, TimeUnit.MILLISECONDS, this.maxIdle, TimeUnit.MILLISECONDS);
+        } else {
+            getDeltaCache().put(key, value);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks if this node reports the given key when it expired without being reported by the node that wrote it last. Only
+     * one node reports each key: the primary owner of the key when the cache is distributed, otherwise the coordinator of
+     * the cluster.
+     * </p>
+     *
+     * @param key
+     * @return
+     */
+    public boolean isPrimaryOwner(Object key) {
+        if (this.cacheManager.getTransport() == null) {
+            return true;
+        }
+
+        DistributionManager distributionManager = this.cache.getAdvancedCache().getDistributionManager();
+
+        if (distributionManager != null) {
+            List<Address> owners = distributionManager.locate(key);
+
+            return !owners.isEmpty() && owners.get(0).equals(this.cacheManager.getAddress());
+        }
+
+        return this.cacheManager.isCoordinator();
+    }
+
+    private boolean notifyExpiration(Object key, PicketBoxSession session) {
+        if (this.expirationListener == null) {
+            return false;
+        }
+
+        try {
+            this.expirationListener.sessionExpired(session);
+            return true;
+        } catch (RuntimeException e) {
+            PicketBoxLogger.LOGGER.failedToExpireSession(key, e);
+            return false;
+        }
+    }
+
+    private <T> void track(final Serializable key, final PendingWrite pendingWrite, NotifyingFuture<T> future) {
+        pendingWrite.future = future;
+
+        future.attachListener(new FutureListener<T>() {
+            @Override
+            public void futureDone(Future<T> done) {
+                pendingWrite.await();
+                pendingWrites.remove(key, pendingWrite);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * An asynchronous write in progress. A null session means the session is being removed.
+     * </p>
+     */
+    private static class PendingWrite {
+
+        private final PicketBoxSession session;
+        private volatile Future<?> future;
+
+        PendingWrite(PicketBoxSession session) {
+            this.session = session;
+        }
+
+        void await() {
+            Future<?> current = this.future;
+
+            if (current == null) {
+                return;
+            }
+
+            try {
+                current.get();
+            } catch (ExecutionException e) {
+                if (this.session != null) {
+                    PicketBoxLogger.LOGGER.failedToWriteSessionAsync(this.session.getId(), e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.infinispan.session;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.infinispan.session.NearCache;
+
+/**
+ * <p>
+ * Tests the {@link NearCache} bounds, invalidation and statistics.
+ * </p>
+ */
+public class NearCacheTestCase {
+
+    /**
+     * <p>
+     * Tests if cached sessions are returned and if hits and misses are counted.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetAndPut() throws Exception {
+        NearCache nearCache = new NearCache(16);
+        PicketBoxSession session = createSession();
+
+        assertNull(nearCache.get(session.getId().getId()));
+
+        nearCache.put(session.getId().getId(), session);
+
+        assertSame(session, nearCache.get(session.getId().getId()));
+        assertEquals(1, nearCache.getHits());
+        assertEquals(1, nearCache.getMisses());
+    }
+
+    /**
+     * <p>
+     * Tests if invalidated sessions are no longer returned.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        NearCache nearCache = new NearCache(16);
+        PicketBoxSession session = createSession();
+
+        nearCache.put(session.getId().getId(), session);
+        nearCache.invalidate(session.getId().getId());
+
+        assertNull(nearCache.get(session.getId().getId()));
+        assertEquals(0, nearCache.size());
+    }
+
+    /**
+     * <p>
+     * Tests if the least recently used sessions are dropped when the maximum size is reached.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMaximumSize() throws Exception {
+        NearCache nearCache = new NearCache(64);
+        PicketBoxSession first = createSession();
+
+        nearCache.put(first.getId().getId(), first);
+
+        for (int i = 0; i < 1000; i++) {
+            PicketBoxSession session = createSession();
+
+            nearCache.put(session.getId().getId(), session);
+
+            // keep the first session recently used
+            assertNotNull(nearCache.get(first.getId().getId()));
+        }
+
+        assertTrue(nearCache.size() <= 64);
+        assertSame(first, nearCache.get(first.getId().getId()));
+    }
+
+    private PicketBoxSession createSession() {
+        return new PicketBoxSession(new UserContext(), new DefaultSessionId());
+    }
+
+}
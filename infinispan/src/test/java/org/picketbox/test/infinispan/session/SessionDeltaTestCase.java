@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.infinispan.session;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.picketbox.core.UserContext;
+import org.picketbox.core.session.BinarySessionCodec;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.SessionCodec;
+import org.picketbox.infinispan.session.SessionDelta;
+import org.picketbox.infinispan.session.SessionEntry;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleRole;
+
+/**
+ * <p>
+ * Tests the {@link SessionDelta} merging and compares its size with the whole {@link SessionEntry}.
+ * </p>
+ */
+public class SessionDeltaTestCase {
+
+    private final SessionCodec codec = new BinarySessionCodec();
+
+    /**
+     * <p>
+     * Tests if a delta with a single attribute is smaller than the whole session.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeltaSize() throws Exception {
+        PicketBoxSession session = createSession();
+
+        int entrySize = marshall(new SessionEntry(session, this.codec)).length;
+        int deltaSize = marshall(SessionDelta.forAttributes(session, Collections.singleton("attribute0"))).length;
+
+        assertTrue("Delta should be smaller than the whole session: " + deltaSize + " >= " + entrySize,
+                deltaSize * 4 < entrySize);
+    }
+
+    /**
+     * <p>
+     * Tests if deltas received before the session is decoded are applied when it is.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMergeIntoReplicatedEntry() throws Exception {
+        PicketBoxSession session = createSession();
+        SessionEntry replicatedEntry = (SessionEntry) unmarshall(marshall(new SessionEntry(session, this.codec)));
+
+        assertNull(replicatedEntry.peekSession());
+
+        Map<String, Object> changed = new HashMap<String, Object>();
+
+        changed.put("attribute0", "changed");
+
+        SessionDelta delta = (SessionDelta) unmarshall(marshall(new SessionDelta(changed, Collections.singleton("attribute1"),
+                session.getLastAccessedTime())));
+
+        assertSame(replicatedEntry, delta.merge(replicatedEntry));
+
+        PicketBoxSession replicatedSession = replicatedEntry.getSession(this.codec);
+
+        assertEquals("changed", replicatedSession.getAttributes().get("attribute0"));
+        assertFalse(replicatedSession.getAttributes().containsKey("attribute1"));
+        assertEquals("value2", replicatedSession.getAttributes().get("attribute2"));
+    }
+
+    /**
+     * <p>
+     * Tests if deltas are applied to a session in use.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMergeIntoSessionInUse() throws Exception {
+        PicketBoxSession session = createSession();
+        SessionEntry entry = new SessionEntry(session, this.codec);
+
+        Map<String, Object> changed = new HashMap<String, Object>();
+
+        changed.put("attribute0", "changed");
+
+        new SessionDelta(changed, Collections.<String> emptySet(), session.getLastAccessedTime()).merge(entry);
+
+        assertSame(session, entry.getSession(this.codec));
+        assertEquals("changed", session.getAttributes().get("attribute0"));
+    }
+
+    /**
+     * <p>
+     * Tests if an entry replicated as a delta is rebuilt from its whole state.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWholeSessionDelta() throws Exception {
+        PicketBoxSession session = createSession();
+        SessionEntry entry = (SessionEntry) new SessionEntry(session, this.codec).delta().merge(null);
+
+        assertEquals(session.getId(), entry.getSession(this.codec).getId());
+        assertEquals(session.getAttributes(), entry.getSession(this.codec).getAttributes());
+    }
+
+    private PicketBoxSession createSession() {
+        List<Role> roles = new ArrayList<Role>();
+
+        for (int i = 0; i < 10; i++) {
+            roles.add(new SimpleRole("role" + i));
+        }
+
+        UserContext userContext = new UserContext();
+
+        userContext.setRoles(roles);
+
+        PicketBoxSession session = new PicketBoxSession(userContext, new DefaultSessionId());
+        Map<String, Object> attributes = new HashMap<String, Object>();
+
+        for (int i = 0; i < 10; i++) {
+            attributes.put("attribute" + i, "value" + i);
+        }
+
+        session.applyAttributeChanges(attributes, Collections.<String> emptySet(), session.getLastAccessedTime());
+
+        return session;
+    }
+
+    private byte[] marshall(Object object) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+        oos.writeObject(object);
+        oos.close();
+
+        return bos.toByteArray();
+    }
+
+    private Object unmarshall(byte[] data) throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.infinispan.session.store;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.ExpiringSessionStore;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.infinispan.session.store.InfinispanSessionStore;
+
+/**
+ * <p>
+ * Tests the expiration of sessions by the {@link InfinispanSessionStore}, using two cache nodes.
+ * </p>
+ *
+ */
+public class InfinispanSessionExpirationTestCase {
+
+    private static final long MAX_IDLE = 500;
+
+    /*
+     * Long enough for the periodic checks not to run during a test, they are called by the tests instead.
+     */
+    private static final long MANUAL_INTERVAL = 60000;
+
+    private final List<InfinispanSessionStore> stores = new ArrayList<InfinispanSessionStore>();
+
+    @After
+    public void onFinish() {
+        for (InfinispanSessionStore store : this.stores) {
+            if (store.started()) {
+                store.stop();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if an idle session is reported once, by the node that wrote it, and removed from every node.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpirationReportedOnce() throws Exception {
+        RecordingListener firstListener = new RecordingListener();
+        RecordingListener secondListener = new RecordingListener();
+        InfinispanSessionStore firstStore = createStore(firstListener, 100);
+        InfinispanSessionStore secondStore = createStore(secondListener, 100);
+
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        firstStore.store(session);
+
+        waitForExpiration(firstListener, 1, 5000);
+
+        // gives the other node the time to report it as well, it should not
+        Thread.sleep(2 * MAX_IDLE);
+
+        assertEquals(1, firstListener.expiredSessions.size());
+        assertEquals(session.getId(), firstListener.expiredSessions.get(0));
+        assertEquals(0, secondListener.expiredSessions.size());
+        assertNull(firstStore.load(session.getId()));
+        assertNull(secondStore.load(session.getId()));
+    }
+
+    /**
+     * <p>
+     * Tests if a session is still reported when Infinispan purged its entry before the check of the node that wrote it.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpirationAfterPurge() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        InfinispanSessionStore firstStore = createStore(listener, MANUAL_INTERVAL);
+        InfinispanSessionStore secondStore = createStore(new RecordingListener(), MANUAL_INTERVAL);
+
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        firstStore.store(session);
+
+        Thread.sleep(MAX_IDLE + 200);
+
+        firstStore.getCache().getAdvancedCache().getDataContainer().purgeExpired();
+        secondStore.getCache().getAdvancedCache().getDataContainer().purgeExpired();
+
+        assertEquals(0, firstStore.getCache().getAdvancedCache().getDataContainer().size());
+        assertEquals(1, firstStore.expireSessions());
+        assertEquals(1, listener.expiredSessions.size());
+        assertEquals(0, firstStore.expireSessions());
+    }
+
+    /**
+     * <p>
+     * Tests if a session accessed on another node is reported by that node, and is not expired while it is accessed there.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testHandoverToWritingNode() throws Exception {
+        InfinispanSessionStore firstStore = createStore(new RecordingListener(), MANUAL_INTERVAL);
+        InfinispanSessionStore secondStore = createStore(new RecordingListener(), MANUAL_INTERVAL);
+
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        firstStore.store(session);
+
+        long end = System.currentTimeMillis() + 2 * MAX_IDLE;
+
+        while (System.currentTimeMillis() < end) {
+            PicketBoxSession replicatedSession = secondStore.load(session.getId());
+
+            replicatedSession.touch();
+            secondStore.touch(replicatedSession);
+
+            assertEquals(0, firstStore.expireSessions());
+            assertEquals(0, secondStore.expireSessions());
+
+            Thread.sleep(50);
+        }
+
+        Thread.sleep(MAX_IDLE + 100);
+
+        assertEquals(0, firstStore.expireSessions());
+        assertEquals(1, secondStore.expireSessions());
+    }
+
+    /**
+     * <p>
+     * Tests if a single node reports the sessions written by a node that left the cluster.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOrphanedSessions() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        InfinispanSessionStore firstStore = createStore(new RecordingListener(), MANUAL_INTERVAL);
+        InfinispanSessionStore secondStore = createStore(listener, 100);
+
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+        Serializable key = session.getId().getId();
+
+        assertTrue(firstStore.isPrimaryOwner(key) != secondStore.isPrimaryOwner(key));
+
+        firstStore.store(session);
+        firstStore.stop();
+
+        waitForExpiration(listener, 1, 5000);
+
+        // the remaining node took over
+        assertTrue(secondStore.isPrimaryOwner(key));
+        assertEquals(1, listener.expiredSessions.size());
+        assertEquals(session.getId(), listener.expiredSessions.get(0));
+    }
+
+    private InfinispanSessionStore createStore(ExpiringSessionStore.ExpirationListener listener, long expirationInterval) {
+        InfinispanSessionStore store = new InfinispanSessionStore();
+
+        store.setExpiration(MAX_IDLE, listener);
+        store.setExpirationInterval(expirationInterval);
+        store.start();
+
+        this.stores.add(store);
+
+        return store;
+    }
+
+    private void waitForExpiration(RecordingListener listener, int count, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+
+        while (listener.expiredSessions.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static class RecordingListener implements ExpiringSessionStore.ExpirationListener {
+
+        private final List<Object> expiredSessions = new CopyOnWriteArrayList<Object>();
+
+        @Override
+        public void sessionExpired(PicketBoxSession session) {
+            this.expiredSessions.add(session.getId());
+        }
+    }
+}
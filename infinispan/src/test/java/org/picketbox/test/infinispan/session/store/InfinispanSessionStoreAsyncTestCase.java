@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.infinispan.session.store;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.session.DefaultSessionId;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.infinispan.session.store.InfinispanSessionStore;
+
+/**
+ * <p>
+ * Tests the asynchronous writes and the near cache of the {@link InfinispanSessionStore}, using two cache nodes.
+ * </p>
+ *
+ */
+public class InfinispanSessionStoreAsyncTestCase {
+
+    private final List<InfinispanSessionStore> stores = new ArrayList<InfinispanSessionStore>();
+
+    @After
+    public void onFinish() {
+        for (InfinispanSessionStore store : this.stores) {
+            if (store.started()) {
+                store.stop();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if a session is visible on the writing node as soon as it is stored, and on the other node once the write
+     * completed.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPendingWriteVisibleToLoad() throws Exception {
+        InfinispanSessionStore firstStore = createStore(true, 0);
+        InfinispanSessionStore secondStore = createStore(true, 0);
+
+        PicketBoxSession session = createSession("value");
+
+        firstStore.store(session);
+
+        assertSame(session, firstStore.load(session.getId()));
+
+        firstStore.awaitPendingWrites();
+
+        assertEquals(0, firstStore.getPendingWrites());
+        assertEquals("value", secondStore.load(session.getId()).getApplicationStateAttributes("name"));
+    }
+
+    /**
+     * <p>
+     * Tests if a session being removed is no longer loaded on the writing node, even before the remove completed.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPendingRemoveHidesSession() throws Exception {
+        InfinispanSessionStore firstStore = createStore(true, 10);
+        InfinispanSessionStore secondStore = createStore(true, 0);
+
+        PicketBoxSession session = createSession("value");
+
+        firstStore.store(session);
+        firstStore.awaitPendingWrites();
+
+        assertNotNull(secondStore.load(session.getId()));
+
+        firstStore.remove(session.getId());
+
+        assertNull(firstStore.load(session.getId()));
+
+        firstStore.awaitPendingWrites();
+
+        assertNull(firstStore.load(session.getId()));
+        assertNull(secondStore.load(session.getId()));
+    }
+
+    /**
+     * <p>
+     * Tests if stopping a store waits for the writes in progress, so no session is lost.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAwaitPendingWritesOnStop() throws Exception {
+        InfinispanSessionStore firstStore = createStore(true, 0);
+        InfinispanSessionStore secondStore = createStore(false, 0);
+
+        List<PicketBoxSession> sessions = new ArrayList<PicketBoxSession>();
+
+        for (int i = 0; i < 200; i++) {
+            PicketBoxSession session = createSession("value" + i);
+
+            sessions.add(session);
+            firstStore.store(session);
+        }
+
+        firstStore.stop();
+
+        assertEquals(0, firstStore.getPendingWrites());
+
+        for (int i = 0; i < sessions.size(); i++) {
+            PicketBoxSession session = secondStore.load(sessions.get(i).getId());
+
+            assertNotNull(session);
+            assertEquals("value" + i, session.getApplicationStateAttributes("name"));
+        }
+    }
+
+    /**
+     * <p>
+     * Tests if the near cache of a node drops the sessions modified or removed by another node.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNearCacheInvalidation() throws Exception {
+        InfinispanSessionStore firstStore = createStore(false, 10);
+        InfinispanSessionStore secondStore = createStore(false, 10);
+
+        PicketBoxSession session = createSession("value");
+        Serializable key = session.getId().getId();
+
+        firstStore.store(session);
+
+        PicketBoxSession replicatedSession = secondStore.load(session.getId());
+
+        assertSame(replicatedSession, secondStore.getNearCache().get(key));
+        assertSame(replicatedSession, secondStore.load(session.getId()));
+
+        session.setApplicationStateAttributes("name", "changed");
+        firstStore.update(session);
+
+        assertNull(secondStore.getNearCache().get(key));
+        assertEquals("changed", secondStore.load(session.getId()).getApplicationStateAttributes("name"));
+        assertNotNull(secondStore.getNearCache().get(key));
+
+        firstStore.remove(session.getId());
+
+        assertNull(secondStore.getNearCache().get(key));
+        assertNull(secondStore.load(session.getId()));
+        assertEquals(0, secondStore.getNearCache().size());
+    }
+
+    private InfinispanSessionStore createStore(boolean asyncWrites, int nearCacheSize) {
+        InfinispanSessionStore store = new InfinispanSessionStore();
+
+        store.setAsyncWrites(asyncWrites);
+        store.setNearCacheSize(nearCacheSize);
+        store.start();
+
+        this.stores.add(store);
+
+        return store;
+    }
+
+    private PicketBoxSession createSession(String value) throws Exception {
+        PicketBoxSession session = new PicketBoxSession(new DefaultSessionId());
+
+        session.setApplicationStateAttributes("name", value);
+
+        return session;
+    }
+}